@@ -0,0 +1,91 @@
+package com.revistek.benchmarks;
+
+import com.google.protobuf.ByteString;
+import com.revistek.util.ChecksumAlgorithm;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares CRC32 and CRC32C over Cas-sized payloads, over a {@code byte[]}, over a direct {@link
+ * java.nio.ByteBuffer ByteBuffer}, and over a {@link com.google.protobuf.ByteString ByteString}
+ * through {@link com.revistek.util.ChecksumAlgorithm ChecksumAlgorithm} (what the store path does).
+ *
+ * @author Chuong Ngo
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChecksumBenchmark {
+  @Param({"1024", "65536", "1048576", "52428800"})
+  public int payloadSize;
+
+  private byte[] payload;
+  private ByteBuffer directPayload;
+  private ByteString byteStringPayload;
+
+  @Setup
+  public void setup() {
+    payload = new byte[payloadSize];
+    new Random(19L).nextBytes(payload);
+
+    directPayload = ByteBuffer.allocateDirect(payloadSize);
+    directPayload.put(payload).flip();
+    byteStringPayload = ByteString.copyFrom(payload);
+  }
+
+  @Benchmark
+  public long crc32Array() {
+    Checksum checksum = new CRC32();
+    checksum.update(payload, 0, payload.length);
+    return checksum.getValue();
+  }
+
+  @Benchmark
+  public long crc32cArray() {
+    Checksum checksum = new CRC32C();
+    checksum.update(payload, 0, payload.length);
+    return checksum.getValue();
+  }
+
+  @Benchmark
+  public long crc32DirectBuffer() {
+    CRC32 checksum = new CRC32();
+    checksum.update(directPayload.duplicate());
+    return checksum.getValue();
+  }
+
+  @Benchmark
+  public long crc32cDirectBuffer() {
+    CRC32C checksum = new CRC32C();
+    checksum.update(directPayload.duplicate());
+    return checksum.getValue();
+  }
+
+  @Benchmark
+  public long crc32ByteString() {
+    return ChecksumAlgorithm.CRC32.compute(byteStringPayload);
+  }
+
+  @Benchmark
+  public long crc32cByteString() {
+    return ChecksumAlgorithm.CRC32C.compute(byteStringPayload);
+  }
+}
@@ -0,0 +1,79 @@
+package com.revistek.benchmarks;
+
+import com.google.protobuf.ByteString;
+import com.revistek.crs.protos.Cas;
+import com.revistek.util.MongoDbRepositoryDao;
+import com.revistek.util.constants.MongoDbDocument;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.bson.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link com.revistek.util.MongoDbRepositoryDao#casToDocument(Cas) casToDocument} and
+ * {@link com.revistek.util.MongoDbRepositoryDao#documentToCas(Document) documentToCas}. The
+ * document that is converted back to a Cas has its data in the shape the MongoDB driver decodes
+ * it to.
+ *
+ * @author Chuong Ngo
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DocumentConversionBenchmark {
+  @Param({"1024", "65536", "1048576"})
+  public int payloadSize;
+
+  private Cas cas;
+  private Document decodedDocument;
+
+  @Setup
+  public void setup() {
+    byte[] payload = new byte[payloadSize];
+    new Random(19L).nextBytes(payload);
+
+    cas =
+        Cas.newBuilder()
+            .setCasId("1642204800000_4a0e2b8c-1f7e-4f4e-9d8a-2c9b1e0f3a6d_-1148943845")
+            .setDocumentId("docId")
+            .setCrc32Checksum(19L)
+            .setCasData(ByteString.copyFrom(payload))
+            .build();
+
+    ArrayList<Integer> bytes = new ArrayList<Integer>(payloadSize);
+    for (byte b : payload) {
+      bytes.add((int) b);
+    }
+
+    decodedDocument =
+        new Document()
+            .append(MongoDbDocument.CASID_FIELD_KEY, cas.getCasId())
+            .append(MongoDbDocument.DOCUMENTID_FIELD_KEY, cas.getDocumentId())
+            .append(MongoDbDocument.CRC32CHECKSUM_FIELD_KEY, cas.getCrc32Checksum())
+            .append(MongoDbDocument.CASDATA_FIELD_KEY, bytes);
+  }
+
+  @Benchmark
+  public Document casToDocument() throws Exception {
+    return MongoDbRepositoryDao.casToDocument(cas);
+  }
+
+  @Benchmark
+  public Cas documentToCas() throws Exception {
+    return MongoDbRepositoryDao.documentToCas(decodedDocument);
+  }
+}
@@ -0,0 +1,70 @@
+package com.revistek.benchmarks;
+
+import com.revistek.util.CacheDao;
+import com.revistek.util.IdGenerator;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link com.revistek.util.IdGenerator#uniqueId() uniqueId} and {@link
+ * com.revistek.util.IdGenerator#refreshAndGetUniqueId() refreshAndGetUniqueId} against a stub cache
+ * that answers immediately, so only the ID construction itself is measured.
+ *
+ * @author Chuong Ngo
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IdGeneratorBenchmark {
+  private IdGenerator idGenerator;
+
+  @Setup
+  public void setup() {
+    idGenerator = IdGenerator.newBuilder().cacheDao(new StubCacheDao()).build();
+  }
+
+  @Benchmark
+  public String uniqueId() {
+    return idGenerator.uniqueId();
+  }
+
+  @Benchmark
+  public String refreshAndGetUniqueId() {
+    return idGenerator.refreshAndGetUniqueId();
+  }
+
+  /** A cache that holds nothing and never fails. */
+  private static class StubCacheDao implements CacheDao {
+    @Override
+    public void set(String key, String value, int timeoutInSecs) {}
+
+    @Override
+    public boolean exists(String key) {
+      return false;
+    }
+
+    @Override
+    public String get(String key) {
+      return null;
+    }
+
+    @Override
+    public Map<String, String> getMap(String key) {
+      return Collections.emptyMap();
+    }
+  }
+}
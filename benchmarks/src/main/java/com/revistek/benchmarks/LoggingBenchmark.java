@@ -0,0 +1,62 @@
+package com.revistek.benchmarks;
+
+import com.revistek.util.ErrorLog;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures the log statements of the request paths while logging is disabled. The benchmarks have
+ * no SLF4J binding, so every logger is disabled. Run it with {@code -prof gc}: the parameterized,
+ * guarded, and error log forms should show a {@code gc.alloc.rate.norm} of 0 bytes per operation,
+ * while the concatenated form pays for its string on every call.
+ *
+ * @author Chuong Ngo
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoggingBenchmark {
+  private static final Logger LOGGER = LoggerFactory.getLogger(LoggingBenchmark.class);
+  private static final ErrorLog ERROR_LOG =
+      ErrorLog.getErrorLog(LoggingBenchmark.class, "benchmark.error");
+
+  private final String casId = "1642000000000_" + System.nanoTime();
+  private final String documentId = "document" + System.nanoTime();
+  private final Exception cause = new IllegalStateException();
+  private int count = 1000;
+
+  @Benchmark
+  public void concatenated() {
+    LOGGER.trace("Storing the Cas: " + casId + " for document: " + documentId + ".");
+  }
+
+  @Benchmark
+  public void parameterized() {
+    LOGGER.trace("Storing the Cas: {} for document: {}.", casId, documentId);
+  }
+
+  @Benchmark
+  public void guarded() {
+    if (LOGGER.isTraceEnabled()) {
+      LOGGER.trace("Stored {} chunks. {} were not stored before.", count, count);
+    }
+  }
+
+  @Benchmark
+  public void errorLog() {
+    ERROR_LOG.error("There was an error retrieving the Cas.", "casId", casId, cause);
+  }
+}
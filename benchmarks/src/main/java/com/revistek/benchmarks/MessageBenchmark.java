@@ -0,0 +1,95 @@
+package com.revistek.benchmarks;
+
+import com.google.protobuf.ByteString;
+import com.revistek.crs.protos.Cas;
+import com.revistek.crs.protos.Message;
+import com.revistek.crs.protos.constants.MessageCodes;
+import com.revistek.crs.protos.constants.ProtobufMessages;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures parsing and serializing the protobuf {@link com.revistek.crs.protos.Message Message}
+ * in the shapes used by {@code /rest/store} requests and {@code /rest/get} responses.
+ *
+ * @author Chuong Ngo
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageBenchmark {
+  @Param({"1024", "65536", "1048576"})
+  public int payloadSize;
+
+  private Message storeRequest;
+  private Message getResponse;
+  private byte[] storeRequestBytes;
+  private byte[] getResponseBytes;
+
+  @Setup
+  public void setup() {
+    byte[] payload = new byte[payloadSize];
+    new Random(19L).nextBytes(payload);
+    ByteString data = ByteString.copyFrom(payload);
+
+    storeRequest =
+        Message.newBuilder()
+            .setCas(
+                Cas.newBuilder()
+                    .setDocumentId("docId")
+                    .setCrc32Checksum(19L)
+                    .setCasData(data)
+                    .build())
+            .setMetadataQueryKey("preprocessor")
+            .build();
+    getResponse =
+        Message.newBuilder()
+            .setStatusCode(MessageCodes.OK)
+            .setMessage(ProtobufMessages.CAS_GET_SUCCESS)
+            .setCas(
+                Cas.newBuilder()
+                    .setCasId("1642204800000_4a0e2b8c-1f7e-4f4e-9d8a-2c9b1e0f3a6d_-1148943845")
+                    .setDocumentId("docId")
+                    .setCrc32Checksum(19L)
+                    .setCasData(data)
+                    .build())
+            .build();
+
+    storeRequestBytes = storeRequest.toByteArray();
+    getResponseBytes = getResponse.toByteArray();
+  }
+
+  @Benchmark
+  public Message parseStoreRequest() throws Exception {
+    return Message.parseFrom(storeRequestBytes);
+  }
+
+  @Benchmark
+  public byte[] serializeStoreRequest() {
+    return storeRequest.toByteArray();
+  }
+
+  @Benchmark
+  public Message parseGetResponse() throws Exception {
+    return Message.parseFrom(getResponseBytes);
+  }
+
+  @Benchmark
+  public byte[] serializeGetResponse() {
+    return getResponse.toByteArray();
+  }
+}
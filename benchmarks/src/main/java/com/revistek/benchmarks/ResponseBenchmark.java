@@ -0,0 +1,66 @@
+package com.revistek.benchmarks;
+
+import com.revistek.crs.protos.Cas;
+import com.revistek.crs.protos.Message;
+import com.revistek.crs.protos.constants.MessageCodes;
+import com.revistek.crs.protos.constants.MessageExceptions;
+import com.revistek.crs.protos.constants.ProtobufMessages;
+import com.revistek.web.CachedResponses;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares building and serializing the error answers of the endpoints per request with the
+ * {@link com.revistek.web.CachedResponses cached} answers: the constant answer to an invalid
+ * message and a failed delete, which carries the Cas ID.
+ *
+ * @author Chuong Ngo
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResponseBenchmark {
+  private final String casId = "1642204800000_4a0e2b8c-1f7e-4f4e-9d8a-2c9b1e0f3a6d_-1148943845";
+
+  @Benchmark
+  public byte[] builtInvalidMessage() {
+    return Message.newBuilder()
+        .setStatusCode(MessageCodes.INVALID_MESSAGE)
+        .setExceptionType(MessageExceptions.ILLEGAL_ARGUMENT)
+        .setMessage(ProtobufMessages.INVALID_MESSAGE)
+        .build()
+        .toByteArray();
+  }
+
+  @Benchmark
+  public byte[] cachedInvalidMessage() {
+    return CachedResponses.toByteArray(CachedResponses.INVALID_MESSAGE);
+  }
+
+  @Benchmark
+  public byte[] builtDeleteFailed() {
+    return Message.newBuilder()
+        .setStatusCode(MessageCodes.INTERNAL_SERVER_ERROR)
+        .setExceptionType(MessageExceptions.GENERAL_EXCEPTION)
+        .setMessage(ProtobufMessages.CAS_DELETE_FAILED)
+        .setCas(Cas.newBuilder().setCasId(casId).build())
+        .build()
+        .toByteArray();
+  }
+
+  @Benchmark
+  public byte[] cachedDeleteFailed() {
+    return CachedResponses.toByteArray(CachedResponses.DELETE_FAILED, casId);
+  }
+}
@@ -0,0 +1,22 @@
+package com.revistek.exceptions;
+
+/** An exception for when a Cas could not be read ahead of its reader. */
+public class PrefetchFailedException extends Exception {
+  public static final long serialVersionUID = 1L;
+
+  private final String casId;
+
+  public PrefetchFailedException(String casId, Throwable cause) {
+    super(cause);
+    this.casId = casId;
+  }
+
+  /**
+   * Returns the Cas ID of the Cas that could not be read.
+   *
+   * @return the Cas ID.
+   */
+  public String getCasId() {
+    return casId;
+  }
+}
@@ -0,0 +1,282 @@
+package com.revistek.util;
+
+import com.revistek.util.constants.ErrorMessages;
+import com.revistek.util.constants.MetricNames;
+import io.micrometer.core.instrument.Counter;
+
+/**
+ * Decides whether a request is let through to the databases or turned away at once. Two limits
+ * apply: the bytes of the requests in flight, which bounds the memory held by payloads waiting on
+ * the databases, and the number of requests in flight, which bounds the load put on the databases.
+ *
+ * <p>The concurrency limit is not fixed. It follows the latency of the admitted requests: while the
+ * recent latency stays close to the long-term latency, the limit grows by a small queue allowance;
+ * when the recent latency rises (i.e., requests are queueing in the databases), the limit shrinks
+ * in proportion. A request that failed in the databases cuts the limit by a tenth instead, since
+ * failures under load are usually timeouts; a request rejected for its own content leaves the
+ * limit alone. Turning requests away early keeps the latency of the admitted ones low instead of
+ * letting every request slow down together.
+ *
+ * <p>A request whose payload alone is bigger than the byte limit is still admitted when nothing
+ * else is in flight, so that it is not turned away forever.
+ *
+ * @author Chuong Ngo
+ */
+public class AdmissionController {
+  public static final int STATUS_TOO_MANY_REQUESTS = 429;
+  public static final String OVERLOADED_EXCEPTION = "OverloadedException";
+  public static final long DEFAULT_MAX_IN_FLIGHT_BYTES = 256L * 1024 * 1024;
+  public static final int DEFAULT_INITIAL_LIMIT = 20;
+  public static final int DEFAULT_MIN_LIMIT = 2;
+  public static final int DEFAULT_MAX_LIMIT = 200;
+
+  private static final double SMOOTHING = 0.2;
+  private static final double MIN_GRADIENT = 0.5;
+  // A failure cuts the limit by a tenth.
+  private static final double BACKOFF_RATIO = 0.9;
+  private static final int SHORT_WINDOW = 10;
+  private static final int LONG_WINDOW = 600;
+  private static final int QUEUE_ALLOWANCE = 4;
+
+  private final Counter concurrencyRejections;
+  private final Counter bytesRejections;
+  private long maxInFlightBytes;
+  private int minLimit;
+  private int maxLimit;
+  private double limit;
+  private int inFlight;
+  private long inFlightBytes;
+  private double shortRttNanos;
+  private double longRttNanos;
+
+  private AdmissionController(String name) {
+    concurrencyRejections =
+        ServiceMetrics.counter(
+            MetricNames.ADMISSION_REJECTED,
+            MetricNames.TAG_ENDPOINT,
+            name,
+            MetricNames.TAG_REASON,
+            MetricNames.REASON_CONCURRENCY);
+    bytesRejections =
+        ServiceMetrics.counter(
+            MetricNames.ADMISSION_REJECTED,
+            MetricNames.TAG_ENDPOINT,
+            name,
+            MetricNames.TAG_REASON,
+            MetricNames.REASON_BYTES);
+    ServiceMetrics.gauge(
+        MetricNames.ADMISSION_LIMIT,
+        this,
+        AdmissionController::getLimit,
+        MetricNames.TAG_ENDPOINT,
+        name);
+    ServiceMetrics.gauge(
+        MetricNames.ADMISSION_IN_FLIGHT,
+        this,
+        AdmissionController::getInFlight,
+        MetricNames.TAG_ENDPOINT,
+        name);
+  }
+
+  /**
+   * Admits a request if both limits allow it.
+   *
+   * @param bytes the size of the request payload.
+   * @return the permit of the admitted request, which must be released when the request is done,
+   *     or null if the request is turned away.
+   */
+  public Permit tryAcquire(long bytes) {
+    synchronized (this) {
+      if (inFlight >= (int) limit) {
+        concurrencyRejections.increment();
+        return null;
+      }
+
+      if ((inFlight > 0) && (inFlightBytes + bytes > maxInFlightBytes)) {
+        bytesRejections.increment();
+        return null;
+      }
+
+      inFlight++;
+      inFlightBytes += bytes;
+
+      return new Permit(bytes, inFlight);
+    }
+  }
+
+  /**
+   * Estimates how long a turned away caller should wait before retrying: a couple of long-term
+   * latencies, which is about how long the requests in flight take to drain.
+   *
+   * @return the wait, in whole seconds. It is at least 1.
+   */
+  public synchronized int getRetryAfterSecs() {
+    return (int) Math.max(1L, (long) Math.ceil((2.0 * longRttNanos) / 1_000_000_000.0));
+  }
+
+  public synchronized int getLimit() {
+    return (int) limit;
+  }
+
+  public synchronized int getInFlight() {
+    return inFlight;
+  }
+
+  public synchronized long getInFlightBytes() {
+    return inFlightBytes;
+  }
+
+  /**
+   * Updates the concurrency limit with the outcome of a request.
+   *
+   * @param rttNanos how long the request took.
+   * @param inFlightAtStart the number of requests in flight when the request was admitted, itself
+   *     included.
+   * @param dropped whether the request failed.
+   */
+  synchronized void onSample(long rttNanos, int inFlightAtStart, boolean dropped) {
+    if (dropped) {
+      limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+      return;
+    }
+
+    if (longRttNanos == 0.0) {
+      shortRttNanos = rttNanos;
+      longRttNanos = rttNanos;
+    } else {
+      shortRttNanos += (rttNanos - shortRttNanos) / SHORT_WINDOW;
+      longRttNanos += (rttNanos - longRttNanos) / LONG_WINDOW;
+    }
+
+    // After a long spell of high latency, let the long-term latency come back down quickly so that
+    // the limit is not held high by the old, slow samples.
+    if (longRttNanos > 2.0 * shortRttNanos) {
+      longRttNanos *= 0.95;
+    }
+
+    // The limit cannot be judged when it is not being used.
+    if (inFlightAtStart < limit / 2) {
+      return;
+    }
+
+    double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, longRttNanos / shortRttNanos));
+    double newLimit = (limit * gradient) + QUEUE_ALLOWANCE;
+    limit = (limit * (1.0 - SMOOTHING)) + (newLimit * SMOOTHING);
+    limit = Math.max(minLimit, Math.min(maxLimit, limit));
+  }
+
+  private synchronized void release(Permit permit) {
+    inFlight--;
+    inFlightBytes -= permit.bytes;
+  }
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  /**
+   * An admitted request. Exactly one of {@link #onSuccess()}, {@link #onDropped()}, and {@link
+   * #onIgnore()} must be called when the request is done.
+   */
+  public final class Permit {
+    private final long bytes;
+    private final int inFlightAtStart;
+    private final long start = System.nanoTime();
+    private boolean released;
+
+    private Permit(long bytes, int inFlightAtStart) {
+      this.bytes = bytes;
+      this.inFlightAtStart = inFlightAtStart;
+    }
+
+    /** Releases the permit of a request that completed, and learns from its latency. */
+    public void onSuccess() {
+      if (release()) {
+        onSample(System.nanoTime() - start, inFlightAtStart, false);
+      }
+    }
+
+    /** Releases the permit of a request that failed in the databases, and backs off. */
+    public void onDropped() {
+      if (release()) {
+        onSample(System.nanoTime() - start, inFlightAtStart, true);
+      }
+    }
+
+    /** Releases the permit of a request that says nothing about the load (e.g., it was invalid). */
+    public void onIgnore() {
+      release();
+    }
+
+    private boolean release() {
+      if (released) {
+        return false;
+      }
+
+      released = true;
+      AdmissionController.this.release(this);
+
+      return true;
+    }
+  }
+
+  public static class Builder {
+    private String name;
+    private long maxInFlightBytes = DEFAULT_MAX_IN_FLIGHT_BYTES;
+    private int initialLimit = DEFAULT_INITIAL_LIMIT;
+    private int minLimit = DEFAULT_MIN_LIMIT;
+    private int maxLimit = DEFAULT_MAX_LIMIT;
+
+    /**
+     * Sets the name that the metrics of the controller are tagged with.
+     *
+     * @param name the name of the endpoint that the controller guards.
+     * @return this builder.
+     */
+    public Builder name(String name) {
+      this.name = name;
+      return this;
+    }
+
+    public Builder maxInFlightBytes(long maxInFlightBytes) {
+      this.maxInFlightBytes = maxInFlightBytes;
+      return this;
+    }
+
+    public Builder initialLimit(int initialLimit) {
+      this.initialLimit = initialLimit;
+      return this;
+    }
+
+    public Builder minLimit(int minLimit) {
+      this.minLimit = minLimit;
+      return this;
+    }
+
+    public Builder maxLimit(int maxLimit) {
+      this.maxLimit = maxLimit;
+      return this;
+    }
+
+    public AdmissionController build() throws IllegalArgumentException {
+      if (name == null) {
+        throw new IllegalArgumentException(ErrorMessages.REQUIRED_ARGUMENT_IS_NULL);
+      }
+
+      if ((maxInFlightBytes <= 0)
+          || (minLimit <= 0)
+          || (minLimit > initialLimit)
+          || (initialLimit > maxLimit)) {
+        throw new IllegalArgumentException(ErrorMessages.INVALID_ADMISSION_SETTINGS);
+      }
+
+      AdmissionController controller = new AdmissionController(name);
+      controller.maxInFlightBytes = maxInFlightBytes;
+      controller.minLimit = minLimit;
+      controller.maxLimit = maxLimit;
+      controller.limit = initialLimit;
+
+      return controller;
+    }
+  }
+}
@@ -0,0 +1,229 @@
+package com.revistek.util;
+
+import io.micrometer.core.instrument.Counter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+/**
+ * A concurrent map that is bounded by the bytes of its values. The keys are spread over stripes,
+ * each with its own lock and an equal share of the byte budget. When a stripe is over its share,
+ * its oldest entries are evicted. Entries may also expire; expired entries are dropped when they
+ * are read or evicted.
+ *
+ * @author Chuong Ngo
+ */
+final class BoundedStripedMap<K, V> {
+  static final int DEFAULT_STRIPES = 16;
+
+  private final Stripe<K, V>[] stripes;
+  private final LongSupplier clock;
+  private final Counter evictions;
+
+  /**
+   * Creates a new map.
+   *
+   * @param stripeCount the number of stripes.
+   * @param maxBytes the byte budget of the whole map.
+   * @param clock the clock that expiry times are compared to, in milliseconds.
+   * @param evictions the counter of evicted entries.
+   */
+  @SuppressWarnings("unchecked")
+  BoundedStripedMap(int stripeCount, long maxBytes, LongSupplier clock, Counter evictions) {
+    if ((stripeCount <= 0) || (maxBytes <= 0)) {
+      throw new IllegalArgumentException("A bounded map needs stripes and a byte budget.");
+    }
+
+    stripes = new Stripe[stripeCount];
+
+    for (int i = 0; i < stripeCount; i++) {
+      stripes[i] = new Stripe<K, V>(Math.max(1L, maxBytes / stripeCount));
+    }
+
+    this.clock = clock;
+    this.evictions = evictions;
+  }
+
+  /**
+   * Returns the value of a key.
+   *
+   * @param key the key to look up.
+   * @return the value, or null if the key is missing or has expired.
+   */
+  V get(K key) {
+    Stripe<K, V> stripe = stripeOf(key);
+
+    synchronized (stripe) {
+      Entry<V> entry = stripe.entries.get(key);
+
+      if (entry == null) {
+        return null;
+      }
+
+      if (entry.isExpired(clock.getAsLong())) {
+        stripe.remove(key);
+        return null;
+      }
+
+      return entry.value;
+    }
+  }
+
+  boolean containsKey(K key) {
+    return (get(key) != null);
+  }
+
+  /**
+   * Adds or replaces a value, making it the newest entry of its stripe.
+   *
+   * @param key the key of the value.
+   * @param value the value.
+   * @param bytes the size charged to the byte budget for the entry.
+   * @param timeToLiveInMillis how long the entry lives, or 0 or less to keep it until evicted.
+   */
+  void put(K key, V value, long bytes, long timeToLiveInMillis) {
+    long expiresAt = (timeToLiveInMillis > 0) ? (clock.getAsLong() + timeToLiveInMillis) : 0L;
+    Stripe<K, V> stripe = stripeOf(key);
+    int evicted;
+
+    synchronized (stripe) {
+      stripe.remove(key);
+      stripe.entries.put(key, new Entry<V>(value, bytes, expiresAt));
+      stripe.bytes += bytes;
+      evicted = stripe.evict();
+    }
+
+    if (evicted > 0) {
+      evictions.increment(evicted);
+    }
+  }
+
+  /**
+   * Removes a key.
+   *
+   * @param key the key to remove.
+   * @return the removed value, or null if the key was missing.
+   */
+  V remove(K key) {
+    Stripe<K, V> stripe = stripeOf(key);
+
+    synchronized (stripe) {
+      Entry<V> entry = stripe.remove(key);
+      return (entry == null) ? null : entry.value;
+    }
+  }
+
+  /**
+   * Returns the keys of the entries whose values match a filter. Each stripe is scanned under its
+   * lock, so the result is not a snapshot of the whole map.
+   *
+   * @param filter the filter of the values.
+   * @return the matching keys of the entries that have not expired.
+   */
+  List<K> keysMatching(Predicate<V> filter) {
+    List<K> keys = new ArrayList<K>();
+    long now = clock.getAsLong();
+
+    for (Stripe<K, V> stripe : stripes) {
+      synchronized (stripe) {
+        for (Map.Entry<K, Entry<V>> entry : stripe.entries.entrySet()) {
+          if (!entry.getValue().isExpired(now) && filter.test(entry.getValue().value)) {
+            keys.add(entry.getKey());
+          }
+        }
+      }
+    }
+
+    return keys;
+  }
+
+  long bytes() {
+    long bytes = 0;
+
+    for (Stripe<K, V> stripe : stripes) {
+      synchronized (stripe) {
+        bytes += stripe.bytes;
+      }
+    }
+
+    return bytes;
+  }
+
+  int size() {
+    int size = 0;
+
+    for (Stripe<K, V> stripe : stripes) {
+      synchronized (stripe) {
+        size += stripe.entries.size();
+      }
+    }
+
+    return size;
+  }
+
+  private Stripe<K, V> stripeOf(K key) {
+    int hash = key.hashCode() * 0x9E3779B9;
+    return stripes[((hash ^ (hash >>> 16)) & 0x7FFFFFFF) % stripes.length];
+  }
+
+  /** A stripe of the map. Its fields are guarded by its own lock. */
+  private static final class Stripe<K, V> {
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<K, Entry<V>>();
+    private final long maxBytes;
+    private long bytes;
+
+    private Stripe(long maxBytes) {
+      this.maxBytes = maxBytes;
+    }
+
+    private Entry<V> remove(K key) {
+      Entry<V> entry = entries.remove(key);
+
+      if (entry != null) {
+        bytes -= entry.bytes;
+      }
+
+      return entry;
+    }
+
+    /**
+     * Evicts the oldest entries until the stripe is within its budget. The newest entry is always
+     * kept, even if it is larger than the budget on its own.
+     *
+     * @return the number of evicted entries.
+     */
+    private int evict() {
+      int evicted = 0;
+      Iterator<Map.Entry<K, Entry<V>>> oldest = entries.entrySet().iterator();
+
+      while ((bytes > maxBytes) && (entries.size() > 1)) {
+        bytes -= oldest.next().getValue().bytes;
+        oldest.remove();
+        evicted++;
+      }
+
+      return evicted;
+    }
+  }
+
+  /** A value with its size and expiry time. */
+  private static final class Entry<V> {
+    private final V value;
+    private final long bytes;
+    private final long expiresAt;
+
+    private Entry(V value, long bytes, long expiresAt) {
+      this.value = value;
+      this.bytes = bytes;
+      this.expiresAt = expiresAt;
+    }
+
+    private boolean isExpired(long now) {
+      return (expiresAt > 0) && (now >= expiresAt);
+    }
+  }
+}
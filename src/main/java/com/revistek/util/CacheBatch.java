@@ -0,0 +1,56 @@
+package com.revistek.util;
+
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * A batch of cache commands that are sent together. The values returned when queuing a command
+ * are only available after {@link #execute()} has been called.
+ *
+ * @author Chuong Ngo
+ */
+public interface CacheBatch extends AutoCloseable {
+  /**
+   * Queues the caching of a string value.
+   *
+   * @param key the string to associate the value to.
+   * @param value the value to cache.
+   * @param timeoutInSecs how long the value should stay valid, in seconds.
+   */
+  public void set(String key, String value, int timeoutInSecs);
+
+  /**
+   * Queues an existence check.
+   *
+   * @param key the key that is being queried.
+   * @return The deferred result of the check.
+   */
+  public Supplier<Boolean> exists(String key);
+
+  /**
+   * Queues a lookup.
+   *
+   * @param key the key that is being queried.
+   * @return The deferred value associated with the key.
+   */
+  public Supplier<String> get(String key);
+
+  /**
+   * Queues a map lookup.
+   *
+   * @param key the key that is being queried.
+   * @return The deferred map associated with the key.
+   */
+  public Supplier<Map<String, String>> getMap(String key);
+
+  /**
+   * Sends the queued commands to the cache and waits for all of the replies.
+   *
+   * @throws Exception there was a problem communicating with the cache.
+   */
+  public void execute() throws Exception;
+
+  /** Releases any resources held by the batch. */
+  @Override
+  public default void close() {}
+}
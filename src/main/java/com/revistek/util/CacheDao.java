@@ -49,4 +49,15 @@ public interface CacheDao {
    * @return The map associated with the key.
    */
   public Map<String, String> getMap(String key);
+
+  /**
+   * Starts a new batch of commands. The commands are queued until {@link CacheBatch#execute()} is
+   * called so that the whole batch can be sent in as few round trips as the cache allows. The
+   * default implementation executes each command as it is queued.
+   *
+   * @return A new {@link com.revistek.util.CacheBatch CacheBatch}.
+   */
+  public default CacheBatch newBatch() {
+    return new SequentialCacheBatch(this);
+  }
 }
@@ -0,0 +1,199 @@
+package com.revistek.util;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Encodes a byte array as the differences from another: copies of ranges of the base and literal
+ * bytes that the base does not have.
+ *
+ * <p>The base is split into fixed-size blocks that are indexed by their hash. The target is scanned
+ * with a rolling hash of the same size, so a block of the base is found wherever it is in the
+ * target, not only at block boundaries. A match is then extended byte by byte in both directions.
+ * Annotation layers added to a serialized Cas leave most of it unchanged, so the delta is mostly a
+ * few long copies.
+ *
+ * @author Chuong Ngo
+ */
+final class CasDelta {
+  static final int BLOCK_SIZE = 32;
+
+  private static final int HASH_MULTIPLIER = 31;
+  private static final byte OP_COPY = 1;
+  private static final byte OP_INSERT = 2;
+
+  private CasDelta() {}
+
+  /**
+   * Writes the operations that turn the base into the target.
+   *
+   * @param base the bytes to copy from.
+   * @param target the bytes to encode.
+   * @param output where to write the operations.
+   * @throws IOException the operations could not be written.
+   */
+  static void encode(byte[] base, byte[] target, CodedOutputStream output) throws IOException {
+    Map<Integer, Integer> blocks = index(base);
+    int highestPower = power(BLOCK_SIZE - 1);
+    int literalStart = 0;
+    int position = 0;
+    int hash = (target.length >= BLOCK_SIZE) ? hash(target, 0) : 0;
+
+    while ((position + BLOCK_SIZE) <= target.length) {
+      Integer offset = blocks.get(hash);
+
+      if ((offset != null) && matches(base, offset, target, position)) {
+        int start = position;
+        int baseStart = offset;
+
+        while ((start > literalStart)
+            && (baseStart > 0)
+            && (target[start - 1] == base[baseStart - 1])) {
+          start--;
+          baseStart--;
+        }
+
+        int end = position + BLOCK_SIZE;
+        int baseEnd = offset + BLOCK_SIZE;
+
+        while ((end < target.length) && (baseEnd < base.length) && (target[end] == base[baseEnd])) {
+          end++;
+          baseEnd++;
+        }
+
+        writeInsert(output, target, literalStart, start - literalStart);
+        output.writeRawByte(OP_COPY);
+        output.writeUInt32NoTag(baseStart);
+        output.writeUInt32NoTag(end - start);
+
+        position = end;
+        literalStart = end;
+
+        if ((position + BLOCK_SIZE) <= target.length) {
+          hash = hash(target, position);
+        }
+
+        continue;
+      }
+
+      if ((position + BLOCK_SIZE) < target.length) {
+        hash =
+            ((hash - ((target[position] & 0xFF) * highestPower)) * HASH_MULTIPLIER)
+                + (target[position + BLOCK_SIZE] & 0xFF);
+      }
+
+      position++;
+    }
+
+    writeInsert(output, target, literalStart, target.length - literalStart);
+  }
+
+  /**
+   * Rebuilds the target from the base and the operations.
+   *
+   * @param base the bytes to copy from.
+   * @param input the operations, up to the end of the input.
+   * @param length the length of the target.
+   * @return the target.
+   * @throws IOException the operations are corrupted or do not fit the base.
+   */
+  static byte[] apply(byte[] base, CodedInputStream input, int length) throws IOException {
+    byte[] target = new byte[length];
+    int position = 0;
+
+    while (!input.isAtEnd()) {
+      byte op = input.readRawByte();
+
+      if (op == OP_COPY) {
+        int offset = input.readUInt32();
+        int copyLength = input.readUInt32();
+
+        if ((offset < 0)
+            || (copyLength < 0)
+            || (offset > (base.length - copyLength))
+            || (position > (length - copyLength))) {
+          throw new IOException("A copy is out of the bounds of the base or the target.");
+        }
+
+        System.arraycopy(base, offset, target, position, copyLength);
+        position += copyLength;
+      } else if (op == OP_INSERT) {
+        int insertLength = input.readUInt32();
+
+        if ((insertLength < 0) || (position > (length - insertLength))) {
+          throw new IOException("An insert is out of the bounds of the target.");
+        }
+
+        byte[] literal = input.readRawBytes(insertLength);
+        System.arraycopy(literal, 0, target, position, insertLength);
+        position += insertLength;
+      } else {
+        throw new IOException("Unknown delta operation: " + op);
+      }
+    }
+
+    if (position != length) {
+      throw new IOException("The delta is shorter than the target.");
+    }
+
+    return target;
+  }
+
+  /**
+   * Indexes the blocks of the base by their hash. Of the blocks with the same hash, the first is
+   * kept.
+   */
+  private static Map<Integer, Integer> index(byte[] base) {
+    Map<Integer, Integer> blocks = new HashMap<Integer, Integer>((base.length / BLOCK_SIZE) * 2);
+
+    for (int offset = 0; (offset + BLOCK_SIZE) <= base.length; offset += BLOCK_SIZE) {
+      blocks.putIfAbsent(hash(base, offset), offset);
+    }
+
+    return blocks;
+  }
+
+  private static int hash(byte[] data, int offset) {
+    int hash = 0;
+
+    for (int i = offset; i < (offset + BLOCK_SIZE); i++) {
+      hash = (hash * HASH_MULTIPLIER) + (data[i] & 0xFF);
+    }
+
+    return hash;
+  }
+
+  private static int power(int exponent) {
+    int power = 1;
+
+    for (int i = 0; i < exponent; i++) {
+      power *= HASH_MULTIPLIER;
+    }
+
+    return power;
+  }
+
+  private static boolean matches(byte[] base, int baseOffset, byte[] target, int targetOffset) {
+    for (int i = 0; i < BLOCK_SIZE; i++) {
+      if (base[baseOffset + i] != target[targetOffset + i]) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private static void writeInsert(CodedOutputStream output, byte[] target, int offset, int length)
+      throws IOException {
+    if (length == 0) {
+      return;
+    }
+
+    output.writeRawByte(OP_INSERT);
+    output.writeUInt32NoTag(length);
+    output.writeRawBytes(target, offset, length);
+  }
+}
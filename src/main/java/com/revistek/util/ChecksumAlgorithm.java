@@ -0,0 +1,95 @@
+package com.revistek.util;
+
+import com.google.protobuf.ByteString;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+/**
+ * The checksum algorithms accepted for Cas data. CRC32 is what the original clients send. CRC32C
+ * is intrinsified on modern x86 and ARM CPUs and is several times faster on large payloads.
+ *
+ * <p>Checksums are computed directly over the read-only buffers backing a {@link
+ * com.google.protobuf.ByteString ByteString}, so the Cas data is never copied.
+ *
+ * @author Chuong Ngo
+ */
+public enum ChecksumAlgorithm {
+  CRC32 {
+    @Override
+    public Checksum newChecksum() {
+      return new CRC32();
+    }
+  },
+  CRC32C {
+    @Override
+    public Checksum newChecksum() {
+      return new CRC32C();
+    }
+  };
+
+  /**
+   * Creates a new, empty checksum of this algorithm.
+   *
+   * @return the new {@link java.util.zip.Checksum Checksum}.
+   */
+  public abstract Checksum newChecksum();
+
+  /**
+   * Computes the checksum of the data without copying it.
+   *
+   * @param data the data to checksum.
+   * @return the checksum value.
+   */
+  public long compute(ByteString data) {
+    Checksum checksum = newChecksum();
+
+    for (ByteBuffer buffer : data.asReadOnlyByteBufferList()) {
+      checksum.update(buffer);
+    }
+
+    return checksum.getValue();
+  }
+
+  /**
+   * Finds the algorithm that the checksum sent with the data was computed with. The preferred
+   * algorithm is tried first, so in the common case only one checksum is computed.
+   *
+   * @param data the data to checksum.
+   * @param expected the checksum sent with the data.
+   * @param preferred the algorithm to try first.
+   * @return the matching algorithm, or null if the data does not match the checksum with any of
+   *     the algorithms.
+   */
+  public static ChecksumAlgorithm match(
+      ByteString data, long expected, ChecksumAlgorithm preferred) {
+    if (preferred.compute(data) == expected) {
+      return preferred;
+    }
+
+    for (ChecksumAlgorithm algorithm : values()) {
+      if ((algorithm != preferred) && (algorithm.compute(data) == expected)) {
+        return algorithm;
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Looks up an algorithm by name. Repository entries written before the algorithm was recorded
+   * have no name and use CRC32.
+   *
+   * @param name the name of the algorithm, or null.
+   * @return the algorithm.
+   * @throws IllegalArgumentException the name is not a known algorithm.
+   */
+  public static ChecksumAlgorithm fromName(String name) {
+    if (name == null) {
+      return CRC32;
+    }
+
+    return valueOf(name);
+  }
+}
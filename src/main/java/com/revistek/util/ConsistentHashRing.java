@@ -0,0 +1,135 @@
+package com.revistek.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * An immutable consistent hash ring. Every node is placed on the ring at several points (virtual
+ * nodes) so that the keys are spread evenly, and adding a node only moves the keys that the new
+ * node takes over.
+ *
+ * <p>The ring is held in two parallel primitive arrays sorted by point, so a lookup is a binary
+ * search without any boxing.
+ *
+ * @author Chuong Ngo
+ */
+public final class ConsistentHashRing {
+  public static final int DEFAULT_VIRTUAL_NODES = 128;
+
+  private final Set<String> nodes;
+  private final int virtualNodes;
+  private final long[] points;
+  private final String[] owners;
+
+  /**
+   * Creates a new ring.
+   *
+   * @param nodes the names of the nodes.
+   * @param virtualNodes the number of points per node.
+   */
+  public ConsistentHashRing(Collection<String> nodes, int virtualNodes) {
+    if (nodes.isEmpty() || (virtualNodes <= 0)) {
+      throw new IllegalArgumentException("A hash ring needs nodes and virtual nodes.");
+    }
+
+    this.nodes = Collections.unmodifiableSet(new LinkedHashSet<String>(nodes));
+    this.virtualNodes = virtualNodes;
+
+    List<long[]> entries = new ArrayList<long[]>(this.nodes.size() * virtualNodes);
+    List<String> names = new ArrayList<String>(this.nodes);
+
+    for (int n = 0; n < names.size(); n++) {
+      for (int v = 0; v < virtualNodes; v++) {
+        entries.add(new long[] {hash(names.get(n) + "#" + v), n});
+      }
+    }
+
+    // Ties are broken by node name so that every instance builds the same ring.
+    entries.sort(
+        (left, right) -> {
+          int order = Long.compareUnsigned(left[0], right[0]);
+          return (order != 0)
+              ? order
+              : names.get((int) left[1]).compareTo(names.get((int) right[1]));
+        });
+
+    points = new long[entries.size()];
+    owners = new String[entries.size()];
+
+    for (int i = 0; i < entries.size(); i++) {
+      points[i] = entries.get(i)[0];
+      owners[i] = names.get((int) entries.get(i)[1]);
+    }
+  }
+
+  /**
+   * Returns a new ring with one more node.
+   *
+   * @param node the name of the node to add.
+   * @return The new {@link com.revistek.util.ConsistentHashRing ConsistentHashRing}.
+   */
+  public ConsistentHashRing withNode(String node) {
+    List<String> grown = new ArrayList<String>(nodes);
+    grown.add(node);
+    return new ConsistentHashRing(grown, virtualNodes);
+  }
+
+  /**
+   * Finds the node that owns a key: the node of the first point at or after the key's hash.
+   *
+   * @param key the key to look up.
+   * @return the name of the owning node.
+   */
+  public String locate(String key) {
+    long hash = hash(key);
+    int low = 0;
+    int high = points.length - 1;
+
+    if (Long.compareUnsigned(hash, points[high]) > 0) {
+      return owners[0];
+    }
+
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+
+      if (Long.compareUnsigned(points[middle], hash) < 0) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+
+    return owners[low];
+  }
+
+  public Set<String> getNodes() {
+    return nodes;
+  }
+
+  public int getVirtualNodes() {
+    return virtualNodes;
+  }
+
+  private static long hash(String value) {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    long h = 0xCBF29CE484222325L;
+
+    for (byte b : bytes) {
+      h ^= (b & 0xffL);
+      h *= 0x100000001B3L;
+    }
+
+    // The MurmurHash3 finalizer spreads the bits of the FNV-1a result.
+    h ^= (h >>> 33);
+    h *= 0xFF51AFD7ED558CCDL;
+    h ^= (h >>> 33);
+    h *= 0xC4CEB9FE1A85EC53L;
+    h ^= (h >>> 33);
+    return h;
+  }
+}
@@ -0,0 +1,135 @@
+package com.revistek.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Splits a byte array into chunks whose boundaries depend on the content, not on the offset (the
+ * FastCDC algorithm). Inserting bytes into a Cas only changes the chunks around the insertion, so
+ * the Cases that share large regions (e.g., the type system and the sofa text of the stages of a
+ * pipeline) share most of their chunks.
+ *
+ * <p>A boundary is cut where a rolling "gear" hash of the last 64 bytes matches a mask. Below the
+ * average chunk size a stricter mask is used, and above it a looser one, which keeps the chunk
+ * sizes close to the average. Chunks are never smaller than a quarter of the average, except for
+ * the last, nor larger than eight times the average.
+ *
+ * <p>The gear table is generated from a fixed seed, so every instance of the service cuts the same
+ * content at the same boundaries.
+ *
+ * @author Chuong Ngo
+ */
+final class ContentDefinedChunker {
+  private static final long GEAR_SEED = 0x43525343484e4bL;
+  private static final long[] GEAR = new long[256];
+
+  static {
+    Random random = new Random(GEAR_SEED);
+
+    for (int i = 0; i < GEAR.length; i++) {
+      GEAR[i] = random.nextLong();
+    }
+  }
+
+  private final int minSize;
+  private final int averageSize;
+  private final int maxSize;
+  private final long strictMask;
+  private final long looseMask;
+
+  /**
+   * Creates a chunker.
+   *
+   * @param averageSize the average chunk size, in bytes. It is rounded down to a power of two.
+   * @throws IllegalArgumentException the average is smaller than 64 bytes.
+   */
+  ContentDefinedChunker(int averageSize) throws IllegalArgumentException {
+    if (averageSize < 64) {
+      throw new IllegalArgumentException("The average chunk size must be at least 64 bytes.");
+    }
+
+    int bits = 31 - Integer.numberOfLeadingZeros(averageSize);
+    this.averageSize = 1 << bits;
+    this.minSize = this.averageSize / 4;
+    this.maxSize = this.averageSize * 8;
+    this.strictMask = topBits(bits + 2);
+    this.looseMask = topBits(bits - 2);
+  }
+
+  /**
+   * Finds the boundaries of the chunks of a byte array.
+   *
+   * @param data the bytes to split.
+   * @return the end offset of every chunk, in order. The last is the length of the data.
+   */
+  List<Integer> split(byte[] data) {
+    List<Integer> boundaries = new ArrayList<Integer>((data.length / averageSize) + 1);
+    int start = 0;
+
+    while (start < data.length) {
+      start = nextBoundary(data, start);
+      boundaries.add(start);
+    }
+
+    return boundaries;
+  }
+
+  /**
+   * Finds the end of the chunk starting at an offset.
+   *
+   * @param data the bytes to split.
+   * @param start the start of the chunk.
+   * @return the end offset of the chunk.
+   */
+  int nextBoundary(byte[] data, int start) {
+    int remaining = data.length - start;
+
+    if (remaining <= minSize) {
+      return data.length;
+    }
+
+    int end = Math.min(remaining, maxSize);
+    int normal = Math.min(end, averageSize);
+    long hash = 0L;
+    int i = minSize;
+
+    for (; i < normal; i++) {
+      hash = (hash << 1) + GEAR[data[start + i] & 0xFF];
+
+      if ((hash & strictMask) == 0L) {
+        return start + i + 1;
+      }
+    }
+
+    for (; i < end; i++) {
+      hash = (hash << 1) + GEAR[data[start + i] & 0xFF];
+
+      if ((hash & looseMask) == 0L) {
+        return start + i + 1;
+      }
+    }
+
+    return start + end;
+  }
+
+  int getAverageSize() {
+    return averageSize;
+  }
+
+  int getMinSize() {
+    return minSize;
+  }
+
+  int getMaxSize() {
+    return maxSize;
+  }
+
+  /**
+   * The mask of the highest bits of the hash. After shifting left once per byte, bit k of the hash
+   * depends on the last k + 1 bytes, so the highest bits depend on the widest window.
+   */
+  private static long topBits(int count) {
+    return (count <= 0) ? 0L : (-1L << (64 - count));
+  }
+}
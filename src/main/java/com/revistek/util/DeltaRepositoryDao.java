@@ -0,0 +1,443 @@
+package com.revistek.util;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.UnsafeByteOperations;
+import com.revistek.crs.protos.Cas;
+import com.revistek.exceptions.MalformedDataException;
+import com.revistek.util.constants.ErrorMessages;
+import com.revistek.util.constants.MetricNames;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A repository DAO in front of another that stores later checkpoints of a document as the changes
+ * against an earlier checkpoint (the base). Pipelines that add a few annotation layers at each
+ * stage then write a fraction of the bytes of a full copy. Reads rebuild the full Cas from its
+ * chain of bases and check it against the checksum it was stored with.
+ *
+ * <p>A delta is stored as a Cas of its own, so the repository behind needs no changes. Its document
+ * ID is {@link #DELTA_DOCUMENT_PREFIX} followed by the Cas ID of its base, so the deltas stored
+ * against a Cas are found with {@link RepositoryDao#getCasIds(String)}. Its data starts with the
+ * real document ID and checksum, followed by the operations of a {@link
+ * com.revistek.util.CasDelta CasDelta}.
+ *
+ * <p>A full copy is stored instead when the base cannot be read or belongs to another document,
+ * when the chain of the base is already {@code maxChainLength} long, or when the delta would not
+ * be much smaller than the Cas. Capping the chains bounds the number of reads a get takes: each
+ * checkpoint past the cap starts a new chain.
+ *
+ * <p>Deleting a Cas that deltas are stored against keeps a copy of it under its Cas ID followed by
+ * {@link #RETIRED_SUFFIX}, which the deltas fall back to. The copy is deleted along with the last
+ * delta stored against it. Whether a base or its copy exists is always asked of the repository
+ * itself ({@link RepositoryDao#existsCasId(String)}), never of a Cas ID filter, since a filter does
+ * not know the Cases stored by other instances.
+ *
+ * @author Chuong Ngo
+ */
+public class DeltaRepositoryDao implements RepositoryDao {
+  public static final String DELTA_DOCUMENT_PREFIX = "crs.delta:";
+  public static final String RETIRED_SUFFIX = ".retired";
+  public static final int DEFAULT_MAX_CHAIN_LENGTH = 4;
+  public static final double DEFAULT_MAX_DELTA_RATIO = 0.5;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(RepositoryDao.class);
+  private static final int DELTA_MAGIC = 0x43525344;
+  private static final int DELTA_VERSION = 1;
+  private static final Counter DELTA_STORES_COUNTER =
+      ServiceMetrics.counter(
+          MetricNames.DELTA_STORES, MetricNames.TAG_FORM, MetricNames.FORM_DELTA);
+  private static final Counter FULL_STORES_COUNTER =
+      ServiceMetrics.counter(MetricNames.DELTA_STORES, MetricNames.TAG_FORM, MetricNames.FORM_FULL);
+  private static final Counter BYTES_SAVED_COUNTER =
+      ServiceMetrics.counter(MetricNames.DELTA_BYTES_SAVED);
+  private static final Timer ENCODE_TIMER = ServiceMetrics.timer(MetricNames.DELTA_ENCODE_TIME);
+
+  private volatile RepositoryDao repositoryDao;
+  private ChecksumAlgorithm preferredChecksumAlgorithm;
+  private int maxChainLength;
+  private double maxDeltaRatio;
+
+  private DeltaRepositoryDao() {}
+
+  @Override
+  public Cas getCasId(String casId) throws Exception {
+    LOGGER.trace("Getting the Cas: {}.", casId);
+
+    if (StringUtils.isEmpty(casId)) {
+      LOGGER.trace("Invalid Cas ID specified.");
+
+      throw new IllegalArgumentException(ErrorMessages.INVALID_CAS_ID);
+    }
+
+    return rebuild(repositoryDao.getCasId(casId));
+  }
+
+  @Override
+  public String store(Cas cas) throws Exception {
+    return repositoryDao.store(cas);
+  }
+
+  @Override
+  public String store(Cas cas, String casId) throws Exception {
+    return repositoryDao.store(cas, casId);
+  }
+
+  @Override
+  public String storeDelta(Cas cas, String baseCasId) throws Exception {
+    String docId = cas.getDocumentId();
+    ByteString data = cas.getCasData();
+
+    // Malformed Cases are stored in full so that the repository rejects them as it always has.
+    if (StringUtils.isAnyEmpty(baseCasId, docId)
+        || data.isEmpty()
+        || docId.startsWith(DELTA_DOCUMENT_PREFIX)) {
+      return storeFull(cas);
+    }
+
+    if (ChecksumAlgorithm.match(data, cas.getCrc32Checksum(), preferredChecksumAlgorithm)
+        == null) {
+      LOGGER.trace("The UIMA Cas/JCas failed its checksum check.");
+
+      throw new MalformedDataException(ErrorMessages.getChecksumFailedMessage(docId));
+    }
+
+    Cas base;
+    int chainLength;
+
+    try {
+      Cas storedBase = repositoryDao.getCasId(baseCasId);
+      chainLength = isDelta(storedBase) ? (readChainLength(storedBase) + 1) : 1;
+      base = (chainLength > maxChainLength) ? null : rebuild(storedBase);
+    } catch (Exception e) {
+      LOGGER.trace("The base Cas {} could not be read: {}", baseCasId, e.getMessage());
+
+      return storeFull(cas);
+    }
+
+    if ((base == null) || !docId.equals(base.getDocumentId())) {
+      LOGGER.trace("The base Cas {} cannot be a base for the document {}", baseCasId, docId);
+
+      return storeFull(cas);
+    }
+
+    long start = System.nanoTime();
+    ByteString delta = encode(cas, base, baseCasId, chainLength);
+    ENCODE_TIMER.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+    if (delta.size() > (maxDeltaRatio * data.size())) {
+      LOGGER.trace("The delta is too large. Storing a full copy.");
+
+      return storeFull(cas);
+    }
+
+    String casId =
+        repositoryDao.store(
+            Cas.newBuilder()
+                .setDocumentId(DELTA_DOCUMENT_PREFIX + baseCasId)
+                .setCrc32Checksum(preferredChecksumAlgorithm.compute(delta))
+                .setCasData(delta)
+                .build());
+
+    // A delete of the base that listed its deltas before this one was stored did not retire it.
+    if (!repositoryDao.existsCasId(baseCasId)
+        && !repositoryDao.existsCasId(baseCasId + RETIRED_SUFFIX)) {
+      LOGGER.trace("The base Cas {} was deleted. Storing a full copy.", baseCasId);
+
+      repositoryDao.deleteCasId(casId);
+      return storeFull(cas);
+    }
+
+    if (LOGGER.isTraceEnabled()) {
+      LOGGER.trace("Stored the Cas {} as a delta of {} of {}", casId, delta.size(), data.size());
+    }
+
+    DELTA_STORES_COUNTER.increment();
+    BYTES_SAVED_COUNTER.increment(data.size() - delta.size());
+    return casId;
+  }
+
+  private String storeFull(Cas cas) throws Exception {
+    String casId = repositoryDao.store(cas);
+    FULL_STORES_COUNTER.increment();
+    return casId;
+  }
+
+  @Override
+  public void deleteCasId(String casId) throws Exception {
+    LOGGER.trace("Deleting the Cas: {}.", casId);
+
+    if (StringUtils.isEmpty(casId)) {
+      LOGGER.trace("Invalid Cas ID specified.");
+
+      throw new IllegalArgumentException(ErrorMessages.INVALID_CAS_ID);
+    }
+
+    if (!repositoryDao.existsCasId(casId)) {
+      repositoryDao.deleteCasId(casId);
+      return;
+    }
+
+    Cas stored = repositoryDao.getCasId(casId);
+
+    retireIfBase(stored);
+    repositoryDao.deleteCasId(casId);
+    // A delta stored while this Cas was being deleted may not have been listed the first time.
+    retireIfBase(stored);
+
+    try {
+      deleteRetiredBases(stored);
+    } catch (Exception e) {
+      // The Cas is deleted. A retired base that is left behind only takes up space.
+      LOGGER.warn("Failed to delete the retired bases of the Cas {}.", casId, e);
+    }
+  }
+
+  /** Keeps a copy of a Cas that deltas are stored against, for the deltas to fall back to. */
+  private void retireIfBase(Cas stored) throws Exception {
+    String casId = stored.getCasId();
+    String retiredCasId = casId + RETIRED_SUFFIX;
+
+    if (!repositoryDao.getCasIds(DELTA_DOCUMENT_PREFIX + casId).isEmpty()
+        && !repositoryDao.existsCasId(retiredCasId)) {
+      LOGGER.trace("Retiring the Cas {} because deltas are stored against it.", casId);
+
+      repositoryDao.store(stored, retiredCasId);
+    }
+  }
+
+  /**
+   * Deletes the retired bases of a deleted delta that no other delta is stored against, walking
+   * up the chain.
+   */
+  private void deleteRetiredBases(Cas deleted) throws Exception {
+    Cas current = deleted;
+
+    while (isDelta(current)) {
+      String baseCasId = current.getDocumentId().substring(DELTA_DOCUMENT_PREFIX.length());
+      String retiredCasId = baseCasId + RETIRED_SUFFIX;
+
+      if (repositoryDao.existsCasId(baseCasId)
+          || !repositoryDao.existsCasId(retiredCasId)
+          || !repositoryDao.getCasIds(DELTA_DOCUMENT_PREFIX + baseCasId).isEmpty()) {
+        return;
+      }
+
+      LOGGER.trace("Deleting the retired Cas {}.", retiredCasId);
+
+      current = repositoryDao.getCasId(retiredCasId);
+      repositoryDao.deleteCasId(retiredCasId);
+    }
+  }
+
+  @Override
+  public boolean existsCasId(String casId) throws Exception {
+    return repositoryDao.existsCasId(casId);
+  }
+
+  @Override
+  public boolean mightContainCasId(String casId) throws Exception {
+    return repositoryDao.mightContainCasId(casId);
+  }
+
+  @Override
+  public List<String> getCasIds(String documentId) throws Exception {
+    return repositoryDao.getCasIds(documentId);
+  }
+
+  /**
+   * Rebuilds a Cas as it was stored by the client.
+   *
+   * @param stored the Cas as it is in the repository.
+   * @return the Cas itself if it is a full copy, else the Cas rebuilt from its chain of bases.
+   * @throws Exception a base could not be read, or the rebuilt Cas failed its checksum check.
+   */
+  private Cas rebuild(Cas stored) throws Exception {
+    if (!isDelta(stored)) {
+      return stored;
+    }
+
+    String casId = stored.getCasId();
+    CodedInputStream input = stored.getCasData().newCodedInput();
+    String docId;
+    long checksum;
+    byte[] data;
+
+    try {
+      if ((input.readFixed32() != DELTA_MAGIC) || (input.readUInt32() != DELTA_VERSION)) {
+        throw new IOException("Not a delta.");
+      }
+
+      input.readUInt32();
+      Cas base = rebuild(getBase(input.readString()));
+      docId = input.readString();
+      checksum = input.readFixed64();
+      data = CasDelta.apply(base.getCasData().toByteArray(), input, input.readUInt32());
+    } catch (IOException e) {
+      LOGGER.trace("The delta Cas {} is corrupted: {}", casId, e.getMessage());
+
+      throw new MalformedDataException(ErrorMessages.getInvalidDeltaMessage(casId));
+    }
+
+    ByteString casData = UnsafeByteOperations.unsafeWrap(data);
+
+    if (ChecksumAlgorithm.match(casData, checksum, preferredChecksumAlgorithm) == null) {
+      LOGGER.trace("The rebuilt Cas {} failed its checksum check.", casId);
+
+      throw new MalformedDataException(ErrorMessages.getChecksumFailedMessage(docId));
+    }
+
+    return Cas.newBuilder()
+        .setCasId(casId)
+        .setDocumentId(docId)
+        .setCrc32Checksum(checksum)
+        .setCasData(casData)
+        .build();
+  }
+
+  private Cas getBase(String baseCasId) throws Exception {
+    try {
+      return repositoryDao.getCasId(baseCasId);
+    } catch (Exception e) {
+      String retiredCasId = baseCasId + RETIRED_SUFFIX;
+
+      if (!repositoryDao.existsCasId(retiredCasId)) {
+        throw e;
+      }
+
+      return repositoryDao.getCasId(retiredCasId);
+    }
+  }
+
+  private ByteString encode(Cas cas, Cas base, String baseCasId, int chainLength)
+      throws IOException {
+    ByteString.Output output = ByteString.newOutput();
+    CodedOutputStream coded = CodedOutputStream.newInstance(output);
+
+    coded.writeFixed32NoTag(DELTA_MAGIC);
+    coded.writeUInt32NoTag(DELTA_VERSION);
+    coded.writeUInt32NoTag(chainLength);
+    coded.writeStringNoTag(baseCasId);
+    coded.writeStringNoTag(cas.getDocumentId());
+    coded.writeFixed64NoTag(cas.getCrc32Checksum());
+    coded.writeUInt32NoTag(cas.getCasData().size());
+    CasDelta.encode(base.getCasData().toByteArray(), cas.getCasData().toByteArray(), coded);
+    coded.flush();
+
+    return output.toByteString();
+  }
+
+  private static int readChainLength(Cas stored) throws IOException {
+    CodedInputStream input = stored.getCasData().newCodedInput();
+
+    if ((input.readFixed32() != DELTA_MAGIC) || (input.readUInt32() != DELTA_VERSION)) {
+      throw new IOException("Not a delta.");
+    }
+
+    return input.readUInt32();
+  }
+
+  private static boolean isDelta(Cas stored) {
+    return stored.getDocumentId().startsWith(DELTA_DOCUMENT_PREFIX);
+  }
+
+  public RepositoryDao getTargetRepositoryDao() {
+    return repositoryDao;
+  }
+
+  /**
+   * Switches the repository the deltas are stored in (e.g., when the repository URL changes).
+   *
+   * @param repositoryDao the new repository.
+   */
+  public void setTargetRepositoryDao(RepositoryDao repositoryDao) {
+    this.repositoryDao = repositoryDao;
+  }
+
+  /**
+   * The builder for {@link com.revistek.util.DeltaRepositoryDao DeltaRepositoryDao}.
+   *
+   * @author Chuong Ngo
+   */
+  public static class Builder {
+    private RepositoryDao repositoryDao;
+    private ChecksumAlgorithm preferredChecksumAlgorithm = ChecksumAlgorithm.CRC32;
+    private int maxChainLength = DEFAULT_MAX_CHAIN_LENGTH;
+    private double maxDeltaRatio = DEFAULT_MAX_DELTA_RATIO;
+
+    /**
+     * Sets the repository to store the Cases in.
+     *
+     * @param repositoryDao the repository.
+     * @return this builder.
+     */
+    public Builder repositoryDao(RepositoryDao repositoryDao) {
+      this.repositoryDao = repositoryDao;
+      return this;
+    }
+
+    public Builder preferredChecksumAlgorithm(ChecksumAlgorithm preferredChecksumAlgorithm) {
+      if (preferredChecksumAlgorithm != null) {
+        this.preferredChecksumAlgorithm = preferredChecksumAlgorithm;
+      }
+
+      return this;
+    }
+
+    /**
+     * Sets how many deltas may be stored on top of a full copy.
+     *
+     * @param maxChainLength the longest chain of deltas.
+     * @return this builder.
+     */
+    public Builder maxChainLength(int maxChainLength) {
+      this.maxChainLength = maxChainLength;
+      return this;
+    }
+
+    /**
+     * Sets how large a delta may be, relative to the Cas, for it to be stored instead of a full
+     * copy.
+     *
+     * @param maxDeltaRatio the largest size of a delta over the size of its Cas.
+     * @return this builder.
+     */
+    public Builder maxDeltaRatio(double maxDeltaRatio) {
+      this.maxDeltaRatio = maxDeltaRatio;
+      return this;
+    }
+
+    public DeltaRepositoryDao build() throws IllegalArgumentException {
+      if ((repositoryDao == null)
+          || (maxChainLength <= 0)
+          || (maxDeltaRatio <= 0)
+          || (maxDeltaRatio > 1)) {
+        throw new IllegalArgumentException(ErrorMessages.INVALID_DELTA_SETTINGS);
+      }
+
+      DeltaRepositoryDao dao = new DeltaRepositoryDao();
+      dao.repositoryDao = repositoryDao;
+      dao.preferredChecksumAlgorithm = preferredChecksumAlgorithm;
+      dao.maxChainLength = maxChainLength;
+      dao.maxDeltaRatio = maxDeltaRatio;
+
+      return dao;
+    }
+  }
+
+  /**
+   * Returns a new builder.
+   *
+   * @return Returns a new {@link com.revistek.util.DeltaRepositoryDao.Builder builder}.
+   */
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+}
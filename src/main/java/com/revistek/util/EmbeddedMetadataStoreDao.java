@@ -0,0 +1,501 @@
+package com.revistek.util;
+
+import com.revistek.exceptions.IllegalMetadataStoreStateException;
+import com.revistek.util.constants.ErrorMessages;
+import com.revistek.util.constants.MetricNames;
+import io.micrometer.core.instrument.Timer;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.tuple.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An implementation of a Metadata Store DAO that runs inside the service and keeps its data in a
+ * local directory, so that the service can run without external databases.
+ *
+ * <p>Every change is appended to a log file, and the Cas IDs are held in memory in one sorted map
+ * per table. Appends cost a single write, and the maps keep the Cas IDs in order, which is also
+ * their creation order because Cas IDs start with a timestamp. As with MongoDB, every query is a
+ * database, collection pair, and queries with the same pair share a table.
+ *
+ * <p>On startup the maps are rebuilt by replaying the log. A torn record at the end of the log is
+ * cut off. Once the log holds more deleted entries than live ones, it is rewritten in the
+ * background with only the live entries.
+ *
+ * @author Chuong Ngo
+ */
+public class EmbeddedMetadataStoreDao implements MetadataStoreDao {
+  public static final String URL_SCHEME = "file";
+  public static final String LOG_FILENAME = "metadata.log";
+  public static final int MIN_DEAD_RECORDS_TO_COMPACT = 10000;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(MetadataStoreDao.class);
+  private static final byte RECORD_ADD = 1;
+  private static final byte RECORD_DELETE = 2;
+  private static final int MAX_RECORD_LENGTH = 1 + 8 + 2 + 0xFFFF + 2 + 0xFFFF;
+  private static final Timer APPEND_TIMER =
+      ServiceMetrics.daoTimer(MetricNames.BACKEND_EMBEDDED_METADATA_STORE, "append");
+  private static final Timer COMPACT_TIMER =
+      ServiceMetrics.daoTimer(MetricNames.BACKEND_EMBEDDED_METADATA_STORE, "compact");
+
+  private final Path logPath;
+  private final boolean forceOnWrite;
+  private final Map<String, ConcurrentSkipListMap<String, Long>> tables =
+      new ConcurrentHashMap<String, ConcurrentSkipListMap<String, Long>>();
+  private final ExecutorService compactor;
+  private FileChannel log;
+  private long liveRecords;
+  private long deadRecords;
+  private boolean compactionPending;
+  // Copy-on-write so that in-flight requests always see a complete set of queries.
+  private volatile Map<String, String> queryMap = new HashMap<String, String>();
+
+  public EmbeddedMetadataStoreDao(Path directory) {
+    this(directory, false);
+  }
+
+  /**
+   * Opens the metadata store in a directory, replaying its log.
+   *
+   * @param directory the directory holding the log.
+   * @param forceOnWrite true to wait for every change to reach the disk.
+   */
+  public EmbeddedMetadataStoreDao(Path directory, boolean forceOnWrite) {
+    logPath = directory.resolve(LOG_FILENAME);
+    this.forceOnWrite = forceOnWrite;
+
+    try {
+      Files.createDirectories(directory);
+      replay();
+      log =
+          FileChannel.open(
+              logPath,
+              StandardOpenOption.CREATE,
+              StandardOpenOption.WRITE,
+              StandardOpenOption.APPEND);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    compactor =
+        Executors.newSingleThreadExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "metadata-log-compactor");
+              thread.setDaemon(true);
+              return thread;
+            });
+
+    LOGGER.trace("Initialized.");
+  }
+
+  /**
+   * Rebuilds the tables from the log.
+   *
+   * @throws IOException the log could not be read or truncated.
+   */
+  private void replay() throws IOException {
+    if (!Files.exists(logPath)) {
+      return;
+    }
+
+    long validLength = 0;
+
+    try (InputStream stream = Files.newInputStream(logPath);
+        DataInputStream input = new DataInputStream(new BufferedInputStream(stream))) {
+      while (true) {
+        byte[] body;
+
+        try {
+          int length = input.readInt();
+          int crc = input.readInt();
+
+          if ((length <= 0) || (length > MAX_RECORD_LENGTH)) {
+            break;
+          }
+
+          body = new byte[length];
+          input.readFully(body);
+
+          if (crc(body) != crc) {
+            break;
+          }
+        } catch (EOFException e) {
+          break;
+        }
+
+        apply(ByteBuffer.wrap(body));
+        validLength += 8 + body.length;
+      }
+    }
+
+    if (validLength < Files.size(logPath)) {
+      LOGGER.warn("The metadata log {} has a torn record at its end. It is cut off.", logPath);
+
+      try (FileChannel channel = FileChannel.open(logPath, StandardOpenOption.WRITE)) {
+        channel.truncate(validLength);
+      }
+    }
+
+    if (LOGGER.isTraceEnabled()) {
+      LOGGER.trace("Replayed {} metadata entries from {}.", liveRecords, logPath);
+    }
+  }
+
+  private void apply(ByteBuffer body) {
+    byte type = body.get();
+    long createdAt = body.getLong();
+    String table = readString(body);
+    String casId = readString(body);
+    ConcurrentSkipListMap<String, Long> entries = table(table);
+
+    if (type == RECORD_ADD) {
+      if (entries.put(casId, createdAt) == null) {
+        liveRecords++;
+      } else {
+        deadRecords++;
+      }
+    } else {
+      if (entries.remove(casId) != null) {
+        liveRecords--;
+        deadRecords++;
+      }
+
+      deadRecords++;
+    }
+  }
+
+  /**
+   * Adds the database, collection pairs to be used when querying the metadata store.
+   *
+   * @param key the query key to associate the database, collection pair to.
+   * @param database the database to query against.
+   * @param collection the collection to query or write to.
+   */
+  public void registerQuery(String key, String database, String collection) {
+    if (LOGGER.isTraceEnabled()) {
+      LOGGER.trace(
+          "Loading the query: {}, database: {}, collection: {}", key, database, collection);
+    }
+
+    if (StringUtils.isAnyEmpty(key, database, collection)) {
+      LOGGER.trace("Cannot register this query. It is invalid.");
+
+      throw new IllegalArgumentException(ErrorMessages.INVALID_METADATA_STORE_QUERY_REGISTER);
+    }
+
+    synchronized (this) {
+      Map<String, String> newQueryMap = new HashMap<String, String>(queryMap);
+      newQueryMap.put(key, tableName(database, collection));
+      queryMap = newQueryMap;
+    }
+  }
+
+  /**
+   * Atomically replaces all of the registered queries.
+   *
+   * @param queries the database, collection pairs to use, keyed by query key.
+   */
+  public void replaceQueries(Map<String, Pair<String, String>> queries) {
+    if (LOGGER.isTraceEnabled()) {
+      LOGGER.trace("Replacing the metadata store queries with {} queries.", queries.size());
+    }
+
+    Map<String, String> newQueryMap = new HashMap<String, String>();
+
+    for (Map.Entry<String, Pair<String, String>> query : queries.entrySet()) {
+      String database = query.getValue().getLeft();
+      String collection = query.getValue().getRight();
+
+      if (StringUtils.isAnyEmpty(query.getKey(), database, collection)) {
+        LOGGER.trace("Cannot register this query. It is invalid.");
+
+        throw new IllegalArgumentException(ErrorMessages.INVALID_METADATA_STORE_QUERY_REGISTER);
+      }
+
+      newQueryMap.put(query.getKey(), tableName(database, collection));
+    }
+
+    synchronized (this) {
+      queryMap = newQueryMap;
+    }
+  }
+
+  @Override
+  public void addCasId(String queryKey, String casId) throws Exception {
+    LOGGER.trace("Writing Cas ID {} to the metadata store {}.", casId, queryKey);
+
+    String table = resolve(queryKey, casId);
+    long createdAt = System.currentTimeMillis();
+
+    synchronized (this) {
+      ConcurrentSkipListMap<String, Long> entries = table(table);
+
+      if (entries.containsKey(casId)) {
+        LOGGER.trace("An entry for this Cas ID already exists: {}.", casId);
+
+        throw new IllegalMetadataStoreStateException(ErrorMessages.CASID_NOT_UNIQUE);
+      }
+
+      append(RECORD_ADD, createdAt, table, casId);
+      entries.put(casId, createdAt);
+      liveRecords++;
+    }
+  }
+
+  @Override
+  public void deleteCasId(String queryKey, String casId) throws Exception {
+    LOGGER.trace("Deleting Cas ID {} from the metadata store {}.", casId, queryKey);
+
+    String table = resolve(queryKey, casId);
+
+    synchronized (this) {
+      ConcurrentSkipListMap<String, Long> entries = table(table);
+
+      if (!entries.containsKey(casId)) {
+        return;
+      }
+
+      append(RECORD_DELETE, 0L, table, casId);
+      entries.remove(casId);
+      liveRecords--;
+      deadRecords += 2;
+
+      if (!compactionPending
+          && (deadRecords >= MIN_DEAD_RECORDS_TO_COMPACT)
+          && (deadRecords > liveRecords)) {
+        compactionPending = true;
+        compactor.submit(this::compactQuietly);
+      }
+    }
+  }
+
+  @Override
+  public void deleteAllCasId(String casId) throws Exception {
+    LOGGER.trace("Deleting Cas ID {} from all metadata stores.", casId);
+
+    for (String key : queryMap.keySet()) {
+      deleteCasId(key, casId);
+    }
+  }
+
+  /**
+   * Lists the Cas IDs of a query in order, a page at a time.
+   *
+   * @param queryKey the metadata query to list.
+   * @param afterCasId the last Cas ID of the previous page, or null to start at the beginning.
+   * @param limit the maximum number of Cas IDs to return.
+   * @return the Cas IDs after the given one, in order.
+   */
+  @Override
+  public List<String> getCasIds(String queryKey, String afterCasId, int limit) {
+    String table = queryMap.get(queryKey);
+
+    if (table == null) {
+      LOGGER.trace("Invalid metadata store query specified.");
+
+      throw new IllegalArgumentException(ErrorMessages.getInvalidQueryMessage(queryKey));
+    }
+
+    ConcurrentSkipListMap<String, Long> entries = tables.get(table);
+    List<String> page = new ArrayList<String>(Math.max(0, Math.min(limit, 1024)));
+
+    if (entries == null) {
+      return page;
+    }
+
+    for (String casId :
+        (afterCasId == null) ? entries.keySet() : entries.tailMap(afterCasId, false).keySet()) {
+      if (page.size() >= limit) {
+        break;
+      }
+
+      page.add(casId);
+    }
+
+    return page;
+  }
+
+  private String resolve(String queryKey, String casId) {
+    if (StringUtils.isEmpty(casId)) {
+      LOGGER.trace("Invalid Cas ID specified.");
+
+      throw new IllegalArgumentException(ErrorMessages.INVALID_CAS_ID);
+    }
+
+    String table = queryMap.get(queryKey);
+
+    if (table == null) {
+      LOGGER.trace("Invalid metadata store query specified.");
+
+      throw new IllegalArgumentException(ErrorMessages.getInvalidQueryMessage(queryKey));
+    }
+
+    return table;
+  }
+
+  private ConcurrentSkipListMap<String, Long> table(String table) {
+    return tables.computeIfAbsent(table, name -> new ConcurrentSkipListMap<String, Long>());
+  }
+
+  /**
+   * Appends a record to the log. The caller holds the lock of the DAO.
+   *
+   * @param type whether the record adds or deletes the Cas ID.
+   * @param createdAt when the Cas ID was added.
+   * @param table the table of the Cas ID.
+   * @param casId the Cas ID.
+   * @throws Exception the record could not be written.
+   */
+  private void append(byte type, long createdAt, String table, String casId) throws Exception {
+    ByteBuffer record = record(type, createdAt, table, casId);
+
+    APPEND_TIMER.recordCallable(
+        () -> {
+          while (record.hasRemaining()) {
+            log.write(record);
+          }
+
+          if (forceOnWrite) {
+            log.force(false);
+          }
+
+          return null;
+        });
+  }
+
+  private void compactQuietly() {
+    try {
+      compact();
+    } catch (IOException | RuntimeException e) {
+      // The log keeps growing until the next attempt.
+      LOGGER.warn("The metadata log compaction failed.", e);
+    }
+  }
+
+  /**
+   * Rewrites the log with only the live entries. The new log is forced and then moved over the old
+   * one, so a crash leaves either the old or the new log. Writers wait until the rewrite is done.
+   *
+   * @throws IOException the log could not be rewritten.
+   */
+  public synchronized void compact() throws IOException {
+    compactionPending = false;
+    long start = System.nanoTime();
+    Path compactedPath = logPath.resolveSibling(LOG_FILENAME + ".compacting");
+
+    try (FileChannel compacted =
+        FileChannel.open(
+            compactedPath,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+      for (Map.Entry<String, ConcurrentSkipListMap<String, Long>> table : tables.entrySet()) {
+        for (Map.Entry<String, Long> entry : table.getValue().entrySet()) {
+          ByteBuffer record = record(RECORD_ADD, entry.getValue(), table.getKey(), entry.getKey());
+
+          while (record.hasRemaining()) {
+            compacted.write(record);
+          }
+        }
+      }
+
+      compacted.force(true);
+    }
+
+    log.close();
+    Files.move(compactedPath, logPath, StandardCopyOption.ATOMIC_MOVE);
+    log = FileChannel.open(logPath, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    deadRecords = 0;
+
+    COMPACT_TIMER.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+    if (LOGGER.isTraceEnabled()) {
+      LOGGER.trace("Compacted the metadata log to {} entries.", liveRecords);
+    }
+  }
+
+  @Override
+  public void cleanup() {
+    LOGGER.trace("Closing.");
+
+    compactor.shutdownNow();
+
+    synchronized (this) {
+      try {
+        log.close();
+      } catch (IOException e) {
+        LOGGER.warn("Failed to close the metadata log {}.", logPath, e);
+      }
+    }
+  }
+
+  public Path getLogPath() {
+    return logPath;
+  }
+
+  private static ByteBuffer record(byte type, long createdAt, String table, String casId) {
+    byte[] tableBytes = table.getBytes(StandardCharsets.UTF_8);
+    byte[] casIdBytes = casId.getBytes(StandardCharsets.UTF_8);
+
+    if ((tableBytes.length > 0xFFFF) || (casIdBytes.length > 0xFFFF)) {
+      throw new IllegalArgumentException(ErrorMessages.INVALID_CAS_ID);
+    }
+
+    int length = 1 + 8 + 2 + tableBytes.length + 2 + casIdBytes.length;
+    ByteBuffer record = ByteBuffer.allocate(8 + length);
+    record
+        .putInt(length)
+        .putInt(0)
+        .put(type)
+        .putLong(createdAt)
+        .putShort((short) tableBytes.length)
+        .put(tableBytes)
+        .putShort((short) casIdBytes.length)
+        .put(casIdBytes);
+
+    CRC32 crc = new CRC32();
+    crc.update(record.array(), 8, length);
+    record.putInt(4, (int) crc.getValue());
+    record.flip();
+    return record;
+  }
+
+  private static int crc(byte[] body) {
+    CRC32 crc = new CRC32();
+    crc.update(body);
+    return (int) crc.getValue();
+  }
+
+  private static String readString(ByteBuffer body) {
+    byte[] bytes = new byte[Short.toUnsignedInt(body.getShort())];
+    body.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static String tableName(String database, String collection) {
+    return database + "." + collection;
+  }
+}
@@ -0,0 +1,308 @@
+package com.revistek.util;
+
+import com.revistek.util.constants.MetricNames;
+import io.micrometer.core.instrument.Counter;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Logs the errors of one event (e.g., the repository failing a store) off the request threads. A
+ * request thread only checks the rate limit of the event and queues the error; a single background
+ * thread formats it as one line of key=value pairs and hands it, with its stack trace, to the
+ * logger. A failing database then costs the requests neither the formatting of the stack traces
+ * nor the wait on the log output.
+ *
+ * <p>An event is logged at most a set number of times a second. The errors over the limit are
+ * counted and the count is logged with the next error of the event. If the queue is full, the error
+ * is dropped rather than blocking the request. Nothing is allocated when the logger has errors
+ * disabled or when the error is over the limit.
+ *
+ * <p>Error logs are looked up once and kept in static fields by the classes that use them, like
+ * their metrics. The background thread is started and stopped with the web app (see {@link
+ * #start()}); while it is not running, errors are written on the thread that logs them.
+ *
+ * @author Chuong Ngo
+ */
+public final class ErrorLog {
+  public static final int DEFAULT_MAX_PER_SECOND = 10;
+
+  private static final int QUEUE_CAPACITY = 1024;
+  private static final long STOP_WAIT_MILLIS = 5000L;
+  private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+  private static final BlockingQueue<Entry> QUEUE = new ArrayBlockingQueue<Entry>(QUEUE_CAPACITY);
+  private static final Counter LOGGED_COUNTER =
+      ServiceMetrics.counter(
+          MetricNames.LOG_ERRORS, MetricNames.TAG_RESULT, MetricNames.RESULT_LOGGED);
+  private static final Counter SUPPRESSED_COUNTER =
+      ServiceMetrics.counter(
+          MetricNames.LOG_ERRORS, MetricNames.TAG_RESULT, MetricNames.RESULT_SUPPRESSED);
+  private static final Counter DROPPED_COUNTER =
+      ServiceMetrics.counter(
+          MetricNames.LOG_ERRORS, MetricNames.TAG_RESULT, MetricNames.RESULT_DROPPED);
+
+  private static Thread writer;
+  private static volatile boolean running;
+
+  private final Logger logger;
+  private final String event;
+  private final int maxPerSecond;
+  private long windowStartNanos = System.nanoTime();
+  private int windowCount;
+  private int suppressed;
+
+  ErrorLog(Logger logger, String event, int maxPerSecond) {
+    this.logger = logger;
+    this.event = event;
+    this.maxPerSecond = maxPerSecond;
+  }
+
+  /**
+   * Returns the error log of an event.
+   *
+   * @param source the class that logs the errors.
+   * @param event the name of the event, e.g., "store.repository".
+   * @return the error log of the event.
+   */
+  public static ErrorLog getErrorLog(Class<?> source, String event) {
+    return new ErrorLog(LoggerFactory.getLogger(source), event, DEFAULT_MAX_PER_SECOND);
+  }
+
+  /** Starts the background thread that writes the queued errors. */
+  public static synchronized void start() {
+    if (writer != null) {
+      return;
+    }
+
+    writer = new Thread(ErrorLog::write, "error-log");
+    writer.setDaemon(true);
+    writer.start();
+    running = true;
+  }
+
+  /**
+   * Stops the background thread and writes the errors it left in the queue, so that no thread of
+   * the web app outlives it.
+   */
+  public static synchronized void stop() {
+    if (writer == null) {
+      return;
+    }
+
+    running = false;
+    writer.interrupt();
+
+    try {
+      writer.join(STOP_WAIT_MILLIS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    writer = null;
+
+    for (Entry entry = QUEUE.poll(); entry != null; entry = QUEUE.poll()) {
+      write(entry);
+    }
+  }
+
+  /**
+   * Logs an error.
+   *
+   * @param message what went wrong.
+   * @param cause the exception behind the error, or null.
+   */
+  public void error(String message, Throwable cause) {
+    error(message, null, null, null, null, cause);
+  }
+
+  /**
+   * Logs an error about one item (e.g., a Cas).
+   *
+   * @param message what went wrong.
+   * @param key the name of the item, e.g., "casId".
+   * @param value the item.
+   * @param cause the exception behind the error, or null.
+   */
+  public void error(String message, String key, String value, Throwable cause) {
+    error(message, key, value, null, null, cause);
+  }
+
+  /**
+   * Logs an error about two items (e.g., a Cas and a metadata store query).
+   *
+   * @param message what went wrong.
+   * @param key1 the name of the first item.
+   * @param value1 the first item.
+   * @param key2 the name of the second item.
+   * @param value2 the second item.
+   * @param cause the exception behind the error, or null.
+   */
+  public void error(
+      String message, String key1, String value1, String key2, String value2, Throwable cause) {
+    if (!logger.isErrorEnabled()) {
+      return;
+    }
+
+    int suppressedBefore = admit();
+
+    if (suppressedBefore < 0) {
+      SUPPRESSED_COUNTER.increment();
+      return;
+    }
+
+    Entry entry = new Entry(this, message, key1, value1, key2, value2, suppressedBefore, cause);
+
+    if (!running) {
+      LOGGED_COUNTER.increment();
+      write(entry);
+    } else if (QUEUE.offer(entry)) {
+      LOGGED_COUNTER.increment();
+    } else {
+      DROPPED_COUNTER.increment();
+    }
+  }
+
+  /**
+   * Counts an error against the rate limit.
+   *
+   * @return the number of errors suppressed since the last logged one, or -1 if this one is over
+   *     the limit.
+   */
+  private synchronized int admit() {
+    long now = System.nanoTime();
+
+    if ((now - windowStartNanos) >= WINDOW_NANOS) {
+      windowStartNanos = now;
+      windowCount = 0;
+    }
+
+    if (windowCount >= maxPerSecond) {
+      suppressed++;
+      return -1;
+    }
+
+    windowCount++;
+    int suppressedBefore = suppressed;
+    suppressed = 0;
+
+    return suppressedBefore;
+  }
+
+  private static void write() {
+    while (true) {
+      Entry entry;
+
+      try {
+        entry = QUEUE.take();
+      } catch (InterruptedException e) {
+        return;
+      }
+
+      write(entry);
+    }
+  }
+
+  private static void write(Entry entry) {
+    try {
+      entry.errorLog.logger.error(entry.format(), entry.cause);
+    } catch (RuntimeException e) {
+      // A broken appender must not stop the errors of the other events from being logged.
+    }
+  }
+
+  /** A queued error. */
+  private static final class Entry {
+    private final ErrorLog errorLog;
+    private final String message;
+    private final String key1;
+    private final String value1;
+    private final String key2;
+    private final String value2;
+    private final int suppressed;
+    private final Throwable cause;
+
+    private Entry(
+        ErrorLog errorLog,
+        String message,
+        String key1,
+        String value1,
+        String key2,
+        String value2,
+        int suppressed,
+        Throwable cause) {
+      this.errorLog = errorLog;
+      this.message = message;
+      this.key1 = key1;
+      this.value1 = value1;
+      this.key2 = key2;
+      this.value2 = value2;
+      this.suppressed = suppressed;
+      this.cause = cause;
+    }
+
+    private String format() {
+      StringBuilder line = new StringBuilder(128);
+      append(line, "event", errorLog.event);
+      append(line, "message", message);
+
+      if (key1 != null) {
+        append(line, key1, value1);
+      }
+
+      if (key2 != null) {
+        append(line, key2, value2);
+      }
+
+      if (suppressed > 0) {
+        append(line, "suppressed", String.valueOf(suppressed));
+      }
+
+      if (cause != null) {
+        append(line, "exception", cause.getClass().getName());
+      }
+
+      return line.toString();
+    }
+
+    private static void append(StringBuilder line, String key, String value) {
+      if (line.length() > 0) {
+        line.append(' ');
+      }
+
+      line.append(key).append('=');
+
+      if (value == null) {
+        line.append("null");
+        return;
+      }
+
+      boolean quote = value.isEmpty();
+
+      for (int i = 0; (!quote) && (i < value.length()); i++) {
+        char c = value.charAt(i);
+        quote = (Character.isWhitespace(c)) || (c == '"') || (c == '=');
+      }
+
+      if (!quote) {
+        line.append(value);
+        return;
+      }
+
+      line.append('"');
+
+      for (int i = 0; i < value.length(); i++) {
+        char c = value.charAt(i);
+
+        if ((c == '"') || (c == '\\')) {
+          line.append('\\');
+        }
+
+        line.append(c);
+      }
+
+      line.append('"');
+    }
+  }
+}
@@ -0,0 +1,1195 @@
+package com.revistek.util;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+import com.revistek.crs.protos.Cas;
+import com.revistek.exceptions.IllegalRepositoryStateException;
+import com.revistek.exceptions.MalformedDataException;
+import com.revistek.util.constants.ErrorMessages;
+import com.revistek.util.constants.MetricNames;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An implementation of a repository DAO that keeps the Cases in segment files on the local disk,
+ * for single-node deployments that do not want to run MongoDB.
+ *
+ * <p>Cases are appended to the active segment through a {@link java.nio.channels.FileChannel
+ * FileChannel}. Once the active segment is full it is sealed and a new one is started. An in-memory
+ * hash index maps every Cas ID to the segment, offset, and length of its record, and reads slice
+ * the Cas data straight out of the memory-mapped segment without copying it. The records appended
+ * to the active segment since it was last mapped are read with a copy until they add up to 8 MB,
+ * so the active segment is not mapped again after every store. Deletes append a tombstone, and a
+ * background compaction rewrites the live records of segments that are mostly dead.
+ *
+ * <p>A record is laid out as follows, big-endian:
+ *
+ * <pre>
+ * int    magic
+ * byte   type (Cas or tombstone)
+ * byte   checksum algorithm ordinal, or -1
+ * short  Cas ID length
+ * short  document ID length
+ * int    Cas data length
+ * long   Cas checksum, or the segment of the deleted record for a tombstone
+ * int    CRC32 of the header fields above and the IDs
+ * bytes  Cas ID, document ID, Cas data
+ * </pre>
+ *
+ * <p>On startup the index is rebuilt from the headers and IDs alone. The Cas data is skipped, so
+ * its pages are never read. A torn record at the end of the last segment is cut off.
+ *
+ * @author Chuong Ngo
+ */
+public class FileSegmentRepositoryDao implements RepositoryDao {
+  public static final String URL_SCHEME = "file";
+  public static final long DEFAULT_MAX_SEGMENT_BYTES = 256L * 1024L * 1024L;
+  public static final double DEFAULT_COMPACTION_THRESHOLD = 0.5;
+  public static final int DEFAULT_COMPACTION_INTERVAL_IN_SECS = 300;
+
+  static final int RECORD_MAGIC = 0x43415331;
+  static final byte RECORD_CAS = 1;
+  static final byte RECORD_TOMBSTONE = 2;
+  static final int HEADER_SIZE = 26;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(RepositoryDao.class);
+  private static final byte NO_ALGORITHM = -1;
+  private static final int MAX_ID_LENGTH = 0xFFFF;
+  private static final int HEADER_CRC_OFFSET = 22;
+  private static final String SEGMENT_PREFIX = "segment-";
+  private static final String SEGMENT_SUFFIX = ".dat";
+  private static final int MAX_LOOKUP_ATTEMPTS = 3;
+  // How far the active segment may grow past its mapping before reads map it again.
+  private static final long REMAP_BYTES = 8L * 1024L * 1024L;
+  private static final Timer APPEND_TIMER =
+      ServiceMetrics.daoTimer(MetricNames.BACKEND_FILE_REPOSITORY, "append");
+  private static final Timer READ_TIMER =
+      ServiceMetrics.daoTimer(MetricNames.BACKEND_FILE_REPOSITORY, "read");
+  private static final Timer RECOVERY_TIMER =
+      ServiceMetrics.timer(MetricNames.FILE_REPOSITORY_RECOVERY_TIME);
+  private static final Counter COMPACTED_COUNTER =
+      ServiceMetrics.counter(MetricNames.FILE_REPOSITORY_COMPACTED);
+
+  private Path directory;
+  private IdGenerator idGenerator;
+  private ChecksumAlgorithm preferredChecksumAlgorithm;
+  private boolean verifyOnRead;
+  private boolean forceOnStore;
+  private long maxSegmentBytes;
+  private double compactionThreshold;
+  private int compactionIntervalInSecs;
+  private final ConcurrentSkipListMap<Integer, Segment> segments =
+      new ConcurrentSkipListMap<Integer, Segment>();
+  private final CasIdIndex index = new CasIdIndex();
+  private final ReentrantReadWriteLock indexLock = new ReentrantReadWriteLock();
+  private final Object appendLock = new Object();
+  private final Object mutationLock = new Object();
+  private volatile Segment activeSegment;
+  private ScheduledExecutorService compactor;
+
+  private FileSegmentRepositoryDao() {}
+
+  @Override
+  public void initialize() {
+    try {
+      Files.createDirectories(directory);
+      recover();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    if (compactionIntervalInSecs > 0) {
+      if (LOGGER.isTraceEnabled()) {
+        LOGGER.trace("Compacting the segments every {} seconds.", compactionIntervalInSecs);
+      }
+
+      compactor =
+          Executors.newSingleThreadScheduledExecutor(
+              runnable -> {
+                Thread thread = new Thread(runnable, "segment-compactor");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+              });
+      compactor.scheduleWithFixedDelay(
+          this::compactQuietly,
+          compactionIntervalInSecs,
+          compactionIntervalInSecs,
+          TimeUnit.SECONDS);
+    }
+  }
+
+  /**
+   * Rebuilds the index from the segment files. Later records win over earlier ones, so a record
+   * that was copied by a compaction that did not finish is only indexed once.
+   *
+   * @throws IOException a segment file could not be read.
+   */
+  private void recover() throws IOException {
+    long start = System.nanoTime();
+    List<Path> files;
+
+    try (Stream<Path> stream = Files.list(directory)) {
+      files =
+          stream
+              .filter(path -> segmentId(path) >= 0)
+              .sorted((left, right) -> Integer.compare(segmentId(left), segmentId(right)))
+              .collect(Collectors.toList());
+    }
+
+    for (int i = 0; i < files.size(); i++) {
+      Segment segment = Segment.open(segmentId(files.get(i)), files.get(i));
+      segments.put(segment.id, segment);
+      scan(segment, i == (files.size() - 1));
+    }
+
+    activeSegment = segments.isEmpty() ? createSegment(0) : segments.lastEntry().getValue();
+    activeSegment.channel.position(activeSegment.size);
+
+    RECOVERY_TIMER.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+    if (LOGGER.isTraceEnabled()) {
+      LOGGER.trace("Recovered {} Cases from {} segments.", index.size(), segments.size());
+    }
+  }
+
+  /**
+   * Indexes the records of a segment by walking its headers.
+   *
+   * @param segment the segment to scan.
+   * @param last whether this is the last segment, which is appended to after the scan.
+   * @throws IOException the segment could not be read or truncated.
+   */
+  private void scan(Segment segment, boolean last) throws IOException {
+    long fileSize = segment.channel.size();
+    segment.size = fileSize;
+
+    ByteBuffer mapped = segment.map(fileSize);
+    int position = 0;
+
+    while ((position + HEADER_SIZE) <= fileSize) {
+      int recordLength = validRecordLength(mapped, position, fileSize);
+
+      if (recordLength < 0) {
+        break;
+      }
+
+      String casId = readString(mapped, position + HEADER_SIZE, mapped.getShort(position + 6));
+
+      if (mapped.get(position + 4) == RECORD_CAS) {
+        index(casId, location(segment.id, position), recordLength);
+      } else {
+        unindex(casId);
+        segment.deadBytes.addAndGet(recordLength);
+      }
+
+      position += recordLength;
+    }
+
+    if (position < fileSize) {
+      LOGGER.warn(
+          "The segment {} has {} unreadable bytes at its end. They are ignored.",
+          segment.path,
+          fileSize - position);
+
+      segment.size = position;
+
+      if (last) {
+        // The tail was torn by a crash, so the next append overwrites it.
+        segment.channel.truncate(position);
+        segment.mapped = null;
+      }
+    }
+  }
+
+  @Override
+  public Cas getCasId(String casId) throws Exception {
+    LOGGER.trace("Getting the Cas: {}.", casId);
+
+    if (StringUtils.isEmpty(casId)) {
+      LOGGER.trace("Invalid Cas ID specified.");
+
+      throw new IllegalArgumentException(ErrorMessages.INVALID_CAS_ID);
+    }
+
+    Cas cas =
+        readRecord(
+            casId,
+            (segment, offset, length) ->
+                READ_TIMER.recordCallable(() -> read(segment, offset, length)));
+
+    if (cas == null) {
+      LOGGER.trace("The Cas {} is not in the repository.", casId);
+
+      throw new IllegalArgumentException(ErrorMessages.INVALID_REPOSITORY_ENTRY);
+    }
+
+    return cas;
+  }
+
+  /**
+   * Looks up the record of a Cas and reads it.
+   *
+   * @param casId the Cas ID to look up.
+   * @param reader reads the record.
+   * @return what the reader read, or null if the Cas is not in the repository.
+   * @throws Exception the record could not be read.
+   */
+  private <T> T readRecord(String casId, RecordReader<T> reader) throws Exception {
+    // A compaction may move the record and drop its segment between the lookup and the read. The
+    // index already points at the copy by then, so looking it up again finds it.
+    for (int attempt = 0; attempt < MAX_LOOKUP_ATTEMPTS; attempt++) {
+      long location;
+      int length;
+
+      indexLock.readLock().lock();
+      try {
+        int slot = index.find(casId);
+
+        if (slot < 0) {
+          return null;
+        }
+
+        location = index.locations[slot];
+        length = index.lengths[slot];
+      } finally {
+        indexLock.readLock().unlock();
+      }
+
+      Segment segment = segments.get(segmentOf(location));
+
+      if (segment != null) {
+        return reader.read(segment, offsetOf(location), length);
+      }
+    }
+
+    throw new IllegalRepositoryStateException(ErrorMessages.INVALID_REPOSITORY_ENTRY);
+  }
+
+  /**
+   * Reads a Cas record. The Cas data is a slice of the mapped segment, so it is handed to the
+   * response without being copied. The mapping stays valid after its segment is compacted and
+   * deleted, until the slice is no longer used. A record in the unmapped tail of the active segment
+   * is copied instead.
+   *
+   * @param segment the segment holding the record.
+   * @param offset the offset of the record.
+   * @param length the length of the record.
+   * @return the {@link com.revistek.crs.protos.Cas Cas} of the record.
+   * @throws Exception the record is malformed or failed its checksum check.
+   */
+  private Cas read(Segment segment, int offset, int length) throws Exception {
+    ByteBuffer mapped = segment.mapForRead((long) offset + length);
+    int start = offset;
+
+    if (mapped == null) {
+      // The record is in the unmapped tail of the active segment, so it is read into a copy.
+      mapped = segment.read(offset, length);
+      start = 0;
+    }
+
+    if ((mapped.getInt(start) != RECORD_MAGIC) || (mapped.get(start + 4) != RECORD_CAS)) {
+      throw new IllegalRepositoryStateException(ErrorMessages.INVALID_REPOSITORY_ENTRY);
+    }
+
+    byte algorithmOrdinal = mapped.get(start + 5);
+    int casIdLength = Short.toUnsignedInt(mapped.getShort(start + 6));
+    int documentIdLength = Short.toUnsignedInt(mapped.getShort(start + 8));
+    int dataLength = mapped.getInt(start + 10);
+    long checksum = mapped.getLong(start + 14);
+    int dataStart = start + HEADER_SIZE + casIdLength + documentIdLength;
+
+    ByteBuffer data = mapped.duplicate();
+    data.limit(dataStart + dataLength).position(dataStart);
+
+    Cas cas =
+        Cas.newBuilder()
+            .setCasId(readString(mapped, start + HEADER_SIZE, (short) casIdLength))
+            .setDocumentId(
+                readString(mapped, start + HEADER_SIZE + casIdLength, (short) documentIdLength))
+            .setCrc32Checksum(checksum)
+            .setCasData(UnsafeByteOperations.unsafeWrap(data.slice()))
+            .build();
+
+    // Records that recorded their algorithm are always checked, like the MongoDB repository.
+    if (verifyOnRead || (algorithmOrdinal != NO_ALGORITHM)) {
+      ChecksumAlgorithm algorithm =
+          (algorithmOrdinal == NO_ALGORITHM)
+              ? ChecksumAlgorithm.CRC32
+              : ChecksumAlgorithm.values()[algorithmOrdinal];
+
+      if (algorithm.compute(cas.getCasData()) != checksum) {
+        LOGGER.trace("The Cas {} failed its checksum check on read.", cas.getCasId());
+
+        throw new MalformedDataException(
+            ErrorMessages.getChecksumFailedMessage(cas.getDocumentId()));
+      }
+    }
+
+    return cas;
+  }
+
+  /**
+   * Reads the document ID of a Cas record, without its Cas data.
+   *
+   * @param segment the segment holding the record.
+   * @param offset the offset of the record.
+   * @param length the length of the record.
+   * @return the document ID.
+   * @throws Exception the record is malformed.
+   */
+  private static String readDocumentId(Segment segment, int offset, int length) throws Exception {
+    ByteBuffer mapped = segment.mapForRead((long) offset + length);
+    int start = offset;
+
+    if (mapped == null) {
+      mapped = segment.read(offset, length);
+      start = 0;
+    }
+
+    if ((mapped.getInt(start) != RECORD_MAGIC) || (mapped.get(start + 4) != RECORD_CAS)) {
+      throw new IllegalRepositoryStateException(ErrorMessages.INVALID_REPOSITORY_ENTRY);
+    }
+
+    int casIdLength = Short.toUnsignedInt(mapped.getShort(start + 6));
+    return readString(mapped, start + HEADER_SIZE + casIdLength, mapped.getShort(start + 8));
+  }
+
+  @Override
+  public String store(Cas cas) throws Exception {
+    return store(cas, idGenerator::refreshAndGetUniqueId);
+  }
+
+  @Override
+  public String store(Cas cas, String casId) throws Exception {
+    if (StringUtils.isEmpty(casId)) {
+      LOGGER.trace("Invalid Cas ID specified.");
+
+      throw new IllegalArgumentException(ErrorMessages.INVALID_CAS_ID);
+    }
+
+    return store(cas, () -> casId);
+  }
+
+  private String store(Cas cas, Supplier<String> casIdSupplier) throws Exception {
+    String docId = cas.getDocumentId();
+    ByteString data = cas.getCasData();
+
+    if (StringUtils.isEmpty(docId)) {
+      LOGGER.trace("Invalid document ID specified.");
+
+      throw new MalformedDataException(ErrorMessages.INVALID_PROTOBUF_CAS);
+    }
+
+    if (data.isEmpty()) {
+      LOGGER.trace("There is no UIMA Cas/JCas data to store.");
+
+      throw new MalformedDataException(ErrorMessages.INVALID_PROTOBUF_CAS);
+    }
+
+    ChecksumAlgorithm algorithm =
+        ChecksumAlgorithm.match(data, cas.getCrc32Checksum(), preferredChecksumAlgorithm);
+
+    if (algorithm == null) {
+      LOGGER.trace("The UIMA Cas/JCas failed its checksum check.");
+
+      throw new MalformedDataException(ErrorMessages.getChecksumFailedMessage(docId));
+    }
+
+    String casId = casIdSupplier.get();
+    LOGGER.trace("Storing the Cas: {} for document: {}.", casId, docId);
+
+    ByteBuffer header =
+        header(
+            RECORD_CAS,
+            (byte) algorithm.ordinal(),
+            casId,
+            docId,
+            data.size(),
+            cas.getCrc32Checksum());
+    List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+    buffers.add(header);
+    buffers.addAll(data.asReadOnlyByteBufferList());
+
+    int recordLength = header.remaining() + data.size();
+    long location =
+        APPEND_TIMER.recordCallable(
+            () -> append(buffers.toArray(new ByteBuffer[0]), recordLength));
+    index(casId, location, recordLength);
+
+    return casId;
+  }
+
+  @Override
+  public void deleteCasId(String casId) throws Exception {
+    LOGGER.trace("Deleting the Cas: {}.", casId);
+
+    if (StringUtils.isEmpty(casId)) {
+      LOGGER.trace("Invalid Cas ID specified.");
+
+      throw new IllegalArgumentException(ErrorMessages.INVALID_CAS_ID);
+    }
+
+    synchronized (mutationLock) {
+      long location = locationOf(casId);
+
+      if (location < 0) {
+        return;
+      }
+
+      ByteBuffer tombstone =
+          header(RECORD_TOMBSTONE, NO_ALGORITHM, casId, "", 0, segmentOf(location));
+      int tombstoneLength = tombstone.remaining();
+      long tombstoneLocation =
+          APPEND_TIMER.recordCallable(
+              () -> append(new ByteBuffer[] {tombstone}, tombstoneLength));
+
+      unindex(casId);
+      markDead(tombstoneLocation, tombstoneLength);
+    }
+  }
+
+  @Override
+  public boolean existsCasId(String casId) throws Exception {
+    if (StringUtils.isEmpty(casId)) {
+      LOGGER.trace("Invalid Cas ID specified.");
+
+      throw new IllegalArgumentException(ErrorMessages.INVALID_CAS_ID);
+    }
+
+    return (locationOf(casId) >= 0);
+  }
+
+  /**
+   * Lists the Cas IDs of a document. The index is keyed by Cas ID alone, so this reads the header
+   * of every live record. It is meant for occasional lookups, not for the read path.
+   */
+  @Override
+  public List<String> getCasIds(String documentId) throws Exception {
+    LOGGER.trace("Listing the Cases of the document: {}.", documentId);
+
+    List<String> casIds = new ArrayList<String>();
+    List<String> indexed;
+
+    indexLock.readLock().lock();
+    try {
+      indexed = index.keys();
+    } finally {
+      indexLock.readLock().unlock();
+    }
+
+    for (String casId : indexed) {
+      // A Cas deleted since the snapshot reads as null and is left out.
+      if (documentId.equals(readRecord(casId, FileSegmentRepositoryDao::readDocumentId))) {
+        casIds.add(casId);
+      }
+    }
+
+    return casIds;
+  }
+
+  /**
+   * Appends a record to the active segment, starting a new segment if it does not fit.
+   *
+   * @param buffers the bytes of the record.
+   * @param recordLength the length of the record.
+   * @return the location of the record.
+   * @throws IOException the record could not be written.
+   */
+  private long append(ByteBuffer[] buffers, int recordLength) throws IOException {
+    synchronized (appendLock) {
+      Segment segment = activeSegment;
+
+      if (segment == null) {
+        LOGGER.trace("The repository directory has not been opened.");
+
+        throw new NullPointerException(ErrorMessages.REPOSITORY_NOT_CONNECTED);
+      }
+
+      if ((segment.size > 0) && ((segment.size + recordLength) > maxSegmentBytes)) {
+        segment = roll();
+      }
+
+      long offset = segment.size;
+      long written = 0;
+
+      while (written < recordLength) {
+        written += segment.channel.write(buffers);
+      }
+
+      if (forceOnStore) {
+        segment.channel.force(false);
+      }
+
+      // Readers only see the record once it is fully written.
+      segment.size = offset + recordLength;
+      return location(segment.id, offset);
+    }
+  }
+
+  /**
+   * Seals the active segment and starts a new one. The caller holds the append lock.
+   *
+   * @return the new active segment.
+   * @throws IOException the segments could not be written.
+   */
+  private Segment roll() throws IOException {
+    Segment sealed = activeSegment;
+    sealed.channel.force(false);
+    sealed.map(sealed.size);
+
+    Segment segment = createSegment(sealed.id + 1);
+
+    if (LOGGER.isTraceEnabled()) {
+      LOGGER.trace("Sealed the segment {}. Appending to segment {}.", sealed.id, segment.id);
+    }
+
+    activeSegment = segment;
+    return segment;
+  }
+
+  private Segment createSegment(int id) throws IOException {
+    Path path = directory.resolve(SEGMENT_PREFIX + String.format("%010d", id) + SEGMENT_SUFFIX);
+    Segment segment = Segment.open(id, path);
+    segments.put(id, segment);
+    return segment;
+  }
+
+  private void compactQuietly() {
+    try {
+      compact();
+    } catch (IOException | RuntimeException e) {
+      // The dead records stay until the next pass.
+      LOGGER.warn("The segment compaction failed.", e);
+    }
+  }
+
+  /**
+   * Compacts the sealed segments whose share of dead bytes has reached the threshold. The live
+   * records are copied to the active segment, and the segment file is deleted.
+   *
+   * @return the number of segments that were compacted.
+   * @throws IOException a segment could not be read or written.
+   */
+  public int compact() throws IOException {
+    int compacted = 0;
+
+    for (Segment segment : segments.values()) {
+      if ((segment == activeSegment)
+          || (segment.deadBytes.get() < (segment.size * compactionThreshold))) {
+        continue;
+      }
+
+      compact(segment);
+      compacted++;
+    }
+
+    return compacted;
+  }
+
+  private void compact(Segment segment) throws IOException {
+    if (LOGGER.isTraceEnabled()) {
+      LOGGER.trace("Compacting the segment {}.", segment.id);
+    }
+
+    ByteBuffer mapped = segment.map(segment.size);
+    int position = 0;
+
+    while (position < segment.size) {
+      int recordLength = recordLength(mapped, position);
+      String casId = readString(mapped, position + HEADER_SIZE, mapped.getShort(position + 6));
+      ByteBuffer record = mapped.duplicate();
+      record.limit(position + recordLength).position(position);
+
+      if (mapped.get(position + 4) == RECORD_CAS) {
+        copyIfLive(casId, location(segment.id, position), record.slice(), recordLength);
+      } else {
+        // The tombstone is only needed while the deleted record is still on disk.
+        int target = (int) mapped.getLong(position + 14);
+
+        if ((target != segment.id) && segments.containsKey(target)) {
+          long copied = append(new ByteBuffer[] {record.slice()}, recordLength);
+          markDead(copied, recordLength);
+        }
+      }
+
+      position += recordLength;
+    }
+
+    // The copies must be on disk before the originals are gone.
+    synchronized (appendLock) {
+      activeSegment.channel.force(false);
+    }
+
+    segments.remove(segment.id);
+    segment.channel.close();
+    Files.delete(segment.path);
+    COMPACTED_COUNTER.increment();
+  }
+
+  private void copyIfLive(String casId, long location, ByteBuffer record, int recordLength)
+      throws IOException {
+    synchronized (mutationLock) {
+      if (locationOf(casId) != location) {
+        // The Cas was deleted or copied since it was written.
+        return;
+      }
+
+      long copied = append(new ByteBuffer[] {record}, recordLength);
+      index(casId, copied, recordLength);
+    }
+  }
+
+  private long locationOf(String casId) {
+    indexLock.readLock().lock();
+    try {
+      int slot = index.find(casId);
+      return (slot < 0) ? -1L : index.locations[slot];
+    } finally {
+      indexLock.readLock().unlock();
+    }
+  }
+
+  private void index(String casId, long location, int length) {
+    indexLock.writeLock().lock();
+    try {
+      int slot = index.find(casId);
+
+      if (slot >= 0) {
+        markDead(index.locations[slot], index.lengths[slot]);
+      }
+
+      index.put(casId, location, length);
+    } finally {
+      indexLock.writeLock().unlock();
+    }
+  }
+
+  private void unindex(String casId) {
+    indexLock.writeLock().lock();
+    try {
+      int slot = index.find(casId);
+
+      if (slot >= 0) {
+        markDead(index.locations[slot], index.lengths[slot]);
+        index.removeAt(slot);
+      }
+    } finally {
+      indexLock.writeLock().unlock();
+    }
+  }
+
+  private void markDead(long location, int length) {
+    Segment segment = segments.get(segmentOf(location));
+
+    if (segment != null) {
+      segment.deadBytes.addAndGet(length);
+    }
+  }
+
+  @Override
+  public void cleanup() {
+    LOGGER.trace("Closing.");
+
+    if (compactor != null) {
+      compactor.shutdownNow();
+    }
+
+    synchronized (appendLock) {
+      for (Segment segment : segments.values()) {
+        try {
+          segment.channel.close();
+        } catch (IOException e) {
+          LOGGER.warn("Failed to close the segment {}.", segment.path, e);
+        }
+      }
+    }
+  }
+
+  public Path getDirectory() {
+    return directory;
+  }
+
+  public IdGenerator getIdGenerator() {
+    return idGenerator;
+  }
+
+  public boolean isVerifyOnRead() {
+    return verifyOnRead;
+  }
+
+  int getSegmentCount() {
+    return segments.size();
+  }
+
+  private static ByteBuffer header(
+      byte type,
+      byte algorithmOrdinal,
+      String casId,
+      String documentId,
+      int dataLength,
+      long checksum) {
+    byte[] casIdBytes = casId.getBytes(StandardCharsets.UTF_8);
+    byte[] documentIdBytes = documentId.getBytes(StandardCharsets.UTF_8);
+
+    if ((casIdBytes.length > MAX_ID_LENGTH) || (documentIdBytes.length > MAX_ID_LENGTH)) {
+      throw new IllegalArgumentException(ErrorMessages.INVALID_PROTOBUF_CAS);
+    }
+
+    ByteBuffer header =
+        ByteBuffer.allocate(HEADER_SIZE + casIdBytes.length + documentIdBytes.length);
+    header
+        .putInt(RECORD_MAGIC)
+        .put(type)
+        .put(algorithmOrdinal)
+        .putShort((short) casIdBytes.length)
+        .putShort((short) documentIdBytes.length)
+        .putInt(dataLength)
+        .putLong(checksum);
+
+    CRC32 crc = new CRC32();
+    crc.update(header.array(), 0, HEADER_CRC_OFFSET);
+    crc.update(casIdBytes);
+    crc.update(documentIdBytes);
+
+    header.putInt((int) crc.getValue()).put(casIdBytes).put(documentIdBytes);
+    header.flip();
+    return header;
+  }
+
+  /**
+   * Checks the header of a record during recovery.
+   *
+   * @param mapped the mapped segment.
+   * @param position the offset of the record.
+   * @param end the end of the readable bytes.
+   * @return the length of the record, or -1 if the record is torn or corrupt.
+   */
+  private static int validRecordLength(ByteBuffer mapped, int position, long end) {
+    if (mapped.getInt(position) != RECORD_MAGIC) {
+      return -1;
+    }
+
+    int idsLength =
+        Short.toUnsignedInt(mapped.getShort(position + 6))
+            + Short.toUnsignedInt(mapped.getShort(position + 8));
+    long recordLength = (long) HEADER_SIZE + idsLength + mapped.getInt(position + 10);
+
+    if ((mapped.getInt(position + 10) < 0) || ((position + recordLength) > end)) {
+      return -1;
+    }
+
+    ByteBuffer header = mapped.duplicate();
+    header.limit(position + HEADER_CRC_OFFSET).position(position);
+    ByteBuffer ids = mapped.duplicate();
+    ids.limit(position + HEADER_SIZE + idsLength).position(position + HEADER_SIZE);
+
+    CRC32 crc = new CRC32();
+    crc.update(header);
+    crc.update(ids);
+
+    return (((int) crc.getValue()) == mapped.getInt(position + HEADER_CRC_OFFSET))
+        ? (int) recordLength
+        : -1;
+  }
+
+  private static int recordLength(ByteBuffer mapped, int position) {
+    return HEADER_SIZE
+        + Short.toUnsignedInt(mapped.getShort(position + 6))
+        + Short.toUnsignedInt(mapped.getShort(position + 8))
+        + mapped.getInt(position + 10);
+  }
+
+  private static String readString(ByteBuffer mapped, int position, short length) {
+    byte[] bytes = new byte[Short.toUnsignedInt(length)];
+    ByteBuffer source = mapped.duplicate();
+    source.position(position);
+    source.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static int segmentId(Path path) {
+    String name = path.getFileName().toString();
+
+    if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) {
+      return -1;
+    }
+
+    try {
+      return Integer.parseInt(
+          name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private static long location(int segmentId, long offset) {
+    return (((long) segmentId) << 32) | offset;
+  }
+
+  private static int segmentOf(long location) {
+    return (int) (location >>> 32);
+  }
+
+  private static int offsetOf(long location) {
+    return (int) location;
+  }
+
+  /** Reads a record found in the index. */
+  @FunctionalInterface
+  private interface RecordReader<T> {
+    T read(Segment segment, int offset, int length) throws Exception;
+  }
+
+  /** A segment file and its read-only mapping. */
+  private static final class Segment {
+    private final int id;
+    private final Path path;
+    private final FileChannel channel;
+    private final AtomicLong deadBytes = new AtomicLong();
+    private volatile long size;
+    private volatile MappedByteBuffer mapped;
+
+    private Segment(int id, Path path, FileChannel channel) {
+      this.id = id;
+      this.path = path;
+      this.channel = channel;
+    }
+
+    private static Segment open(int id, Path path) throws IOException {
+      return new Segment(
+          id,
+          path,
+          FileChannel.open(
+              path,
+              StandardOpenOption.CREATE,
+              StandardOpenOption.READ,
+              StandardOpenOption.WRITE));
+    }
+
+    /**
+     * Returns a mapping that covers at least the given end, mapping the segment again if it has
+     * grown past the old mapping.
+     *
+     * @param end the end of the bytes to read.
+     * @return the mapping.
+     * @throws IOException the segment could not be mapped.
+     */
+    private ByteBuffer map(long end) throws IOException {
+      MappedByteBuffer buffer = mapped;
+
+      if ((buffer == null) || (buffer.capacity() < end)) {
+        synchronized (this) {
+          buffer = mapped;
+
+          if ((buffer == null) || (buffer.capacity() < end)) {
+            buffer = channel.map(MapMode.READ_ONLY, 0, size);
+            mapped = buffer;
+          }
+        }
+      }
+
+      return buffer;
+    }
+
+    /**
+     * Returns a mapping for a read that ends at the given end. The active segment is only mapped
+     * again once it has grown {@code REMAP_BYTES} past its mapping, not on every read of a record
+     * stored since.
+     *
+     * @param end the end of the bytes to read.
+     * @return the mapping, or null if the end is in the unmapped tail, which is read with {@link
+     *     #read(int, int)}.
+     * @throws IOException the segment could not be mapped.
+     */
+    private ByteBuffer mapForRead(long end) throws IOException {
+      MappedByteBuffer buffer = mapped;
+      long mappedEnd = (buffer == null) ? 0 : buffer.capacity();
+
+      if (end <= mappedEnd) {
+        return buffer;
+      }
+
+      return ((size - mappedEnd) < REMAP_BYTES) ? null : map(end);
+    }
+
+    /**
+     * Reads a copy of bytes of the segment. The channel reads at a position, so concurrent reads
+     * and appends do not interfere.
+     *
+     * @param offset where the bytes start.
+     * @param length the number of bytes.
+     * @return a buffer holding the bytes from position 0.
+     * @throws IOException the bytes could not be read.
+     */
+    private ByteBuffer read(int offset, int length) throws IOException {
+      ByteBuffer buffer = ByteBuffer.allocate(length);
+
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer, (long) offset + buffer.position()) < 0) {
+          throw new EOFException();
+        }
+      }
+
+      buffer.flip();
+      return buffer;
+    }
+  }
+
+  /**
+   * An open-addressing hash index from Cas ID to record location. The locations and lengths are
+   * kept in primitive arrays so that the index does not hold a boxed entry per Cas. It is not
+   * thread safe; the DAO guards it with a read-write lock.
+   */
+  private static final class CasIdIndex {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private String[] keys = new String[INITIAL_CAPACITY];
+    private long[] locations = new long[INITIAL_CAPACITY];
+    private int[] lengths = new int[INITIAL_CAPACITY];
+    private int mask = INITIAL_CAPACITY - 1;
+    private int count;
+
+    private int find(String casId) {
+      for (int slot = slotOf(casId); keys[slot] != null; slot = (slot + 1) & mask) {
+        if (keys[slot].equals(casId)) {
+          return slot;
+        }
+      }
+
+      return -1;
+    }
+
+    private void put(String casId, long location, int length) {
+      if ((count + 1) > ((keys.length * 3) / 4)) {
+        resize();
+      }
+
+      int slot = slotOf(casId);
+
+      while ((keys[slot] != null) && !keys[slot].equals(casId)) {
+        slot = (slot + 1) & mask;
+      }
+
+      if (keys[slot] == null) {
+        count++;
+      }
+
+      keys[slot] = casId;
+      locations[slot] = location;
+      lengths[slot] = length;
+    }
+
+    /**
+     * Removes an entry and shifts the entries after it back, so that lookups never need
+     * tombstones.
+     *
+     * @param slot the slot of the entry.
+     */
+    private void removeAt(int slot) {
+      int hole = slot;
+
+      for (int next = (hole + 1) & mask; keys[next] != null; next = (next + 1) & mask) {
+        // An entry may fill the hole only if the hole is between its home slot and its slot.
+        if (((next - slotOf(keys[next])) & mask) >= ((next - hole) & mask)) {
+          keys[hole] = keys[next];
+          locations[hole] = locations[next];
+          lengths[hole] = lengths[next];
+          hole = next;
+        }
+      }
+
+      keys[hole] = null;
+      count--;
+    }
+
+    private void resize() {
+      String[] oldKeys = keys;
+      long[] oldLocations = locations;
+      int[] oldLengths = lengths;
+
+      keys = new String[oldKeys.length * 2];
+      locations = new long[oldKeys.length * 2];
+      lengths = new int[oldKeys.length * 2];
+      mask = keys.length - 1;
+      count = 0;
+
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldKeys[i] != null) {
+          put(oldKeys[i], oldLocations[i], oldLengths[i]);
+        }
+      }
+    }
+
+    private int slotOf(String casId) {
+      int hash = casId.hashCode() * 0x9E3779B9;
+      return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    private int size() {
+      return count;
+    }
+
+    private List<String> keys() {
+      List<String> casIds = new ArrayList<String>(count);
+
+      for (String key : keys) {
+        if (key != null) {
+          casIds.add(key);
+        }
+      }
+
+      return casIds;
+    }
+  }
+
+  /**
+   * The builder for {@link com.revistek.util.FileSegmentRepositoryDao FileSegmentRepositoryDao}.
+   *
+   * @author Chuong Ngo
+   */
+  public static class Builder {
+    private Path directory;
+    private IdGenerator idGenerator;
+    private ChecksumAlgorithm preferredChecksumAlgorithm = ChecksumAlgorithm.CRC32;
+    private boolean verifyOnRead;
+    private boolean forceOnStore;
+    private long maxSegmentBytes = DEFAULT_MAX_SEGMENT_BYTES;
+    private double compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+    private int compactionIntervalInSecs = DEFAULT_COMPACTION_INTERVAL_IN_SECS;
+
+    public Builder directory(Path directory) {
+      this.directory = directory;
+      return this;
+    }
+
+    public Builder idGenerator(IdGenerator idGenerator) {
+      this.idGenerator = idGenerator;
+      return this;
+    }
+
+    public Builder preferredChecksumAlgorithm(ChecksumAlgorithm preferredChecksumAlgorithm) {
+      if (preferredChecksumAlgorithm != null) {
+        this.preferredChecksumAlgorithm = preferredChecksumAlgorithm;
+      }
+
+      return this;
+    }
+
+    public Builder verifyOnRead(boolean verifyOnRead) {
+      this.verifyOnRead = verifyOnRead;
+      return this;
+    }
+
+    /**
+     * Sets whether every store waits for its record to reach the disk. Otherwise the records are
+     * flushed by the operating system and when a segment is sealed.
+     *
+     * @param forceOnStore true to force every record to the disk.
+     * @return this builder.
+     */
+    public Builder forceOnStore(boolean forceOnStore) {
+      this.forceOnStore = forceOnStore;
+      return this;
+    }
+
+    /**
+     * Sets the size a segment may grow to before a new one is started. A Cas larger than this
+     * gets a segment of its own.
+     *
+     * @param maxSegmentBytes the segment size. It must be below 2 GB so that it can be mapped.
+     * @return this builder.
+     */
+    public Builder maxSegmentBytes(long maxSegmentBytes) {
+      this.maxSegmentBytes = maxSegmentBytes;
+      return this;
+    }
+
+    /**
+     * Sets the share of dead bytes at which a sealed segment is compacted.
+     *
+     * @param compactionThreshold the share, greater than 0 and at most 1.
+     * @return this builder.
+     */
+    public Builder compactionThreshold(double compactionThreshold) {
+      this.compactionThreshold = compactionThreshold;
+      return this;
+    }
+
+    /**
+     * Sets how often segments are compacted in the background.
+     *
+     * @param compactionIntervalInSecs the interval, or 0 to only compact when asked.
+     * @return this builder.
+     */
+    public Builder compactionIntervalInSecs(int compactionIntervalInSecs) {
+      this.compactionIntervalInSecs = compactionIntervalInSecs;
+      return this;
+    }
+
+    public FileSegmentRepositoryDao build() throws IllegalArgumentException {
+      if (directory == null) {
+        throw new IllegalArgumentException(ErrorMessages.INVALID_REPOSITORY_URL);
+      }
+
+      if (idGenerator == null) {
+        throw new IllegalArgumentException(ErrorMessages.INVALID_REPOSITORY_IDGENERATOR);
+      }
+
+      if ((maxSegmentBytes <= HEADER_SIZE)
+          || (maxSegmentBytes >= Integer.MAX_VALUE)
+          || (compactionThreshold <= 0)
+          || (compactionThreshold > 1)
+          || (compactionIntervalInSecs < 0)) {
+        throw new IllegalArgumentException(ErrorMessages.INVALID_FILE_REPOSITORY_SETTINGS);
+      }
+
+      FileSegmentRepositoryDao dao = new FileSegmentRepositoryDao();
+      dao.directory = directory;
+      dao.idGenerator = idGenerator;
+      dao.preferredChecksumAlgorithm = preferredChecksumAlgorithm;
+      dao.verifyOnRead = verifyOnRead;
+      dao.forceOnStore = forceOnStore;
+      dao.maxSegmentBytes = maxSegmentBytes;
+      dao.compactionThreshold = compactionThreshold;
+      dao.compactionIntervalInSecs = compactionIntervalInSecs;
+
+      return dao;
+    }
+  }
+
+  /**
+   * Returns a new builder.
+   *
+   * @return Returns a new {@link com.revistek.util.FileSegmentRepositoryDao.Builder builder}.
+   */
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+}
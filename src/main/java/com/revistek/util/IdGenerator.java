@@ -3,8 +3,11 @@ package com.revistek.util;
 import com.revistek.crs.constants.Cache;
 // import com.revistek.util.constants.CacheConstants;
 import com.revistek.util.constants.ErrorMessages;
+import com.revistek.util.constants.MetricNames;
+import io.micrometer.core.instrument.Timer;
 import java.time.Clock;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,12 +22,15 @@ public class IdGenerator {
   public static final String DEFAULT_ID_CACHE_KEY = "idKey";
 
   private static final Logger LOGGER = LoggerFactory.getLogger(IdGenerator.class);
+  private static final Timer ID_GENERATION_TIMER =
+      ServiceMetrics.timer(MetricNames.ID_GENERATION_TIME);
 
   private CacheDao cacheDao;
   private String delimiter;
   private UUID uuid;
   private Clock clock;
   private RandomNumberGenerator randomNumberGenerator;
+  private ScalableBloomFilter idFilter;
 
   private IdGenerator() {}
 
@@ -71,6 +77,7 @@ public class IdGenerator {
   public String uniqueId() {
     LOGGER.trace("Generating a unique ID string.");
 
+    long start = System.nanoTime();
     String idString;
     boolean isDuplicate = true;
 
@@ -88,7 +95,9 @@ public class IdGenerator {
               .toString();
 
       try {
-        isDuplicate = cacheDao.exists(idString);
+        // The local filter answers definite negatives without a round trip to the cache.
+        isDuplicate =
+            ((idFilter == null) || idFilter.mightContain(idString)) && cacheDao.exists(idString);
       } catch (Exception e) {
         LOGGER.trace(
             "The generated ID string is not unique. Randomizing the ID string generating components and trying again.");
@@ -101,9 +110,19 @@ public class IdGenerator {
 
     LOGGER.trace("Writing the ID string too the cache with the default timeout.");
     cacheDao.set(idString, idString, Cache.DEFAULT_TIMEOUT_IN_SECS);
+
+    if (idFilter != null) {
+      idFilter.add(idString);
+    }
+
+    ID_GENERATION_TIMER.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
     return idString;
   }
 
+  public ScalableBloomFilter getIdFilter() {
+    return idFilter;
+  }
+
   /**
    * The builder class for {@link com.revistek.util.IdGenerator IdGenerator}.
    *
@@ -115,6 +134,7 @@ public class IdGenerator {
     private UUID uuid;
     private Clock clock;
     private RandomNumberGenerator randomNumberGenerator;
+    private ScalableBloomFilter idFilter;
 
     public Builder cacheDao(CacheDao cacheDao) {
       if (cacheDao == null) {
@@ -145,10 +165,23 @@ public class IdGenerator {
       return this;
     }
 
+    /**
+     * Sets a local filter of the IDs already generated. When set, an ID that the filter has
+     * definitely not seen is not checked against the cache.
+     *
+     * @param idFilter the filter to use.
+     * @return this builder.
+     */
+    public Builder idFilter(ScalableBloomFilter idFilter) {
+      this.idFilter = idFilter;
+      return this;
+    }
+
     public IdGenerator build() {
       IdGenerator idGenerator = new IdGenerator();
       idGenerator.cacheDao = cacheDao;
       idGenerator.cacheDao.initialize();
+      idGenerator.idFilter = idFilter;
 
       if (uuid != null) {
         idGenerator.uuid = uuid;
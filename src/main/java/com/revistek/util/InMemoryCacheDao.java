@@ -0,0 +1,123 @@
+package com.revistek.util;
+
+import com.revistek.util.constants.MetricNames;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An implementation of a Cache DAO that keeps the values in the memory of the service, for tests
+ * and short-lived pipelines that do not need Redis.
+ *
+ * <p>The cache is bounded by the bytes of its keys and values, and the oldest values are evicted
+ * first. Values set with a timeout expire
+ * like they do in Redis; a timeout of 0 or less keeps the value until it is evicted.
+ *
+ * @author Chuong Ngo
+ */
+public class InMemoryCacheDao implements CacheDao {
+  public static final String URL_SCHEME = "mem";
+  public static final long DEFAULT_MAX_BYTES = 64L * 1024L * 1024L;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(CacheDao.class);
+
+  private final BoundedStripedMap<ByteBuffer, Object> entries;
+
+  public InMemoryCacheDao() {
+    this(DEFAULT_MAX_BYTES);
+  }
+
+  public InMemoryCacheDao(long maxBytes) {
+    this(maxBytes, System::currentTimeMillis);
+  }
+
+  InMemoryCacheDao(long maxBytes, LongSupplier clock) {
+    entries =
+        new BoundedStripedMap<ByteBuffer, Object>(
+            BoundedStripedMap.DEFAULT_STRIPES,
+            maxBytes,
+            clock,
+            ServiceMetrics.counter(
+                MetricNames.MEMORY_EVICTIONS,
+                MetricNames.TAG_BACKEND,
+                MetricNames.BACKEND_MEMORY_CACHE));
+
+    LOGGER.trace("Initialized.");
+  }
+
+  @Override
+  public void set(String key, String value, int timeoutInSecs) {
+    if (LOGGER.isTraceEnabled()) {
+      LOGGER.trace(
+          "Set the value for the key: {} with a timeout of {} seconds.", key, timeoutInSecs);
+    }
+
+    ByteBuffer cacheKey = toKey(key);
+    entries.put(
+        cacheKey, value, cacheKey.capacity() + (2L * value.length()), timeoutInSecs * 1000L);
+  }
+
+  /**
+   * Sets a map value, like a Redis hash. Settings such as the metadata store queries are read as
+   * maps, so an in-memory cache has to be seeded with them.
+   *
+   * @param key the key to associate the map to.
+   * @param map the map to cache. It is copied.
+   */
+  public void setMap(String key, Map<String, String> map) {
+    long bytes = 0;
+
+    for (Map.Entry<String, String> entry : map.entrySet()) {
+      bytes += 2L * (entry.getKey().length() + entry.getValue().length());
+    }
+
+    ByteBuffer cacheKey = toKey(key);
+    entries.put(
+        cacheKey,
+        Collections.unmodifiableMap(new HashMap<String, String>(map)),
+        cacheKey.capacity() + bytes,
+        0L);
+  }
+
+  @Override
+  public boolean exists(String key) {
+    return entries.containsKey(toKey(key));
+  }
+
+  @Override
+  public String get(String key) {
+    Object value = entries.get(toKey(key));
+    return (value instanceof String) ? (String) value : null;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public Map<String, String> getMap(String key) {
+    Object value = entries.get(toKey(key));
+
+    // Like HGETALL, a missing key reads as an empty map.
+    return (value instanceof Map) ? (Map<String, String>) value : Collections.emptyMap();
+  }
+
+  /**
+   * Removes a key.
+   *
+   * @param key the key to remove.
+   */
+  public void delete(String key) {
+    entries.remove(toKey(key));
+  }
+
+  public long getBytes() {
+    return entries.bytes();
+  }
+
+  private static ByteBuffer toKey(String key) {
+    return ByteBuffer.wrap(key.getBytes(StandardCharsets.UTF_8));
+  }
+}
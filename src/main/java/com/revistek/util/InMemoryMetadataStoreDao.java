@@ -0,0 +1,177 @@
+package com.revistek.util;
+
+import com.revistek.exceptions.IllegalMetadataStoreStateException;
+import com.revistek.util.constants.ErrorMessages;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.tuple.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An implementation of a Metadata Store DAO that keeps the Cas IDs in the memory of the service,
+ * for tests and short-lived pipelines. As with MongoDB, every query is a database, collection pair,
+ * and queries with the same pair share a table.
+ *
+ * @author Chuong Ngo
+ */
+public class InMemoryMetadataStoreDao implements MetadataStoreDao {
+  public static final String URL_SCHEME = "mem";
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(MetadataStoreDao.class);
+
+  private final Map<String, Set<String>> tables = new ConcurrentHashMap<String, Set<String>>();
+  // Copy-on-write so that in-flight requests always see a complete set of queries.
+  private volatile Map<String, String> queryMap = new HashMap<String, String>();
+
+  /**
+   * Adds the database, collection pairs to be used when querying the metadata store.
+   *
+   * @param key the query key to associate the database, collection pair to.
+   * @param database the database to query against.
+   * @param collection the collection to query or write to.
+   */
+  public void registerQuery(String key, String database, String collection) {
+    if (LOGGER.isTraceEnabled()) {
+      LOGGER.trace(
+          "Loading the query: {}, database: {}, collection: {}", key, database, collection);
+    }
+
+    if (StringUtils.isAnyEmpty(key, database, collection)) {
+      LOGGER.trace("Cannot register this query. It is invalid.");
+
+      throw new IllegalArgumentException(ErrorMessages.INVALID_METADATA_STORE_QUERY_REGISTER);
+    }
+
+    synchronized (this) {
+      Map<String, String> newQueryMap = new HashMap<String, String>(queryMap);
+      newQueryMap.put(key, database + "." + collection);
+      queryMap = newQueryMap;
+    }
+  }
+
+  /**
+   * Atomically replaces all of the registered queries.
+   *
+   * @param queries the database, collection pairs to use, keyed by query key.
+   */
+  public void replaceQueries(Map<String, Pair<String, String>> queries) {
+    if (LOGGER.isTraceEnabled()) {
+      LOGGER.trace("Replacing the metadata store queries with {} queries.", queries.size());
+    }
+
+    Map<String, String> newQueryMap = new HashMap<String, String>();
+
+    for (Map.Entry<String, Pair<String, String>> query : queries.entrySet()) {
+      String database = query.getValue().getLeft();
+      String collection = query.getValue().getRight();
+
+      if (StringUtils.isAnyEmpty(query.getKey(), database, collection)) {
+        LOGGER.trace("Cannot register this query. It is invalid.");
+
+        throw new IllegalArgumentException(ErrorMessages.INVALID_METADATA_STORE_QUERY_REGISTER);
+      }
+
+      newQueryMap.put(query.getKey(), database + "." + collection);
+    }
+
+    synchronized (this) {
+      queryMap = newQueryMap;
+    }
+  }
+
+  @Override
+  public void addCasId(String queryKey, String casId) throws Exception {
+    LOGGER.trace("Writing Cas ID {} to the metadata store {}.", casId, queryKey);
+
+    if (!table(queryKey, casId).add(casId)) {
+      LOGGER.trace("An entry for this Cas ID already exists: {}.", casId);
+
+      throw new IllegalMetadataStoreStateException(ErrorMessages.CASID_NOT_UNIQUE);
+    }
+  }
+
+  @Override
+  public void deleteCasId(String queryKey, String casId) throws Exception {
+    LOGGER.trace("Deleting Cas ID {} from the metadata store {}.", casId, queryKey);
+
+    table(queryKey, casId).remove(casId);
+  }
+
+  @Override
+  public void deleteAllCasId(String casId) throws Exception {
+    LOGGER.trace("Deleting Cas ID {} from all metadata stores.", casId);
+
+    for (String key : queryMap.keySet()) {
+      deleteCasId(key, casId);
+    }
+  }
+
+  /**
+   * Lists the Cas IDs of a query, in no particular order.
+   *
+   * @param queryKey the metadata query to list.
+   * @return a copy of the Cas IDs of the query.
+   */
+  public List<String> getCasIds(String queryKey) {
+    String table = queryMap.get(queryKey);
+
+    if (table == null) {
+      throw new IllegalArgumentException(ErrorMessages.getInvalidQueryMessage(queryKey));
+    }
+
+    Set<String> casIds = tables.get(table);
+    return (casIds == null) ? new ArrayList<String>() : new ArrayList<String>(casIds);
+  }
+
+  @Override
+  public List<String> getCasIds(String queryKey, String afterCasId, int limit) {
+    String table = queryMap.get(queryKey);
+
+    if (table == null) {
+      throw new IllegalArgumentException(ErrorMessages.getInvalidQueryMessage(queryKey));
+    }
+
+    NavigableSet<String> casIds = (NavigableSet<String>) tables.get(table);
+    List<String> page = new ArrayList<String>(Math.max(0, Math.min(limit, 1024)));
+
+    if (casIds == null) {
+      return page;
+    }
+
+    for (String casId : (afterCasId == null) ? casIds : casIds.tailSet(afterCasId, false)) {
+      if (page.size() >= limit) {
+        break;
+      }
+
+      page.add(casId);
+    }
+
+    return page;
+  }
+
+  private Set<String> table(String queryKey, String casId) {
+    if (StringUtils.isEmpty(casId)) {
+      LOGGER.trace("Invalid Cas ID specified.");
+
+      throw new IllegalArgumentException(ErrorMessages.INVALID_CAS_ID);
+    }
+
+    String table = queryMap.get(queryKey);
+
+    if (table == null) {
+      LOGGER.trace("Invalid metadata store query specified.");
+
+      throw new IllegalArgumentException(ErrorMessages.getInvalidQueryMessage(queryKey));
+    }
+
+    return tables.computeIfAbsent(table, name -> new ConcurrentSkipListSet<String>());
+  }
+}
@@ -0,0 +1,218 @@
+package com.revistek.util;
+
+import com.google.protobuf.ByteString;
+import com.revistek.crs.protos.Cas;
+import com.revistek.exceptions.MalformedDataException;
+import com.revistek.util.constants.ErrorMessages;
+import com.revistek.util.constants.MetricNames;
+import java.util.List;
+import java.util.function.Supplier;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An implementation of a repository DAO that keeps the Cases in the memory of the service, for
+ * tests and short-lived pipelines that do not need the Cases to survive a restart.
+ *
+ * <p>The repository is bounded by the bytes of the Cas data it holds. Once it is full, the oldest
+ * Cases are evicted to make room, so a pipeline that falls too far behind loses its oldest
+ * checkpoints rather than the service running out of memory.
+ *
+ * @author Chuong Ngo
+ */
+public class InMemoryRepositoryDao implements RepositoryDao {
+  public static final String URL_SCHEME = "mem";
+  public static final long DEFAULT_MAX_BYTES = 256L * 1024L * 1024L;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(RepositoryDao.class);
+  // An estimate of the memory a Cas takes besides its data.
+  private static final long CAS_OVERHEAD_BYTES = 128L;
+
+  private IdGenerator idGenerator;
+  private ChecksumAlgorithm preferredChecksumAlgorithm;
+  private BoundedStripedMap<String, Cas> cases;
+
+  private InMemoryRepositoryDao() {}
+
+  @Override
+  public Cas getCasId(String casId) throws Exception {
+    LOGGER.trace("Getting the Cas: {}.", casId);
+
+    if (StringUtils.isEmpty(casId)) {
+      LOGGER.trace("Invalid Cas ID specified.");
+
+      throw new IllegalArgumentException(ErrorMessages.INVALID_CAS_ID);
+    }
+
+    Cas cas = cases.get(casId);
+
+    if (cas == null) {
+      LOGGER.trace("The Cas {} is not in the repository.", casId);
+
+      throw new IllegalArgumentException(ErrorMessages.INVALID_REPOSITORY_ENTRY);
+    }
+
+    return cas;
+  }
+
+  @Override
+  public String store(Cas cas) throws Exception {
+    return store(cas, idGenerator::refreshAndGetUniqueId);
+  }
+
+  @Override
+  public String store(Cas cas, String casId) throws Exception {
+    if (StringUtils.isEmpty(casId)) {
+      LOGGER.trace("Invalid Cas ID specified.");
+
+      throw new IllegalArgumentException(ErrorMessages.INVALID_CAS_ID);
+    }
+
+    return store(cas, () -> casId);
+  }
+
+  private String store(Cas cas, Supplier<String> casIdSupplier) throws Exception {
+    String docId = cas.getDocumentId();
+    ByteString data = cas.getCasData();
+
+    if (StringUtils.isEmpty(docId)) {
+      LOGGER.trace("Invalid document ID specified.");
+
+      throw new MalformedDataException(ErrorMessages.INVALID_PROTOBUF_CAS);
+    }
+
+    if (data.isEmpty()) {
+      LOGGER.trace("There is no UIMA Cas/JCas data to store.");
+
+      throw new MalformedDataException(ErrorMessages.INVALID_PROTOBUF_CAS);
+    }
+
+    if (ChecksumAlgorithm.match(data, cas.getCrc32Checksum(), preferredChecksumAlgorithm)
+        == null) {
+      LOGGER.trace("The UIMA Cas/JCas failed its checksum check.");
+
+      throw new MalformedDataException(ErrorMessages.getChecksumFailedMessage(docId));
+    }
+
+    String casId = casIdSupplier.get();
+    LOGGER.trace("Storing the Cas: {} for document: {}.", casId, docId);
+
+    cases.put(
+        casId,
+        cas.toBuilder().setCasId(casId).build(),
+        data.size() + casId.length() + docId.length() + CAS_OVERHEAD_BYTES,
+        0L);
+    return casId;
+  }
+
+  @Override
+  public void deleteCasId(String casId) throws Exception {
+    LOGGER.trace("Deleting the Cas: {}.", casId);
+
+    if (StringUtils.isEmpty(casId)) {
+      LOGGER.trace("Invalid Cas ID specified.");
+
+      throw new IllegalArgumentException(ErrorMessages.INVALID_CAS_ID);
+    }
+
+    cases.remove(casId);
+  }
+
+  @Override
+  public boolean existsCasId(String casId) throws Exception {
+    if (StringUtils.isEmpty(casId)) {
+      LOGGER.trace("Invalid Cas ID specified.");
+
+      throw new IllegalArgumentException(ErrorMessages.INVALID_CAS_ID);
+    }
+
+    return cases.containsKey(casId);
+  }
+
+  @Override
+  public List<String> getCasIds(String documentId) throws Exception {
+    return cases.keysMatching(cas -> cas.getDocumentId().equals(documentId));
+  }
+
+  public IdGenerator getIdGenerator() {
+    return idGenerator;
+  }
+
+  public long getBytes() {
+    return cases.bytes();
+  }
+
+  public int getCount() {
+    return cases.size();
+  }
+
+  /**
+   * The builder for {@link com.revistek.util.InMemoryRepositoryDao InMemoryRepositoryDao}.
+   *
+   * @author Chuong Ngo
+   */
+  public static class Builder {
+    private IdGenerator idGenerator;
+    private ChecksumAlgorithm preferredChecksumAlgorithm = ChecksumAlgorithm.CRC32;
+    private long maxBytes = DEFAULT_MAX_BYTES;
+
+    public Builder idGenerator(IdGenerator idGenerator) {
+      this.idGenerator = idGenerator;
+      return this;
+    }
+
+    public Builder preferredChecksumAlgorithm(ChecksumAlgorithm preferredChecksumAlgorithm) {
+      if (preferredChecksumAlgorithm != null) {
+        this.preferredChecksumAlgorithm = preferredChecksumAlgorithm;
+      }
+
+      return this;
+    }
+
+    /**
+     * Sets how many bytes of Cases the repository holds before it evicts the oldest ones.
+     *
+     * @param maxBytes the byte budget.
+     * @return this builder.
+     */
+    public Builder maxBytes(long maxBytes) {
+      this.maxBytes = maxBytes;
+      return this;
+    }
+
+    public InMemoryRepositoryDao build() throws IllegalArgumentException {
+      if (idGenerator == null) {
+        throw new IllegalArgumentException(ErrorMessages.INVALID_REPOSITORY_IDGENERATOR);
+      }
+
+      if (maxBytes <= 0) {
+        throw new IllegalArgumentException(ErrorMessages.INVALID_MEMORY_BUDGET);
+      }
+
+      InMemoryRepositoryDao dao = new InMemoryRepositoryDao();
+      dao.idGenerator = idGenerator;
+      dao.preferredChecksumAlgorithm = preferredChecksumAlgorithm;
+      dao.cases =
+          new BoundedStripedMap<String, Cas>(
+              BoundedStripedMap.DEFAULT_STRIPES,
+              maxBytes,
+              System::currentTimeMillis,
+              ServiceMetrics.counter(
+                  MetricNames.MEMORY_EVICTIONS,
+                  MetricNames.TAG_BACKEND,
+                  MetricNames.BACKEND_MEMORY_REPOSITORY));
+
+      return dao;
+    }
+  }
+
+  /**
+   * Returns a new builder.
+   *
+   * @return Returns a new {@link com.revistek.util.InMemoryRepositoryDao.Builder builder}.
+   */
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+}
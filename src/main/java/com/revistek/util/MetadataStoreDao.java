@@ -1,5 +1,8 @@
 package com.revistek.util;
 
+import com.revistek.util.constants.ErrorMessages;
+import java.util.List;
+
 /**
  * The interface for metadata store data access objects. A metadata store holds the metadata for the
  * CASes to be processed. For example, it writes the CAS IDs into different tables depending on the
@@ -37,4 +40,20 @@ public interface MetadataStoreDao {
    * @throws Exception There was a problem with this operation.
    */
   public void deleteAllCasId(String casId) throws Exception;
+
+  /**
+   * Lists the Cas IDs of a query in Cas ID order, a page at a time. The pages are not a snapshot:
+   * a Cas ID added while paging is listed only if it sorts after the last page.
+   *
+   * @param queryKey the metadata query to list.
+   * @param afterCasId the last Cas ID of the previous page, or null to start at the beginning.
+   * @param limit the maximum number of Cas IDs to return.
+   * @return the Cas IDs after the given one, in order.
+   * @throws UnsupportedOperationException the metadata store cannot list its Cas IDs.
+   * @throws Exception There was a problem with this operation.
+   */
+  public default List<String> getCasIds(String queryKey, String afterCasId, int limit)
+      throws Exception {
+    throw new UnsupportedOperationException(ErrorMessages.CANNOT_LIST_CAS_IDS);
+  }
 }
@@ -0,0 +1,323 @@
+package com.revistek.util;
+
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.event.ConnectionCheckOutFailedEvent;
+import com.mongodb.event.ConnectionCheckOutStartedEvent;
+import com.mongodb.event.ConnectionCheckedInEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import com.mongodb.event.ConnectionClosedEvent;
+import com.mongodb.event.ConnectionCreatedEvent;
+import com.mongodb.event.ConnectionPoolListener;
+import com.revistek.util.constants.ErrorMessages;
+import com.revistek.util.constants.MetricNames;
+import io.micrometer.core.instrument.Timer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates MongoDB clients with tuned connection pools and shares them between DAOs. The DAOs that
+ * use the same URL share one client, and so one pool, instead of each opening its own. A client is
+ * closed when the last DAO using it releases it.
+ *
+ * <p>The pool settings apply to every client. Options in a URL (e.g., maxPoolSize) win over them.
+ * The time spent waiting for a connection and the number of connections in use, idle, and waited
+ * for are published as metrics.
+ *
+ * @author Chuong Ngo
+ */
+public class MongoClientFactory {
+  public static final int DEFAULT_MAX_POOL_SIZE = 100;
+  public static final int DEFAULT_MIN_POOL_SIZE = 0;
+  public static final long DEFAULT_MAX_WAIT_MILLIS = 120000L;
+  public static final long DEFAULT_MAX_IDLE_MILLIS = 0L;
+  public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 10000;
+  public static final int DEFAULT_SOCKET_TIMEOUT_MILLIS = 0;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(MongoClientFactory.class);
+  private static final Timer WAIT_TIMER =
+      ServiceMetrics.timer(
+          MetricNames.POOL_WAIT_TIME, MetricNames.TAG_POOL, MetricNames.POOL_MONGODB);
+
+  private final Map<String, SharedClient> clients = new HashMap<String, SharedClient>();
+  private final PoolListener poolListener = new PoolListener();
+  private int maxPoolSize;
+  private int minPoolSize;
+  private long maxWaitMillis;
+  private long maxIdleMillis;
+  private int connectTimeoutMillis;
+  private int socketTimeoutMillis;
+
+  private MongoClientFactory() {}
+
+  /**
+   * Returns the client of a URL, creating it if no DAO is using it. Every call must be matched by
+   * a call to {@link #release(MongoClient)}.
+   *
+   * @param url the connection string of the MongoDB server.
+   * @return the shared client.
+   */
+  public synchronized MongoClient acquire(String url) {
+    SharedClient shared = clients.get(url);
+
+    if (shared == null) {
+      if (LOGGER.isTraceEnabled()) {
+        LOGGER.trace("Creating a MongoDB client with up to {} connections.", maxPoolSize);
+      }
+
+      shared = new SharedClient(MongoClients.create(settingsFor(url)));
+      clients.put(url, shared);
+    }
+
+    shared.references++;
+    return shared.client;
+  }
+
+  /**
+   * Releases a client acquired from this factory, closing it if no other DAO is using it.
+   *
+   * @param client the client to release.
+   */
+  public synchronized void release(MongoClient client) {
+    Iterator<SharedClient> sharedClients = clients.values().iterator();
+
+    while (sharedClients.hasNext()) {
+      SharedClient shared = sharedClients.next();
+
+      if (shared.client == client) {
+        if (--shared.references <= 0) {
+          LOGGER.trace("Closing a MongoDB client that is no longer used.");
+
+          sharedClients.remove();
+          client.close();
+        }
+
+        return;
+      }
+    }
+  }
+
+  /** Closes every client, whether or not it is still in use. */
+  public synchronized void close() {
+    for (SharedClient shared : clients.values()) {
+      shared.client.close();
+    }
+
+    clients.clear();
+  }
+
+  /**
+   * Builds the settings of a client.
+   *
+   * @param url the connection string of the MongoDB server.
+   * @return the settings.
+   */
+  MongoClientSettings settingsFor(String url) {
+    return MongoClientSettings.builder()
+        .applyToConnectionPoolSettings(
+            builder ->
+                builder
+                    .maxSize(maxPoolSize)
+                    .minSize(minPoolSize)
+                    .maxWaitTime(maxWaitMillis, TimeUnit.MILLISECONDS)
+                    .maxConnectionIdleTime(maxIdleMillis, TimeUnit.MILLISECONDS)
+                    .addConnectionPoolListener(poolListener))
+        .applyToSocketSettings(
+            builder ->
+                builder
+                    .connectTimeout(connectTimeoutMillis, TimeUnit.MILLISECONDS)
+                    .readTimeout(socketTimeoutMillis, TimeUnit.MILLISECONDS))
+        // Applied last so that the options in the URL win.
+        .applyConnectionString(new ConnectionString(url))
+        .build();
+  }
+
+  synchronized int getClientCount() {
+    return clients.size();
+  }
+
+  /** A client and the number of DAOs using it. */
+  private static final class SharedClient {
+    private final MongoClient client;
+    private int references;
+
+    private SharedClient(MongoClient client) {
+      this.client = client;
+    }
+  }
+
+  /**
+   * Measures the pools of the clients. The sync driver checks a connection out on the thread that
+   * runs the operation, so the wait is timed from a thread-local start time.
+   */
+  private static final class PoolListener implements ConnectionPoolListener {
+    private final ThreadLocal<Long> checkOutStart = new ThreadLocal<Long>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger waiters = new AtomicInteger();
+
+    private PoolListener() {
+      ServiceMetrics.gauge(
+          MetricNames.POOL_ACTIVE,
+          active,
+          AtomicInteger::get,
+          MetricNames.TAG_POOL,
+          MetricNames.POOL_MONGODB);
+      ServiceMetrics.gauge(
+          MetricNames.POOL_IDLE,
+          this,
+          listener -> Math.max(0, listener.size.get() - listener.active.get()),
+          MetricNames.TAG_POOL,
+          MetricNames.POOL_MONGODB);
+      ServiceMetrics.gauge(
+          MetricNames.POOL_WAITERS,
+          waiters,
+          AtomicInteger::get,
+          MetricNames.TAG_POOL,
+          MetricNames.POOL_MONGODB);
+    }
+
+    @Override
+    public void connectionCheckOutStarted(ConnectionCheckOutStartedEvent event) {
+      checkOutStart.set(System.nanoTime());
+      waiters.incrementAndGet();
+    }
+
+    @Override
+    public void connectionCheckedOut(ConnectionCheckedOutEvent event) {
+      active.incrementAndGet();
+      stopWaiting();
+    }
+
+    @Override
+    public void connectionCheckOutFailed(ConnectionCheckOutFailedEvent event) {
+      stopWaiting();
+    }
+
+    @Override
+    public void connectionCheckedIn(ConnectionCheckedInEvent event) {
+      active.decrementAndGet();
+    }
+
+    @Override
+    public void connectionCreated(ConnectionCreatedEvent event) {
+      size.incrementAndGet();
+    }
+
+    @Override
+    public void connectionClosed(ConnectionClosedEvent event) {
+      size.decrementAndGet();
+    }
+
+    private void stopWaiting() {
+      Long start = checkOutStart.get();
+
+      if (start != null) {
+        checkOutStart.remove();
+        waiters.decrementAndGet();
+        WAIT_TIMER.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      }
+    }
+  }
+
+  /**
+   * The builder for {@link com.revistek.util.MongoClientFactory MongoClientFactory}.
+   *
+   * @author Chuong Ngo
+   */
+  public static class Builder {
+    private int maxPoolSize = DEFAULT_MAX_POOL_SIZE;
+    private int minPoolSize = DEFAULT_MIN_POOL_SIZE;
+    private long maxWaitMillis = DEFAULT_MAX_WAIT_MILLIS;
+    private long maxIdleMillis = DEFAULT_MAX_IDLE_MILLIS;
+    private int connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+    private int socketTimeoutMillis = DEFAULT_SOCKET_TIMEOUT_MILLIS;
+
+    public Builder maxPoolSize(int maxPoolSize) {
+      this.maxPoolSize = maxPoolSize;
+      return this;
+    }
+
+    public Builder minPoolSize(int minPoolSize) {
+      this.minPoolSize = minPoolSize;
+      return this;
+    }
+
+    /**
+     * Sets how long an operation waits for a connection when every connection of the pool is in
+     * use, before it fails.
+     *
+     * @param maxWaitMillis the longest wait, in milliseconds.
+     * @return this builder.
+     */
+    public Builder maxWaitMillis(long maxWaitMillis) {
+      this.maxWaitMillis = maxWaitMillis;
+      return this;
+    }
+
+    /**
+     * Sets how long a connection may sit idle before it is closed.
+     *
+     * @param maxIdleMillis the longest idle time, in milliseconds, or 0 to keep idle connections.
+     * @return this builder.
+     */
+    public Builder maxIdleMillis(long maxIdleMillis) {
+      this.maxIdleMillis = maxIdleMillis;
+      return this;
+    }
+
+    public Builder connectTimeoutMillis(int connectTimeoutMillis) {
+      this.connectTimeoutMillis = connectTimeoutMillis;
+      return this;
+    }
+
+    /**
+     * Sets how long a read from a connection may take before it fails.
+     *
+     * @param socketTimeoutMillis the timeout, in milliseconds, or 0 for no timeout.
+     * @return this builder.
+     */
+    public Builder socketTimeoutMillis(int socketTimeoutMillis) {
+      this.socketTimeoutMillis = socketTimeoutMillis;
+      return this;
+    }
+
+    public MongoClientFactory build() throws IllegalArgumentException {
+      if ((maxPoolSize <= 0)
+          || (minPoolSize < 0)
+          || (minPoolSize > maxPoolSize)
+          || (maxWaitMillis < 0)
+          || (maxIdleMillis < 0)
+          || (connectTimeoutMillis < 0)
+          || (socketTimeoutMillis < 0)) {
+        throw new IllegalArgumentException(ErrorMessages.INVALID_POOL_SETTINGS);
+      }
+
+      MongoClientFactory factory = new MongoClientFactory();
+      factory.maxPoolSize = maxPoolSize;
+      factory.minPoolSize = minPoolSize;
+      factory.maxWaitMillis = maxWaitMillis;
+      factory.maxIdleMillis = maxIdleMillis;
+      factory.connectTimeoutMillis = connectTimeoutMillis;
+      factory.socketTimeoutMillis = socketTimeoutMillis;
+
+      return factory;
+    }
+  }
+
+  /**
+   * Returns a new builder.
+   *
+   * @return Returns a new {@link com.revistek.util.MongoClientFactory.Builder builder}.
+   */
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+}
@@ -0,0 +1,229 @@
+package com.revistek.util;
+
+import com.mongodb.ReadConcern;
+import com.mongodb.ReadConcernLevel;
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
+import com.mongodb.client.MongoCollection;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang3.StringUtils;
+import org.bson.Document;
+
+/**
+ * The write concern, read preference and read concern of a MongoDB collection. Settings that are
+ * not set are left to the client, which uses the settings of the connection string or the driver
+ * defaults.
+ *
+ * <p>The settings are written as comma-delimited option=value pairs, e.g.,
+ * "w=majority,j=true,readPreference=secondaryPreferred". The options are:
+ *
+ * <ul>
+ *   <li>durability: a durability tier. "fast" is w=1 without journaling, "journaled" is w=1 with
+ *       journaling, and "majority" is w=majority with journaling. The other write options
+ *       override the tier.
+ *   <li>w: the number of members that must acknowledge a write, or "majority".
+ *   <li>j: true to wait for writes to reach the journal.
+ *   <li>wtimeoutMS: how long to wait for the write acknowledgements.
+ *   <li>readPreference: e.g., primary, primaryPreferred, secondary, secondaryPreferred, nearest.
+ *   <li>readConcern: e.g., local, available, majority, linearizable, snapshot.
+ * </ul>
+ *
+ * <p>Reading from secondaries takes load off the primary, but a Cas may not be readable from a
+ * secondary right after it is stored.
+ *
+ * @author Chuong Ngo
+ */
+public final class MongoDbCollectionSettings {
+  public static final MongoDbCollectionSettings DEFAULT =
+      new MongoDbCollectionSettings(null, null, null);
+
+  public static final String OPTION_DURABILITY = "durability";
+  public static final String OPTION_W = "w";
+  public static final String OPTION_JOURNAL = "j";
+  public static final String OPTION_WTIMEOUT_MS = "wtimeoutMS";
+  public static final String OPTION_READ_PREFERENCE = "readPreference";
+  public static final String OPTION_READ_CONCERN = "readConcern";
+
+  public static final String DURABILITY_FAST = "fast";
+  public static final String DURABILITY_JOURNALED = "journaled";
+  public static final String DURABILITY_MAJORITY = "majority";
+
+  private final WriteConcern writeConcern;
+  private final ReadPreference readPreference;
+  private final ReadConcern readConcern;
+
+  private MongoDbCollectionSettings(
+      WriteConcern writeConcern, ReadPreference readPreference, ReadConcern readConcern) {
+    this.writeConcern = writeConcern;
+    this.readPreference = readPreference;
+    this.readConcern = readConcern;
+  }
+
+  /**
+   * Parses the settings.
+   *
+   * @param options the comma-delimited option=value pairs. Empty or null for the defaults.
+   * @return the settings.
+   * @throws IllegalArgumentException an option or its value is invalid.
+   */
+  public static MongoDbCollectionSettings parse(String options) {
+    if (StringUtils.isBlank(options)) {
+      return DEFAULT;
+    }
+
+    WriteConcern writeConcern = null;
+    String w = null;
+    Boolean journal = null;
+    Long wtimeoutMillis = null;
+    ReadPreference readPreference = null;
+    ReadConcern readConcern = null;
+
+    for (String option : StringUtils.split(options, ',')) {
+      String[] nameValue = option.split("=", 2);
+
+      if ((nameValue.length < 2) || StringUtils.isAnyBlank(nameValue[0], nameValue[1])) {
+        throw new IllegalArgumentException("Invalid MongoDB collection option: " + option);
+      }
+
+      String name = nameValue[0].trim();
+      String value = nameValue[1].trim();
+
+      switch (name) {
+        case OPTION_DURABILITY:
+          writeConcern = durability(value);
+          break;
+        case OPTION_W:
+          w = value;
+          break;
+        case OPTION_JOURNAL:
+          journal = parseBoolean(option, value);
+          break;
+        case OPTION_WTIMEOUT_MS:
+          wtimeoutMillis = Long.parseLong(value);
+          break;
+        case OPTION_READ_PREFERENCE:
+          readPreference = ReadPreference.valueOf(value);
+          break;
+        case OPTION_READ_CONCERN:
+          readConcern = new ReadConcern(ReadConcernLevel.fromString(value));
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown MongoDB collection option: " + option);
+      }
+    }
+
+    if ((w != null) || (journal != null) || (wtimeoutMillis != null)) {
+      if (w != null) {
+        // The tier's journaling is kept unless it is overridden too.
+        WriteConcern acknowledgements =
+            StringUtils.isNumeric(w) ? new WriteConcern(Integer.parseInt(w)) : new WriteConcern(w);
+        writeConcern = acknowledgements.withJournal(journalOf(writeConcern));
+      } else if (writeConcern == null) {
+        writeConcern = WriteConcern.ACKNOWLEDGED;
+      }
+
+      if (journal != null) {
+        writeConcern = writeConcern.withJournal(journal);
+      }
+
+      if (wtimeoutMillis != null) {
+        writeConcern = writeConcern.withWTimeout(wtimeoutMillis, TimeUnit.MILLISECONDS);
+      }
+    }
+
+    return new MongoDbCollectionSettings(writeConcern, readPreference, readConcern);
+  }
+
+  private static WriteConcern durability(String tier) {
+    switch (tier) {
+      case DURABILITY_FAST:
+        return WriteConcern.W1.withJournal(false);
+      case DURABILITY_JOURNALED:
+        return WriteConcern.W1.withJournal(true);
+      case DURABILITY_MAJORITY:
+        return WriteConcern.MAJORITY.withJournal(true);
+      default:
+        throw new IllegalArgumentException("Unknown durability tier: " + tier);
+    }
+  }
+
+  private static Boolean journalOf(WriteConcern writeConcern) {
+    return (writeConcern == null) ? null : writeConcern.getJournal();
+  }
+
+  private static boolean parseBoolean(String option, String value) {
+    if (!"true".equalsIgnoreCase(value) && !"false".equalsIgnoreCase(value)) {
+      throw new IllegalArgumentException("Invalid MongoDB collection option: " + option);
+    }
+
+    return Boolean.parseBoolean(value);
+  }
+
+  /**
+   * Applies the settings to a collection handle.
+   *
+   * @param collection the handle to apply the settings to.
+   * @return a handle with the settings.
+   */
+  public MongoCollection<Document> apply(MongoCollection<Document> collection) {
+    MongoCollection<Document> configured = collection;
+
+    if (writeConcern != null) {
+      configured = configured.withWriteConcern(writeConcern);
+    }
+
+    if (readPreference != null) {
+      configured = configured.withReadPreference(readPreference);
+    }
+
+    if (readConcern != null) {
+      configured = configured.withReadConcern(readConcern);
+    }
+
+    return configured;
+  }
+
+  public WriteConcern getWriteConcern() {
+    return writeConcern;
+  }
+
+  public ReadPreference getReadPreference() {
+    return readPreference;
+  }
+
+  public ReadConcern getReadConcern() {
+    return readConcern;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    }
+
+    if (!(other instanceof MongoDbCollectionSettings)) {
+      return false;
+    }
+
+    MongoDbCollectionSettings settings = (MongoDbCollectionSettings) other;
+    return Objects.equals(writeConcern, settings.writeConcern)
+        && Objects.equals(readPreference, settings.readPreference)
+        && Objects.equals(readConcern, settings.readConcern);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(writeConcern, readPreference, readConcern);
+  }
+
+  @Override
+  public String toString() {
+    return "writeConcern="
+        + writeConcern
+        + ", readPreference="
+        + readPreference
+        + ", readConcern="
+        + readConcern;
+  }
+}
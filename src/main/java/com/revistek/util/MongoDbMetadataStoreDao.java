@@ -1,14 +1,24 @@
 package com.revistek.util;
 
+import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
 import com.revistek.exceptions.IllegalMetadataStoreStateException;
 import com.revistek.util.constants.ErrorMessages;
+import com.revistek.util.constants.MetricNames;
 import com.revistek.util.constants.MongoDbDocument;
+import io.micrometer.core.instrument.Timer;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
@@ -24,13 +34,37 @@ import org.slf4j.LoggerFactory;
  */
 public class MongoDbMetadataStoreDao implements MetadataStoreDao {
   private static final Logger LOGGER = LoggerFactory.getLogger(MetadataStoreDao.class);
+  private static final Timer INSERT_ONE_TIMER =
+      ServiceMetrics.daoTimer(MetricNames.BACKEND_MONGODB_METADATA_STORE, "insertOne");
+  private static final Timer COUNT_DOCUMENTS_TIMER =
+      ServiceMetrics.daoTimer(MetricNames.BACKEND_MONGODB_METADATA_STORE, "countDocuments");
+  private static final Timer DELETE_ONE_TIMER =
+      ServiceMetrics.daoTimer(MetricNames.BACKEND_MONGODB_METADATA_STORE, "deleteOne");
+  private static final Timer FIND_TIMER =
+      ServiceMetrics.daoTimer(MetricNames.BACKEND_MONGODB_METADATA_STORE, "find");
 
   private MongoClient client;
-  private Map<String, Pair<String, String>> queryMap;
+  private MongoClientFactory clientFactory;
+  // Copy-on-write so that in-flight requests always see a complete set of queries.
+  private volatile Map<String, Pair<String, String>> queryMap;
+  private volatile Map<String, MongoDbCollectionSettings> settingsMap;
 
   public MongoDbMetadataStoreDao(String url) {
-    client = MongoClients.create(url);
+    this(url, null);
+  }
+
+  /**
+   * Creates the DAO with a client from a factory, so that the client and its connection pool are
+   * shared with the other DAOs using the same URL.
+   *
+   * @param url the connection string of the MongoDB server.
+   * @param clientFactory the factory of the client, or null for a client of its own.
+   */
+  public MongoDbMetadataStoreDao(String url, MongoClientFactory clientFactory) {
+    client = (clientFactory == null) ? MongoClients.create(url) : clientFactory.acquire(url);
+    this.clientFactory = clientFactory;
     queryMap = new HashMap<String, Pair<String, String>>();
+    settingsMap = new HashMap<String, MongoDbCollectionSettings>();
 
     LOGGER.trace("Initialized.");
   }
@@ -43,8 +77,10 @@ public class MongoDbMetadataStoreDao implements MetadataStoreDao {
    * @param collection the collection to query or write to.
    */
   public void registerQuery(String key, String database, String collection) {
-    LOGGER.trace(
-        "Loading the query: " + key + ", database:" + database + ", collection: " + collection);
+    if (LOGGER.isTraceEnabled()) {
+      LOGGER.trace(
+          "Loading the query: {}, database: {}, collection: {}", key, database, collection);
+    }
 
     if (StringUtils.isAnyEmpty(key, database, collection)) {
       LOGGER.trace("Cannot register this query. It is invalid.");
@@ -53,12 +89,62 @@ public class MongoDbMetadataStoreDao implements MetadataStoreDao {
     }
 
     Pair<String, String> query = ImmutablePair.of(database, collection);
-    queryMap.put(key, query);
+
+    synchronized (this) {
+      Map<String, Pair<String, String>> newQueryMap =
+          new HashMap<String, Pair<String, String>>(queryMap);
+      newQueryMap.put(key, query);
+      queryMap = newQueryMap;
+    }
+  }
+
+  /**
+   * Atomically replaces all of the registered queries.
+   *
+   * @param queries the database, collection pairs to use, keyed by query key.
+   */
+  public void replaceQueries(Map<String, Pair<String, String>> queries) {
+    replaceQueries(queries, new HashMap<String, MongoDbCollectionSettings>());
+  }
+
+  /**
+   * Atomically replaces all of the registered queries and their collection settings (e.g., w=1 for
+   * intermediate checkpoints and majority for final ones).
+   *
+   * @param queries the database, collection pairs to use, keyed by query key.
+   * @param settings the collection settings to use, keyed by query key. Queries without settings
+   *     use the client defaults.
+   */
+  public void replaceQueries(
+      Map<String, Pair<String, String>> queries, Map<String, MongoDbCollectionSettings> settings) {
+    if (LOGGER.isTraceEnabled()) {
+      LOGGER.trace("Replacing the metadata store queries with {} queries.", queries.size());
+    }
+
+    Map<String, Pair<String, String>> newQueryMap = new HashMap<String, Pair<String, String>>();
+
+    for (Map.Entry<String, Pair<String, String>> query : queries.entrySet()) {
+      String database = query.getValue().getLeft();
+      String collection = query.getValue().getRight();
+
+      if (StringUtils.isAnyEmpty(query.getKey(), database, collection)) {
+        LOGGER.trace("Cannot register this query. It is invalid.");
+
+        throw new IllegalArgumentException(ErrorMessages.INVALID_METADATA_STORE_QUERY_REGISTER);
+      }
+
+      newQueryMap.put(query.getKey(), ImmutablePair.of(database, collection));
+    }
+
+    synchronized (this) {
+      settingsMap = new HashMap<String, MongoDbCollectionSettings>(settings);
+      queryMap = newQueryMap;
+    }
   }
 
   @Override
   public void addCasId(String queryKey, String casId) throws Exception {
-    LOGGER.trace("Writing Cas ID " + casId + "from the metadata store " + queryKey + ".");
+    LOGGER.trace("Writing Cas ID {} to the metadata store {}.", casId, queryKey);
 
     if (client == null) {
       LOGGER.trace("There is no connection to the MongoDB server.");
@@ -77,23 +163,24 @@ public class MongoDbMetadataStoreDao implements MetadataStoreDao {
       throw new IllegalArgumentException(ErrorMessages.getInvalidQueryMessage(queryKey));
     }
 
-    MongoCollection<Document> collection =
-        client.getDatabase(query.getKey()).getCollection(query.getValue());
+    MongoCollection<Document> collection = getCollection(queryKey, query);
 
-    if (collection.countDocuments(Filters.eq(MongoDbDocument.CASID_FIELD_KEY, casId)) > 0) {
-      LOGGER.trace("An entry for this Cas ID already exists: " + casId + ".");
+    Bson filter = Filters.eq(MongoDbDocument.CASID_FIELD_KEY, casId);
+    if (COUNT_DOCUMENTS_TIMER.record(() -> collection.countDocuments(filter)) > 0) {
+      LOGGER.trace("An entry for this Cas ID already exists: {}.", casId);
 
       throw new IllegalMetadataStoreStateException(ErrorMessages.CASID_NOT_UNIQUE);
     }
 
     Document doc = new Document();
-    doc.append(MongoDbDocument.CASID_FIELD_KEY, casId);
-    collection.insertOne(doc);
+    doc.append(MongoDbDocument.CASID_FIELD_KEY, casId)
+        .append(MongoDbDocument.CREATED_AT_FIELD_KEY, new Date());
+    INSERT_ONE_TIMER.record(() -> collection.insertOne(doc));
   }
 
   @Override
   public void deleteCasId(String queryKey, String casId) throws Exception {
-    LOGGER.trace("Deleting Cas ID " + casId + "from the metadata store " + queryKey + ".");
+    LOGGER.trace("Deleting Cas ID {} from the metadata store {}.", casId, queryKey);
 
     if (client == null) {
       LOGGER.trace("There is no connection to the MongoDB server.");
@@ -113,32 +200,102 @@ public class MongoDbMetadataStoreDao implements MetadataStoreDao {
       throw new IllegalArgumentException(ErrorMessages.getInvalidQueryMessage(queryKey));
     }
 
-    MongoCollection<Document> collection =
-        client.getDatabase(query.getKey()).getCollection(query.getValue());
+    MongoCollection<Document> collection = getCollection(queryKey, query);
 
     Bson filter = Filters.all(MongoDbDocument.CASID_FIELD_KEY, casId);
-    if (collection.countDocuments(filter) > 1) {
-      LOGGER.trace("There are two or more entries for this Cas ID: " + casId + ".");
+    if (COUNT_DOCUMENTS_TIMER.record(() -> collection.countDocuments(filter)) > 1) {
+      LOGGER.trace("There are two or more entries for this Cas ID: {}.", casId);
 
       throw new IllegalMetadataStoreStateException(ErrorMessages.CASID_NOT_UNIQUE);
     }
-    collection.deleteOne(filter);
+    DELETE_ONE_TIMER.record(() -> collection.deleteOne(filter));
   }
 
   @Override
   public void deleteAllCasId(String casId) throws Exception {
-    LOGGER.trace("Deleting Cas ID " + casId + "from all metadata stores.");
+    LOGGER.trace("Deleting Cas ID {} from all metadata stores.", casId);
 
     for (String key : queryMap.keySet()) {
       deleteCasId(key, casId);
     }
   }
 
+  @Override
+  public List<String> getCasIds(String queryKey, String afterCasId, int limit) throws Exception {
+    if (client == null) {
+      LOGGER.trace("There is no connection to the MongoDB server.");
+
+      throw new NullPointerException(ErrorMessages.METADATA_STORE_NOT_CONNECTED);
+    }
+
+    Pair<String, String> query = queryMap.get(queryKey);
+
+    if (query == null) {
+      LOGGER.trace("Invalid metadata store query specified.");
+
+      throw new IllegalArgumentException(ErrorMessages.getInvalidQueryMessage(queryKey));
+    }
+
+    MongoCollection<Document> collection = getCollection(queryKey, query);
+    List<String> page = new ArrayList<String>(Math.max(0, Math.min(limit, 1024)));
+    FindIterable<Document> iter =
+        collection
+            .find(
+                (afterCasId == null)
+                    ? new Document()
+                    : Filters.gt(MongoDbDocument.CASID_FIELD_KEY, afterCasId))
+            .projection(
+                Projections.fields(
+                    Projections.include(MongoDbDocument.CASID_FIELD_KEY),
+                    Projections.excludeId()))
+            .sort(Sorts.ascending(MongoDbDocument.CASID_FIELD_KEY))
+            .limit(limit);
+
+    FIND_TIMER.record(
+        () -> {
+          for (Document doc : iter) {
+            page.add(doc.getString(MongoDbDocument.CASID_FIELD_KEY));
+          }
+        });
+
+    return page;
+  }
+
+  private MongoCollection<Document> getCollection(String queryKey, Pair<String, String> query) {
+    MongoCollection<Document> collection =
+        client.getDatabase(query.getKey()).getCollection(query.getValue());
+    MongoDbCollectionSettings settings = settingsMap.get(queryKey);
+
+    return (settings == null) ? collection : settings.apply(collection);
+  }
+
   @Override
   public void cleanup() {
     LOGGER.trace("Closing.");
 
-    client.close();
+    if (clientFactory == null) {
+      client.close();
+    } else {
+      clientFactory.release(client);
+    }
+  }
+
+  /**
+   * Returns the handles of the collections used by the registered queries. Queries that share a
+   * collection share a handle.
+   *
+   * @return the MongoDB collections holding the Cas IDs.
+   */
+  List<MongoCollection<Document>> getQueryCollections() {
+    Set<Pair<String, String>> queries = new LinkedHashSet<Pair<String, String>>(queryMap.values());
+    List<MongoCollection<Document>> collections =
+        new ArrayList<MongoCollection<Document>>(queries.size());
+
+    for (Pair<String, String> query : queries) {
+      collections.add(client.getDatabase(query.getKey()).getCollection(query.getValue()));
+    }
+
+    return collections;
   }
 
   public MongoClient getClient() {
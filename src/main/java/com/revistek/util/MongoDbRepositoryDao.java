@@ -1,51 +1,287 @@
 package com.revistek.util;
 
+import com.google.common.hash.Hashing;
 import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ReadPreference;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteUpsert;
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoCollection;
-import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.CountOptions;
 import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndDeleteOptions;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
 import com.revistek.crs.protos.Cas;
 import com.revistek.exceptions.IllegalRepositoryStateException;
 import com.revistek.exceptions.MalformedDataException;
 import com.revistek.util.constants.ErrorMessages;
+import com.revistek.util.constants.MetricNames;
 import com.revistek.util.constants.MongoDbDocument;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
 import java.util.ArrayList;
-import java.util.zip.CRC32;
-import java.util.zip.Checksum;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.bson.Document;
 import org.bson.conversions.Bson;
+import org.bson.types.Binary;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * An implementation of a repository store DAO for MongoDB.
  *
+ * <p>With chunking turned on, Cases larger than the average chunk size are split into
+ * content-defined chunks (see {@link com.revistek.util.ContentDefinedChunker
+ * ContentDefinedChunker}). Each distinct chunk is stored once in a chunk collection next to the
+ * repository collection, keyed by its SHA-256 hash and counting the Cases that refer to it. The
+ * repository entry holds the list of chunk hashes instead of the data. Reads fetch the chunks in
+ * parallel batches and check the reassembled Cas against its checksum. Entries stored in either
+ * form are read whether or not chunking is turned on.
+ *
+ * <p>A chunk is referenced before the entry referring to it is written and released after the
+ * entry is deleted, so a failure in between leaves a chunk that is never deleted rather than an
+ * entry that cannot be read. Chunking cannot be combined with a time to live, since MongoDB expires
+ * entries without releasing their chunks.
+ *
+ * <p>Reads and deletes can be given a server-side time limit (maxTimeMS), so that a stalled member
+ * fails the operation instead of holding its caller. Inserts are bounded by the wtimeoutMS of the
+ * collection settings instead, since MongoDB has no time limit for them.
+ *
+ * <p>With hedged reads turned on, a Cas read that has not returned within the p95 latency of the
+ * recent reads is sent a second time to another member of the replica set: to a secondary if the
+ * collection reads from the primary, else to the primary. The first answer that finds the Cas is
+ * used. The answer of the first read stands if the hedge does not find the Cas, since a secondary
+ * may not have the Cas yet. The read that loses is cancelled, or runs to completion and is
+ * discarded if it is already waiting on MongoDB. The reads and hedges run on a bounded pool; when
+ * it is full, reads run on their caller's thread without a hedge.
+ *
  * @author Chuong Ngo
  */
 public class MongoDbRepositoryDao implements RepositoryDao {
+  public static final int DEFAULT_CHUNK_FETCH_PARALLELISM = 4;
+  public static final long DEFAULT_HEDGE_MIN_DELAY_MILLIS = 5L;
+
   private static final Logger LOGGER = LoggerFactory.getLogger(RepositoryDao.class);
+  private static final int CASID_FILTER_SCAN_BATCH_SIZE = 10000;
+  private static final int CHUNK_FETCH_BATCH_SIZE = 32;
+  private static final int DUPLICATE_KEY_ERROR_CODE = 11000;
+  private static final String ID_FIELD_KEY = "_id";
+  private static final double HEDGE_PERCENTILE = 0.95;
+  private static final long HEDGE_DELAY_REFRESH_NANOS = TimeUnit.SECONDS.toNanos(1);
+  private static final int MAX_HEDGED_READ_THREADS = 64;
+  private static final Timer INSERT_ONE_TIMER =
+      ServiceMetrics.daoTimer(MetricNames.BACKEND_MONGODB_REPOSITORY, "insertOne");
+  private static final Timer COUNT_DOCUMENTS_TIMER =
+      ServiceMetrics.daoTimer(MetricNames.BACKEND_MONGODB_REPOSITORY, "countDocuments");
+  private static final Timer FIND_TIMER =
+      ServiceMetrics.daoTimer(MetricNames.BACKEND_MONGODB_REPOSITORY, "find");
+  private static final Timer DELETE_ONE_TIMER =
+      ServiceMetrics.daoTimer(MetricNames.BACKEND_MONGODB_REPOSITORY, "deleteOne");
+  private static final Timer BULK_WRITE_CHUNKS_TIMER =
+      ServiceMetrics.daoTimer(MetricNames.BACKEND_MONGODB_REPOSITORY, "bulkWriteChunks");
+  private static final Timer FIND_CHUNKS_TIMER =
+      ServiceMetrics.daoTimer(MetricNames.BACKEND_MONGODB_REPOSITORY, "findChunks");
+  private static final Timer READ_TIMER =
+      ServiceMetrics.daoTimer(MetricNames.BACKEND_MONGODB_REPOSITORY, "read");
+  private static final Timer CHECKSUM_TIMER = ServiceMetrics.timer(MetricNames.CHECKSUM_TIME);
+  private static final Counter CHUNKS_WRITTEN_COUNTER =
+      ServiceMetrics.counter(MetricNames.CHUNKS_WRITTEN);
+  private static final Counter CHUNKS_DEDUPLICATED_COUNTER =
+      ServiceMetrics.counter(MetricNames.CHUNKS_DEDUPLICATED);
+  private static final Counter CHUNK_BYTES_DEDUPLICATED_COUNTER =
+      ServiceMetrics.counter(MetricNames.CHUNK_BYTES_DEDUPLICATED);
+  private static final Counter HEDGEABLE_READS_COUNTER =
+      ServiceMetrics.counter(MetricNames.HEDGE_READS);
+  private static final Counter HEDGES_SENT_COUNTER = ServiceMetrics.counter(MetricNames.HEDGE_SENT);
+  private static final Counter HEDGES_WON_COUNTER = ServiceMetrics.counter(MetricNames.HEDGE_WON);
+  private static final ErrorLog RELEASE_CHUNKS_LOG =
+      ErrorLog.getErrorLog(MongoDbRepositoryDao.class, "mongodb.releaseChunks");
+  private static final BulkWriteOptions UNORDERED = new BulkWriteOptions().ordered(false);
+
+  static final Bson CASID_CREATED_AT_INDEX =
+      Indexes.ascending(MongoDbDocument.CASID_FIELD_KEY, MongoDbDocument.CREATED_AT_FIELD_KEY);
 
   private MongoClient client;
+  private MongoClientFactory clientFactory;
   private IdGenerator idGenerator;
-  private String database;
-  private String collection;
+  private volatile String database;
+  private volatile String collection;
+  private volatile MongoCollection<Document> mongoCollection;
+  private volatile MongoCollection<Document> chunkCollection;
+  private volatile MongoDbCollectionSettings collectionSettings;
+  private ChecksumAlgorithm preferredChecksumAlgorithm;
+  private boolean verifyOnRead;
+  private long timeToLiveInSecs;
+  private ScalableBloomFilter casIdFilter;
+  private volatile ScalableBloomFilter rebuildingCasIdFilter;
+  private int casIdFilterRefreshInSecs;
+  private ScheduledExecutorService casIdFilterRefresher;
+  private ContentDefinedChunker chunker;
+  private ExecutorService chunkFetcher;
+  private long readMaxTimeMillis;
+  private long deleteMaxTimeMillis;
+  private ExecutorService hedgedReader;
+  private ScheduledExecutorService hedgeTimer;
+  private long hedgeMinDelayNanos;
+  private volatile MongoCollection<Document> hedgeCollection;
+  private volatile long hedgeDelayNanos;
+  private volatile long hedgeDelayRefreshedAt;
 
   private MongoDbRepositoryDao() {}
 
+  @Override
+  public void initialize() {
+    createIndexes();
+
+    if (casIdFilter == null) {
+      return;
+    }
+
+    rebuildCasIdFilter();
+
+    if (casIdFilterRefreshInSecs > 0) {
+      LOGGER.trace("Rebuilding the Cas ID filter every {} seconds.", casIdFilterRefreshInSecs);
+
+      casIdFilterRefresher =
+          Executors.newSingleThreadScheduledExecutor(
+              runnable -> {
+                Thread thread = new Thread(runnable, "casid-filter-refresher");
+                thread.setDaemon(true);
+                return thread;
+              });
+      casIdFilterRefresher.scheduleWithFixedDelay(
+          this::rebuildCasIdFilter,
+          casIdFilterRefreshInSecs,
+          casIdFilterRefreshInSecs,
+          TimeUnit.SECONDS);
+    }
+  }
+
+  /**
+   * Creates the indexes of the repository collection if they do not exist. The TTL index removes
+   * Cases once their expiry time passes; Cases without an expiry time are kept. The Cas ID index
+   * also holds the creation time so that the orphan reconciler can scan the index alone. The
+   * document ID index serves {@link #getCasIds(String)}.
+   */
+  public void createIndexes() {
+    if (client == null) {
+      return;
+    }
+
+    try {
+      MongoCollection<Document> mongoCollection = getMongoCollection();
+      mongoCollection.createIndex(
+          Indexes.ascending(MongoDbDocument.EXPIRES_AT_FIELD_KEY),
+          new IndexOptions().expireAfter(0L, TimeUnit.SECONDS));
+      mongoCollection.createIndex(CASID_CREATED_AT_INDEX);
+      mongoCollection.createIndex(Indexes.ascending(MongoDbDocument.DOCUMENTID_FIELD_KEY));
+    } catch (RuntimeException e) {
+      // The repository still works without the indexes, only slower and without expiry.
+      LOGGER.warn("Failed to create the repository indexes.", e);
+    }
+  }
+
+  /**
+   * Rebuilds the Cas ID filter from the Cas IDs in the repository and swaps it in. Cas IDs stored
+   * while the rebuild is running are added to both the old and the new filter.
+   */
+  public void rebuildCasIdFilter() {
+    if ((casIdFilter == null) || (client == null)) {
+      return;
+    }
+
+    LOGGER.trace("Rebuilding the Cas ID filter from the repository.");
+
+    ScalableBloomFilter rebuilt = casIdFilter.newEmptyCopy();
+    rebuildingCasIdFilter = rebuilt;
+
+    try {
+      MongoCollection<Document> mongoCollection = getMongoCollection();
+
+      try (MongoCursor<Document> cursor =
+          mongoCollection
+              .find()
+              .projection(Projections.include(MongoDbDocument.CASID_FIELD_KEY))
+              .batchSize(CASID_FILTER_SCAN_BATCH_SIZE)
+              .iterator()) {
+        while (cursor.hasNext()) {
+          String casId = cursor.next().getString(MongoDbDocument.CASID_FIELD_KEY);
+
+          if (casId != null) {
+            rebuilt.add(casId);
+          }
+        }
+      }
+
+      casIdFilter.replaceWith(rebuilt);
+      LOGGER.trace("Rebuilt the Cas ID filter with {} Cas IDs.", rebuilt.getCount());
+    } catch (RuntimeException e) {
+      // Keep the old filter. It still has every Cas ID stored by this instance.
+      LOGGER.warn("Failed to rebuild the Cas ID filter.", e);
+    } finally {
+      rebuildingCasIdFilter = null;
+    }
+  }
+
+  void addToCasIdFilter(String casId) {
+    if (casIdFilter == null) {
+      return;
+    }
+
+    casIdFilter.add(casId);
+
+    ScalableBloomFilter rebuilding = rebuildingCasIdFilter;
+    if (rebuilding != null) {
+      rebuilding.add(casId);
+    }
+  }
+
   public void createClient(String url) {
-    client = MongoClients.create(url);
+    client = (clientFactory == null) ? MongoClients.create(url) : clientFactory.acquire(url);
+    mongoCollection = null;
+    chunkCollection = null;
+    hedgeCollection = null;
 
     LOGGER.trace("Initialized.");
   }
 
   @Override
   public Cas getCasId(String casId) throws Exception {
-    LOGGER.trace("Getting the Cas: " + casId + ".");
+    LOGGER.trace("Getting the Cas: {}.", casId);
 
     if (StringUtils.isEmpty(casId)) {
         LOGGER.trace("Invalid Cas ID specified.");
@@ -72,20 +308,233 @@ public class MongoDbRepositoryDao implements RepositoryDao {
       throw new NullPointerException(ErrorMessages.REPOSITORY_NOT_CONNECTED);
     }
 
-    MongoCollection<Document> mongoCollection =
-        client.getDatabase(database).getCollection(collection);
+    Document doc = (hedgedReader == null) ? read(getMongoCollection(), filter) : readHedged(filter);
+    Cas cas = toCas(doc);
 
-    if (mongoCollection.countDocuments(filter) > 1) {
-      throw new IllegalRepositoryStateException(ErrorMessages.CASID_NOT_UNIQUE);
+    // Entries that recorded their algorithm were verified when they were written, so they are
+    // always checked. Older entries are only checked if verify-on-read is turned on.
+    String algorithmName = doc.getString(MongoDbDocument.CHECKSUM_ALGORITHM_FIELD_KEY);
+    if ((verifyOnRead || (algorithmName != null)) && !hasValidChecksum(cas, algorithmName)) {
+      LOGGER.trace("The Cas {} failed its checksum check on read.", cas.getCasId());
+
+      throw new MalformedDataException(ErrorMessages.getChecksumFailedMessage(cas.getDocumentId()));
+    }
+
+    return cas;
+  }
+
+  /**
+   * Reads the entry matching a filter.
+   *
+   * @param mongoCollection the collection to read from.
+   * @param filter the MongoDB filter of the entry.
+   * @return the entry, or null if no entry matches.
+   * @throws IllegalRepositoryStateException more than one entry matches.
+   */
+  private Document read(MongoCollection<Document> mongoCollection, Bson filter)
+      throws IllegalRepositoryStateException {
+    long start = System.nanoTime();
+
+    try {
+      if (COUNT_DOCUMENTS_TIMER.record(() -> mongoCollection.countDocuments(filter, count()))
+          > 1) {
+        throw new IllegalRepositoryStateException(ErrorMessages.CASID_NOT_UNIQUE);
+      }
+
+      FindIterable<Document> iter =
+          mongoCollection.find(filter).maxTime(readMaxTimeMillis, TimeUnit.MILLISECONDS);
+      return FIND_TIMER.record(() -> iter.first());
+    } finally {
+      READ_TIMER.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /**
+   * Reads the entry matching a filter, racing it against a hedge sent to another member once the
+   * read is slower than usual. The read and its hedge run on a bounded pool; whichever finds the
+   * entry first is returned, and the other is cancelled. A read that finds no pool thread runs on
+   * the caller's thread without a hedge.
+   *
+   * @param filter the MongoDB filter of the entry.
+   * @return the entry, or null if no entry matches.
+   * @throws Exception the read failed.
+   */
+  private Document readHedged(Bson filter) throws Exception {
+    HEDGEABLE_READS_COUNTER.increment();
+
+    MongoCollection<Document> mongoCollection = getMongoCollection();
+    CompletableFuture<Document> primary = new CompletableFuture<Document>();
+    CompletableFuture<Document> hedge = new CompletableFuture<Document>();
+
+    try {
+      hedgedReader.execute(() -> readInto(primary, mongoCollection, filter));
+    } catch (RejectedExecutionException e) {
+      // Every thread of the pool is busy, so the cluster is already slow. Do not add a hedge.
+      return read(mongoCollection, filter);
     }
 
-    FindIterable<Document> iter = mongoCollection.find(filter);
-    Document doc = iter.first();
-    return documentToCas(doc);
+    ScheduledFuture<?> timer =
+        hedgeTimer.schedule(
+            () -> sendHedge(filter, primary, hedge), getHedgeDelayNanos(), TimeUnit.NANOSECONDS);
+
+    try {
+      return firstFound(primary, hedge).get();
+    } catch (ExecutionException e) {
+      throw unwrap(e.getCause());
+    } finally {
+      // A read that has not started is skipped. One that is waiting on MongoDB cannot be stopped;
+      // it runs to completion and its answer is discarded.
+      timer.cancel(false);
+      primary.cancel(false);
+      hedge.cancel(false);
+    }
+  }
+
+  private void readInto(
+      CompletableFuture<Document> read, MongoCollection<Document> mongoCollection, Bson filter) {
+    if (read.isDone()) {
+      return;
+    }
+
+    try {
+      read.complete(read(mongoCollection, filter));
+    } catch (Exception e) {
+      read.completeExceptionally(e);
+    }
+  }
+
+  /**
+   * Sends a hedge to the pool of hedged reads. The hedge is skipped if the read has returned, or if
+   * every thread of the pool is busy.
+   */
+  private void sendHedge(
+      Bson filter, CompletableFuture<Document> primary, CompletableFuture<Document> hedge) {
+    if (hedge.isDone() || (primary.isDone() && !primary.isCompletedExceptionally())) {
+      return;
+    }
+
+    try {
+      hedgedReader.execute(
+          () -> {
+            if (!hedge.isDone()) {
+              HEDGES_SENT_COUNTER.increment();
+              readInto(hedge, getHedgeCollection(), filter);
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      hedge.cancel(false);
+    }
+  }
+
+  /**
+   * Combines a read and its hedge. The answer of the read is used unless the hedge finds the entry
+   * first, since a secondary may not have the entry yet. If the read fails, the hedge is waited
+   * for.
+   */
+  private static CompletableFuture<Document> firstFound(
+      CompletableFuture<Document> primary, CompletableFuture<Document> hedge) {
+    CompletableFuture<Document> first = new CompletableFuture<Document>();
+
+    primary.whenComplete(
+        (doc, t) -> {
+          if (t == null) {
+            first.complete(doc);
+          } else if (hedge.isDone() && !hasFound(hedge)) {
+            first.completeExceptionally(t);
+          }
+        });
+    hedge.whenComplete(
+        (doc, t) -> {
+          if ((t == null) && (doc != null)) {
+            if (first.complete(doc)) {
+              HEDGES_WON_COUNTER.increment();
+            }
+          } else if (primary.isCompletedExceptionally()) {
+            primary.whenComplete((primaryDoc, primaryT) -> first.completeExceptionally(primaryT));
+          }
+        });
+
+    return first;
+  }
+
+  private static boolean hasFound(CompletableFuture<Document> read) {
+    return !read.isCompletedExceptionally() && (read.getNow(null) != null);
+  }
+
+  private static Exception unwrap(Throwable t) {
+    if (t instanceof CompletionException) {
+      t = t.getCause();
+    }
+
+    return (t instanceof Exception) ? (Exception) t : new RuntimeException(t);
+  }
+
+  /**
+   * Returns how long to wait for a read before hedging it: the p95 latency of the recent reads, but
+   * no less than the minimum hedge delay. The percentile is looked up at most once a second.
+   */
+  private long getHedgeDelayNanos() {
+    long now = System.nanoTime();
+
+    if ((hedgeDelayRefreshedAt == 0L)
+        || ((now - hedgeDelayRefreshedAt) > HEDGE_DELAY_REFRESH_NANOS)) {
+      hedgeDelayNanos =
+          Math.max(
+              hedgeMinDelayNanos, ServiceMetrics.percentileNanos(READ_TIMER, HEDGE_PERCENTILE));
+      hedgeDelayRefreshedAt = now;
+    }
+
+    return hedgeDelayNanos;
+  }
+
+  private CountOptions count() {
+    return new CountOptions().maxTime(readMaxTimeMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Checks the data of a {@link com.revistek.crs.protos.Cas Cas} against its checksum.
+   *
+   * @param cas the Cas to check.
+   * @param algorithmName the name of the algorithm the checksum was computed with, or null for an
+   *     entry that did not record it.
+   * @return true if the data matches the checksum, else false.
+   * @throws IllegalArgumentException the algorithm is not known.
+   */
+  static boolean hasValidChecksum(Cas cas, String algorithmName) {
+    ChecksumAlgorithm algorithm = ChecksumAlgorithm.fromName(algorithmName);
+
+    long checksumStart = System.nanoTime();
+    long checksum = algorithm.compute(cas.getCasData());
+    CHECKSUM_TIMER.record(System.nanoTime() - checksumStart, TimeUnit.NANOSECONDS);
+
+    return (checksum == cas.getCrc32Checksum());
   }
 
   @Override
   public String store(Cas cas) throws Exception {
+    return store(cas, idGenerator::refreshAndGetUniqueId);
+  }
+
+  /**
+   * Stores a {@link com.revistek.crs.protos.Cas Cas} under a Cas ID chosen by the caller (e.g., a
+   * router that embeds the shard in the Cas ID).
+   *
+   * @param cas the {@link com.revistek.crs.protos.Cas Cas} to store.
+   * @param casId the Cas ID to store it under.
+   * @return The Cas ID.
+   * @throws MalformedDataException the Cas is malformed or failed its checksum check.
+   * @throws Exception There was a problem with this operation.
+   */
+  @Override
+  public String store(Cas cas, String casId) throws Exception {
+    if (StringUtils.isEmpty(casId)) {
+      throw new IllegalArgumentException(ErrorMessages.INVALID_CAS_ID);
+    }
+
+    return store(cas, () -> casId);
+  }
+
+  private String store(Cas cas, Supplier<String> casIdSupplier) throws Exception {
     String docId = cas.getDocumentId();
     ByteString data = cas.getCasData();
 
@@ -95,25 +544,25 @@ public class MongoDbRepositoryDao implements RepositoryDao {
       throw new MalformedDataException(ErrorMessages.INVALID_PROTOBUF_CAS);
     }
 
-    byte[] dataBytes = data.toByteArray();
-
-    if (dataBytes.length == 0) {
+    if (data.isEmpty()) {
         LOGGER.trace("There is no UIMA Cas/JCas data to store.");
 
       throw new MalformedDataException(ErrorMessages.INVALID_PROTOBUF_CAS);
     }
 
-    Checksum crc32 = new CRC32();
-    crc32.update(dataBytes, 0, dataBytes.length);
+    long checksumStart = System.nanoTime();
+    ChecksumAlgorithm algorithm =
+        ChecksumAlgorithm.match(data, cas.getCrc32Checksum(), preferredChecksumAlgorithm);
+    CHECKSUM_TIMER.record(System.nanoTime() - checksumStart, TimeUnit.NANOSECONDS);
 
-    if (crc32.getValue() != cas.getCrc32Checksum()) {
+    if (algorithm == null) {
         LOGGER.trace("The UIMA Cas/JCas failed its checksum check.");
         
       throw new MalformedDataException(ErrorMessages.getChecksumFailedMessage(docId));
     }
 
-    String casId = idGenerator.refreshAndGetUniqueId();
-    LOGGER.trace("Storing the Cas: " + casId + " for document: " + docId + ".");
+    String casId = casIdSupplier.get();
+    LOGGER.trace("Storing the Cas: {} for document: {}.", casId, docId);
     
     if (client == null) {
         LOGGER.trace("There is no connection to the MongoDB server.");
@@ -125,20 +574,280 @@ public class MongoDbRepositoryDao implements RepositoryDao {
         Cas.newBuilder()
             .setCasId(casId)
             .setDocumentId(docId)
-            .setCrc32Checksum(crc32.getValue())
+            .setCrc32Checksum(cas.getCrc32Checksum())
             .setCasData(data)
             .build();
-    Document doc = MongoDbRepositoryDao.casToDocument(newCas);
-    MongoDatabase mongoDb = client.getDatabase(database);
-    MongoCollection<Document> mongoCollection = mongoDb.getCollection(collection);
-    mongoCollection.insertOne(doc);
-    
+    Document doc = MongoDbRepositoryDao.casToDocument(newCas, algorithm);
+    List<String> chunkIds = null;
+
+    if ((chunker != null) && (data.size() > chunker.getAverageSize())) {
+      chunkIds = storeChunks(data);
+      doc.remove(MongoDbDocument.CASDATA_FIELD_KEY);
+      doc.append(MongoDbDocument.CHUNKS_FIELD_KEY, chunkIds);
+    }
+
+    long now = System.currentTimeMillis();
+    doc.append(MongoDbDocument.CREATED_AT_FIELD_KEY, new Date(now));
+
+    if (timeToLiveInSecs > 0) {
+      doc.append(MongoDbDocument.EXPIRES_AT_FIELD_KEY, new Date(now + (timeToLiveInSecs * 1000L)));
+    }
+
+    MongoCollection<Document> mongoCollection = getMongoCollection();
+
+    try {
+      INSERT_ONE_TIMER.record(() -> mongoCollection.insertOne(doc));
+    } catch (RuntimeException e) {
+      if (chunkIds != null) {
+        releaseChunks(chunkIds);
+      }
+
+      throw e;
+    }
+
+    addToCasIdFilter(casId);
+
     return casId;
   }
 
+  /**
+   * Splits the data of a Cas into chunks and adds a reference to each, storing the chunks that are
+   * not in the chunk collection yet.
+   *
+   * @param data the data of the Cas.
+   * @return the hashes of the chunks, in order.
+   */
+  private List<String> storeChunks(ByteString data) {
+    byte[] bytes = data.toByteArray();
+    List<String> chunkIds = new ArrayList<String>();
+    Map<String, Integer> references = new LinkedHashMap<String, Integer>();
+    Map<String, byte[]> contents = new LinkedHashMap<String, byte[]>();
+    int start = 0;
+
+    for (int end : chunker.split(bytes)) {
+      String chunkId = Hashing.sha256().hashBytes(bytes, start, end - start).toString();
+      chunkIds.add(chunkId);
+
+      if (references.merge(chunkId, 1, Integer::sum) == 1) {
+        contents.put(chunkId, Arrays.copyOfRange(bytes, start, end));
+      }
+
+      start = end;
+    }
+
+    List<String> uniqueIds = new ArrayList<String>(contents.keySet());
+    List<WriteModel<Document>> writes = new ArrayList<WriteModel<Document>>(uniqueIds.size());
+
+    for (String chunkId : uniqueIds) {
+      writes.add(
+          new UpdateOneModel<Document>(
+              Filters.eq(ID_FIELD_KEY, chunkId),
+              Updates.combine(
+                  Updates.inc(MongoDbDocument.CHUNK_REFERENCES_FIELD_KEY, references.get(chunkId)),
+                  Updates.setOnInsert(
+                      MongoDbDocument.CHUNK_DATA_FIELD_KEY, new Binary(contents.get(chunkId)))),
+              new UpdateOptions().upsert(true)));
+    }
+
+    List<BulkWriteUpsert> upserts = writeChunks(writes);
+    long writtenBytes = 0L;
+
+    for (BulkWriteUpsert upsert : upserts) {
+      writtenBytes += contents.get(uniqueIds.get(upsert.getIndex())).length;
+    }
+
+    if (LOGGER.isTraceEnabled()) {
+      LOGGER.trace(
+          "Stored {} chunks. {} were not stored before.", chunkIds.size(), upserts.size());
+    }
+    CHUNKS_WRITTEN_COUNTER.increment(upserts.size());
+    CHUNKS_DEDUPLICATED_COUNTER.increment(chunkIds.size() - upserts.size());
+    CHUNK_BYTES_DEDUPLICATED_COUNTER.increment(bytes.length - writtenBytes);
+
+    return chunkIds;
+  }
+
+  /**
+   * Writes the references to chunks.
+   *
+   * @param writes the upserts of the chunks.
+   * @return the chunks that were inserted.
+   */
+  private List<BulkWriteUpsert> writeChunks(List<WriteModel<Document>> writes) {
+    MongoCollection<Document> chunkCollection = getChunkCollection();
+
+    try {
+      return BULK_WRITE_CHUNKS_TIMER
+          .record(() -> chunkCollection.bulkWrite(writes, UNORDERED))
+          .getUpserts();
+    } catch (MongoBulkWriteException e) {
+      // Two stores inserting the same new chunk race on its hash. The losers find it on a retry.
+      List<WriteModel<Document>> retries = new ArrayList<WriteModel<Document>>();
+
+      for (BulkWriteError error : e.getWriteErrors()) {
+        if (error.getCode() != DUPLICATE_KEY_ERROR_CODE) {
+          throw e;
+        }
+
+        retries.add(writes.get(error.getIndex()));
+      }
+
+      BULK_WRITE_CHUNKS_TIMER.record(() -> chunkCollection.bulkWrite(retries, UNORDERED));
+      return e.getWriteResult().getUpserts();
+    }
+  }
+
+  /**
+   * Removes the references of a deleted Cas to its chunks, deleting the chunks that no Cas refers
+   * to anymore. A store that references a chunk at the same time either keeps it from being
+   * deleted or inserts it again.
+   *
+   * @param chunkIds the hashes of the chunks of the Cas.
+   */
+  private void releaseChunks(List<String> chunkIds) {
+    Map<String, Integer> references = new LinkedHashMap<String, Integer>();
+
+    for (String chunkId : chunkIds) {
+      references.merge(chunkId, 1, Integer::sum);
+    }
+
+    List<WriteModel<Document>> writes = new ArrayList<WriteModel<Document>>(references.size());
+
+    for (Map.Entry<String, Integer> reference : references.entrySet()) {
+      writes.add(
+          new UpdateOneModel<Document>(
+              Filters.eq(ID_FIELD_KEY, reference.getKey()),
+              Updates.inc(MongoDbDocument.CHUNK_REFERENCES_FIELD_KEY, -reference.getValue())));
+    }
+
+    try {
+      MongoCollection<Document> chunkCollection = getChunkCollection();
+      BULK_WRITE_CHUNKS_TIMER.record(() -> chunkCollection.bulkWrite(writes, UNORDERED));
+      chunkCollection.deleteMany(
+          Filters.and(
+              Filters.in(ID_FIELD_KEY, references.keySet()),
+              Filters.lte(MongoDbDocument.CHUNK_REFERENCES_FIELD_KEY, 0)));
+    } catch (RuntimeException e) {
+      // The Cas is already deleted. Its chunks only take up space.
+      RELEASE_CHUNKS_LOG.error("Failed to release the chunks of a deleted Cas.", e);
+    }
+  }
+
+  /**
+   * Converts a repository entry into a {@link com.revistek.crs.protos.Cas Cas}, fetching its
+   * chunks if it was stored in chunks.
+   *
+   * @param doc the repository entry.
+   * @return the Cas.
+   * @throws IllegalRepositoryStateException a chunk of the Cas is missing.
+   * @throws Exception the entry is malformed, or there was a problem fetching the chunks.
+   */
+  Cas toCas(Document doc) throws Exception {
+    List<String> chunkIds =
+        (doc == null) ? null : doc.getList(MongoDbDocument.CHUNKS_FIELD_KEY, String.class);
+
+    if (chunkIds == null) {
+      return documentToCas(doc);
+    }
+
+    String casId = doc.getString(MongoDbDocument.CASID_FIELD_KEY);
+    String docId = doc.getString(MongoDbDocument.DOCUMENTID_FIELD_KEY);
+    Long checksum = doc.getLong(MongoDbDocument.CRC32CHECKSUM_FIELD_KEY);
+
+    if ((casId == null) || (docId == null) || (checksum == null)) {
+      LOGGER.trace("The Document is missing data required for the Cas.");
+
+      throw new IllegalArgumentException(ErrorMessages.INVALID_REPOSITORY_ENTRY);
+    }
+
+    return Cas.newBuilder()
+        .setCasId(casId)
+        .setDocumentId(docId)
+        .setCrc32Checksum(checksum)
+        .setCasData(fetchChunks(casId, chunkIds))
+        .build();
+  }
+
+  /**
+   * Fetches the chunks of a Cas and joins them. Cases with many chunks are fetched in batches in
+   * parallel.
+   *
+   * @param casId the Cas ID of the Cas.
+   * @param chunkIds the hashes of the chunks, in order.
+   * @return the data of the Cas.
+   * @throws IllegalRepositoryStateException a chunk is missing.
+   */
+  private ByteString fetchChunks(String casId, List<String> chunkIds) throws Exception {
+    List<String> uniqueIds = new ArrayList<String>(new LinkedHashSet<String>(chunkIds));
+    Map<String, ByteString> chunks = new ConcurrentHashMap<String, ByteString>();
+    MongoCollection<Document> chunkCollection = getChunkCollection();
+
+    if ((chunkFetcher == null) || (uniqueIds.size() <= CHUNK_FETCH_BATCH_SIZE)) {
+      fetchChunkBatch(chunkCollection, uniqueIds, readMaxTimeMillis, chunks);
+    } else {
+      List<CompletableFuture<Void>> batches = new ArrayList<CompletableFuture<Void>>();
+
+      for (int start = 0; start < uniqueIds.size(); start += CHUNK_FETCH_BATCH_SIZE) {
+        List<String> batch =
+            uniqueIds.subList(start, Math.min(uniqueIds.size(), start + CHUNK_FETCH_BATCH_SIZE));
+        batches.add(
+            CompletableFuture.runAsync(
+                () -> fetchChunkBatch(chunkCollection, batch, readMaxTimeMillis, chunks),
+                chunkFetcher));
+      }
+
+      try {
+        CompletableFuture.allOf(batches.toArray(new CompletableFuture<?>[0])).join();
+      } catch (CompletionException e) {
+        throw (e.getCause() instanceof RuntimeException) ? (RuntimeException) e.getCause() : e;
+      }
+    }
+
+    List<ByteString> ordered = new ArrayList<ByteString>(chunkIds.size());
+
+    for (String chunkId : chunkIds) {
+      ByteString chunk = chunks.get(chunkId);
+
+      if (chunk == null) {
+        LOGGER.trace("The chunk {} of the Cas {} is missing.", chunkId, casId);
+
+        throw new IllegalRepositoryStateException(
+            ErrorMessages.getMissingChunkMessage(chunkId, casId));
+      }
+
+      ordered.add(chunk);
+    }
+
+    return ByteString.copyFrom(ordered);
+  }
+
+  private static void fetchChunkBatch(
+      MongoCollection<Document> chunkCollection,
+      List<String> chunkIds,
+      long maxTimeMillis,
+      Map<String, ByteString> chunks) {
+    FindIterable<Document> iter =
+        chunkCollection
+            .find(Filters.in(ID_FIELD_KEY, chunkIds))
+            .projection(Projections.include(MongoDbDocument.CHUNK_DATA_FIELD_KEY))
+            .maxTime(maxTimeMillis, TimeUnit.MILLISECONDS);
+
+    FIND_CHUNKS_TIMER.record(
+        () -> {
+          for (Document chunk : iter) {
+            Binary data = chunk.get(MongoDbDocument.CHUNK_DATA_FIELD_KEY, Binary.class);
+
+            if (data != null) {
+              chunks.put(
+                  chunk.getString(ID_FIELD_KEY), UnsafeByteOperations.unsafeWrap(data.getData()));
+            }
+          }
+        });
+  }
+
   @Override
   public void deleteCasId(String casId) throws Exception {
-    LOGGER.trace("Deleting the Cas: " + casId + ".");
+    LOGGER.trace("Deleting the Cas: {}.", casId);
 
     if (StringUtils.isEmpty(casId)) {
         LOGGER.trace("Invalid Cas ID specified.");
@@ -164,16 +873,68 @@ public class MongoDbRepositoryDao implements RepositoryDao {
       throw new NullPointerException(ErrorMessages.REPOSITORY_NOT_CONNECTED);
     }
 
-    MongoCollection<Document> mongoCollection =
-        client.getDatabase(database).getCollection(collection);
+    MongoCollection<Document> mongoCollection = getMongoCollection();
 
-    if (mongoCollection.countDocuments(filter) > 1) {
+    if (COUNT_DOCUMENTS_TIMER.record(() -> mongoCollection.countDocuments(filter, count())) > 1) {
         LOGGER.trace("There are two or more entries for the specified Cas.");
         
       throw new IllegalRepositoryStateException(ErrorMessages.CASID_NOT_UNIQUE);
     }
 
-    mongoCollection.deleteOne(filter);
+    Document deleted =
+        DELETE_ONE_TIMER.record(
+            () ->
+                mongoCollection.findOneAndDelete(
+                    filter,
+                    new FindOneAndDeleteOptions()
+                        .projection(Projections.include(MongoDbDocument.CHUNKS_FIELD_KEY))
+                        .maxTime(deleteMaxTimeMillis, TimeUnit.MILLISECONDS)));
+    List<String> chunkIds =
+        (deleted == null) ? null : deleted.getList(MongoDbDocument.CHUNKS_FIELD_KEY, String.class);
+
+    if (chunkIds != null) {
+      releaseChunks(chunkIds);
+    }
+  }
+
+  /**
+   * Deletes every Cas matching a filter (e.g., orphans), releasing the chunks of the Cases that
+   * were stored in chunks.
+   *
+   * @param filter the MongoDB filter of the Cases to delete.
+   * @return the number of Cases deleted.
+   */
+  public long deleteMany(Bson filter) {
+    MongoCollection<Document> mongoCollection = getMongoCollection();
+    long deleted =
+        mongoCollection
+            .deleteMany(
+                Filters.and(filter, Filters.exists(MongoDbDocument.CHUNKS_FIELD_KEY, false)))
+            .getDeletedCount();
+    List<Object> chunkedIds = new ArrayList<Object>();
+
+    FindIterable<Document> iter =
+        mongoCollection.find(filter).projection(Projections.include(ID_FIELD_KEY));
+
+    for (Document doc : iter) {
+      chunkedIds.add(doc.get(ID_FIELD_KEY));
+    }
+
+    // One at a time, so that only the chunks of the entries actually deleted are released.
+    for (Object id : chunkedIds) {
+      Document chunked =
+          mongoCollection.findOneAndDelete(
+              Filters.and(Filters.eq(ID_FIELD_KEY, id), filter),
+              new FindOneAndDeleteOptions()
+                  .projection(Projections.include(MongoDbDocument.CHUNKS_FIELD_KEY)));
+
+      if (chunked != null) {
+        deleted++;
+        releaseChunks(chunked.getList(MongoDbDocument.CHUNKS_FIELD_KEY, String.class));
+      }
+    }
+
+    return deleted;
   }
 
   @Override
@@ -188,6 +949,20 @@ public class MongoDbRepositoryDao implements RepositoryDao {
     return exists(filter);
   }
 
+  /** Answers from the Cas ID filter alone when there is one, so it never queries MongoDB then. */
+  @Override
+  public boolean mightContainCasId(String casId) throws Exception {
+    if (casIdFilter == null) {
+      return existsCasId(casId);
+    }
+
+    if (StringUtils.isEmpty(casId)) {
+      throw new IllegalArgumentException(ErrorMessages.INVALID_CAS_ID);
+    }
+
+    return casIdFilter.mightContain(casId);
+  }
+
   public boolean exists(Bson filter) throws Exception {
     if (client == null) {
         LOGGER.trace("There is no connection to the MongoDB server.");
@@ -195,16 +970,187 @@ public class MongoDbRepositoryDao implements RepositoryDao {
       throw new NullPointerException(ErrorMessages.REPOSITORY_NOT_CONNECTED);
     }
 
-    MongoCollection<Document> mongoCollection =
-        client.getDatabase(database).getCollection(collection);
-    return (mongoCollection.countDocuments(filter) > 0);
+    MongoCollection<Document> mongoCollection = getMongoCollection();
+    return (COUNT_DOCUMENTS_TIMER.record(() -> mongoCollection.countDocuments(filter, count()))
+        > 0);
+  }
+
+  @Override
+  public List<String> getCasIds(String documentId) throws Exception {
+    LOGGER.trace("Listing the Cases of the document: {}.", documentId);
+
+    if (client == null) {
+      LOGGER.trace("There is no connection to the MongoDB server.");
+
+      throw new NullPointerException(ErrorMessages.REPOSITORY_NOT_CONNECTED);
+    }
+
+    List<String> casIds = new ArrayList<String>();
+    FindIterable<Document> iter =
+        getMongoCollection()
+            .find(Filters.eq(MongoDbDocument.DOCUMENTID_FIELD_KEY, documentId))
+            .projection(Projections.include(MongoDbDocument.CASID_FIELD_KEY))
+            .maxTime(readMaxTimeMillis, TimeUnit.MILLISECONDS);
+
+    FIND_TIMER.record(
+        () -> {
+          for (Document doc : iter) {
+            casIds.add(doc.getString(MongoDbDocument.CASID_FIELD_KEY));
+          }
+        });
+
+    return casIds;
+  }
+
+  /**
+   * Returns the handle of the repository collection, creating it on first use.
+   *
+   * @return the MongoDB collection holding the Cases.
+   */
+  MongoCollection<Document> getMongoCollection() {
+    MongoCollection<Document> handle = mongoCollection;
+
+    if (handle == null) {
+      handle = collectionSettings.apply(client.getDatabase(database).getCollection(collection));
+      mongoCollection = handle;
+    }
+
+    return handle;
+  }
+
+  /**
+   * Returns the handle of the collection holding the chunks of the Cases stored in chunks. It sits
+   * next to the repository collection.
+   *
+   * @return the MongoDB collection holding the chunks.
+   */
+  MongoCollection<Document> getChunkCollection() {
+    MongoCollection<Document> handle = chunkCollection;
+
+    if (handle == null) {
+      handle =
+          collectionSettings.apply(
+              client
+                  .getDatabase(database)
+                  .getCollection(collection + MongoDbDocument.CHUNK_COLLECTION_SUFFIX));
+      chunkCollection = handle;
+    }
+
+    return handle;
+  }
+
+  /**
+   * Returns the handle of the repository collection that hedged reads are sent to. It reads from a
+   * secondary if the repository collection reads from the primary, else from the primary.
+   *
+   * @return the MongoDB collection holding the Cases, with a different read preference.
+   */
+  MongoCollection<Document> getHedgeCollection() {
+    MongoCollection<Document> handle = hedgeCollection;
+
+    if (handle == null) {
+      MongoCollection<Document> collection = getMongoCollection();
+      handle =
+          collection.withReadPreference(
+              ReadPreference.primary().equals(collection.getReadPreference())
+                  ? ReadPreference.secondaryPreferred()
+                  : ReadPreference.primary());
+      hedgeCollection = handle;
+    }
+
+    return handle;
+  }
+
+  /**
+   * Returns the handle of the collection that corrupted Cases are moved to. It sits next to the
+   * repository collection.
+   *
+   * @return the MongoDB collection holding the quarantined Cases.
+   */
+  MongoCollection<Document> getQuarantineCollection() {
+    return client
+        .getDatabase(database)
+        .getCollection(collection + MongoDbDocument.QUARANTINE_COLLECTION_SUFFIX);
+  }
+
+  /**
+   * Returns the handle of the collection holding the leases of the background jobs that only one
+   * instance may run at a time (e.g., a rebalance). It sits next to the repository collection.
+   *
+   * @return the MongoDB collection holding the leases.
+   */
+  MongoCollection<Document> getLeaseCollection() {
+    return client
+        .getDatabase(database)
+        .getCollection(collection + MongoDbDocument.LEASE_COLLECTION_SUFFIX);
+  }
+
+  /**
+   * Points the DAO at a different database and collection on the same MongoDB server. Requests
+   * already in flight finish against the old collection.
+   *
+   * @param database the database holding the repository.
+   * @param collection the collection holding the repository.
+   */
+  public synchronized void retarget(String database, String collection) {
+    retarget(database, collection, collectionSettings);
+  }
+
+  /**
+   * Points the DAO at a different database and collection on the same MongoDB server, with
+   * different collection settings. Requests already in flight finish against the old collection.
+   *
+   * @param database the database holding the repository.
+   * @param collection the collection holding the repository.
+   * @param settings the write concern, read preference and read concern of the collection.
+   */
+  public synchronized void retarget(
+      String database, String collection, MongoDbCollectionSettings settings) {
+    if (StringUtils.isEmpty(database)) {
+      throw new IllegalArgumentException(ErrorMessages.INVALID_MONGODB_REPOSITORY_DATABASE);
+    }
+
+    if (StringUtils.isEmpty(collection)) {
+      throw new IllegalArgumentException(ErrorMessages.INVALID_MONGODB_REPOSITORY_COLLECTION);
+    }
+
+    LOGGER.trace("Retargeting to database: {}, collection: {}.", database, collection);
+
+    MongoCollection<Document> handle =
+        settings.apply(client.getDatabase(database).getCollection(collection));
+    this.database = database;
+    this.collection = collection;
+    this.collectionSettings = settings;
+    this.mongoCollection = handle;
+    this.chunkCollection = null;
+    this.hedgeCollection = null;
   }
 
   @Override
   public void cleanup() {
     LOGGER.trace("Closing.");
 
-    client.close();
+    if (casIdFilterRefresher != null) {
+      casIdFilterRefresher.shutdownNow();
+    }
+
+    if (chunkFetcher != null) {
+      chunkFetcher.shutdownNow();
+    }
+
+    if (hedgeTimer != null) {
+      hedgeTimer.shutdownNow();
+    }
+
+    if (hedgedReader != null) {
+      hedgedReader.shutdownNow();
+    }
+
+    if (clientFactory == null) {
+      client.close();
+    } else {
+      clientFactory.release(client);
+    }
   }
 
   public MongoClient getClient() {
@@ -215,6 +1161,10 @@ public class MongoDbRepositoryDao implements RepositoryDao {
     return idGenerator;
   }
 
+  public MongoDbCollectionSettings getCollectionSettings() {
+    return collectionSettings;
+  }
+
   public String getDatabase() {
     return database;
   }
@@ -223,6 +1173,39 @@ public class MongoDbRepositoryDao implements RepositoryDao {
     return collection;
   }
 
+  public boolean isVerifyOnRead() {
+    return verifyOnRead;
+  }
+
+  public long getTimeToLiveInSecs() {
+    return timeToLiveInSecs;
+  }
+
+  public ScalableBloomFilter getCasIdFilter() {
+    return casIdFilter;
+  }
+
+  public long getReadMaxTimeMillis() {
+    return readMaxTimeMillis;
+  }
+
+  public long getDeleteMaxTimeMillis() {
+    return deleteMaxTimeMillis;
+  }
+
+  public boolean isHedgedReads() {
+    return (hedgedReader != null);
+  }
+
+  /**
+   * Returns the average chunk size.
+   *
+   * @return the average chunk size, in bytes, or 0 if chunking is turned off.
+   */
+  public int getChunkAverageBytes() {
+    return (chunker == null) ? 0 : chunker.getAverageSize();
+  }
+
   /**
    * The Builder for {@link com.revistek.util.MongoDbRepositoryDao MongoDbRepositoryDao}.
    * 
@@ -233,6 +1216,19 @@ public class MongoDbRepositoryDao implements RepositoryDao {
     private String url;
     private String database;
     private String collection;
+    private ChecksumAlgorithm preferredChecksumAlgorithm = ChecksumAlgorithm.CRC32;
+    private boolean verifyOnRead;
+    private long timeToLiveInSecs;
+    private ScalableBloomFilter casIdFilter;
+    private int casIdFilterRefreshInSecs;
+    private MongoDbCollectionSettings collectionSettings = MongoDbCollectionSettings.DEFAULT;
+    private MongoClientFactory clientFactory;
+    private int chunkAverageBytes;
+    private int chunkFetchParallelism = DEFAULT_CHUNK_FETCH_PARALLELISM;
+    private long readMaxTimeMillis;
+    private long deleteMaxTimeMillis;
+    private boolean hedgedReads;
+    private long hedgeMinDelayMillis = DEFAULT_HEDGE_MIN_DELAY_MILLIS;
 
     public Builder idGenerator(IdGenerator idGenerator) {
       this.idGenerator = idGenerator;
@@ -254,6 +1250,151 @@ public class MongoDbRepositoryDao implements RepositoryDao {
       return this;
     }
 
+    /**
+     * Sets the checksum algorithm that most clients use. It is tried first when verifying stored
+     * Cases, and the other algorithms are only tried if it does not match.
+     *
+     * @param preferredChecksumAlgorithm the algorithm to try first.
+     * @return this builder.
+     */
+    public Builder preferredChecksumAlgorithm(ChecksumAlgorithm preferredChecksumAlgorithm) {
+      if (preferredChecksumAlgorithm != null) {
+        this.preferredChecksumAlgorithm = preferredChecksumAlgorithm;
+      }
+
+      return this;
+    }
+
+    /**
+     * Sets whether every Cas read is checked against its checksum. Cases that recorded their
+     * checksum algorithm are always checked; this also checks the Cases stored before the
+     * algorithm was recorded.
+     *
+     * @param verifyOnRead true to check every Cas read.
+     * @return this builder.
+     */
+    public Builder verifyOnRead(boolean verifyOnRead) {
+      this.verifyOnRead = verifyOnRead;
+      return this;
+    }
+
+    /**
+     * Sets how long stored Cases are kept before MongoDB removes them. Cases that are never read
+     * (e.g., because their reader crashed) then do not stay in the repository forever.
+     *
+     * @param timeToLiveInSecs how long to keep the Cases, or 0 to keep them until deleted.
+     * @return this builder.
+     */
+    public Builder timeToLiveInSecs(long timeToLiveInSecs) {
+      this.timeToLiveInSecs = timeToLiveInSecs;
+      return this;
+    }
+
+    /**
+     * Sets a local filter of the Cas IDs in the repository. When set, {@link
+     * MongoDbRepositoryDao#mightContainCasId(String) mightContainCasId} answers from it without
+     * querying MongoDB; {@link MongoDbRepositoryDao#existsCasId(String) existsCasId} always asks
+     * MongoDB. The filter only sees the Cas IDs stored by this instance between rebuilds, so the
+     * refresh interval bounds how stale it is for Cas IDs stored by other instances.
+     *
+     * @param casIdFilter the filter to use.
+     * @param refreshInSecs how often to rebuild the filter from the repository, or 0 to never.
+     * @return this builder.
+     */
+    public Builder casIdFilter(ScalableBloomFilter casIdFilter, int refreshInSecs) {
+      this.casIdFilter = casIdFilter;
+      this.casIdFilterRefreshInSecs = refreshInSecs;
+      return this;
+    }
+
+    /**
+     * Sets the write concern, read preference and read concern of the repository collection
+     * (e.g., to read Cases from secondaries).
+     *
+     * @param collectionSettings the settings of the collection.
+     * @return this builder.
+     */
+    public Builder collectionSettings(MongoDbCollectionSettings collectionSettings) {
+      if (collectionSettings != null) {
+        this.collectionSettings = collectionSettings;
+      }
+
+      return this;
+    }
+
+    /**
+     * Sets the factory to get the MongoDB client from, so that the client and its connection pool
+     * are shared with the other DAOs using the same URL.
+     *
+     * @param clientFactory the factory of the client, or null for a client of its own.
+     * @return this builder.
+     */
+    public Builder clientFactory(MongoClientFactory clientFactory) {
+      this.clientFactory = clientFactory;
+      return this;
+    }
+
+    /**
+     * Turns on storing Cases in deduplicated chunks.
+     *
+     * @param chunkAverageBytes the average chunk size, in bytes (rounded down to a power of two),
+     *     or 0 to store every Cas whole.
+     * @return this builder.
+     */
+    public Builder chunkAverageBytes(int chunkAverageBytes) {
+      this.chunkAverageBytes = chunkAverageBytes;
+      return this;
+    }
+
+    /**
+     * Sets how many batches of chunks are fetched at once when reading a Cas with many chunks.
+     *
+     * @param chunkFetchParallelism the number of threads fetching chunks, or 1 to fetch them on the
+     *     reading thread.
+     * @return this builder.
+     */
+    public Builder chunkFetchParallelism(int chunkFetchParallelism) {
+      this.chunkFetchParallelism = chunkFetchParallelism;
+      return this;
+    }
+
+    /**
+     * Sets the server-side time limit (maxTimeMS) of the reads: getting, listing, and checking for
+     * Cases, and fetching chunks.
+     *
+     * @param readMaxTimeMillis the time limit, in milliseconds, or 0 for no limit.
+     * @return this builder.
+     */
+    public Builder readMaxTimeMillis(long readMaxTimeMillis) {
+      this.readMaxTimeMillis = readMaxTimeMillis;
+      return this;
+    }
+
+    /**
+     * Sets the server-side time limit (maxTimeMS) of the deletes.
+     *
+     * @param deleteMaxTimeMillis the time limit, in milliseconds, or 0 for no limit.
+     * @return this builder.
+     */
+    public Builder deleteMaxTimeMillis(long deleteMaxTimeMillis) {
+      this.deleteMaxTimeMillis = deleteMaxTimeMillis;
+      return this;
+    }
+
+    /**
+     * Turns on hedged reads. A read of a Cas that is slower than the p95 of the recent reads, and
+     * than the minimum delay, is also sent to another member of the replica set.
+     *
+     * @param hedgedReads true to hedge slow reads.
+     * @param hedgeMinDelayMillis the minimum time to wait before hedging, in milliseconds.
+     * @return this builder.
+     */
+    public Builder hedgedReads(boolean hedgedReads, long hedgeMinDelayMillis) {
+      this.hedgedReads = hedgedReads;
+      this.hedgeMinDelayMillis = hedgeMinDelayMillis;
+      return this;
+    }
+
     public MongoDbRepositoryDao build() throws IllegalArgumentException {
       if (StringUtils.isEmpty(url)) {
         throw new IllegalArgumentException(ErrorMessages.INVALID_REPOSITORY_URL);
@@ -271,16 +1412,104 @@ public class MongoDbRepositoryDao implements RepositoryDao {
         throw new IllegalArgumentException(ErrorMessages.INVALID_MONGODB_REPOSITORY_COLLECTION);
       }
 
+      if ((chunkAverageBytes < 0)
+          || ((chunkAverageBytes > 0) && (chunkAverageBytes < 64))
+          || ((chunkAverageBytes > 0) && (timeToLiveInSecs > 0))
+          || (chunkFetchParallelism < 1)) {
+        throw new IllegalArgumentException(ErrorMessages.INVALID_CHUNK_SETTINGS);
+      }
+
+      if ((readMaxTimeMillis < 0) || (deleteMaxTimeMillis < 0) || (hedgeMinDelayMillis < 0)) {
+        throw new IllegalArgumentException(ErrorMessages.INVALID_TIMEOUT_SETTINGS);
+      }
+
       MongoDbRepositoryDao dao = new MongoDbRepositoryDao();
-      dao.client = MongoClients.create(url);
+      dao.client = (clientFactory == null) ? MongoClients.create(url) : clientFactory.acquire(url);
+      dao.clientFactory = clientFactory;
       dao.idGenerator = idGenerator;
       dao.database = database;
       dao.collection = collection;
+      dao.preferredChecksumAlgorithm = preferredChecksumAlgorithm;
+      dao.verifyOnRead = verifyOnRead;
+      dao.timeToLiveInSecs = timeToLiveInSecs;
+      dao.casIdFilter = casIdFilter;
+      dao.casIdFilterRefreshInSecs = casIdFilterRefreshInSecs;
+      dao.collectionSettings = collectionSettings;
+      dao.chunker = (chunkAverageBytes > 0) ? new ContentDefinedChunker(chunkAverageBytes) : null;
+      dao.chunkFetcher =
+          (chunkFetchParallelism > 1) ? newChunkFetcher(chunkFetchParallelism) : null;
+      dao.readMaxTimeMillis = readMaxTimeMillis;
+      dao.deleteMaxTimeMillis = deleteMaxTimeMillis;
+      dao.hedgedReader = hedgedReads ? newHedgedReader() : null;
+      dao.hedgeTimer = hedgedReads ? newHedgeTimer() : null;
+      dao.hedgeMinDelayNanos = TimeUnit.MILLISECONDS.toNanos(hedgeMinDelayMillis);
 
       return dao;
     }
   }
 
+  /**
+   * Creates the threads fetching chunks. They time out when idle, so a repository without chunked
+   * Cases does not keep them.
+   */
+  private static ExecutorService newChunkFetcher(int parallelism) {
+    ThreadPoolExecutor executor =
+        new ThreadPoolExecutor(
+            parallelism,
+            parallelism,
+            60L,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            runnable -> {
+              Thread thread = new Thread(runnable, "chunk-fetcher");
+              thread.setDaemon(true);
+              return thread;
+            });
+    executor.allowCoreThreadTimeOut(true);
+
+    return executor;
+  }
+
+  /**
+   * Creates the threads running hedged reads and their hedges. Tasks are handed to a free thread
+   * rather than queued, since a queued read only gets slower: a read that finds no thread runs on
+   * the caller's thread, and a hedge that finds none is skipped. The pool is bounded, so a slow
+   * cluster is not sent an unbounded number of extra reads. The threads time out when idle.
+   */
+  private static ExecutorService newHedgedReader() {
+    ThreadPoolExecutor executor =
+        new ThreadPoolExecutor(
+            MAX_HEDGED_READ_THREADS,
+            MAX_HEDGED_READ_THREADS,
+            60L,
+            TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(),
+            runnable -> {
+              Thread thread = new Thread(runnable, "hedged-reader");
+              thread.setDaemon(true);
+              return thread;
+            });
+    executor.allowCoreThreadTimeOut(true);
+
+    return executor;
+  }
+
+  /** Creates the thread that sends the hedges of the reads that outlast the hedge delay. */
+  private static ScheduledExecutorService newHedgeTimer() {
+    ScheduledThreadPoolExecutor executor =
+        new ScheduledThreadPoolExecutor(
+            1,
+            runnable -> {
+              Thread thread = new Thread(runnable, "hedge-timer");
+              thread.setDaemon(true);
+              return thread;
+            });
+    // Most reads return before their hedge is due, so drop their timers instead of keeping them.
+    executor.setRemoveOnCancelPolicy(true);
+
+    return executor;
+  }
+
   /**
    * Returns a new builder.
    *
@@ -298,6 +1527,18 @@ public class MongoDbRepositoryDao implements RepositoryDao {
    * @return the {@link org.bson.Document Document} equivalent of the CAS.
    */
   public static Document casToDocument(Cas cas) throws Exception {
+    return casToDocument(cas, null);
+  }
+
+  /**
+   * Converts a {@link com.revistek.protos.Cas Cas} into a MongoDB {@link org.bson.Document
+   * Document}, recording the algorithm its checksum was computed with.
+   *
+   * @param cas the {@link com.revistek.protos.Cas Cas} to convert.
+   * @param algorithm the checksum algorithm, or null to not record it.
+   * @return the {@link org.bson.Document Document} equivalent of the CAS.
+   */
+  public static Document casToDocument(Cas cas, ChecksumAlgorithm algorithm) throws Exception {
     LOGGER.trace("Converting a Cas to a MongoDB document.");
 
     if (cas == null) {
@@ -313,6 +1554,10 @@ public class MongoDbRepositoryDao implements RepositoryDao {
         .append(MongoDbDocument.CRC32CHECKSUM_FIELD_KEY, cas.getCrc32Checksum())
         .append(MongoDbDocument.CASDATA_FIELD_KEY, cas.getCasData());
 
+    if (algorithm != null) {
+      doc.append(MongoDbDocument.CHECKSUM_ALGORITHM_FIELD_KEY, algorithm.name());
+    }
+
     return doc;
   }
 
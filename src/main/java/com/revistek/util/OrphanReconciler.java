@@ -0,0 +1,518 @@
+package com.revistek.util;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.revistek.util.constants.ErrorMessages;
+import com.revistek.util.constants.MetricNames;
+import com.revistek.util.constants.MongoDbDocument;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Finds and deletes orphans: repository Cases that no metadata store collection refers to, and
+ * metadata store entries whose Cas is no longer in the repository. Orphans are left behind when
+ * the second half of a store or a delete fails.
+ *
+ * <p>The repository collection and every metadata store collection are scanned in Cas ID order
+ * through their (casId, createdAt) indexes, so the scans are covered by the indexes and never load
+ * the Cas data. The sorted scans are merge-joined, so the memory used does not grow with the size
+ * of the repository. Orphans are deleted in batches. Entries younger than the grace period are left
+ * alone because their other half may still be being written.
+ *
+ * <p>The scans read the MongoDB stores themselves, so a write-ahead log in front of them would hide
+ * changes from a pass. Each pass first waits for the changes already in the log to be applied, and
+ * is skipped if they are not applied in time. Changes logged after that are applied with a fresh
+ * creation time, so the grace period covers them. Repository orphans are deleted through the
+ * repository DAO the endpoints use when one is set (e.g., a {@link DeltaRepositoryDao}, which keeps
+ * the bases that deltas still need).
+ *
+ * <p>Cas IDs are ASCII, so the order of {@link java.lang.String#compareTo(String) compareTo} is the
+ * same as the index order.
+ *
+ * @author Chuong Ngo
+ */
+public class OrphanReconciler {
+  public static final int DEFAULT_INTERVAL_IN_SECS = 3600;
+  public static final int DEFAULT_GRACE_IN_SECS = 3600;
+  public static final int DEFAULT_BATCH_SIZE = 1000;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(OrphanReconciler.class);
+  private static final int SCAN_BATCH_SIZE = 10000;
+  private static final long DRAIN_TIMEOUT_MILLIS = 60000L;
+  private static final Bson SCAN_PROJECTION =
+      Projections.fields(
+          Projections.include(
+              MongoDbDocument.CASID_FIELD_KEY, MongoDbDocument.CREATED_AT_FIELD_KEY),
+          Projections.excludeId());
+  private static final Counter REPOSITORY_ORPHANS_COUNTER =
+      ServiceMetrics.counter(
+          MetricNames.RECONCILER_ORPHANS, MetricNames.TAG_STAGE, MetricNames.STAGE_REPOSITORY);
+  private static final Counter METADATA_STORE_ORPHANS_COUNTER =
+      ServiceMetrics.counter(
+          MetricNames.RECONCILER_ORPHANS, MetricNames.TAG_STAGE, MetricNames.STAGE_METADATA_STORE);
+  private static final Timer PASS_TIMER = ServiceMetrics.timer(MetricNames.RECONCILER_PASS_TIME);
+
+  private Supplier<RepositoryDao> repositoryDao;
+  private Supplier<MetadataStoreDao> metadataStoreDao;
+  private Supplier<RepositoryDao> deletingRepositoryDao;
+  private Supplier<WriteAheadLog> writeAheadLog;
+  private int intervalInSecs;
+  private int graceInSecs;
+  private int batchSize;
+  private ScheduledExecutorService scheduler;
+
+  private OrphanReconciler() {}
+
+  /** Starts reconciling in the background, one pass per interval. */
+  public synchronized void start() {
+    if (scheduler != null) {
+      return;
+    }
+
+    if (LOGGER.isTraceEnabled()) {
+      LOGGER.trace("Reconciling orphans every {} seconds.", intervalInSecs);
+    }
+
+    scheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "orphan-reconciler");
+              thread.setDaemon(true);
+              return thread;
+            });
+    scheduler.scheduleWithFixedDelay(
+        this::reconcileQuietly, intervalInSecs, intervalInSecs, TimeUnit.SECONDS);
+  }
+
+  /** Stops the background reconciling. A pass in progress is interrupted. */
+  public synchronized void stop() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+      scheduler = null;
+    }
+  }
+
+  private void reconcileQuietly() {
+    try {
+      reconcile();
+    } catch (RuntimeException e) {
+      LOGGER.warn("The orphan reconciliation failed.", e);
+    }
+  }
+
+  /**
+   * Makes one pass over the repository and the metadata store, deleting the orphans found.
+   *
+   * @return the number of orphans deleted.
+   */
+  public long reconcile() {
+    RepositoryDao repository = repositoryDao.get();
+    MetadataStoreDao metadataStore = metadataStoreDao.get();
+
+    if (!(repository instanceof MongoDbRepositoryDao)
+        || !(metadataStore instanceof MongoDbMetadataStoreDao)) {
+      LOGGER.trace("Orphans can only be reconciled between MongoDB stores. Skipping.");
+
+      return 0L;
+    }
+
+    WriteAheadLog log = writeAheadLog.get();
+
+    if ((log != null) && !log.awaitFlushed(DRAIN_TIMEOUT_MILLIS)) {
+      LOGGER.warn("The write-ahead log was not applied in time to reconcile orphans. Skipping.");
+
+      return 0L;
+    }
+
+    LOGGER.trace("Reconciling orphans.");
+
+    long start = System.nanoTime();
+    Date cutoff = new Date(System.currentTimeMillis() - (graceInSecs * 1000L));
+    MongoCollection<Document> repositoryCollection =
+        ((MongoDbRepositoryDao) repository).getMongoCollection();
+    List<MongoCollection<Document>> metadataCollections =
+        ((MongoDbMetadataStoreDao) metadataStore).getQueryCollections();
+
+    if (metadataCollections.isEmpty()) {
+      // Every Cas would look like an orphan.
+      LOGGER.warn("There are no metadata store queries to reconcile against. Skipping.");
+
+      return 0L;
+    }
+
+    repositoryCollection.createIndex(MongoDbRepositoryDao.CASID_CREATED_AT_INDEX);
+    for (MongoCollection<Document> metadataCollection : metadataCollections) {
+      metadataCollection.createIndex(MongoDbRepositoryDao.CASID_CREATED_AT_INDEX);
+    }
+
+    RepositoryDao deleting = deletingRepositoryDao.get();
+    OrphanBatch repositoryOrphans =
+        new OrphanBatch(
+            repositoryCollection,
+            (MongoDbRepositoryDao) repository,
+            (deleting == null) ? repository : deleting,
+            cutoff);
+    List<Scan> metadataScans = new ArrayList<Scan>(metadataCollections.size());
+    PriorityQueue<Scan> metadataHeads =
+        new PriorityQueue<Scan>((left, right) -> left.casId.compareTo(right.casId));
+
+    try (Scan repositoryScan = new Scan(repositoryCollection, cutoff)) {
+      for (MongoCollection<Document> metadataCollection : metadataCollections) {
+        Scan metadataScan = new Scan(metadataCollection, cutoff);
+        metadataScans.add(metadataScan);
+
+        if (metadataScan.advance()) {
+          metadataHeads.add(metadataScan);
+        }
+      }
+
+      repositoryScan.advance();
+
+      while (((repositoryScan.casId != null) || !metadataHeads.isEmpty())
+          && !Thread.currentThread().isInterrupted()) {
+        String metadataCasId = metadataHeads.isEmpty() ? null : metadataHeads.peek().casId;
+        int order =
+            (repositoryScan.casId == null)
+                ? 1
+                : ((metadataCasId == null) ? -1 : repositoryScan.casId.compareTo(metadataCasId));
+
+        if (order < 0) {
+          // No metadata store collection refers to this Cas. Retired delta bases never had one.
+          if (repositoryScan.isOld
+              && !repositoryScan.casId.endsWith(DeltaRepositoryDao.RETIRED_SUFFIX)) {
+            repositoryOrphans.add(repositoryScan.casId);
+          }
+
+          repositoryScan.advance();
+          continue;
+        }
+
+        // Every metadata store entry with this Cas ID is an orphan unless the Cas exists.
+        while (!metadataHeads.isEmpty() && metadataHeads.peek().casId.equals(metadataCasId)) {
+          Scan metadataScan = metadataHeads.poll();
+
+          if ((order > 0) && metadataScan.isOld) {
+            metadataScan.orphans.add(metadataCasId);
+          }
+
+          if (metadataScan.advance()) {
+            metadataHeads.add(metadataScan);
+          }
+        }
+
+        if (order == 0) {
+          String matchedCasId = repositoryScan.casId;
+
+          do {
+            repositoryScan.advance();
+          } while (matchedCasId.equals(repositoryScan.casId));
+        }
+      }
+    } finally {
+      for (Scan metadataScan : metadataScans) {
+        metadataScan.close();
+      }
+    }
+
+    long deleted = repositoryOrphans.flush();
+    REPOSITORY_ORPHANS_COUNTER.increment(deleted);
+
+    for (Scan metadataScan : metadataScans) {
+      long metadataDeleted = metadataScan.orphans.flush();
+      METADATA_STORE_ORPHANS_COUNTER.increment(metadataDeleted);
+      deleted += metadataDeleted;
+    }
+
+    PASS_TIMER.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+    if (LOGGER.isTraceEnabled()) {
+      LOGGER.trace("Finished reconciling orphans. Deleted {} orphans.", deleted);
+    }
+
+    return deleted;
+  }
+
+  /** A covered scan of the Cas IDs of one collection, in Cas ID order. */
+  private class Scan implements AutoCloseable {
+    private final MongoCursor<Document> cursor;
+    private final Date cutoff;
+    private final OrphanBatch orphans;
+    private String casId;
+    private boolean isOld;
+
+    private Scan(MongoCollection<Document> collection, Date cutoff) {
+      this.cursor =
+          collection
+              .find()
+              .projection(SCAN_PROJECTION)
+              .sort(Sorts.ascending(MongoDbDocument.CASID_FIELD_KEY))
+              .hint(MongoDbRepositoryDao.CASID_CREATED_AT_INDEX)
+              .batchSize(SCAN_BATCH_SIZE)
+              .iterator();
+      this.cutoff = cutoff;
+      this.orphans = new OrphanBatch(collection, cutoff);
+    }
+
+    /**
+     * Moves to the next entry.
+     *
+     * @return false if there are no more entries, else true.
+     */
+    private boolean advance() {
+      while (cursor.hasNext()) {
+        Document doc = cursor.next();
+        String nextCasId = doc.getString(MongoDbDocument.CASID_FIELD_KEY);
+
+        if (nextCasId != null) {
+          Date createdAt = doc.getDate(MongoDbDocument.CREATED_AT_FIELD_KEY);
+
+          // Entries written before the creation time was recorded are old.
+          casId = nextCasId;
+          isOld = (createdAt == null) || createdAt.before(cutoff);
+          return true;
+        }
+      }
+
+      casId = null;
+      return false;
+    }
+
+    @Override
+    public void close() {
+      cursor.close();
+    }
+  }
+
+  /** The orphans of one collection, deleted in batches. */
+  private class OrphanBatch {
+    private final MongoCollection<Document> collection;
+    private final MongoDbRepositoryDao repository;
+    private final RepositoryDao deleting;
+    private final Bson isOldFilter;
+    private final List<String> casIds = new ArrayList<String>();
+    private long deleted;
+
+    private OrphanBatch(MongoCollection<Document> collection, Date cutoff) {
+      this(collection, null, null, cutoff);
+    }
+
+    /**
+     * Creates a batch of orphans.
+     *
+     * @param collection the collection holding the orphans.
+     * @param repository the repository owning the collection, which releases the chunks of the
+     *     orphans stored in chunks, or null for a metadata store collection.
+     * @param deleting the repository DAO to delete the orphans through, or null for a metadata
+     *     store collection.
+     * @param cutoff the time before which an entry is old enough to be an orphan.
+     */
+    private OrphanBatch(
+        MongoCollection<Document> collection,
+        MongoDbRepositoryDao repository,
+        RepositoryDao deleting,
+        Date cutoff) {
+      this.collection = collection;
+      this.repository = repository;
+      this.deleting = deleting;
+
+      // Checked again on delete in case the entry was rewritten since it was scanned.
+      this.isOldFilter =
+          Filters.or(
+              Filters.exists(MongoDbDocument.CREATED_AT_FIELD_KEY, false),
+              Filters.lt(MongoDbDocument.CREATED_AT_FIELD_KEY, cutoff));
+    }
+
+    private void add(String casId) {
+      casIds.add(casId);
+
+      if (casIds.size() >= batchSize) {
+        flush();
+      }
+    }
+
+    private long flush() {
+      if (!casIds.isEmpty()) {
+        if (LOGGER.isTraceEnabled()) {
+          LOGGER.trace("Deleting {} orphans from {}.", casIds.size(), collection.getNamespace());
+        }
+
+        Bson filter =
+            Filters.and(Filters.in(MongoDbDocument.CASID_FIELD_KEY, casIds), isOldFilter);
+
+        if (repository == null) {
+          deleted += collection.deleteMany(filter).getDeletedCount();
+        } else if (deleting == repository) {
+          deleted += repository.deleteMany(filter);
+        } else {
+          deleted += deleteThrough(filter);
+        }
+
+        casIds.clear();
+      }
+
+      return deleted;
+    }
+
+    /**
+     * Deletes the orphans matching a filter one at a time through the repository DAO in front of
+     * the collection.
+     *
+     * @param filter the MongoDB filter of the orphans.
+     * @return the number of orphans deleted.
+     */
+    private long deleteThrough(Bson filter) {
+      List<String> oldCasIds =
+          collection
+              .find(filter)
+              .projection(SCAN_PROJECTION)
+              .map(doc -> doc.getString(MongoDbDocument.CASID_FIELD_KEY))
+              .into(new ArrayList<String>());
+      long count = 0;
+
+      for (String casId : oldCasIds) {
+        try {
+          deleting.deleteCasId(casId);
+          count++;
+        } catch (Exception e) {
+          // It is found again on the next pass.
+          LOGGER.warn("Failed to delete the orphan {}.", casId, e);
+        }
+      }
+
+      return count;
+    }
+  }
+
+  /**
+   * The builder for {@link com.revistek.util.OrphanReconciler OrphanReconciler}.
+   *
+   * @author Chuong Ngo
+   */
+  public static class Builder {
+    private Supplier<RepositoryDao> repositoryDao;
+    private Supplier<MetadataStoreDao> metadataStoreDao;
+    private Supplier<RepositoryDao> deletingRepositoryDao = () -> null;
+    private Supplier<WriteAheadLog> writeAheadLog = () -> null;
+    private int intervalInSecs = DEFAULT_INTERVAL_IN_SECS;
+    private int graceInSecs = DEFAULT_GRACE_IN_SECS;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    /**
+     * Sets where to get the repository from. The repository is looked up on every pass, so a
+     * replaced repository DAO is picked up.
+     *
+     * @param repositoryDao supplies the current repository DAO.
+     * @return this builder.
+     */
+    public Builder repositoryDao(Supplier<RepositoryDao> repositoryDao) {
+      this.repositoryDao = repositoryDao;
+      return this;
+    }
+
+    /**
+     * Sets where to get the metadata store from. The metadata store is looked up on every pass.
+     *
+     * @param metadataStoreDao supplies the current metadata store DAO.
+     * @return this builder.
+     */
+    public Builder metadataStoreDao(Supplier<MetadataStoreDao> metadataStoreDao) {
+      this.metadataStoreDao = metadataStoreDao;
+      return this;
+    }
+
+    /**
+     * Sets where to get the repository DAO that repository orphans are deleted through, which is
+     * the one the endpoints use (e.g., a {@link DeltaRepositoryDao} in front of the scanned
+     * repository). Without it, orphans are deleted from the scanned repository directly.
+     *
+     * @param deletingRepositoryDao supplies the current repository DAO of the endpoints, or null.
+     * @return this builder.
+     */
+    public Builder deletingRepositoryDao(Supplier<RepositoryDao> deletingRepositoryDao) {
+      this.deletingRepositoryDao = deletingRepositoryDao;
+      return this;
+    }
+
+    /**
+     * Sets where to get the write-ahead log in front of the stores, whose changes are applied
+     * before each pass.
+     *
+     * @param writeAheadLog supplies the write-ahead log, or null if there is none.
+     * @return this builder.
+     */
+    public Builder writeAheadLog(Supplier<WriteAheadLog> writeAheadLog) {
+      this.writeAheadLog = writeAheadLog;
+      return this;
+    }
+
+    public Builder intervalInSecs(int intervalInSecs) {
+      this.intervalInSecs = intervalInSecs;
+      return this;
+    }
+
+    /**
+     * Sets how old an entry has to be before it can be deleted as an orphan. It should be much
+     * longer than a store or a delete takes.
+     *
+     * @param graceInSecs the minimum age of an orphan, in seconds.
+     * @return this builder.
+     */
+    public Builder graceInSecs(int graceInSecs) {
+      this.graceInSecs = graceInSecs;
+      return this;
+    }
+
+    public Builder batchSize(int batchSize) {
+      this.batchSize = batchSize;
+      return this;
+    }
+
+    public OrphanReconciler build() throws IllegalArgumentException {
+      if ((repositoryDao == null)
+          || (metadataStoreDao == null)
+          || (deletingRepositoryDao == null)
+          || (writeAheadLog == null)) {
+        throw new IllegalArgumentException(ErrorMessages.REQUIRED_ARGUMENT_IS_NULL);
+      }
+
+      if ((intervalInSecs <= 0) || (graceInSecs < 0) || (batchSize <= 0)) {
+        throw new IllegalArgumentException(ErrorMessages.INVALID_RECONCILER_SETTINGS);
+      }
+
+      OrphanReconciler reconciler = new OrphanReconciler();
+      reconciler.repositoryDao = repositoryDao;
+      reconciler.metadataStoreDao = metadataStoreDao;
+      reconciler.deletingRepositoryDao = deletingRepositoryDao;
+      reconciler.writeAheadLog = writeAheadLog;
+      reconciler.intervalInSecs = intervalInSecs;
+      reconciler.graceInSecs = graceInSecs;
+      reconciler.batchSize = batchSize;
+
+      return reconciler;
+    }
+  }
+
+  /**
+   * Returns a new builder.
+   *
+   * @return Returns a new {@link com.revistek.util.OrphanReconciler.Builder builder}.
+   */
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+}
@@ -0,0 +1,498 @@
+package com.revistek.util;
+
+import com.revistek.crs.protos.Cas;
+import com.revistek.exceptions.PrefetchFailedException;
+import com.revistek.util.constants.ErrorMessages;
+import com.revistek.util.constants.MetricNames;
+import io.micrometer.core.instrument.Counter;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Read-ahead sessions for readers that consume the Cases of a metadata query in order. A reader
+ * opens a session on a query key, and the session walks the Cas IDs of the query in Cas ID order,
+ * reading the next Cases from the repository in parallel while the reader works on the current
+ * one. Each Cas the reader asks for is then usually already in memory.
+ *
+ * <p>A session holds at most the read-ahead count of Cases, and stops reading ahead once the Cases
+ * it holds and the Cases it is reading reach its byte budget. A Cas being read is counted at the
+ * mean size of the Cases the session has read so far, so the memory of a session exceeds the budget
+ * only by how much the Cases being read are larger than that. The number of sessions is bounded
+ * too. Sessions that are not used for the idle timeout are closed and their Cases dropped, so a
+ * reader that goes away does not hold memory.
+ *
+ * <p>A session pages through the query by Cas ID. A session that reaches the end of its query lists
+ * again every time it is asked for the next Cas, but only finds the Cas IDs that sort after the
+ * last one it listed. It is not a way to follow a query that is still being filled: Cas IDs are
+ * generated before their Cas is stored and may carry a shard prefix, so a Cas ID added later can
+ * sort earlier and is then never returned. A reader that must see every Cas of such a query opens
+ * a new session. A Cas whose Cas ID was listed but that cannot be read (e.g., it was deleted in the
+ * meantime) is reported to the reader, and the session moves on to the next one.
+ *
+ * @author Chuong Ngo
+ */
+public class ReadAheadSessions {
+  public static final int DEFAULT_READ_AHEAD = 8;
+  public static final long DEFAULT_MAX_SESSION_BYTES = 32L * 1024 * 1024;
+  public static final int DEFAULT_MAX_SESSIONS = 64;
+  public static final int DEFAULT_IDLE_TIMEOUT_IN_SECS = 60;
+  public static final int DEFAULT_PARALLELISM = 8;
+  public static final String END_OF_QUERY = "There are no more Cases in the query.";
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ReadAheadSessions.class);
+  private static final int LIST_PAGE_SIZE = 256;
+  private static final ErrorLog FILL_LOG =
+      ErrorLog.getErrorLog(ReadAheadSessions.class, "readAhead.fill");
+  private static final Counter OPENED_COUNTER =
+      ServiceMetrics.counter(
+          MetricNames.READ_AHEAD_SESSIONS, MetricNames.TAG_EVENT, MetricNames.EVENT_OPENED);
+  private static final Counter CLOSED_COUNTER =
+      ServiceMetrics.counter(
+          MetricNames.READ_AHEAD_SESSIONS, MetricNames.TAG_EVENT, MetricNames.EVENT_CLOSED);
+  private static final Counter EVICTED_COUNTER =
+      ServiceMetrics.counter(
+          MetricNames.READ_AHEAD_SESSIONS, MetricNames.TAG_EVENT, MetricNames.EVENT_EVICTED);
+  private static final Counter HITS_COUNTER =
+      ServiceMetrics.counter(
+          MetricNames.READ_AHEAD_GETS, MetricNames.TAG_RESULT, MetricNames.RESULT_HIT);
+  private static final Counter MISSES_COUNTER =
+      ServiceMetrics.counter(
+          MetricNames.READ_AHEAD_GETS, MetricNames.TAG_RESULT, MetricNames.RESULT_MISS);
+
+  private final Map<String, Session> sessions = new ConcurrentHashMap<String, Session>();
+  private final AtomicLong bufferedBytes = new AtomicLong();
+  private Supplier<RepositoryDao> repositoryDao;
+  private Supplier<MetadataStoreDao> metadataStoreDao;
+  private int readAhead;
+  private long maxSessionBytes;
+  private int maxSessions;
+  private int idleTimeoutInSecs;
+  private int parallelism;
+  private ExecutorService fetcher;
+  private ScheduledExecutorService sweeper;
+
+  private ReadAheadSessions() {}
+
+  /** Starts the threads that read ahead and that close idle sessions. */
+  public synchronized void start() {
+    if (fetcher != null) {
+      return;
+    }
+
+    fetcher =
+        Executors.newFixedThreadPool(
+            parallelism,
+            runnable -> {
+              Thread thread = new Thread(runnable, "read-ahead");
+              thread.setDaemon(true);
+              return thread;
+            });
+    sweeper =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "read-ahead-sweeper");
+              thread.setDaemon(true);
+              return thread;
+            });
+
+    long sweepInSecs = Math.max(1, idleTimeoutInSecs / 2);
+    sweeper.scheduleWithFixedDelay(this::evictIdle, sweepInSecs, sweepInSecs, TimeUnit.SECONDS);
+  }
+
+  /** Closes every session and stops the threads. */
+  public synchronized void stop() {
+    for (String sessionId : sessions.keySet()) {
+      close(sessionId);
+    }
+
+    if (fetcher != null) {
+      fetcher.shutdownNow();
+      sweeper.shutdownNow();
+      fetcher = null;
+      sweeper = null;
+    }
+  }
+
+  /**
+   * Opens a session and starts reading ahead.
+   *
+   * @param queryKey the metadata query whose Cases to read.
+   * @param afterCasId the Cas ID to start after, or null to start at the beginning of the query.
+   * @return the session ID, or null if too many sessions are open.
+   * @throws IllegalArgumentException the query does not exist.
+   * @throws UnsupportedOperationException the metadata store cannot list its Cas IDs.
+   * @throws Exception There was a problem with this operation.
+   */
+  public String open(String queryKey, String afterCasId) throws Exception {
+    if (sessions.size() >= maxSessions) {
+      evictIdle();
+
+      if (sessions.size() >= maxSessions) {
+        LOGGER.trace("There are too many read-ahead sessions to open another.");
+
+        return null;
+      }
+    }
+
+    Session session = new Session(UUID.randomUUID().toString(), queryKey, afterCasId);
+
+    synchronized (session) {
+      session.fill();
+    }
+
+    sessions.put(session.id, session);
+    OPENED_COUNTER.increment();
+    LOGGER.trace("Opened the read-ahead session {} on the query {}.", session.id, queryKey);
+
+    return session.id;
+  }
+
+  /**
+   * Returns the next Cas of a session.
+   *
+   * @param sessionId the session ID.
+   * @return the next Cas, or null if the query has no more Cases.
+   * @throws IllegalArgumentException the session does not exist or was closed.
+   * @throws PrefetchFailedException the next Cas could not be read. The session moves past it.
+   * @throws Exception There was a problem with this operation.
+   */
+  public Cas next(String sessionId) throws Exception {
+    Session session = (sessionId == null) ? null : sessions.get(sessionId);
+
+    if (session == null) {
+      throw new IllegalArgumentException(
+          ErrorMessages.getInvalidReadAheadSessionMessage(sessionId));
+    }
+
+    return session.next();
+  }
+
+  /**
+   * Closes a session and drops the Cases it read ahead.
+   *
+   * @param sessionId the session ID.
+   * @return true if the session was open, else false.
+   */
+  public boolean close(String sessionId) {
+    Session session = (sessionId == null) ? null : sessions.remove(sessionId);
+
+    if (session == null) {
+      return false;
+    }
+
+    session.close();
+    CLOSED_COUNTER.increment();
+    LOGGER.trace("Closed the read-ahead session {}.", sessionId);
+
+    return true;
+  }
+
+  /** Closes the sessions that have not been used for the idle timeout. */
+  void evictIdle() {
+    long cutoff = System.nanoTime() - TimeUnit.SECONDS.toNanos(idleTimeoutInSecs);
+    Iterator<Session> iter = sessions.values().iterator();
+
+    while (iter.hasNext()) {
+      Session session = iter.next();
+
+      if ((session.lastUsedNanos - cutoff) < 0) {
+        iter.remove();
+        session.close();
+        EVICTED_COUNTER.increment();
+        LOGGER.trace("Evicted the idle read-ahead session {}.", session.id);
+      }
+    }
+  }
+
+  public int getOpenSessions() {
+    return sessions.size();
+  }
+
+  public long getBufferedBytes() {
+    return bufferedBytes.get();
+  }
+
+  /**
+   * Estimates how long a reader turned away for too many sessions should wait: until the idle
+   * sessions have been closed.
+   *
+   * @return the wait, in whole seconds.
+   */
+  public int getRetryAfterSecs() {
+    return Math.max(1, idleTimeoutInSecs / 2);
+  }
+
+  /**
+   * The state of a session. It is guarded by the session lock, except for the time of last use,
+   * which the sweeper reads without it.
+   */
+  private final class Session {
+    private final String id;
+    private final String queryKey;
+    private final ArrayDeque<String> listed = new ArrayDeque<String>();
+    private final ArrayDeque<Prefetch> buffer = new ArrayDeque<Prefetch>();
+    private String listedUpTo;
+    // The sizes of the Cases read, and the estimated sizes of the Cases being read.
+    private long bytes;
+    private long fetchedBytes;
+    private long fetchedCount;
+    private boolean closed;
+    private volatile long lastUsedNanos = System.nanoTime();
+
+    private Session(String id, String queryKey, String afterCasId) {
+      this.id = id;
+      this.queryKey = queryKey;
+      this.listedUpTo = afterCasId;
+    }
+
+    /** Starts reading the next Cases until the read-ahead count or the byte budget is reached. */
+    private void fill() throws Exception {
+      while (!closed && (buffer.size() < readAhead) && (bytes < maxSessionBytes)) {
+        if (listed.isEmpty()) {
+          List<String> page =
+              metadataStoreDao.get().getCasIds(queryKey, listedUpTo, LIST_PAGE_SIZE);
+
+          if (page.isEmpty()) {
+            break;
+          }
+
+          listed.addAll(page);
+          listedUpTo = page.get(page.size() - 1);
+        }
+
+        Prefetch prefetch = new Prefetch(listed.poll());
+        // Reserve the Cas in the budget now, so the fetches already issued count against it.
+        prefetch.bytes = estimateSize();
+        bytes += prefetch.bytes;
+        prefetch.future = CompletableFuture.supplyAsync(() -> fetch(prefetch), fetcher);
+        buffer.add(prefetch);
+      }
+    }
+
+    /**
+     * Estimates the size of a Cas about to be read: the mean size of the Cases read so far, or an
+     * even share of the byte budget before any has been read.
+     */
+    private long estimateSize() {
+      return Math.max(
+          1L, (fetchedCount == 0) ? (maxSessionBytes / readAhead) : (fetchedBytes / fetchedCount));
+    }
+
+    private Cas fetch(Prefetch prefetch) {
+      try {
+        Cas cas = repositoryDao.get().getCasId(prefetch.casId);
+        long size = cas.getSerializedSize();
+
+        synchronized (this) {
+          // A Cas read after its session was closed is dropped at once, so it is not counted.
+          if (!closed && !prefetch.consumed) {
+            bytes += size - prefetch.bytes;
+            prefetch.bytes = size;
+            prefetch.fetched = true;
+            fetchedBytes += size;
+            fetchedCount++;
+            bufferedBytes.addAndGet(size);
+          }
+        }
+
+        return cas;
+      } catch (Exception e) {
+        throw new CompletionException(e);
+      }
+    }
+
+    private Cas next() throws Exception {
+      Prefetch prefetch;
+
+      synchronized (this) {
+        lastUsedNanos = System.nanoTime();
+
+        if (buffer.isEmpty()) {
+          fill();
+        }
+
+        prefetch = buffer.poll();
+      }
+
+      if (prefetch == null) {
+        return null;
+      }
+
+      (prefetch.future.isDone() ? HITS_COUNTER : MISSES_COUNTER).increment();
+
+      try {
+        return prefetch.future.join();
+      } catch (CompletionException e) {
+        throw new PrefetchFailedException(prefetch.casId, e.getCause());
+      } finally {
+        synchronized (this) {
+          consume(prefetch);
+
+          try {
+            fill();
+          } catch (Exception e) {
+            // The next call lists again and reports the failure.
+            FILL_LOG.error("Could not read ahead in a session.", "sessionId", id, e);
+          }
+        }
+      }
+    }
+
+    private void consume(Prefetch prefetch) {
+      prefetch.consumed = true;
+      bytes -= prefetch.bytes;
+
+      if (prefetch.fetched) {
+        bufferedBytes.addAndGet(-prefetch.bytes);
+      }
+    }
+
+    private synchronized void close() {
+      closed = true;
+
+      for (Prefetch prefetch : buffer) {
+        consume(prefetch);
+      }
+
+      buffer.clear();
+      listed.clear();
+    }
+  }
+
+  /** A Cas being read or read ahead of its reader. Its fields are guarded by the session lock. */
+  private static final class Prefetch {
+    private final String casId;
+    private CompletableFuture<Cas> future;
+    // The size of the Cas once it is read, or its estimated size until then.
+    private long bytes;
+    private boolean fetched;
+    private boolean consumed;
+
+    private Prefetch(String casId) {
+      this.casId = casId;
+    }
+  }
+
+  public static class Builder {
+    private Supplier<RepositoryDao> repositoryDao;
+    private Supplier<MetadataStoreDao> metadataStoreDao;
+    private int readAhead = DEFAULT_READ_AHEAD;
+    private long maxSessionBytes = DEFAULT_MAX_SESSION_BYTES;
+    private int maxSessions = DEFAULT_MAX_SESSIONS;
+    private int idleTimeoutInSecs = DEFAULT_IDLE_TIMEOUT_IN_SECS;
+    private int parallelism = DEFAULT_PARALLELISM;
+
+    /**
+     * Sets where to read the Cases from. The repository is looked up on every read, so a replaced
+     * repository DAO is picked up.
+     *
+     * @param repositoryDao supplies the current repository DAO.
+     * @return this builder.
+     */
+    public Builder repositoryDao(Supplier<RepositoryDao> repositoryDao) {
+      this.repositoryDao = repositoryDao;
+      return this;
+    }
+
+    /**
+     * Sets where to list the Cas IDs of the queries from. It must be able to list its Cas IDs.
+     *
+     * @param metadataStoreDao supplies the current metadata store DAO.
+     * @return this builder.
+     */
+    public Builder metadataStoreDao(Supplier<MetadataStoreDao> metadataStoreDao) {
+      this.metadataStoreDao = metadataStoreDao;
+      return this;
+    }
+
+    public Builder readAhead(int readAhead) {
+      this.readAhead = readAhead;
+      return this;
+    }
+
+    /**
+     * Sets the byte budget of a session. A session stops reading ahead once the Cases it holds and
+     * the estimated sizes of the Cases it is reading reach it.
+     *
+     * @param maxSessionBytes the byte budget of a session.
+     * @return this builder.
+     */
+    public Builder maxSessionBytes(long maxSessionBytes) {
+      this.maxSessionBytes = maxSessionBytes;
+      return this;
+    }
+
+    public Builder maxSessions(int maxSessions) {
+      this.maxSessions = maxSessions;
+      return this;
+    }
+
+    public Builder idleTimeoutInSecs(int idleTimeoutInSecs) {
+      this.idleTimeoutInSecs = idleTimeoutInSecs;
+      return this;
+    }
+
+    /**
+     * Sets how many Cases are read at once, across every session.
+     *
+     * @param parallelism the number of threads reading ahead.
+     * @return this builder.
+     */
+    public Builder parallelism(int parallelism) {
+      this.parallelism = parallelism;
+      return this;
+    }
+
+    public ReadAheadSessions build() throws IllegalArgumentException {
+      if ((repositoryDao == null)
+          || (metadataStoreDao == null)
+          || (readAhead <= 0)
+          || (maxSessionBytes <= 0)
+          || (maxSessions <= 0)
+          || (idleTimeoutInSecs <= 0)
+          || (parallelism <= 0)) {
+        throw new IllegalArgumentException(ErrorMessages.INVALID_READ_AHEAD_SETTINGS);
+      }
+
+      ReadAheadSessions readAheadSessions = new ReadAheadSessions();
+      readAheadSessions.repositoryDao = repositoryDao;
+      readAheadSessions.metadataStoreDao = metadataStoreDao;
+      readAheadSessions.readAhead = readAhead;
+      readAheadSessions.maxSessionBytes = maxSessionBytes;
+      readAheadSessions.maxSessions = maxSessions;
+      readAheadSessions.idleTimeoutInSecs = idleTimeoutInSecs;
+      readAheadSessions.parallelism = parallelism;
+      ServiceMetrics.gauge(
+          MetricNames.READ_AHEAD_OPEN, readAheadSessions, ReadAheadSessions::getOpenSessions);
+      ServiceMetrics.gauge(
+          MetricNames.READ_AHEAD_BUFFERED_BYTES,
+          readAheadSessions,
+          ReadAheadSessions::getBufferedBytes);
+
+      return readAheadSessions;
+    }
+  }
+
+  /**
+   * Returns a new builder.
+   *
+   * @return Returns a new {@link com.revistek.util.ReadAheadSessions.Builder builder}.
+   */
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+}
@@ -1,9 +1,15 @@
 package com.revistek.util;
 
+import com.revistek.util.constants.MetricNames;
+import io.micrometer.core.instrument.Timer;
 import java.util.Map;
+import java.util.function.Supplier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Connection;
 import redis.clients.jedis.JedisPooled;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
 
 /**
  * An implementation of the cache DAO for REDIS.
@@ -12,48 +18,69 @@ import redis.clients.jedis.JedisPooled;
  */
 public class RedisCacheDao implements CacheDao {
   private static final Logger LOGGER = LoggerFactory.getLogger(CacheDao.class);
+  private static final Timer SETEX_TIMER =
+      ServiceMetrics.daoTimer(MetricNames.BACKEND_REDIS, "setex");
+  private static final Timer EXISTS_TIMER =
+      ServiceMetrics.daoTimer(MetricNames.BACKEND_REDIS, "exists");
+  private static final Timer PIPELINE_TIMER =
+      ServiceMetrics.daoTimer(MetricNames.BACKEND_REDIS, "pipeline");
 
   private JedisPooled clientPooled;
 
   public RedisCacheDao(String url) {
     clientPooled = new JedisPooled(url);
 
-    LOGGER.trace("Initialized to url: " + url);
+    LOGGER.trace("Initialized to url: {}", url);
+  }
+
+  /**
+   * Creates the DAO with a client from a factory, so that the client has the pool settings of the
+   * factory and its pool is measured.
+   *
+   * @param url the URL of the REDIS server.
+   * @param clientFactory the factory of the client.
+   */
+  public RedisCacheDao(String url, RedisClientFactory clientFactory) {
+    clientPooled = clientFactory.create(url);
+
+    LOGGER.trace("Initialized to url: {}", url);
   }
 
   @Override
   public void set(String key, String value, int timeoutInSecs) {
-    LOGGER.trace(
-        "Get the value for the key: "
-            + key
-            + " to value: "
-            + value
-            + " with a timeout of "
-            + String.valueOf(timeoutInSecs)
-            + " seconds.");
-
-    clientPooled.setex(key, timeoutInSecs, value);
+    // The value is not logged, since it can be large.
+    if (LOGGER.isTraceEnabled()) {
+      LOGGER.trace(
+          "Set the value for the key: {} with a timeout of {} seconds.", key, timeoutInSecs);
+    }
+
+    SETEX_TIMER.record(() -> clientPooled.setex(key, timeoutInSecs, value));
   }
 
   @Override
   public String get(String key) {
-    LOGGER.trace("Get the value for the key: " + key + ".");
+    LOGGER.trace("Get the value for the key: {}.", key);
 
     return clientPooled.get(key);
   }
 
   @Override
   public Map<String, String> getMap(String key) {
-    LOGGER.trace("Get the map for the key: " + key + ".");
+    LOGGER.trace("Get the map for the key: {}.", key);
 
     return clientPooled.hgetAll(key);
   }
 
   @Override
   public boolean exists(String key) {
-    LOGGER.trace("Does the key: " + key + " exists in the cache?");
+    LOGGER.trace("Does the key: {} exists in the cache?", key);
 
-    return clientPooled.exists(key);
+    return EXISTS_TIMER.record(() -> clientPooled.exists(key));
+  }
+
+  @Override
+  public CacheBatch newBatch() {
+    return new RedisCacheBatch(clientPooled.getPool().getResource());
   }
 
   @Override
@@ -62,4 +89,55 @@ public class RedisCacheDao implements CacheDao {
 
     clientPooled.close();
   }
+
+  /**
+   * A {@link com.revistek.util.CacheBatch CacheBatch} that pipelines its commands over a single
+   * pooled connection. The connection is returned to the pool when the batch is closed.
+   *
+   * @author Chuong Ngo
+   */
+  private static class RedisCacheBatch implements CacheBatch {
+    private final Connection connection;
+    private final Pipeline pipeline;
+
+    private RedisCacheBatch(Connection connection) {
+      this.connection = connection;
+      this.pipeline = new Pipeline(connection);
+    }
+
+    @Override
+    public void set(String key, String value, int timeoutInSecs) {
+      pipeline.setex(key, timeoutInSecs, value);
+    }
+
+    @Override
+    public Supplier<Boolean> exists(String key) {
+      Response<Boolean> response = pipeline.exists(key);
+      return response::get;
+    }
+
+    @Override
+    public Supplier<String> get(String key) {
+      Response<String> response = pipeline.get(key);
+      return response::get;
+    }
+
+    @Override
+    public Supplier<Map<String, String>> getMap(String key) {
+      Response<Map<String, String>> response = pipeline.hgetAll(key);
+      return response::get;
+    }
+
+    @Override
+    public void execute() {
+      LOGGER.trace("Executing the pipelined batch.");
+
+      PIPELINE_TIMER.record(pipeline::sync);
+    }
+
+    @Override
+    public void close() {
+      connection.close();
+    }
+  }
 }
@@ -0,0 +1,182 @@
+package com.revistek.util;
+
+import com.revistek.util.constants.ErrorMessages;
+import com.revistek.util.constants.MetricNames;
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.ToDoubleFunction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.ConnectionPoolConfig;
+import redis.clients.jedis.JedisPooled;
+import redis.clients.jedis.util.Pool;
+
+/**
+ * Creates REDIS clients with tuned connection pools. The number of connections in use, idle, and
+ * waited for are published as metrics summed over the pools of the clients that are still open.
+ * The mean time spent waiting for a connection is published for the slowest of those pools.
+ *
+ * @author Chuong Ngo
+ */
+public class RedisClientFactory {
+  public static final int DEFAULT_MAX_TOTAL = 8;
+  public static final int DEFAULT_MAX_IDLE = 8;
+  public static final int DEFAULT_MIN_IDLE = 0;
+  public static final long DEFAULT_MAX_WAIT_MILLIS = -1L;
+  public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 2000;
+  public static final int DEFAULT_SOCKET_TIMEOUT_MILLIS = 2000;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(RedisClientFactory.class);
+
+  private final List<JedisPooled> clients = new CopyOnWriteArrayList<JedisPooled>();
+  private ConnectionPoolConfig poolConfig;
+  private int connectTimeoutMillis;
+  private int socketTimeoutMillis;
+
+  private RedisClientFactory() {}
+
+  /**
+   * Creates a client. The client is closed by whoever created it.
+   *
+   * @param url the URL of the REDIS server.
+   * @return the client.
+   * @throws IllegalArgumentException the URL is invalid.
+   */
+  public JedisPooled create(String url) throws IllegalArgumentException {
+    if (LOGGER.isTraceEnabled()) {
+      LOGGER.trace("Creating a REDIS client with up to {} connections.", poolConfig.getMaxTotal());
+    }
+
+    JedisPooled client =
+        new JedisPooled(poolConfig, URI.create(url), connectTimeoutMillis, socketTimeoutMillis);
+    clients.add(client);
+
+    return client;
+  }
+
+  ConnectionPoolConfig getPoolConfig() {
+    return poolConfig;
+  }
+
+  private void registerGauges() {
+    gauge(MetricNames.POOL_ACTIVE, Pool::getNumActive, false);
+    gauge(MetricNames.POOL_IDLE, Pool::getNumIdle, false);
+    gauge(MetricNames.POOL_WAITERS, Pool::getNumWaiters, false);
+    gauge(MetricNames.POOL_MEAN_WAIT_MILLIS, Pool::getMeanBorrowWaitTimeMillis, true);
+  }
+
+  private void gauge(String name, ToDoubleFunction<Pool<?>> value, boolean max) {
+    ServiceMetrics.gauge(
+        name,
+        this,
+        factory -> factory.aggregate(value, max),
+        MetricNames.TAG_POOL,
+        MetricNames.POOL_REDIS);
+  }
+
+  double aggregate(ToDoubleFunction<Pool<?>> value, boolean max) {
+    double aggregate = 0;
+
+    for (JedisPooled client : clients) {
+      Pool<?> pool = client.getPool();
+
+      if (pool.isClosed()) {
+        clients.remove(client);
+      } else if (max) {
+        aggregate = Math.max(aggregate, value.applyAsDouble(pool));
+      } else {
+        aggregate += value.applyAsDouble(pool);
+      }
+    }
+
+    return aggregate;
+  }
+
+  /**
+   * The builder for {@link com.revistek.util.RedisClientFactory RedisClientFactory}.
+   *
+   * @author Chuong Ngo
+   */
+  public static class Builder {
+    private int maxTotal = DEFAULT_MAX_TOTAL;
+    private int maxIdle = DEFAULT_MAX_IDLE;
+    private int minIdle = DEFAULT_MIN_IDLE;
+    private long maxWaitMillis = DEFAULT_MAX_WAIT_MILLIS;
+    private int connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+    private int socketTimeoutMillis = DEFAULT_SOCKET_TIMEOUT_MILLIS;
+
+    public Builder maxTotal(int maxTotal) {
+      this.maxTotal = maxTotal;
+      return this;
+    }
+
+    public Builder maxIdle(int maxIdle) {
+      this.maxIdle = maxIdle;
+      return this;
+    }
+
+    public Builder minIdle(int minIdle) {
+      this.minIdle = minIdle;
+      return this;
+    }
+
+    /**
+     * Sets how long a command waits for a connection when every connection of the pool is in use,
+     * before it fails.
+     *
+     * @param maxWaitMillis the longest wait, in milliseconds, or -1 to wait forever.
+     * @return this builder.
+     */
+    public Builder maxWaitMillis(long maxWaitMillis) {
+      this.maxWaitMillis = maxWaitMillis;
+      return this;
+    }
+
+    public Builder connectTimeoutMillis(int connectTimeoutMillis) {
+      this.connectTimeoutMillis = connectTimeoutMillis;
+      return this;
+    }
+
+    public Builder socketTimeoutMillis(int socketTimeoutMillis) {
+      this.socketTimeoutMillis = socketTimeoutMillis;
+      return this;
+    }
+
+    public RedisClientFactory build() throws IllegalArgumentException {
+      if ((maxTotal <= 0)
+          || (maxIdle < 0)
+          || (minIdle < 0)
+          || (minIdle > maxIdle)
+          || (maxWaitMillis < -1)
+          || (connectTimeoutMillis < 0)
+          || (socketTimeoutMillis < 0)) {
+        throw new IllegalArgumentException(ErrorMessages.INVALID_POOL_SETTINGS);
+      }
+
+      ConnectionPoolConfig poolConfig = new ConnectionPoolConfig();
+      poolConfig.setMaxTotal(maxTotal);
+      poolConfig.setMaxIdle(maxIdle);
+      poolConfig.setMinIdle(minIdle);
+      poolConfig.setMaxWait(Duration.ofMillis(maxWaitMillis));
+
+      RedisClientFactory factory = new RedisClientFactory();
+      factory.poolConfig = poolConfig;
+      factory.connectTimeoutMillis = connectTimeoutMillis;
+      factory.socketTimeoutMillis = socketTimeoutMillis;
+      factory.registerGauges();
+
+      return factory;
+    }
+  }
+
+  /**
+   * Returns a new builder.
+   *
+   * @return Returns a new {@link com.revistek.util.RedisClientFactory.Builder builder}.
+   */
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+}
@@ -2,6 +2,7 @@ package com.revistek.util;
 
 import com.revistek.crs.protos.Cas;
 import com.revistek.exceptions.MalformedDataException;
+import java.util.List;
 
 /**
  * The interface for repository data access objects. A repository holds the actual CAS data.
@@ -37,6 +38,33 @@ public interface RepositoryDao {
    */
   public String store(Cas cas) throws Exception;
 
+  /**
+   * Stores a {@link com.revistek.protos.Cas Cas} under a CAS ID chosen by the caller (e.g., a
+   * write-ahead log that acknowledged the CAS ID before the repository was written).
+   *
+   * @param cas the {@link com.revistek.protos.Cas Cas} to store.
+   * @param casId the CAS ID to store it under.
+   * @return The CAS ID.
+   * @throws MalformedDataException the {@link com.revistek.protos.Cas Cas} is malformed.
+   * @throws Exception
+   */
+  public String store(Cas cas, String casId) throws Exception;
+
+  /**
+   * Stores a {@link com.revistek.protos.Cas Cas} that is a later checkpoint of another Cas of the
+   * same document. Repositories that can store the changes against the base Cas do so; the others
+   * store a full copy.
+   *
+   * @param cas the {@link com.revistek.protos.Cas Cas} to store.
+   * @param baseCasId the CAS ID of the earlier checkpoint.
+   * @return The CAS ID of the CAS that was stored.
+   * @throws MalformedDataException the {@link com.revistek.protos.Cas Cas} is malformed.
+   * @throws Exception
+   */
+  public default String storeDelta(Cas cas, String baseCasId) throws Exception {
+    return store(cas);
+  }
+
   /**
    * Deletes a {@link com.revistek.protos.Cas Cas} from the repository.
    *
@@ -56,4 +84,29 @@ public interface RepositoryDao {
    * @throws Exception There is no connection to the repository.
    */
   public boolean existsCasId(String casId) throws Exception;
+
+  /**
+   * Checks if there may be a {@link com.revistek.protos.Cas Cas} with the specified CAS ID, without
+   * a round trip to the repository where a local filter of the CAS IDs can answer. The filter only
+   * knows the CAS IDs seen by this instance since it was last rebuilt, so both answers may be
+   * wrong. Use it only to skip work whose outcome does not depend on the answer, never to decide
+   * whether data is deleted or kept; use {@link #existsCasId(String)} for that.
+   *
+   * @param casId the CAS ID to look for.
+   * @return false if the CAS ID is unknown to the filter, else true. Repositories without a filter
+   *     answer as {@link #existsCasId(String)} does.
+   * @throws Exception There is no connection to the repository.
+   */
+  public default boolean mightContainCasId(String casId) throws Exception {
+    return existsCasId(casId);
+  }
+
+  /**
+   * Lists the CAS IDs of the {@link com.revistek.protos.Cas Cas} objects stored for a document.
+   *
+   * @param documentId the document ID to look for.
+   * @return the CAS IDs, in no particular order.
+   * @throws Exception There is no connection to the repository.
+   */
+  public List<String> getCasIds(String documentId) throws Exception;
 }
@@ -0,0 +1,368 @@
+package com.revistek.util;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.revistek.crs.protos.Cas;
+import com.revistek.util.constants.ErrorMessages;
+import com.revistek.util.constants.MetricNames;
+import com.revistek.util.constants.MongoDbDocument;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.bson.conversions.Bson;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Walks the repository collection in the background and checks every Cas against its checksum.
+ * Corrupted Cases are moved to a quarantine collection next to the repository collection, so they
+ * are no longer served but can still be inspected.
+ *
+ * <p>The scrubber is throttled so that it does not hurt the latency of the requests. It scans the
+ * collection for the IDs and data sizes of the entries only, then fetches the entries one at a
+ * time, each once the budgets allow it. The documents per second budget bounds the reads it sends
+ * to MongoDB, the bytes per second budget bounds the data it fetches and checksums, and the
+ * parallelism bounds the number of cores it uses and the number of fetched entries it holds. The
+ * size of a chunked entry is only known once its chunks are fetched, so it is charged then.
+ *
+ * @author Chuong Ngo
+ */
+public class RepositoryScrubber {
+  public static final long DEFAULT_BYTES_PER_SEC = 8L * 1024L * 1024L;
+  public static final int DEFAULT_DOCUMENTS_PER_SEC = 200;
+  public static final int DEFAULT_PARALLELISM = 1;
+  public static final int DEFAULT_BATCH_SIZE = 100;
+  public static final int DEFAULT_INTERVAL_IN_SECS = 86400;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(RepositoryScrubber.class);
+  private static final String SIZE_FIELD_KEY = "size";
+  private static final String CASDATA_FIELD_PATH = "$" + MongoDbDocument.CASDATA_FIELD_KEY;
+  // The scan reads the ID of every entry and the size of its data, which is stored as an array of
+  // bytes, or no size if the entry is chunked.
+  private static final List<Bson> SCAN_PIPELINE =
+      Collections.singletonList(
+          Aggregates.project(
+              Projections.computed(
+                  SIZE_FIELD_KEY,
+                  new Document(
+                      "$cond",
+                      Arrays.asList(
+                          new Document("$isArray", Arrays.asList(CASDATA_FIELD_PATH)),
+                          new Document("$size", CASDATA_FIELD_PATH),
+                          null)))));
+  private static final Counter DOCUMENTS_COUNTER =
+      ServiceMetrics.counter(MetricNames.SCRUBBER_DOCUMENTS);
+  private static final Counter BYTES_COUNTER = ServiceMetrics.counter(MetricNames.SCRUBBER_BYTES);
+  private static final Counter QUARANTINED_COUNTER =
+      ServiceMetrics.counter(MetricNames.SCRUBBER_QUARANTINED);
+  private static final Timer PASS_TIMER = ServiceMetrics.timer(MetricNames.SCRUBBER_PASS_TIME);
+
+  private MongoDbRepositoryDao repositoryDao;
+  private RateLimiter bytesLimiter;
+  private RateLimiter documentsLimiter;
+  private ForkJoinPool verifierPool;
+  private int parallelism;
+  private int batchSize;
+  private int intervalInSecs;
+  private ScheduledExecutorService scheduler;
+
+  private RepositoryScrubber() {}
+
+  /** Starts scrubbing the repository in the background, one pass per interval. */
+  public synchronized void start() {
+    if (scheduler != null) {
+      return;
+    }
+
+    if (LOGGER.isTraceEnabled()) {
+      LOGGER.trace("Scrubbing the repository every {} seconds.", intervalInSecs);
+    }
+
+    scheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "repository-scrubber");
+              thread.setDaemon(true);
+              thread.setPriority(Thread.MIN_PRIORITY);
+              return thread;
+            });
+    scheduler.scheduleWithFixedDelay(
+        this::scrubQuietly, intervalInSecs, intervalInSecs, TimeUnit.SECONDS);
+  }
+
+  /** Stops the background scrubbing. A pass in progress is interrupted. */
+  public synchronized void stop() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+      scheduler = null;
+    }
+
+    verifierPool.shutdownNow();
+  }
+
+  private void scrubQuietly() {
+    try {
+      scrub();
+    } catch (RuntimeException e) {
+      // The next pass starts from the beginning anyway.
+      LOGGER.warn("The repository scrub failed.", e);
+    }
+  }
+
+  /**
+   * Makes one throttled pass over the repository collection.
+   *
+   * @return the number of Cases that were quarantined.
+   */
+  public int scrub() {
+    LOGGER.trace("Scrubbing the repository.");
+
+    long start = System.nanoTime();
+    MongoCollection<Document> collection = repositoryDao.getMongoCollection();
+    // The checks in progress, in order. Each returns its entry if it is corrupted, else null.
+    ArrayDeque<Future<Document>> checks = new ArrayDeque<Future<Document>>(parallelism);
+    int quarantined = 0;
+
+    try (MongoCursor<Document> cursor =
+        collection.aggregate(SCAN_PIPELINE).batchSize(batchSize).iterator()) {
+      while (cursor.hasNext() && !Thread.currentThread().isInterrupted()) {
+        Document entry = cursor.next();
+        Number size = entry.get(SIZE_FIELD_KEY, Number.class);
+        documentsLimiter.acquire();
+
+        if (size != null) {
+          bytesLimiter.acquire((int) Math.max(1L, size.longValue()));
+        }
+
+        Document doc = collection.find(Filters.eq("_id", entry.get("_id"))).first();
+
+        if (doc == null) {
+          // Deleted since the scan.
+          continue;
+        }
+
+        if (checks.size() >= parallelism) {
+          quarantined += finishCheck(collection, checks.poll());
+        }
+
+        boolean charged = (size != null);
+        checks.add(verifierPool.submit(() -> isIntact(doc, charged) ? null : doc));
+      }
+
+      while (!checks.isEmpty()) {
+        quarantined += finishCheck(collection, checks.poll());
+      }
+    } finally {
+      for (Future<Document> check : checks) {
+        check.cancel(false);
+      }
+    }
+
+    PASS_TIMER.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+    if (LOGGER.isTraceEnabled()) {
+      LOGGER.trace("Finished scrubbing the repository. Quarantined {} Cases.", quarantined);
+    }
+
+    return quarantined;
+  }
+
+  /**
+   * Waits for a check and quarantines its entry if it is corrupted.
+   *
+   * @param collection the repository collection holding the entry.
+   * @param check the check.
+   * @return 1 if the entry was quarantined, else 0.
+   */
+  private int finishCheck(MongoCollection<Document> collection, Future<Document> check) {
+    Document corrupted;
+
+    try {
+      corrupted = check.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return 0;
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    }
+
+    if (corrupted == null) {
+      return 0;
+    }
+
+    quarantine(collection, corrupted);
+    return 1;
+  }
+
+  /**
+   * Checks a repository entry against its checksum.
+   *
+   * @param doc the repository entry.
+   * @param charged whether the data of the entry was already charged to the bytes budget.
+   * @return true if the entry is intact, else false.
+   */
+  private boolean isIntact(Document doc, boolean charged) {
+    Cas cas;
+
+    try {
+      cas = repositoryDao.toCas(doc);
+    } catch (Exception e) {
+      LOGGER.trace("The repository entry {} is malformed.", doc.get("_id"));
+
+      return false;
+    }
+
+    int size = cas.getCasData().size();
+
+    if (!charged) {
+      bytesLimiter.acquire(Math.max(1, size));
+    }
+
+    DOCUMENTS_COUNTER.increment();
+    BYTES_COUNTER.increment(size);
+
+    try {
+      return MongoDbRepositoryDao.hasValidChecksum(
+          cas, doc.getString(MongoDbDocument.CHECKSUM_ALGORITHM_FIELD_KEY));
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Moves a repository entry to the quarantine collection. The copy is written before the entry is
+   * deleted, so a failure in between leaves a duplicate rather than losing the entry.
+   *
+   * @param collection the repository collection holding the entry.
+   * @param doc the repository entry to move.
+   */
+  private void quarantine(MongoCollection<Document> collection, Document doc) {
+    LOGGER.warn(
+        "Quarantining the Cas: {}. It failed its checksum check.",
+        doc.getString(MongoDbDocument.CASID_FIELD_KEY));
+
+    Document copy = new Document(doc).append(MongoDbDocument.QUARANTINED_AT_FIELD_KEY, new Date());
+    repositoryDao.getQuarantineCollection().insertOne(copy);
+    collection.deleteOne(Filters.eq("_id", doc.get("_id")));
+    QUARANTINED_COUNTER.increment();
+  }
+
+  /**
+   * The builder for {@link com.revistek.util.RepositoryScrubber RepositoryScrubber}.
+   *
+   * @author Chuong Ngo
+   */
+  public static class Builder {
+    private MongoDbRepositoryDao repositoryDao;
+    private long bytesPerSec = DEFAULT_BYTES_PER_SEC;
+    private int documentsPerSec = DEFAULT_DOCUMENTS_PER_SEC;
+    private int parallelism = DEFAULT_PARALLELISM;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int intervalInSecs = DEFAULT_INTERVAL_IN_SECS;
+
+    public Builder repositoryDao(MongoDbRepositoryDao repositoryDao) {
+      this.repositoryDao = repositoryDao;
+      return this;
+    }
+
+    /**
+     * Sets how many bytes of Cas data may be checked per second.
+     *
+     * @param bytesPerSec the data budget.
+     * @return this builder.
+     */
+    public Builder bytesPerSec(long bytesPerSec) {
+      this.bytesPerSec = bytesPerSec;
+      return this;
+    }
+
+    /**
+     * Sets how many repository entries may be read per second.
+     *
+     * @param documentsPerSec the read budget.
+     * @return this builder.
+     */
+    public Builder documentsPerSec(int documentsPerSec) {
+      this.documentsPerSec = documentsPerSec;
+      return this;
+    }
+
+    /**
+     * Sets how many threads check checksums at the same time. It is also the number of fetched
+     * entries held while they wait to be checked.
+     *
+     * @param parallelism the number of threads.
+     * @return this builder.
+     */
+    public Builder parallelism(int parallelism) {
+      this.parallelism = parallelism;
+      return this;
+    }
+
+    /**
+     * Sets how many IDs and sizes the scan of the collection reads from MongoDB at once. The
+     * entries themselves are fetched one at a time.
+     *
+     * @param batchSize the batch size of the scan.
+     * @return this builder.
+     */
+    public Builder batchSize(int batchSize) {
+      this.batchSize = batchSize;
+      return this;
+    }
+
+    public Builder intervalInSecs(int intervalInSecs) {
+      this.intervalInSecs = intervalInSecs;
+      return this;
+    }
+
+    public RepositoryScrubber build() throws IllegalArgumentException {
+      if (repositoryDao == null) {
+        throw new IllegalArgumentException(ErrorMessages.REQUIRED_ARGUMENT_IS_NULL);
+      }
+
+      if ((bytesPerSec <= 0)
+          || (documentsPerSec <= 0)
+          || (parallelism <= 0)
+          || (batchSize <= 0)
+          || (intervalInSecs <= 0)) {
+        throw new IllegalArgumentException(ErrorMessages.INVALID_SCRUBBER_SETTINGS);
+      }
+
+      RepositoryScrubber scrubber = new RepositoryScrubber();
+      scrubber.repositoryDao = repositoryDao;
+      scrubber.bytesLimiter = RateLimiter.create(bytesPerSec);
+      scrubber.documentsLimiter = RateLimiter.create(documentsPerSec);
+      scrubber.verifierPool = new ForkJoinPool(parallelism);
+      scrubber.parallelism = parallelism;
+      scrubber.batchSize = batchSize;
+      scrubber.intervalInSecs = intervalInSecs;
+
+      return scrubber;
+    }
+  }
+
+  /**
+   * Returns a new builder.
+   *
+   * @return Returns a new {@link com.revistek.util.RepositoryScrubber.Builder builder}.
+   */
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+}
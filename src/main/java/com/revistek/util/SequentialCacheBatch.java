@@ -0,0 +1,52 @@
+package com.revistek.util;
+
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * A {@link com.revistek.util.CacheBatch CacheBatch} that runs each command against the {@link
+ * com.revistek.util.CacheDao CacheDao} as soon as it is queued. It is the fallback for caches that
+ * cannot pipeline commands.
+ *
+ * @author Chuong Ngo
+ */
+class SequentialCacheBatch implements CacheBatch {
+  private final CacheDao cacheDao;
+
+  SequentialCacheBatch(CacheDao cacheDao) {
+    this.cacheDao = cacheDao;
+  }
+
+  @Override
+  public void set(String key, String value, int timeoutInSecs) {
+    cacheDao.set(key, value, timeoutInSecs);
+  }
+
+  @Override
+  public Supplier<Boolean> exists(String key) {
+    boolean exists;
+
+    try {
+      exists = cacheDao.exists(key);
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+
+    return () -> exists;
+  }
+
+  @Override
+  public Supplier<String> get(String key) {
+    String value = cacheDao.get(key);
+    return () -> value;
+  }
+
+  @Override
+  public Supplier<Map<String, String>> getMap(String key) {
+    Map<String, String> value = cacheDao.getMap(key);
+    return () -> value;
+  }
+
+  @Override
+  public void execute() {}
+}
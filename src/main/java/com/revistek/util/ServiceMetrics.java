@@ -0,0 +1,149 @@
+package com.revistek.util;
+
+import com.revistek.util.constants.MetricNames;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Holds the metrics of the service. Timers and summaries publish client-side percentiles computed
+ * from HDR histograms, and the whole registry can be scraped in the Prometheus text format.
+ *
+ * <p>The meters are looked up once and kept in static fields by the classes that use them, so
+ * recording a value does not go through the registry.
+ *
+ * @author Chuong Ngo
+ */
+public final class ServiceMetrics {
+  private static final double[] PERCENTILES = {0.5, 0.9, 0.95, 0.99, 0.999};
+  private static final PrometheusMeterRegistry REGISTRY =
+      new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+
+  private ServiceMetrics() {}
+
+  public static MeterRegistry getRegistry() {
+    return REGISTRY;
+  }
+
+  /**
+   * Returns the current value of every metric.
+   *
+   * @return the metrics in the Prometheus text format.
+   */
+  public static String scrape() {
+    return REGISTRY.scrape();
+  }
+
+  /**
+   * Returns the latency timer of an endpoint.
+   *
+   * @param endpoint the name of the endpoint.
+   * @return The {@link io.micrometer.core.instrument.Timer Timer}.
+   */
+  public static Timer endpointTimer(String endpoint) {
+    return timer(MetricNames.ENDPOINT_REQUESTS, MetricNames.TAG_ENDPOINT, endpoint);
+  }
+
+  /**
+   * Returns the error counter of an endpoint.
+   *
+   * @param endpoint the name of the endpoint.
+   * @param stage where in the endpoint the error happened.
+   * @return The {@link io.micrometer.core.instrument.Counter Counter}.
+   */
+  public static Counter errorCounter(String endpoint, String stage) {
+    return Counter.builder(MetricNames.ENDPOINT_ERRORS)
+        .tag(MetricNames.TAG_ENDPOINT, endpoint)
+        .tag(MetricNames.TAG_STAGE, stage)
+        .register(REGISTRY);
+  }
+
+  /**
+   * Returns the Cas payload size summary of an endpoint.
+   *
+   * @param endpoint the name of the endpoint.
+   * @return The {@link io.micrometer.core.instrument.DistributionSummary DistributionSummary}.
+   */
+  public static DistributionSummary payloadSize(String endpoint) {
+    return DistributionSummary.builder(MetricNames.PAYLOAD_SIZE)
+        .baseUnit("bytes")
+        .tag(MetricNames.TAG_ENDPOINT, endpoint)
+        .publishPercentiles(PERCENTILES)
+        .register(REGISTRY);
+  }
+
+  /**
+   * Returns the latency timer of a DAO call.
+   *
+   * @param backend the backend the DAO talks to.
+   * @param operation the name of the call.
+   * @return The {@link io.micrometer.core.instrument.Timer Timer}.
+   */
+  public static Timer daoTimer(String backend, String operation) {
+    return Timer.builder(MetricNames.DAO_CALLS)
+        .tag(MetricNames.TAG_BACKEND, backend)
+        .tag(MetricNames.TAG_OPERATION, operation)
+        .publishPercentiles(PERCENTILES)
+        .register(REGISTRY);
+  }
+
+  /**
+   * Returns a counter.
+   *
+   * @param name the name of the counter.
+   * @param tags the tag keys and values of the counter.
+   * @return The {@link io.micrometer.core.instrument.Counter Counter}.
+   */
+  public static Counter counter(String name, String... tags) {
+    return Counter.builder(name).tags(tags).register(REGISTRY);
+  }
+
+  /**
+   * Returns a latency timer.
+   *
+   * @param name the name of the timer.
+   * @param tags the tag keys and values of the timer.
+   * @return The {@link io.micrometer.core.instrument.Timer Timer}.
+   */
+  public static Timer timer(String name, String... tags) {
+    return Timer.builder(name).tags(tags).publishPercentiles(PERCENTILES).register(REGISTRY);
+  }
+
+  /**
+   * Returns a percentile of a timer, over the recent window of its histogram.
+   *
+   * @param timer the timer.
+   * @param percentile the percentile, one of those every timer publishes (e.g., 0.95).
+   * @return the percentile, in nanoseconds, or 0 if the timer does not publish it.
+   */
+  public static long percentileNanos(Timer timer, double percentile) {
+    for (ValueAtPercentile value : timer.takeSnapshot().percentileValues()) {
+      if (value.percentile() == percentile) {
+        return (long) value.value(TimeUnit.NANOSECONDS);
+      }
+    }
+
+    return 0L;
+  }
+
+  /**
+   * Registers a gauge that samples a value of an object whenever the metrics are scraped. The
+   * gauge holds a weak reference to the object, so it does not keep it alive.
+   *
+   * @param name the name of the gauge.
+   * @param object the object to sample.
+   * @param value how to sample the object.
+   * @param tags the tag keys and values of the gauge.
+   */
+  public static <T> void gauge(
+      String name, T object, ToDoubleFunction<T> value, String... tags) {
+    Gauge.builder(name, object, value).tags(tags).register(REGISTRY);
+  }
+}
@@ -0,0 +1,715 @@
+package com.revistek.util;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import com.revistek.crs.protos.Cas;
+import com.revistek.util.constants.ErrorMessages;
+import com.revistek.util.constants.MetricNames;
+import com.revistek.util.constants.MongoDbDocument;
+import io.micrometer.core.instrument.Counter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.commons.lang3.StringUtils;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A repository spread over several MongoDB repositories (shards). Cases are placed on a
+ * consistent hash ring by Cas ID, and the name of the shard a Cas was stored on is embedded in its
+ * Cas ID ("shard~id"), so a Cas is found without a directory lookup.
+ *
+ * <p>A shard can be added while the service is running. The ring is swapped at once so that new
+ * Cases go to their new owners, and the Cases that the new shard takes over are moved to it in the
+ * background. While they are being moved, a Cas is looked for on its new owner, then on its old
+ * owner. One rebalance runs at a time, so afterwards every Cas is on the shard that the ring says
+ * owns it. When several instances add the same shards, the one holding a lease in the first old
+ * shard moves the Cases, and the others switch to the new ring once it is done.
+ *
+ * @author Chuong Ngo
+ */
+public class ShardedRepositoryDao implements RepositoryDao {
+  public static final String SHARD_DELIMITER = "~";
+  public static final int DEFAULT_REBALANCE_BATCH_SIZE = 500;
+  public static final long DEFAULT_REBALANCE_BATCH_BYTES = 16L * 1024L * 1024L;
+  public static final long DEFAULT_REBALANCE_LEASE_MILLIS = 60000L;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ShardedRepositoryDao.class);
+  private static final int REBALANCE_SCAN_BATCH_SIZE = 10000;
+  private static final String REBALANCE_LEASE_PREFIX = "rebalance:";
+  private static final String ID_FIELD_KEY = "_id";
+  private static final String LEASE_OWNER_FIELD_KEY = "owner";
+  private static final String LEASE_EXPIRES_AT_FIELD_KEY = "expiresAt";
+  private static final String LEASE_COMPLETE_FIELD_KEY = "complete";
+  private static final Counter REBALANCE_MOVED_COUNTER =
+      ServiceMetrics.counter(MetricNames.SHARD_REBALANCE_MOVED);
+
+  private final Map<String, MongoDbRepositoryDao> shards =
+      new ConcurrentHashMap<String, MongoDbRepositoryDao>();
+  private IdGenerator idGenerator;
+  private int rebalanceBatchSize;
+  private long rebalanceBatchBytes;
+  private long leaseMillis;
+  private volatile Topology topology;
+  private ExecutorService rebalancer;
+
+  private ShardedRepositoryDao() {}
+
+  @Override
+  public void initialize() {
+    for (MongoDbRepositoryDao shard : shards.values()) {
+      shard.initialize();
+    }
+  }
+
+  @Override
+  public Cas getCasId(String casId) throws Exception {
+    LOGGER.trace("Getting the Cas: {}.", casId);
+
+    return locate(casId).getCasId(casId);
+  }
+
+  @Override
+  public String store(Cas cas) throws Exception {
+    String baseId = idGenerator.refreshAndGetUniqueId();
+    String shardName = topology.ring.locate(baseId);
+    String casId = shardName + SHARD_DELIMITER + baseId;
+
+    LOGGER.trace("Storing the Cas: {} on shard: {}.", casId, shardName);
+
+    return shards.get(shardName).store(cas, casId);
+  }
+
+  /**
+   * Stores a Cas under a Cas ID chosen by the caller. The Cas goes to the shard named in the Cas
+   * ID, or to the owner of the Cas ID on the ring if it does not name one.
+   */
+  @Override
+  public String store(Cas cas, String casId) throws Exception {
+    MongoDbRepositoryDao shard = candidates(casId).get(0);
+    int delimiter = casId.indexOf(SHARD_DELIMITER);
+
+    if ((delimiter > 0) && shards.containsKey(casId.substring(0, delimiter))) {
+      shard = shards.get(casId.substring(0, delimiter));
+    }
+
+    LOGGER.trace("Storing the Cas: {}.", casId);
+
+    return shard.store(cas, casId);
+  }
+
+  @Override
+  public void deleteCasId(String casId) throws Exception {
+    LOGGER.trace("Deleting the Cas: {}.", casId);
+
+    locate(casId).deleteCasId(casId);
+  }
+
+  @Override
+  public boolean existsCasId(String casId) throws Exception {
+    for (MongoDbRepositoryDao shard : candidates(casId)) {
+      if (shard.existsCasId(casId)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  @Override
+  public boolean mightContainCasId(String casId) throws Exception {
+    for (MongoDbRepositoryDao shard : candidates(casId)) {
+      if (shard.mightContainCasId(casId)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Lists the Cases of a document on every shard. A Cas that is being moved between shards may be
+   * listed once for each.
+   */
+  @Override
+  public List<String> getCasIds(String documentId) throws Exception {
+    Set<String> casIds = new LinkedHashSet<String>();
+
+    for (MongoDbRepositoryDao shard : shards.values()) {
+      casIds.addAll(shard.getCasIds(documentId));
+    }
+
+    return new ArrayList<String>(casIds);
+  }
+
+  /**
+   * Finds the shard holding a Cas. When the Cas could be on more than one shard (i.e., the ring
+   * has changed since it was stored), each shard but the last is asked if it has the Cas.
+   *
+   * @param casId the Cas ID to look up.
+   * @return the shard to use.
+   * @throws Exception there was a problem communicating with a shard.
+   */
+  private MongoDbRepositoryDao locate(String casId) throws Exception {
+    List<MongoDbRepositoryDao> candidates = candidates(casId);
+
+    for (int i = 0; i < (candidates.size() - 1); i++) {
+      if (candidates.get(i).existsCasId(casId)) {
+        return candidates.get(i);
+      }
+    }
+
+    return candidates.get(candidates.size() - 1);
+  }
+
+  /**
+   * Lists the shards that may hold a Cas, most likely first: its owner on the ring, its owner on
+   * the ring being replaced, and the shard it was stored on.
+   *
+   * @param casId the Cas ID to look up.
+   * @return the distinct shards that may hold the Cas.
+   */
+  private List<MongoDbRepositoryDao> candidates(String casId) {
+    if (StringUtils.isEmpty(casId)) {
+      throw new IllegalArgumentException(ErrorMessages.INVALID_CAS_ID);
+    }
+
+    String baseId = baseIdOf(casId);
+    Topology current = topology;
+    List<MongoDbRepositoryDao> candidates = new ArrayList<MongoDbRepositoryDao>(3);
+
+    addCandidate(candidates, current.ring.locate(baseId));
+
+    if (current.previousRing != null) {
+      addCandidate(candidates, current.previousRing.locate(baseId));
+    }
+
+    int delimiter = casId.indexOf(SHARD_DELIMITER);
+    if (delimiter > 0) {
+      addCandidate(candidates, casId.substring(0, delimiter));
+    }
+
+    return candidates;
+  }
+
+  private void addCandidate(List<MongoDbRepositoryDao> candidates, String shardName) {
+    MongoDbRepositoryDao shard = shards.get(shardName);
+
+    if ((shard != null) && !candidates.contains(shard)) {
+      candidates.add(shard);
+    }
+  }
+
+  private static String baseIdOf(String casId) {
+    int delimiter = casId.indexOf(SHARD_DELIMITER);
+    return (delimiter < 0) ? casId : casId.substring(delimiter + SHARD_DELIMITER.length());
+  }
+
+  /**
+   * Adds shards and starts moving the Cases they take over to them in the background.
+   *
+   * @param newShards the repositories of the new shards, keyed by shard name. The names are
+   *     embedded in the Cas IDs, so keep them short.
+   * @return the pending number of Cases moved to the new shards.
+   * @throws IllegalStateException a rebalance is already running.
+   */
+  public synchronized Future<Long> addShards(Map<String, MongoDbRepositoryDao> newShards) {
+    Topology current = topology;
+    if (current.previousRing != null) {
+      throw new IllegalStateException(ErrorMessages.REBALANCE_IN_PROGRESS);
+    }
+
+    for (Map.Entry<String, MongoDbRepositoryDao> shard : newShards.entrySet()) {
+      validateShard(shard.getKey(), shard.getValue());
+
+      if (shards.containsKey(shard.getKey())) {
+        throw new IllegalArgumentException(ErrorMessages.INVALID_SHARD);
+      }
+    }
+
+    ConsistentHashRing grown = current.ring;
+    List<MongoDbRepositoryDao> sources = new ArrayList<MongoDbRepositoryDao>(shards.values());
+
+    for (Map.Entry<String, MongoDbRepositoryDao> shard : newShards.entrySet()) {
+      LOGGER.info("Adding the repository shard: {}.", shard.getKey());
+
+      shard.getValue().initialize();
+      shards.put(shard.getKey(), shard.getValue());
+      grown = grown.withNode(shard.getKey());
+    }
+
+    ConsistentHashRing ring = grown;
+    MongoDbRepositoryDao leaseShard = shards.get(Collections.min(current.ring.getNodes()));
+    topology = new Topology(ring, current.ring);
+
+    return rebalancer.submit(() -> rebalance(ring, sources, leaseShard));
+  }
+
+  /**
+   * Adds a shard and starts moving the Cases it takes over to it in the background.
+   *
+   * @param name the name of the shard. It is embedded in the Cas IDs, so keep it short.
+   * @param shard the repository of the shard.
+   * @return the pending number of Cases moved to the new shard.
+   * @throws IllegalStateException a rebalance is already running.
+   */
+  public Future<Long> addShard(String name, MongoDbRepositoryDao shard) {
+    return addShards(Collections.singletonMap(name, shard));
+  }
+
+  /**
+   * Moves the Cases that changed owners from the old shards to their new owners. Every instance
+   * that adds the shards calls this, but only the holder of the rebalance lease moves Cases; the
+   * others wait for it to finish, and take over if its lease runs out. Each batch is copied to its
+   * new owner before it is deleted from the old one, so a Cas is always on at least one shard.
+   *
+   * @param ring the ring that includes the new shards.
+   * @param sources the shards that were there before.
+   * @param leaseShard the shard holding the lease. Every instance must pick the same one.
+   * @return the number of Cases moved by this instance.
+   * @throws InterruptedException the DAO was cleaned up while waiting for the lease.
+   */
+  private long rebalance(
+      ConsistentHashRing ring, List<MongoDbRepositoryDao> sources, MongoDbRepositoryDao leaseShard)
+      throws InterruptedException {
+    Lease lease = new Lease(leaseShard.getLeaseCollection(), leaseName(ring), leaseMillis);
+    long moved = 0L;
+
+    while (true) {
+      if (lease.acquire()) {
+        try {
+          for (MongoDbRepositoryDao source : sources) {
+            moved += rebalance(ring, source, lease);
+          }
+
+          if (Thread.currentThread().isInterrupted()) {
+            // Keep looking on the old owners, since some Cases were not moved.
+            lease.release();
+            return moved;
+          }
+
+          lease.complete();
+          break;
+        } catch (RuntimeException e) {
+          // Another instance, or this one on its next try, picks up where this run stopped.
+          LOGGER.error("Failed to rebalance the repository shards.", e);
+
+          lease.release();
+        }
+      } else if (lease.isComplete()) {
+        break;
+      }
+
+      Thread.sleep(leaseMillis / 4);
+    }
+
+    topology = new Topology(ring, null);
+    LOGGER.info("Moved {} Cases to the new repository shards.", moved);
+
+    return moved;
+  }
+
+  private long rebalance(ConsistentHashRing ring, MongoDbRepositoryDao sourceShard, Lease lease) {
+    MongoCollection<Document> source = sourceShard.getMongoCollection();
+    Map<String, List<String>> batches = new HashMap<String, List<String>>();
+    long moved = 0L;
+
+    try (MongoCursor<Document> cursor =
+        source
+            .find()
+            .projection(
+                Projections.fields(
+                    Projections.include(MongoDbDocument.CASID_FIELD_KEY), Projections.excludeId()))
+            .batchSize(REBALANCE_SCAN_BATCH_SIZE)
+            .iterator()) {
+      while (cursor.hasNext() && !Thread.currentThread().isInterrupted()) {
+        String casId = cursor.next().getString(MongoDbDocument.CASID_FIELD_KEY);
+
+        if (casId == null) {
+          continue;
+        }
+
+        String ownerName = ring.locate(baseIdOf(casId));
+        MongoDbRepositoryDao owner = shards.get(ownerName);
+        if (owner == sourceShard) {
+          continue;
+        }
+
+        List<String> batch =
+            batches.computeIfAbsent(ownerName, name -> new ArrayList<String>(rebalanceBatchSize));
+        batch.add(casId);
+
+        if (batch.size() >= rebalanceBatchSize) {
+          moved += move(source, owner, batch, lease);
+          batch.clear();
+        }
+      }
+    }
+
+    for (Map.Entry<String, List<String>> batch : batches.entrySet()) {
+      if (!batch.getValue().isEmpty()) {
+        moved += move(source, shards.get(batch.getKey()), batch.getValue(), lease);
+      }
+    }
+
+    return moved;
+  }
+
+  /**
+   * Moves Cases to their new owner, in copies of at most {@code rebalanceBatchBytes} so that large
+   * Cases do not have to fit in memory together.
+   */
+  private long move(
+      MongoCollection<Document> source,
+      MongoDbRepositoryDao targetShard,
+      List<String> casIds,
+      Lease lease) {
+    MongoCollection<RawBsonDocument> rawSource = source.withDocumentClass(RawBsonDocument.class);
+    MongoCollection<RawBsonDocument> target =
+        targetShard.getMongoCollection().withDocumentClass(RawBsonDocument.class);
+    List<RawBsonDocument> docs = new ArrayList<RawBsonDocument>();
+    long bytes = 0L;
+    long moved = 0L;
+
+    for (RawBsonDocument doc :
+        rawSource.find(Filters.in(MongoDbDocument.CASID_FIELD_KEY, casIds))) {
+      docs.add(doc);
+      bytes += doc.getByteBuffer().remaining();
+
+      if (bytes >= rebalanceBatchBytes) {
+        lease.renew();
+        moved += copy(rawSource, target, docs);
+        docs.clear();
+        bytes = 0L;
+      }
+    }
+
+    if (!docs.isEmpty()) {
+      lease.renew();
+      moved += copy(rawSource, target, docs);
+    }
+
+    for (String casId : casIds) {
+      targetShard.addToCasIdFilter(casId);
+    }
+
+    return moved;
+  }
+
+  /**
+   * Copies Cases to their new owner, then deletes them from their old owner. A Cas is only deleted
+   * if the old owner still has the copy that was read (i.e., the same MongoDB ID). If it does not,
+   * the Cas was deleted while it was being copied, so the copy is deleted too instead of bringing
+   * the Cas back.
+   *
+   * @param source the collection of the old owner.
+   * @param target the collection of the new owner.
+   * @param docs the Cases to move, as read from the old owner.
+   * @return the number of Cases moved.
+   */
+  static long copy(
+      MongoCollection<RawBsonDocument> source,
+      MongoCollection<RawBsonDocument> target,
+      List<RawBsonDocument> docs) {
+    List<WriteModel<RawBsonDocument>> writes =
+        new ArrayList<WriteModel<RawBsonDocument>>(docs.size());
+
+    for (RawBsonDocument doc : docs) {
+      // Upserts keep the MongoDB ID and make a rebalance that was interrupted safe to run again.
+      writes.add(
+          new ReplaceOneModel<RawBsonDocument>(
+              Filters.eq(ID_FIELD_KEY, doc.get(ID_FIELD_KEY)),
+              doc,
+              new ReplaceOptions().upsert(true)));
+    }
+
+    target.bulkWrite(writes);
+    long moved = 0L;
+
+    for (RawBsonDocument doc : docs) {
+      Bson copyFilter = Filters.eq(ID_FIELD_KEY, doc.get(ID_FIELD_KEY));
+
+      if (source.deleteOne(copyFilter).getDeletedCount() > 0) {
+        moved++;
+      } else {
+        target.deleteOne(copyFilter);
+      }
+    }
+
+    REBALANCE_MOVED_COUNTER.increment(moved);
+    return moved;
+  }
+
+  private static String leaseName(ConsistentHashRing ring) {
+    return REBALANCE_LEASE_PREFIX + String.join(",", new TreeSet<String>(ring.getNodes()));
+  }
+
+  /**
+   * Points every shard at a different database and collection.
+   *
+   * @param database the database holding the repository.
+   * @param collection the collection holding the repository.
+   */
+  public void retarget(String database, String collection) {
+    for (MongoDbRepositoryDao shard : shards.values()) {
+      shard.retarget(database, collection);
+    }
+  }
+
+  /**
+   * Points every shard at a different database and collection, with different collection
+   * settings.
+   *
+   * @param database the database holding the repository.
+   * @param collection the collection holding the repository.
+   * @param settings the write concern, read preference and read concern of the collection.
+   */
+  public void retarget(String database, String collection, MongoDbCollectionSettings settings) {
+    for (MongoDbRepositoryDao shard : shards.values()) {
+      shard.retarget(database, collection, settings);
+    }
+  }
+
+  public boolean isRebalancing() {
+    return (topology.previousRing != null);
+  }
+
+  public Map<String, MongoDbRepositoryDao> getShards() {
+    return shards;
+  }
+
+  @Override
+  public void cleanup() {
+    LOGGER.trace("Closing.");
+
+    rebalancer.shutdownNow();
+
+    for (MongoDbRepositoryDao shard : shards.values()) {
+      shard.cleanup();
+    }
+  }
+
+  private static void validateShard(String name, MongoDbRepositoryDao shard) {
+    if (StringUtils.isEmpty(name) || name.contains(SHARD_DELIMITER) || (shard == null)) {
+      throw new IllegalArgumentException(ErrorMessages.INVALID_SHARD);
+    }
+  }
+
+  /** The ring in use and, while a rebalance is running, the ring it replaced. */
+  private static final class Topology {
+    private final ConsistentHashRing ring;
+    private final ConsistentHashRing previousRing;
+
+    private Topology(ConsistentHashRing ring, ConsistentHashRing previousRing) {
+      this.ring = ring;
+      this.previousRing = previousRing;
+    }
+  }
+
+  /**
+   * A lease on a rebalance, kept in a document of the lease collection of a shard. It is taken by
+   * upserting the document only if it has expired and the rebalance is not complete, so the
+   * upsert of every instance but one fails on the duplicate ID.
+   */
+  private static final class Lease {
+    private final MongoCollection<Document> leases;
+    private final String name;
+    private final String owner = UUID.randomUUID().toString();
+    private final long durationMillis;
+
+    private Lease(MongoCollection<Document> leases, String name, long durationMillis) {
+      this.leases = leases;
+      this.name = name;
+      this.durationMillis = durationMillis;
+    }
+
+    private boolean acquire() {
+      long now = System.currentTimeMillis();
+
+      try {
+        leases.updateOne(
+            Filters.and(
+                Filters.eq(ID_FIELD_KEY, name),
+                Filters.ne(LEASE_COMPLETE_FIELD_KEY, true),
+                Filters.lt(LEASE_EXPIRES_AT_FIELD_KEY, new Date(now))),
+            Updates.combine(
+                Updates.set(LEASE_OWNER_FIELD_KEY, owner),
+                Updates.set(LEASE_EXPIRES_AT_FIELD_KEY, new Date(now + durationMillis))),
+            new UpdateOptions().upsert(true));
+        return true;
+      } catch (MongoWriteException e) {
+        if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY) {
+          throw e;
+        }
+
+        return false;
+      }
+    }
+
+    /**
+     * Extends the lease before more Cases are moved.
+     *
+     * @throws IllegalStateException the lease ran out and another instance took it.
+     */
+    private void renew() {
+      long expiresAt = System.currentTimeMillis() + durationMillis;
+      update(Updates.set(LEASE_EXPIRES_AT_FIELD_KEY, new Date(expiresAt)));
+    }
+
+    private void complete() {
+      update(Updates.set(LEASE_COMPLETE_FIELD_KEY, true));
+    }
+
+    private void release() {
+      leases.updateOne(owned(), Updates.set(LEASE_EXPIRES_AT_FIELD_KEY, new Date(0L)));
+    }
+
+    private boolean isComplete() {
+      return (leases.countDocuments(
+              Filters.and(
+                  Filters.eq(ID_FIELD_KEY, name), Filters.eq(LEASE_COMPLETE_FIELD_KEY, true)))
+          > 0);
+    }
+
+    private void update(Bson update) {
+      if (leases.updateOne(owned(), update).getMatchedCount() == 0) {
+        throw new IllegalStateException(ErrorMessages.REBALANCE_LEASE_LOST);
+      }
+    }
+
+    private Bson owned() {
+      return Filters.and(Filters.eq(ID_FIELD_KEY, name), Filters.eq(LEASE_OWNER_FIELD_KEY, owner));
+    }
+  }
+
+  /**
+   * The builder for {@link com.revistek.util.ShardedRepositoryDao ShardedRepositoryDao}.
+   *
+   * @author Chuong Ngo
+   */
+  public static class Builder {
+    private IdGenerator idGenerator;
+    private Map<String, MongoDbRepositoryDao> shards =
+        new LinkedHashMap<String, MongoDbRepositoryDao>();
+    private int virtualNodes = ConsistentHashRing.DEFAULT_VIRTUAL_NODES;
+    private int rebalanceBatchSize = DEFAULT_REBALANCE_BATCH_SIZE;
+    private long rebalanceBatchBytes = DEFAULT_REBALANCE_BATCH_BYTES;
+    private long rebalanceLeaseMillis = DEFAULT_REBALANCE_LEASE_MILLIS;
+
+    public Builder idGenerator(IdGenerator idGenerator) {
+      this.idGenerator = idGenerator;
+      return this;
+    }
+
+    /**
+     * Adds a shard.
+     *
+     * @param name the name of the shard. It is embedded in the Cas IDs, so keep it short.
+     * @param shard the repository of the shard.
+     * @return this builder.
+     */
+    public Builder shard(String name, MongoDbRepositoryDao shard) {
+      validateShard(name, shard);
+
+      shards.put(name, shard);
+      return this;
+    }
+
+    public Builder virtualNodes(int virtualNodes) {
+      this.virtualNodes = virtualNodes;
+      return this;
+    }
+
+    public Builder rebalanceBatchSize(int rebalanceBatchSize) {
+      this.rebalanceBatchSize = rebalanceBatchSize;
+      return this;
+    }
+
+    /**
+     * Sets the most bytes of Cases that a rebalance copies at once. A Cas larger than this is
+     * copied on its own.
+     *
+     * @param rebalanceBatchBytes the size of a copy, in bytes.
+     * @return this builder.
+     */
+    public Builder rebalanceBatchBytes(long rebalanceBatchBytes) {
+      this.rebalanceBatchBytes = rebalanceBatchBytes;
+      return this;
+    }
+
+    /**
+     * Sets how long the instance running a rebalance holds the lease on it without renewing it.
+     * Once the lease runs out (e.g., the instance stopped), another instance takes it over.
+     *
+     * @param rebalanceLeaseMillis the duration of the lease, in milliseconds.
+     * @return this builder.
+     */
+    public Builder rebalanceLeaseMillis(long rebalanceLeaseMillis) {
+      this.rebalanceLeaseMillis = rebalanceLeaseMillis;
+      return this;
+    }
+
+    public ShardedRepositoryDao build() throws IllegalArgumentException {
+      if (idGenerator == null) {
+        throw new IllegalArgumentException(ErrorMessages.INVALID_REPOSITORY_IDGENERATOR);
+      }
+
+      if (shards.isEmpty()
+          || (rebalanceBatchSize <= 0)
+          || (rebalanceBatchBytes <= 0L)
+          || (rebalanceLeaseMillis < 4L)) {
+        throw new IllegalArgumentException(ErrorMessages.INVALID_SHARD);
+      }
+
+      ShardedRepositoryDao dao = new ShardedRepositoryDao();
+      dao.idGenerator = idGenerator;
+      dao.rebalanceBatchSize = rebalanceBatchSize;
+      dao.rebalanceBatchBytes = rebalanceBatchBytes;
+      dao.leaseMillis = rebalanceLeaseMillis;
+      dao.shards.putAll(shards);
+      dao.topology = new Topology(new ConsistentHashRing(shards.keySet(), virtualNodes), null);
+      dao.rebalancer =
+          Executors.newSingleThreadExecutor(
+              runnable -> {
+                Thread thread = new Thread(runnable, "repository-rebalancer");
+                thread.setDaemon(true);
+                return thread;
+              });
+
+      return dao;
+    }
+  }
+
+  /**
+   * Returns a new builder.
+   *
+   * @return Returns a new {@link com.revistek.util.ShardedRepositoryDao.Builder builder}.
+   */
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+}
@@ -0,0 +1,1086 @@
+package com.revistek.util;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.revistek.crs.protos.Cas;
+import com.revistek.exceptions.IllegalMetadataStoreStateException;
+import com.revistek.exceptions.MalformedDataException;
+import com.revistek.util.constants.ErrorMessages;
+import com.revistek.util.constants.MetricNames;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Timer;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A local write-ahead log in front of a repository and a metadata store. A change is acknowledged
+ * as soon as it is on the local disk, and it is written to the repository and the metadata store
+ * in the background, so a slow or briefly unreachable database does not hold up the pipelines.
+ *
+ * <p>Changes are appended to segment files by a single committer thread. The committer takes every
+ * change that is waiting, writes them all, and forces the segment once for the whole group (group
+ * commit), so concurrent requests share the cost of an fsync. A flusher thread then applies the
+ * changes to the repository and the metadata store in log order, in batches, retrying the ones that
+ * fail, and records how far it got in a checkpoint file. Segments that are wholly behind the
+ * checkpoint are deleted.
+ *
+ * <p>Cases that are not yet in the repository are held in memory, so they can be read back right
+ * away. On startup the changes after the checkpoint are replayed. A change may have been applied
+ * just before a crash without the checkpoint recording it, so replayed changes that are already
+ * applied are skipped.
+ *
+ * <p>Use {@link #getRepositoryDao()} and {@link #getMetadataStoreDao()} in place of the DAOs the
+ * log is in front of.
+ *
+ * @author Chuong Ngo
+ */
+public class WriteAheadLog {
+  public static final String CHECKPOINT_FILENAME = "checkpoint";
+  public static final long DEFAULT_MAX_SEGMENT_BYTES = 64L * 1024L * 1024L;
+  public static final long DEFAULT_MAX_PENDING_BYTES = 256L * 1024L * 1024L;
+  public static final int DEFAULT_FLUSH_BATCH_SIZE = 500;
+  public static final long DEFAULT_RETRY_DELAY_MILLIS = 1000L;
+
+  // Stands for a Cas that was deleted but is not yet deleted from the repository.
+  static final Cas DELETED = Cas.getDefaultInstance();
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(WriteAheadLog.class);
+  private static final String SEGMENT_PREFIX = "wal-";
+  private static final String SEGMENT_SUFFIX = ".log";
+  private static final byte[] NO_BYTES = new byte[0];
+  private static final int MAX_GROUP_SIZE = 1024;
+  private static final long POLL_MILLIS = 100L;
+  private static final long STOP_WAIT_MILLIS = 30000L;
+  private static final byte RECORD_STORE = 1;
+  private static final byte RECORD_DELETE_CAS = 2;
+  private static final byte RECORD_ADD_CAS_ID = 3;
+  private static final byte RECORD_DELETE_CAS_ID = 4;
+  private static final byte RECORD_DELETE_ALL_CAS_ID = 5;
+  private static final Timer APPEND_TIMER =
+      ServiceMetrics.daoTimer(MetricNames.BACKEND_WRITE_AHEAD_LOG, "append");
+  private static final Timer FORCE_TIMER =
+      ServiceMetrics.daoTimer(MetricNames.BACKEND_WRITE_AHEAD_LOG, "force");
+  private static final Timer FLUSH_TIMER =
+      ServiceMetrics.daoTimer(MetricNames.BACKEND_WRITE_AHEAD_LOG, "flush");
+  private static final DistributionSummary GROUP_SIZE =
+      DistributionSummary.builder(MetricNames.WAL_GROUP_SIZE)
+          .register(ServiceMetrics.getRegistry());
+  private static final Counter DROPPED_COUNTER = ServiceMetrics.counter(MetricNames.WAL_DROPPED);
+
+  private Path directory;
+  private IdGenerator idGenerator;
+  private ChecksumAlgorithm preferredChecksumAlgorithm;
+  private long maxSegmentBytes;
+  private long maxPendingBytes;
+  private int flushBatchSize;
+  private long retryDelayMillis;
+  private volatile RepositoryDao repositoryDao;
+  private volatile MetadataStoreDao metadataStoreDao;
+  private WriteAheadRepositoryDao repositoryView;
+  private WriteAheadMetadataStoreDao metadataStoreView;
+
+  // The latest change of each Cas that is not yet applied to the repository.
+  private final Map<String, Record> unflushed = new ConcurrentHashMap<String, Record>();
+  private final AtomicLong pendingBytes = new AtomicLong();
+  private final AtomicInteger pendingChanges = new AtomicInteger();
+  private final LinkedBlockingQueue<Record> commitQueue = new LinkedBlockingQueue<Record>();
+  private final LinkedBlockingQueue<Record> flushQueue = new LinkedBlockingQueue<Record>();
+  // Appenders hold the read lock, so no change is queued after the committer has stopped.
+  private final ReentrantReadWriteLock lifecycleLock = new ReentrantReadWriteLock();
+  // The last sequence number of each segment that is no longer appended to, keyed by segment ID.
+  private final TreeMap<Long, Long> sealedSegments = new TreeMap<Long, Long>();
+  // The last change handed to the flusher, and the last change it is done with. Changes are
+  // flushed in order.
+  private volatile long committedSequence;
+  private volatile long flushedSequence;
+  private volatile boolean running;
+  private Thread committer;
+  private Thread flusher;
+
+  // Only used by the committer thread once started.
+  private FileChannel segment;
+  private long segmentId;
+  private long segmentBytes;
+  private long segmentLastSequence;
+  private long nextSequence;
+
+  private WriteAheadLog() {}
+
+  /**
+   * Replays the changes that were not applied before the last shutdown, then starts the committer
+   * and the flusher.
+   *
+   * @throws IOException the log could not be read or opened.
+   */
+  public void start() throws IOException {
+    lifecycleLock.writeLock().lock();
+
+    try {
+      if (running) {
+        return;
+      }
+
+      Files.createDirectories(directory);
+      replay();
+      openSegment(segmentId + 1);
+      running = true;
+
+      committer = new Thread(this::commitLoop, "wal-committer");
+      committer.setDaemon(true);
+      committer.start();
+      flusher = new Thread(this::flushLoop, "wal-flusher");
+      flusher.setDaemon(true);
+      flusher.start();
+    } finally {
+      lifecycleLock.writeLock().unlock();
+    }
+
+    if (LOGGER.isTraceEnabled()) {
+      LOGGER.trace("Started with {} changes to replay.", pendingChanges.get());
+    }
+  }
+
+  /**
+   * Stops taking changes. The changes already taken are committed, and the flusher is given time
+   * to apply what it can. Whatever it does not apply is replayed on the next start.
+   */
+  public void stop() {
+    lifecycleLock.writeLock().lock();
+
+    try {
+      if (!running) {
+        return;
+      }
+
+      running = false;
+    } finally {
+      lifecycleLock.writeLock().unlock();
+    }
+
+    try {
+      committer.join();
+      flusher.join(STOP_WAIT_MILLIS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    if (flusher.isAlive()) {
+      LOGGER.warn("The write-ahead log flusher did not finish. Its changes will be replayed.");
+    }
+
+    try {
+      segment.close();
+    } catch (IOException e) {
+      LOGGER.warn("Failed to close the write-ahead log segment {}.", segmentId, e);
+    }
+
+    LOGGER.trace("Stopped.");
+  }
+
+  /**
+   * Appends a Cas and waits until it is on the disk.
+   *
+   * @param cas the Cas to store.
+   * @return the Cas ID of the Cas.
+   * @throws Exception the Cas is malformed, the log is full, or the log could not be written.
+   */
+  String appendStore(Cas cas) throws Exception {
+    return appendStore(cas, null);
+  }
+
+  /**
+   * Appends a Cas under a Cas ID chosen by the caller and waits until it is on the disk.
+   *
+   * @param cas the Cas to store.
+   * @param casId the Cas ID to store it under, or null for a new one.
+   * @return the Cas ID of the Cas.
+   * @throws Exception the Cas is malformed, the log is full, or the log could not be written.
+   */
+  String appendStore(Cas cas, String casId) throws Exception {
+    String docId = cas.getDocumentId();
+    ByteString data = cas.getCasData();
+
+    if (StringUtils.isEmpty(docId)) {
+      LOGGER.trace("Invalid document ID specified.");
+
+      throw new MalformedDataException(ErrorMessages.INVALID_PROTOBUF_CAS);
+    }
+
+    if (data.isEmpty()) {
+      LOGGER.trace("There is no UIMA Cas/JCas data to store.");
+
+      throw new MalformedDataException(ErrorMessages.INVALID_PROTOBUF_CAS);
+    }
+
+    // Checked now because a Cas that the repository rejects later would be lost.
+    if (ChecksumAlgorithm.match(data, cas.getCrc32Checksum(), preferredChecksumAlgorithm)
+        == null) {
+      LOGGER.trace("The UIMA Cas/JCas failed its checksum check.");
+
+      throw new MalformedDataException(ErrorMessages.getChecksumFailedMessage(docId));
+    }
+
+    if (casId == null) {
+      casId = idGenerator.refreshAndGetUniqueId();
+    }
+
+    LOGGER.trace("Logging the Cas: {} for document: {}.", casId, docId);
+
+    Record record =
+        new Record(RECORD_STORE, casId, "", cas.toBuilder().setCasId(casId).build().toByteArray());
+
+    if (pendingBytes.addAndGet(record.bytes) > maxPendingBytes) {
+      pendingBytes.addAndGet(-record.bytes);
+
+      throw new IllegalStateException(ErrorMessages.WAL_FULL);
+    }
+
+    try {
+      append(record);
+    } catch (Exception e) {
+      pendingBytes.addAndGet(-record.bytes);
+      throw e;
+    }
+
+    return casId;
+  }
+
+  void appendDeleteCas(String casId) throws Exception {
+    append(new Record(RECORD_DELETE_CAS, casId, "", NO_BYTES));
+  }
+
+  void appendAddCasId(String queryKey, String casId) throws Exception {
+    append(new Record(RECORD_ADD_CAS_ID, casId, queryKey, NO_BYTES));
+  }
+
+  void appendDeleteCasId(String queryKey, String casId) throws Exception {
+    append(new Record(RECORD_DELETE_CAS_ID, casId, queryKey, NO_BYTES));
+  }
+
+  void appendDeleteAllCasId(String casId) throws Exception {
+    append(new Record(RECORD_DELETE_ALL_CAS_ID, casId, "", NO_BYTES));
+  }
+
+  /**
+   * Looks up a Cas that is not yet in the repository.
+   *
+   * @param casId the Cas ID to look up.
+   * @return null if the repository is up to date on the Cas. Otherwise, the stored Cas, or {@link
+   *     #DELETED} if the Cas was deleted.
+   * @throws MalformedDataException the logged Cas cannot be parsed.
+   */
+  Cas getUnflushed(String casId) throws MalformedDataException {
+    Record record = unflushed.get(casId);
+
+    if (record == null) {
+      return null;
+    }
+
+    return (record.type == RECORD_STORE) ? record.getCas() : DELETED;
+  }
+
+  /**
+   * Looks up whether a Cas that is not yet in the repository was stored or deleted, without
+   * parsing it.
+   *
+   * @param casId the Cas ID to look up.
+   * @return null if the repository is up to date on the Cas, true if the Cas was stored, or false
+   *     if it was deleted.
+   */
+  Boolean isUnflushedStored(String casId) {
+    Record record = unflushed.get(casId);
+    return (record == null) ? null : (record.type == RECORD_STORE);
+  }
+
+  /**
+   * Lists the Cas IDs of a document that were stored but are not yet in the repository.
+   *
+   * @param documentId the document ID to look for.
+   * @return the Cas IDs, in no particular order.
+   * @throws MalformedDataException a logged Cas cannot be parsed.
+   */
+  List<String> getUnflushedCasIds(String documentId) throws MalformedDataException {
+    List<String> casIds = new ArrayList<String>();
+
+    for (Record record : unflushed.values()) {
+      if ((record.type == RECORD_STORE) && documentId.equals(record.getCas().getDocumentId())) {
+        casIds.add(record.casId);
+      }
+    }
+
+    return casIds;
+  }
+
+  private void append(Record record) throws Exception {
+    if (StringUtils.isEmpty(record.casId)) {
+      LOGGER.trace("Invalid Cas ID specified.");
+
+      throw new IllegalArgumentException(ErrorMessages.INVALID_CAS_ID);
+    }
+
+    long start = System.nanoTime();
+    lifecycleLock.readLock().lock();
+
+    try {
+      if (!running) {
+        throw new IllegalStateException(ErrorMessages.WAL_NOT_RUNNING);
+      }
+
+      commitQueue.add(record);
+    } finally {
+      lifecycleLock.readLock().unlock();
+    }
+
+    try {
+      record.committed.get();
+    } catch (ExecutionException e) {
+      throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+    }
+
+    APPEND_TIMER.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+  }
+
+  private void commitLoop() {
+    List<Record> group = new ArrayList<Record>();
+
+    while (running || !commitQueue.isEmpty()) {
+      Record first;
+
+      try {
+        first = commitQueue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        // Interrupting a thread closes the file channels it uses, so the thread is never
+        // interrupted on purpose.
+        continue;
+      }
+
+      if (first == null) {
+        continue;
+      }
+
+      group.add(first);
+      commitQueue.drainTo(group, MAX_GROUP_SIZE - 1);
+      commit(group);
+      group.clear();
+    }
+  }
+
+  /**
+   * Writes a group of changes and forces them to the disk together, then hands them to the
+   * flusher and wakes up the requests waiting on them.
+   *
+   * @param group the changes to commit, in order.
+   */
+  private void commit(List<Record> group) {
+    long start = System.nanoTime();
+    long groupStart = segmentBytes;
+    long groupSequence = nextSequence;
+
+    try {
+      for (Record record : group) {
+        record.sequence = nextSequence++;
+        ByteBuffer encoded = record.encode();
+        segmentBytes += encoded.remaining();
+
+        while (encoded.hasRemaining()) {
+          segment.write(encoded);
+        }
+      }
+
+      segment.force(false);
+    } catch (IOException | RuntimeException e) {
+      LOGGER.error("Failed to write to the write-ahead log segment {}.", segmentId, e);
+
+      for (Record record : group) {
+        record.committed.completeExceptionally(e);
+      }
+
+      // The requests were told that the group failed, so none of it may be replayed.
+      truncateQuietly(groupStart, groupSequence);
+      return;
+    }
+
+    FORCE_TIMER.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    GROUP_SIZE.record(group.size());
+    segmentLastSequence = group.get(group.size() - 1).sequence;
+
+    for (Record record : group) {
+      track(record);
+      pendingChanges.incrementAndGet();
+      flushQueue.add(record);
+      record.committed.complete(null);
+    }
+
+    committedSequence = segmentLastSequence;
+
+    if (segmentBytes >= maxSegmentBytes) {
+      rollQuietly();
+    }
+  }
+
+  private void track(Record record) {
+    if ((record.type == RECORD_STORE) || (record.type == RECORD_DELETE_CAS)) {
+      unflushed.put(record.casId, record);
+    }
+  }
+
+  /**
+   * Cuts a failed group off the end of the segment. If the segment cannot be cut, it is closed and
+   * the group is removed by reopening the file; if that fails too, the group is replayed on the
+   * next start even though its requests failed.
+   *
+   * @param groupStart the length of the segment before the group was written.
+   * @param groupSequence the sequence number of the first change of the group.
+   */
+  private void truncateQuietly(long groupStart, long groupSequence) {
+    try {
+      segment.truncate(groupStart);
+      segment.position(groupStart);
+      segment.force(false);
+      segmentBytes = groupStart;
+      nextSequence = groupSequence;
+      return;
+    } catch (IOException e) {
+      LOGGER.warn("Failed to cut a failed group off the write-ahead log segment {}.", segmentId, e);
+    }
+
+    try {
+      segment.close();
+    } catch (IOException e) {
+      // The segment is reopened below.
+    }
+
+    try (FileChannel channel = FileChannel.open(segmentPath(segmentId), StandardOpenOption.WRITE)) {
+      channel.truncate(groupStart);
+      channel.force(false);
+    } catch (IOException e) {
+      LOGGER.error(
+          "Failed to cut a failed group off the write-ahead log segment {}. It will be replayed.",
+          segmentId,
+          e);
+    }
+
+    rollQuietly();
+  }
+
+  private void rollQuietly() {
+    try {
+      segment.close();
+      synchronized (sealedSegments) {
+        sealedSegments.put(segmentId, segmentLastSequence);
+      }
+
+      openSegment(segmentId + 1);
+    } catch (IOException e) {
+      // Appends fail until a later roll succeeds.
+      LOGGER.error("Failed to start a new write-ahead log segment.", e);
+    }
+  }
+
+  private void openSegment(long id) throws IOException {
+    segment =
+        FileChannel.open(
+            segmentPath(id),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+    segmentId = id;
+    segmentBytes = 0;
+    segmentLastSequence = nextSequence - 1;
+  }
+
+  private void flushLoop() {
+    List<Record> batch = new ArrayList<Record>(flushBatchSize);
+
+    while (true) {
+      Record first;
+
+      try {
+        first = flushQueue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        return;
+      }
+
+      if (first == null) {
+        if (!running && commitQueue.isEmpty() && !committer.isAlive()) {
+          return;
+        }
+
+        continue;
+      }
+
+      batch.add(first);
+      flushQueue.drainTo(batch, flushBatchSize - 1);
+      int flushed = 0;
+
+      while ((flushed < batch.size()) && flush(batch.get(flushed))) {
+        flushed++;
+      }
+
+      if (flushed > 0) {
+        checkpointQuietly(batch.get(flushed - 1).sequence);
+      }
+
+      if (flushed < batch.size()) {
+        // Stopping. The rest is replayed on the next start.
+        return;
+      }
+
+      batch.clear();
+    }
+  }
+
+  /**
+   * Applies a change, retrying until it succeeds or the log is stopped. Changes that can never
+   * succeed (e.g., a metadata store query that no longer exists) are dropped.
+   *
+   * @param record the change to apply.
+   * @return true if the change is done with, or false if the log was stopped first.
+   */
+  private boolean flush(Record record) {
+    while (true) {
+      try {
+        FLUSH_TIMER.recordCallable(
+            () -> {
+              apply(record);
+              return null;
+            });
+        finish(record);
+        return true;
+      } catch (IllegalArgumentException
+          | MalformedDataException
+          | IllegalMetadataStoreStateException
+          | UnsupportedOperationException e) {
+        LOGGER.error(
+            "Dropping write-ahead log change {} for Cas {}.", record.sequence, record.casId, e);
+        DROPPED_COUNTER.increment();
+        finish(record);
+        return true;
+      } catch (Exception e) {
+        LOGGER.warn("Failed to apply write-ahead log change {}. Retrying.", record.sequence, e);
+      }
+
+      if (!running) {
+        return false;
+      }
+
+      try {
+        Thread.sleep(retryDelayMillis);
+      } catch (InterruptedException e) {
+        return false;
+      }
+    }
+  }
+
+  private void apply(Record record) throws Exception {
+    switch (record.type) {
+      case RECORD_STORE:
+        RepositoryDao repository = repositoryDao;
+
+        if (!record.replayed || !repository.existsCasId(record.casId)) {
+          repository.store(record.getCas(), record.casId);
+        }
+
+        break;
+      case RECORD_DELETE_CAS:
+        repositoryDao.deleteCasId(record.casId);
+        break;
+      case RECORD_ADD_CAS_ID:
+        try {
+          metadataStoreDao.addCasId(record.queryKey, record.casId);
+        } catch (IllegalMetadataStoreStateException e) {
+          if (!record.replayed) {
+            throw e;
+          }
+        }
+
+        break;
+      case RECORD_DELETE_CAS_ID:
+        metadataStoreDao.deleteCasId(record.queryKey, record.casId);
+        break;
+      case RECORD_DELETE_ALL_CAS_ID:
+        metadataStoreDao.deleteAllCasId(record.casId);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown write-ahead log record type: " + record.type);
+    }
+  }
+
+  private void finish(Record record) {
+    // A later change of the same Cas stays.
+    unflushed.remove(record.casId, record);
+    pendingChanges.decrementAndGet();
+    flushedSequence = record.sequence;
+
+    if (record.type == RECORD_STORE) {
+      pendingBytes.addAndGet(-record.bytes);
+    }
+  }
+
+  private void checkpointQuietly(long sequence) {
+    try {
+      Path checkpointPath = directory.resolve(CHECKPOINT_FILENAME);
+      Path newCheckpointPath = directory.resolve(CHECKPOINT_FILENAME + ".new");
+
+      try (FileChannel channel =
+          FileChannel.open(
+              newCheckpointPath,
+              StandardOpenOption.CREATE,
+              StandardOpenOption.WRITE,
+              StandardOpenOption.TRUNCATE_EXISTING)) {
+        ByteBuffer buffer = ByteBuffer.allocate(8).putLong(sequence);
+        buffer.flip();
+
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+
+        channel.force(true);
+      }
+
+      Files.move(newCheckpointPath, checkpointPath, StandardCopyOption.ATOMIC_MOVE);
+      deleteFlushedSegments(sequence);
+    } catch (IOException e) {
+      // The changes after the last checkpoint are replayed and skipped if already applied.
+      LOGGER.warn("Failed to checkpoint the write-ahead log at change {}.", sequence, e);
+    }
+  }
+
+  private void deleteFlushedSegments(long checkpoint) throws IOException {
+    synchronized (sealedSegments) {
+      Iterator<Map.Entry<Long, Long>> segments = sealedSegments.entrySet().iterator();
+
+      while (segments.hasNext()) {
+        Map.Entry<Long, Long> sealed = segments.next();
+
+        if (sealed.getValue() > checkpoint) {
+          break;
+        }
+
+        Files.deleteIfExists(segmentPath(sealed.getKey()));
+        segments.remove();
+      }
+    }
+  }
+
+  /**
+   * Reads the checkpoint and the segments, queueing the changes after the checkpoint to be
+   * applied again. Torn records at the end of a segment are cut off.
+   *
+   * @throws IOException the log could not be read.
+   */
+  private void replay() throws IOException {
+    Path checkpointPath = directory.resolve(CHECKPOINT_FILENAME);
+    long checkpoint = 0;
+
+    if (Files.exists(checkpointPath)) {
+      checkpoint = ByteBuffer.wrap(Files.readAllBytes(checkpointPath)).getLong();
+    }
+
+    List<Long> segmentIds;
+    try (Stream<Path> files = Files.list(directory)) {
+      segmentIds =
+          files
+              .map(path -> path.getFileName().toString())
+              .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+              .map(
+                  name ->
+                      Long.parseLong(
+                          name.substring(
+                              SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())))
+              .sorted()
+              .collect(Collectors.toList());
+    }
+
+    long lastSequence = checkpoint;
+    segmentId = 0;
+
+    for (long id : segmentIds) {
+      lastSequence = Math.max(lastSequence, replaySegment(id, checkpoint));
+      sealedSegments.put(id, lastSequence);
+      segmentId = id;
+    }
+
+    nextSequence = lastSequence + 1;
+    committedSequence = lastSequence;
+    flushedSequence = checkpoint;
+    deleteFlushedSegments(checkpoint);
+  }
+
+  /**
+   * Replays one segment.
+   *
+   * @param id the ID of the segment.
+   * @param checkpoint the last change that was applied.
+   * @return the last sequence number in the segment, or 0 if it is empty.
+   * @throws IOException the segment could not be read or truncated.
+   */
+  private long replaySegment(long id, long checkpoint) throws IOException {
+    Path path = segmentPath(id);
+    long size = Files.size(path);
+    long validLength = 0;
+    long lastSequence = 0;
+
+    try (InputStream stream = Files.newInputStream(path);
+        DataInputStream input = new DataInputStream(new BufferedInputStream(stream))) {
+      while (true) {
+        byte[] body;
+
+        try {
+          int length = input.readInt();
+          int crc = input.readInt();
+
+          if ((length <= 0) || (length > (size - validLength - 8))) {
+            break;
+          }
+
+          body = new byte[length];
+          input.readFully(body);
+
+          if (crc(body, 0, length) != crc) {
+            break;
+          }
+        } catch (EOFException e) {
+          break;
+        }
+
+        Record record = Record.decode(ByteBuffer.wrap(body));
+        validLength += 8 + body.length;
+        lastSequence = record.sequence;
+
+        if (record.sequence > checkpoint) {
+          record.replayed = true;
+          track(record);
+          pendingChanges.incrementAndGet();
+          flushQueue.add(record);
+
+          if (record.type == RECORD_STORE) {
+            pendingBytes.addAndGet(record.bytes);
+          }
+        }
+      }
+    }
+
+    if (validLength < size) {
+      LOGGER.warn("The write-ahead log segment {} has a torn record. It is cut off.", path);
+
+      try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+        channel.truncate(validLength);
+      }
+    }
+
+    return lastSequence;
+  }
+
+  private Path segmentPath(long id) {
+    return directory.resolve(String.format(SEGMENT_PREFIX + "%010d" + SEGMENT_SUFFIX, id));
+  }
+
+  private static int crc(byte[] bytes, int offset, int length) {
+    CRC32 crc = new CRC32();
+    crc.update(bytes, offset, length);
+    return (int) crc.getValue();
+  }
+
+  /**
+   * Returns the repository to use in place of the one the log is in front of.
+   *
+   * @return the repository view of the log.
+   */
+  public WriteAheadRepositoryDao getRepositoryDao() {
+    return repositoryView;
+  }
+
+  /**
+   * Returns the metadata store to use in place of the one the log is in front of.
+   *
+   * @return the metadata store view of the log.
+   */
+  public WriteAheadMetadataStoreDao getMetadataStoreDao() {
+    return metadataStoreView;
+  }
+
+  public RepositoryDao getTargetRepositoryDao() {
+    return repositoryDao;
+  }
+
+  /**
+   * Switches the repository that changes are applied to (e.g., after its settings changed).
+   *
+   * @param repositoryDao the new repository.
+   */
+  public void setTargetRepositoryDao(RepositoryDao repositoryDao) {
+    this.repositoryDao = repositoryDao;
+  }
+
+  public MetadataStoreDao getTargetMetadataStoreDao() {
+    return metadataStoreDao;
+  }
+
+  /**
+   * Switches the metadata store that changes are applied to (e.g., after its settings changed).
+   *
+   * @param metadataStoreDao the new metadata store.
+   */
+  public void setTargetMetadataStoreDao(MetadataStoreDao metadataStoreDao) {
+    this.metadataStoreDao = metadataStoreDao;
+  }
+
+  public Path getDirectory() {
+    return directory;
+  }
+
+  /**
+   * Returns the number of changes that are on the disk but not yet applied.
+   *
+   * @return the number of pending changes.
+   */
+  public int getPendingCount() {
+    return pendingChanges.get();
+  }
+
+  public long getPendingBytes() {
+    return pendingBytes.get();
+  }
+
+  /**
+   * Waits until the changes committed so far are applied. Changes committed while waiting are not
+   * waited for, so a busy log does not keep the caller waiting.
+   *
+   * @param timeoutMillis the longest time to wait, in milliseconds.
+   * @return true if the changes were applied, or false if the wait timed out or was interrupted.
+   */
+  public boolean awaitFlushed(long timeoutMillis) {
+    long target = committedSequence;
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+
+    while (flushedSequence < target) {
+      if (System.currentTimeMillis() >= deadline) {
+        return false;
+      }
+
+      try {
+        Thread.sleep(POLL_MILLIS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /** A change, as it is written to a segment: [length][crc][sequence, type, IDs, Cas]. */
+  static final class Record {
+    private final byte type;
+    private final String casId;
+    private final String queryKey;
+    // Only the serialized Cas is held, so a pending Cas takes its size in memory once.
+    private final byte[] casBytes;
+    private final long bytes;
+    private final CompletableFuture<Void> committed = new CompletableFuture<Void>();
+    private long sequence;
+    private boolean replayed;
+
+    private Record(byte type, String casId, String queryKey, byte[] casBytes) {
+      this.type = type;
+      this.casId = casId;
+      this.queryKey = queryKey;
+      this.casBytes = casBytes;
+      this.bytes = casBytes.length;
+    }
+
+    private Cas getCas() throws MalformedDataException {
+      try {
+        return Cas.parseFrom(casBytes);
+      } catch (InvalidProtocolBufferException e) {
+        throw new MalformedDataException(ErrorMessages.INVALID_PROTOBUF_CAS);
+      }
+    }
+
+    private ByteBuffer encode() {
+      byte[] casIdBytes = casId.getBytes(StandardCharsets.UTF_8);
+      byte[] queryKeyBytes = queryKey.getBytes(StandardCharsets.UTF_8);
+
+      if ((casIdBytes.length > 0xFFFF) || (queryKeyBytes.length > 0xFFFF)) {
+        throw new IllegalArgumentException(ErrorMessages.INVALID_CAS_ID);
+      }
+
+      int length = 8 + 1 + 2 + casIdBytes.length + 2 + queryKeyBytes.length + 4 + casBytes.length;
+      ByteBuffer record = ByteBuffer.allocate(8 + length);
+      record
+          .putInt(length)
+          .putInt(0)
+          .putLong(sequence)
+          .put(type)
+          .putShort((short) casIdBytes.length)
+          .put(casIdBytes)
+          .putShort((short) queryKeyBytes.length)
+          .put(queryKeyBytes)
+          .putInt(casBytes.length)
+          .put(casBytes);
+      record.putInt(4, crc(record.array(), 8, length));
+      record.flip();
+      return record;
+    }
+
+    private static Record decode(ByteBuffer body) {
+      long sequence = body.getLong();
+      byte type = body.get();
+      String casId = readString(body);
+      String queryKey = readString(body);
+      byte[] casBytes = new byte[body.getInt()];
+      body.get(casBytes);
+
+      Record record = new Record(type, casId, queryKey, casBytes);
+      record.sequence = sequence;
+      return record;
+    }
+
+    private static String readString(ByteBuffer body) {
+      byte[] bytes = new byte[body.getShort() & 0xFFFF];
+      body.get(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+  }
+
+  /**
+   * The builder for {@link com.revistek.util.WriteAheadLog WriteAheadLog}.
+   *
+   * @author Chuong Ngo
+   */
+  public static class Builder {
+    private Path directory;
+    private IdGenerator idGenerator;
+    private ChecksumAlgorithm preferredChecksumAlgorithm = ChecksumAlgorithm.CRC32;
+    private RepositoryDao repositoryDao;
+    private MetadataStoreDao metadataStoreDao;
+    private long maxSegmentBytes = DEFAULT_MAX_SEGMENT_BYTES;
+    private long maxPendingBytes = DEFAULT_MAX_PENDING_BYTES;
+    private int flushBatchSize = DEFAULT_FLUSH_BATCH_SIZE;
+    private long retryDelayMillis = DEFAULT_RETRY_DELAY_MILLIS;
+
+    public Builder directory(Path directory) {
+      this.directory = directory;
+      return this;
+    }
+
+    public Builder idGenerator(IdGenerator idGenerator) {
+      this.idGenerator = idGenerator;
+      return this;
+    }
+
+    public Builder preferredChecksumAlgorithm(ChecksumAlgorithm preferredChecksumAlgorithm) {
+      if (preferredChecksumAlgorithm != null) {
+        this.preferredChecksumAlgorithm = preferredChecksumAlgorithm;
+      }
+
+      return this;
+    }
+
+    public Builder repositoryDao(RepositoryDao repositoryDao) {
+      this.repositoryDao = repositoryDao;
+      return this;
+    }
+
+    public Builder metadataStoreDao(MetadataStoreDao metadataStoreDao) {
+      this.metadataStoreDao = metadataStoreDao;
+      return this;
+    }
+
+    public Builder maxSegmentBytes(long maxSegmentBytes) {
+      this.maxSegmentBytes = maxSegmentBytes;
+      return this;
+    }
+
+    /**
+     * Sets how many bytes of Cases may wait to be written to the repository. Stores fail once
+     * they would go over it, rather than the service running out of memory while the repository
+     * is unreachable.
+     *
+     * @param maxPendingBytes the byte budget.
+     * @return this builder.
+     */
+    public Builder maxPendingBytes(long maxPendingBytes) {
+      this.maxPendingBytes = maxPendingBytes;
+      return this;
+    }
+
+    public Builder flushBatchSize(int flushBatchSize) {
+      this.flushBatchSize = flushBatchSize;
+      return this;
+    }
+
+    public Builder retryDelayMillis(long retryDelayMillis) {
+      this.retryDelayMillis = retryDelayMillis;
+      return this;
+    }
+
+    public WriteAheadLog build() throws IllegalArgumentException {
+      if ((directory == null)
+          || (idGenerator == null)
+          || (repositoryDao == null)
+          || (metadataStoreDao == null)
+          || (maxSegmentBytes <= 0)
+          || (maxPendingBytes <= 0)
+          || (flushBatchSize <= 0)
+          || (retryDelayMillis <= 0)) {
+        throw new IllegalArgumentException(ErrorMessages.INVALID_WAL_SETTINGS);
+      }
+
+      WriteAheadLog log = new WriteAheadLog();
+      log.directory = directory;
+      log.idGenerator = idGenerator;
+      log.preferredChecksumAlgorithm = preferredChecksumAlgorithm;
+      log.repositoryDao = repositoryDao;
+      log.metadataStoreDao = metadataStoreDao;
+      log.maxSegmentBytes = maxSegmentBytes;
+      log.maxPendingBytes = maxPendingBytes;
+      log.flushBatchSize = flushBatchSize;
+      log.retryDelayMillis = retryDelayMillis;
+      log.repositoryView = new WriteAheadRepositoryDao(log);
+      log.metadataStoreView = new WriteAheadMetadataStoreDao(log);
+
+      return log;
+    }
+  }
+
+  /**
+   * Returns a new builder.
+   *
+   * @return Returns a new {@link com.revistek.util.WriteAheadLog.Builder builder}.
+   */
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+}
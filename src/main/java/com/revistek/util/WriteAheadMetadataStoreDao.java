@@ -0,0 +1,59 @@
+package com.revistek.util;
+
+import com.revistek.util.constants.ErrorMessages;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The metadata store view of a {@link com.revistek.util.WriteAheadLog WriteAheadLog}. Changes are
+ * acknowledged once they are in the log, and they are applied to the metadata store after the
+ * repository changes logged before them.
+ *
+ * @author Chuong Ngo
+ */
+public class WriteAheadMetadataStoreDao implements MetadataStoreDao {
+  private static final Logger LOGGER = LoggerFactory.getLogger(MetadataStoreDao.class);
+
+  private final WriteAheadLog log;
+
+  WriteAheadMetadataStoreDao(WriteAheadLog log) {
+    this.log = log;
+  }
+
+  @Override
+  public void addCasId(String queryKey, String casId) throws Exception {
+    LOGGER.trace("Logging Cas ID {} for the metadata store {}.", casId, queryKey);
+
+    checkQueryKey(queryKey);
+    log.appendAddCasId(queryKey, casId);
+  }
+
+  @Override
+  public void deleteCasId(String queryKey, String casId) throws Exception {
+    LOGGER.trace("Logging the deletion of Cas ID {} from {}.", casId, queryKey);
+
+    checkQueryKey(queryKey);
+    log.appendDeleteCasId(queryKey, casId);
+  }
+
+  @Override
+  public void deleteAllCasId(String casId) throws Exception {
+    LOGGER.trace("Logging the deletion of Cas ID {} from all metadata stores.", casId);
+
+    log.appendDeleteAllCasId(casId);
+  }
+
+  private static void checkQueryKey(String queryKey) {
+    // The queries are checked when the change is applied, but a missing key cannot be logged.
+    if (StringUtils.isEmpty(queryKey)) {
+      LOGGER.trace("Invalid metadata store query specified.");
+
+      throw new IllegalArgumentException(ErrorMessages.getInvalidQueryMessage(queryKey));
+    }
+  }
+
+  public WriteAheadLog getWriteAheadLog() {
+    return log;
+  }
+}
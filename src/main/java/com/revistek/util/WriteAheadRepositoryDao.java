@@ -0,0 +1,122 @@
+package com.revistek.util;
+
+import com.revistek.crs.protos.Cas;
+import com.revistek.util.constants.ErrorMessages;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The repository view of a {@link com.revistek.util.WriteAheadLog WriteAheadLog}. Stores and
+ * deletes are acknowledged once they are in the log. Reads see the Cases in the log that are not
+ * yet in the repository, so a pipeline can read back a Cas right after storing it.
+ *
+ * @author Chuong Ngo
+ */
+public class WriteAheadRepositoryDao implements RepositoryDao {
+  private static final Logger LOGGER = LoggerFactory.getLogger(RepositoryDao.class);
+
+  private final WriteAheadLog log;
+
+  WriteAheadRepositoryDao(WriteAheadLog log) {
+    this.log = log;
+  }
+
+  @Override
+  public Cas getCasId(String casId) throws Exception {
+    LOGGER.trace("Getting the Cas: {}.", casId);
+
+    if (StringUtils.isEmpty(casId)) {
+      LOGGER.trace("Invalid Cas ID specified.");
+
+      throw new IllegalArgumentException(ErrorMessages.INVALID_CAS_ID);
+    }
+
+    Cas cas = log.getUnflushed(casId);
+
+    if (cas == WriteAheadLog.DELETED) {
+      LOGGER.trace("The Cas {} was deleted.", casId);
+
+      throw new IllegalArgumentException(ErrorMessages.INVALID_REPOSITORY_ENTRY);
+    }
+
+    return (cas == null) ? log.getTargetRepositoryDao().getCasId(casId) : cas;
+  }
+
+  @Override
+  public String store(Cas cas) throws Exception {
+    return log.appendStore(cas);
+  }
+
+  /**
+   * Appends a Cas under a Cas ID chosen by the caller. The repository the log is in front of must
+   * support it too, since the Cas is applied to it under the same Cas ID.
+   */
+  @Override
+  public String store(Cas cas, String casId) throws Exception {
+    if (StringUtils.isEmpty(casId)) {
+      LOGGER.trace("Invalid Cas ID specified.");
+
+      throw new IllegalArgumentException(ErrorMessages.INVALID_CAS_ID);
+    }
+
+    return log.appendStore(cas, casId);
+  }
+
+  @Override
+  public void deleteCasId(String casId) throws Exception {
+    LOGGER.trace("Deleting the Cas: {}.", casId);
+
+    log.appendDeleteCas(casId);
+  }
+
+  @Override
+  public boolean existsCasId(String casId) throws Exception {
+    return exists(casId, false);
+  }
+
+  @Override
+  public boolean mightContainCasId(String casId) throws Exception {
+    return exists(casId, true);
+  }
+
+  private boolean exists(String casId, boolean mightContain) throws Exception {
+    if (StringUtils.isEmpty(casId)) {
+      LOGGER.trace("Invalid Cas ID specified.");
+
+      throw new IllegalArgumentException(ErrorMessages.INVALID_CAS_ID);
+    }
+
+    Boolean stored = log.isUnflushedStored(casId);
+
+    if (stored == null) {
+      RepositoryDao repositoryDao = log.getTargetRepositoryDao();
+      return mightContain
+          ? repositoryDao.mightContainCasId(casId)
+          : repositoryDao.existsCasId(casId);
+    }
+
+    return stored;
+  }
+
+  /**
+   * Lists the Cas IDs of a document, including the Cases in the log that are not yet in the
+   * repository and leaving out the ones deleted in the log.
+   */
+  @Override
+  public List<String> getCasIds(String documentId) throws Exception {
+    // The log is read first, so a Cas flushed in between is found in the repository.
+    Set<String> casIds = new LinkedHashSet<String>(log.getUnflushedCasIds(documentId));
+    casIds.addAll(log.getTargetRepositoryDao().getCasIds(documentId));
+    casIds.removeIf(casId -> Boolean.FALSE.equals(log.isUnflushedStored(casId)));
+    return new ArrayList<String>(casIds);
+  }
+
+  public WriteAheadLog getWriteAheadLog() {
+    return log;
+  }
+}
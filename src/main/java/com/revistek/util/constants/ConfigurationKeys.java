@@ -0,0 +1,80 @@
+package com.revistek.util.constants;
+
+/**
+ * The keys of the optional service settings. The "KEY_" settings are read from the cache alongside
+ * the repository and metadata store settings. The "PROPERTY_" settings are read from the properties
+ * file because they are needed before the cache is reachable. A missing key means the default is
+ * used.
+ *
+ * @author Chuong Ngo
+ */
+public final class ConfigurationKeys {
+  public static final String KEY_CASID_FILTER_ENABLED = "casIdFilterEnabled";
+  public static final String KEY_CASID_FILTER_REFRESH_SECS = "casIdFilterRefreshSecs";
+  public static final String KEY_PREFERRED_CHECKSUM_ALGORITHM = "preferredChecksumAlgorithm";
+  public static final String KEY_VERIFY_ON_READ = "verifyOnRead";
+  public static final String KEY_SCRUBBER_ENABLED = "scrubberEnabled";
+  public static final String KEY_SCRUBBER_BYTES_PER_SEC = "scrubberBytesPerSec";
+  public static final String KEY_SCRUBBER_DOCUMENTS_PER_SEC = "scrubberDocumentsPerSec";
+  public static final String KEY_SCRUBBER_PARALLELISM = "scrubberParallelism";
+  public static final String KEY_SCRUBBER_INTERVAL_SECS = "scrubberIntervalSecs";
+  public static final String KEY_REPOSITORY_TTL_SECS = "repositoryTtlSecs";
+  public static final String KEY_REPOSITORY_SHARDS = "repositoryShards";
+  public static final String KEY_RECONCILER_ENABLED = "reconcilerEnabled";
+  public static final String KEY_RECONCILER_INTERVAL_SECS = "reconcilerIntervalSecs";
+  public static final String KEY_RECONCILER_GRACE_SECS = "reconcilerGraceSecs";
+  public static final String KEY_MEMORY_REPOSITORY_MAX_BYTES = "memoryRepositoryMaxBytes";
+  public static final String KEY_REPOSITORY_COLLECTION_SETTINGS = "repositoryCollectionSettings";
+  public static final String KEY_DELTA_ENABLED = "deltaEnabled";
+  public static final String KEY_DELTA_MAX_CHAIN_LENGTH = "deltaMaxChainLength";
+  public static final String KEY_CHUNK_AVERAGE_BYTES = "chunkAverageBytes";
+  public static final String KEY_CHUNK_FETCH_PARALLELISM = "chunkFetchParallelism";
+  public static final String KEY_COMPRESSION_MIN_BYTES = "compressionMinBytes";
+  public static final String KEY_GRPC_PORT = "grpcPort";
+  public static final String KEY_GRPC_MAX_MESSAGE_BYTES = "grpcMaxMessageBytes";
+  public static final String KEY_ADMISSION_ENABLED = "admissionEnabled";
+  public static final String KEY_ADMISSION_MAX_IN_FLIGHT_BYTES = "admissionMaxInFlightBytes";
+  public static final String KEY_ADMISSION_MAX_LIMIT = "admissionMaxLimit";
+  public static final String KEY_MONGODB_READ_MAX_TIME_MILLIS = "mongodbReadMaxTimeMillis";
+  public static final String KEY_MONGODB_DELETE_MAX_TIME_MILLIS = "mongodbDeleteMaxTimeMillis";
+  public static final String KEY_HEDGED_READS_ENABLED = "hedgedReadsEnabled";
+  public static final String KEY_HEDGE_MIN_DELAY_MILLIS = "hedgeMinDelayMillis";
+  public static final String KEY_READ_AHEAD_ENABLED = "readAheadEnabled";
+  public static final String KEY_READ_AHEAD_COUNT = "readAheadCount";
+  public static final String KEY_READ_AHEAD_MAX_SESSION_BYTES = "readAheadMaxSessionBytes";
+  public static final String KEY_READ_AHEAD_MAX_SESSIONS = "readAheadMaxSessions";
+  public static final String KEY_READ_AHEAD_IDLE_SECS = "readAheadIdleSecs";
+  public static final String KEY_READ_AHEAD_PARALLELISM = "readAheadParallelism";
+
+  public static final String PROPERTY_CACHE_TIMEOUT_MILLIS = "cache_timeout_millis";
+  public static final String PROPERTY_CONFIGURATION_POLL_SECS = "configuration_poll_secs";
+  public static final String PROPERTY_MEMORY_CACHE_MAX_BYTES = "memory_cache_max_bytes";
+  public static final String PROPERTY_REPOSITORY_URL = "repository_url";
+  public static final String PROPERTY_REPOSITORY_DATABASE = "repository_database";
+  public static final String PROPERTY_REPOSITORY_COLLECTION = "repository_collection";
+  public static final String PROPERTY_METADATA_STORE_URL = "metadata_store_url";
+  public static final String PROPERTY_METADATA_QUERIES = "metadata_queries";
+  public static final String PROPERTY_WAL_DIRECTORY = "wal_directory";
+  public static final String PROPERTY_WAL_MAX_PENDING_BYTES = "wal_max_pending_bytes";
+  public static final String PROPERTY_MONGODB_POOL_MAX_SIZE = "mongodb_pool_max_size";
+  public static final String PROPERTY_MONGODB_POOL_MIN_SIZE = "mongodb_pool_min_size";
+  public static final String PROPERTY_MONGODB_POOL_MAX_WAIT_MILLIS = "mongodb_pool_max_wait_millis";
+  public static final String PROPERTY_MONGODB_POOL_MAX_IDLE_MILLIS = "mongodb_pool_max_idle_millis";
+  public static final String PROPERTY_MONGODB_CONNECT_TIMEOUT_MILLIS =
+      "mongodb_connect_timeout_millis";
+  public static final String PROPERTY_MONGODB_SOCKET_TIMEOUT_MILLIS =
+      "mongodb_socket_timeout_millis";
+  public static final String PROPERTY_REDIS_POOL_MAX_TOTAL = "redis_pool_max_total";
+  public static final String PROPERTY_REDIS_POOL_MAX_IDLE = "redis_pool_max_idle";
+  public static final String PROPERTY_REDIS_POOL_MAX_WAIT_MILLIS = "redis_pool_max_wait_millis";
+  public static final String PROPERTY_REDIS_CONNECT_TIMEOUT_MILLIS = "redis_connect_timeout_millis";
+  public static final String PROPERTY_REDIS_SOCKET_TIMEOUT_MILLIS = "redis_socket_timeout_millis";
+
+  public static final int DEFAULT_CASID_FILTER_REFRESH_SECS = 3600;
+  public static final long DEFAULT_CACHE_TIMEOUT_MILLIS = 10000L;
+  public static final long DEFAULT_CONFIGURATION_POLL_SECS = 30L;
+  public static final String DEFAULT_REPOSITORY_DATABASE = "crs";
+  public static final String DEFAULT_REPOSITORY_COLLECTION = "cases";
+
+  private ConfigurationKeys() {}
+}
@@ -31,6 +31,46 @@ public final class ErrorMessages {
   public static final String INVALID_METADATA_STORE_QUERY =
       "The %s query was not found or is invalid.";
   public static final String INVALID_CAS_ID = "Invalid CAS ID: %s";
+  public static final String INVALID_SCRUBBER_SETTINGS =
+      "The repository scrubber budgets, parallelism, batch size, and interval must be positive.";
+  public static final String INVALID_RECONCILER_SETTINGS =
+      "The orphan reconciler interval and batch size must be positive and the grace period must not be negative.";
+
+  public static final String INVALID_SHARD = "The shard name or repository is invalid.";
+  public static final String REBALANCE_IN_PROGRESS =
+      "A shard cannot be added while the repository is being rebalanced.";
+  public static final String REBALANCE_LEASE_LOST =
+      "The lease on the repository rebalance ran out and was taken by another instance.";
+  public static final String INVALID_MEMORY_BUDGET = "The memory budget must be positive.";
+  public static final String INVALID_FILE_REPOSITORY_SETTINGS =
+      "The segment size must be below 2 GB, the compaction threshold must be in (0, 1], and the compaction interval must not be negative.";
+  public static final String INVALID_WAL_SETTINGS =
+      "The write-ahead log needs a directory, an ID generator, a repository, and a metadata store, and its sizes must be positive.";
+  public static final String WAL_NOT_RUNNING = "The write-ahead log is not running.";
+  public static final String WAL_FULL =
+      "The write-ahead log holds too many Cases that are not yet in the repository.";
+  public static final String INVALID_POOL_SETTINGS =
+      "The pool must allow at least one connection, its minimum must not exceed its maximum, and its times must not be negative.";
+  public static final String INVALID_DELTA_SETTINGS =
+      "The delta repository needs a repository, a positive maximum chain length, and a maximum delta ratio in (0, 1].";
+  public static final String INVALID_DELTA = "The delta Cas %s does not match its base.";
+  public static final String INVALID_CHUNK_SETTINGS =
+      "The average chunk size must be 0 (no chunking) or at least 64 bytes, chunking cannot be combined with a time to live, and at least one thread must fetch chunks.";
+  public static final String INVALID_ADMISSION_SETTINGS =
+      "The admission controller needs a name, a positive byte limit, and concurrency limits where 0 < minimum <= initial <= maximum.";
+  public static final String OVERLOADED =
+      "The service is overloaded and did not run the request. Retry after %d seconds.";
+  public static final String INVALID_TIMEOUT_SETTINGS =
+      "The MongoDB time limits and the minimum hedge delay must not be negative.";
+  public static final String CANNOT_LIST_CAS_IDS = "The metadata store cannot list its Cas IDs.";
+  public static final String INVALID_READ_AHEAD_SETTINGS =
+      "The read-ahead sessions need a repository and a metadata store, and their counts, sizes, and times must be positive.";
+  public static final String READ_AHEAD_DISABLED = "Read-ahead sessions are turned off.";
+  public static final String TOO_MANY_READ_AHEAD_SESSIONS =
+      "There are too many read-ahead sessions open. Retry after %d seconds.";
+  public static final String INVALID_READ_AHEAD_SESSION =
+      "The read-ahead session %s does not exist or was closed for being idle.";
+  public static final String MISSING_CHUNK = "The chunk %s of the Cas %s is not in the repository.";
 
   private ErrorMessages() {}
 
@@ -38,7 +78,27 @@ public final class ErrorMessages {
     return String.format(CHECKSUM_CHECK_FAILED, docId);
   }
 
+  public static String getInvalidDeltaMessage(String casId) {
+    return String.format(INVALID_DELTA, casId);
+  }
+
+  public static String getMissingChunkMessage(String chunkId, String casId) {
+    return String.format(MISSING_CHUNK, chunkId, casId);
+  }
+
   public static String getInvalidQueryMessage(String queryId) {
     return String.format(INVALID_METADATA_STORE_QUERY, queryId);
   }
+
+  public static String getOverloadedMessage(int retryAfterSecs) {
+    return String.format(OVERLOADED, retryAfterSecs);
+  }
+
+  public static String getTooManyReadAheadSessionsMessage(int retryAfterSecs) {
+    return String.format(TOO_MANY_READ_AHEAD_SESSIONS, retryAfterSecs);
+  }
+
+  public static String getInvalidReadAheadSessionMessage(String sessionId) {
+    return String.format(INVALID_READ_AHEAD_SESSION, sessionId);
+  }
 }
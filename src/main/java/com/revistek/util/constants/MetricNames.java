@@ -0,0 +1,105 @@
+package com.revistek.util.constants;
+
+/**
+ * The names and tags of the metrics published by the service.
+ *
+ * @author Chuong Ngo
+ */
+public final class MetricNames {
+  public static final String ENDPOINT_REQUESTS = "crs.endpoint.requests";
+  public static final String ENDPOINT_ERRORS = "crs.endpoint.errors";
+  public static final String PAYLOAD_SIZE = "crs.payload.size";
+  public static final String DAO_CALLS = "crs.dao.calls";
+  public static final String CHECKSUM_TIME = "crs.checksum.time";
+  public static final String ID_GENERATION_TIME = "crs.id.generation.time";
+  public static final String SCRUBBER_DOCUMENTS = "crs.scrubber.documents";
+  public static final String SCRUBBER_BYTES = "crs.scrubber.bytes";
+  public static final String SCRUBBER_QUARANTINED = "crs.scrubber.quarantined";
+  public static final String SCRUBBER_PASS_TIME = "crs.scrubber.pass.time";
+  public static final String RECONCILER_ORPHANS = "crs.reconciler.orphans";
+  public static final String RECONCILER_PASS_TIME = "crs.reconciler.pass.time";
+  public static final String SHARD_REBALANCE_MOVED = "crs.shard.rebalance.moved";
+  public static final String FILE_REPOSITORY_RECOVERY_TIME = "crs.file.repository.recovery.time";
+  public static final String FILE_REPOSITORY_COMPACTED = "crs.file.repository.compacted";
+  public static final String MEMORY_EVICTIONS = "crs.memory.evictions";
+  public static final String WAL_GROUP_SIZE = "crs.wal.group.size";
+  public static final String WAL_DROPPED = "crs.wal.dropped";
+  public static final String POOL_WAIT_TIME = "crs.pool.wait.time";
+  public static final String POOL_ACTIVE = "crs.pool.active";
+  public static final String POOL_IDLE = "crs.pool.idle";
+  public static final String POOL_WAITERS = "crs.pool.waiters";
+  public static final String POOL_MEAN_WAIT_MILLIS = "crs.pool.mean.wait.millis";
+  public static final String DELTA_STORES = "crs.delta.stores";
+  public static final String DELTA_BYTES_SAVED = "crs.delta.bytes.saved";
+  public static final String DELTA_ENCODE_TIME = "crs.delta.encode.time";
+  public static final String CHUNKS_WRITTEN = "crs.chunks.written";
+  public static final String CHUNKS_DEDUPLICATED = "crs.chunks.deduplicated";
+  public static final String CHUNK_BYTES_DEDUPLICATED = "crs.chunk.bytes.deduplicated";
+  public static final String ENCODED_RESPONSES = "crs.encoded.responses";
+  public static final String ADMISSION_REJECTED = "crs.admission.rejected";
+  public static final String ADMISSION_LIMIT = "crs.admission.limit";
+  public static final String ADMISSION_IN_FLIGHT = "crs.admission.in.flight";
+  public static final String HEDGE_READS = "crs.hedge.reads";
+  public static final String HEDGE_SENT = "crs.hedge.sent";
+  public static final String HEDGE_WON = "crs.hedge.won";
+  public static final String READ_AHEAD_SESSIONS = "crs.read.ahead.sessions";
+  public static final String READ_AHEAD_GETS = "crs.read.ahead.gets";
+  public static final String READ_AHEAD_OPEN = "crs.read.ahead.open";
+  public static final String READ_AHEAD_BUFFERED_BYTES = "crs.read.ahead.buffered.bytes";
+  public static final String LOG_ERRORS = "crs.log.errors";
+
+  public static final String TAG_ENDPOINT = "endpoint";
+  public static final String TAG_STAGE = "stage";
+  public static final String TAG_BACKEND = "backend";
+  public static final String TAG_OPERATION = "operation";
+  public static final String TAG_POOL = "pool";
+  public static final String TAG_FORM = "form";
+  public static final String TAG_ENCODING = "encoding";
+  public static final String TAG_REASON = "reason";
+  public static final String TAG_EVENT = "event";
+  public static final String TAG_RESULT = "result";
+
+  public static final String ENDPOINT_STORE = "store";
+  public static final String ENDPOINT_GET = "get";
+  public static final String ENDPOINT_DELETE = "delete";
+  public static final String ENDPOINT_GRPC_STORE = "grpcStore";
+  public static final String ENDPOINT_GRPC_GET = "grpcGet";
+  public static final String ENDPOINT_GRPC_DELETE = "grpcDelete";
+  public static final String ENDPOINT_SESSION_OPEN = "sessionOpen";
+  public static final String ENDPOINT_SESSION_NEXT = "sessionNext";
+  public static final String ENDPOINT_SESSION_CLOSE = "sessionClose";
+
+  public static final String STAGE_VALIDATION = "validation";
+  public static final String STAGE_REPOSITORY = "repository";
+  public static final String STAGE_METADATA_STORE = "metadataStore";
+
+  public static final String BACKEND_MONGODB_REPOSITORY = "mongodbRepository";
+  public static final String BACKEND_FILE_REPOSITORY = "fileRepository";
+  public static final String BACKEND_MONGODB_METADATA_STORE = "mongodbMetadataStore";
+  public static final String BACKEND_EMBEDDED_METADATA_STORE = "embeddedMetadataStore";
+  public static final String BACKEND_MEMORY_REPOSITORY = "memoryRepository";
+  public static final String BACKEND_MEMORY_CACHE = "memoryCache";
+  public static final String BACKEND_REDIS = "redis";
+  public static final String BACKEND_WRITE_AHEAD_LOG = "writeAheadLog";
+
+  public static final String POOL_MONGODB = "mongodb";
+  public static final String POOL_REDIS = "redis";
+
+  public static final String FORM_DELTA = "delta";
+  public static final String FORM_FULL = "full";
+
+  public static final String REASON_CONCURRENCY = "concurrency";
+  public static final String REASON_BYTES = "bytes";
+
+  public static final String EVENT_OPENED = "opened";
+  public static final String EVENT_CLOSED = "closed";
+  public static final String EVENT_EVICTED = "evicted";
+
+  public static final String RESULT_HIT = "hit";
+  public static final String RESULT_MISS = "miss";
+  public static final String RESULT_LOGGED = "logged";
+  public static final String RESULT_SUPPRESSED = "suppressed";
+  public static final String RESULT_DROPPED = "dropped";
+
+  private MetricNames() {}
+}
@@ -10,6 +10,16 @@ public final class MongoDbDocument {
   public static final String DOCUMENTID_FIELD_KEY = "documentId";
   public static final String CRC32CHECKSUM_FIELD_KEY = "crc32Checksum";
   public static final String CASDATA_FIELD_KEY = "casData";
+  public static final String CHECKSUM_ALGORITHM_FIELD_KEY = "checksumAlgorithm";
+  public static final String QUARANTINED_AT_FIELD_KEY = "quarantinedAt";
+  public static final String CREATED_AT_FIELD_KEY = "createdAt";
+  public static final String EXPIRES_AT_FIELD_KEY = "expiresAt";
+  public static final String CHUNKS_FIELD_KEY = "chunks";
+  public static final String CHUNK_DATA_FIELD_KEY = "data";
+  public static final String CHUNK_REFERENCES_FIELD_KEY = "references";
+  public static final String QUARANTINE_COLLECTION_SUFFIX = "_quarantine";
+  public static final String CHUNK_COLLECTION_SUFFIX = "_chunks";
+  public static final String LEASE_COLLECTION_SUFFIX = "_leases";
 
   private MongoDbDocument() {}
 }
@@ -0,0 +1,214 @@
+package com.revistek.web;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.WireFormat;
+import com.revistek.crs.protos.Cas;
+import com.revistek.crs.protos.Message;
+import com.revistek.crs.protos.constants.MessageCodes;
+import com.revistek.crs.protos.constants.MessageExceptions;
+import com.revistek.crs.protos.constants.ProtobufMessages;
+import com.revistek.net.constants.MediaTypes;
+import com.revistek.net.constants.StatusCodes;
+import com.revistek.util.ReadAheadSessions;
+import com.revistek.util.constants.ErrorMessages;
+import jakarta.ws.rs.core.Response;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * The answers that the endpoints give over and over, built once. Messages are immutable, so the
+ * operations hand out the same instances instead of building a new one per request, and the REST
+ * endpoints write their serialized bytes, which are also computed once.
+ *
+ * <p>Some answers differ only in the Cas ID (e.g., a failed delete). The operations give them as
+ * a template and the Cas ID (see {@link CasRepositoryOperations.Answers}). Their bytes are the
+ * bytes of the template followed by the Cas with the Cas ID; parsing merges the fields of both,
+ * so only the Cas ID is encoded per request, and no Message is built for the REST endpoints.
+ *
+ * @author Chuong Ngo
+ */
+public final class CachedResponses {
+  public static final Message INVALID_MESSAGE = invalid(ProtobufMessages.INVALID_MESSAGE);
+  public static final Message READ_AHEAD_DISABLED = invalid(ErrorMessages.READ_AHEAD_DISABLED);
+  public static final Message STORE_FAILED = failed(ProtobufMessages.CAS_STORE_FAILED);
+  public static final Message GET_FAILED = failed(ProtobufMessages.CAS_GET_FAILED);
+  public static final Message DELETE_FAILED = failed(ProtobufMessages.CAS_DELETE_FAILED);
+  public static final Message DELETE_SUCCEEDED =
+      Message.newBuilder()
+          .setStatusCode(MessageCodes.OK)
+          .setMessage(ProtobufMessages.CAS_DELETE_SUCCESS)
+          .build();
+  public static final Message END_OF_QUERY =
+      Message.newBuilder()
+          .setStatusCode(MessageCodes.OK)
+          .setMessage(ReadAheadSessions.END_OF_QUERY)
+          .build();
+  public static final Message SESSION_CLOSED =
+      Message.newBuilder().setStatusCode(MessageCodes.OK).build();
+
+  private static final int CAS_FIELD_TAG =
+      WireFormat.makeTag(
+          fieldNumber(Message.getDescriptor(), "cas"), WireFormat.WIRETYPE_LENGTH_DELIMITED);
+  private static final int CAS_ID_FIELD_NUMBER = fieldNumber(Cas.getDescriptor(), "casId");
+
+  /** The cached bytes of every answer, by instance. It is only read after it is filled. */
+  private static final Map<Message, byte[]> BYTES = new IdentityHashMap<Message, byte[]>();
+
+  static {
+    for (Message message :
+        Arrays.asList(
+            INVALID_MESSAGE,
+            READ_AHEAD_DISABLED,
+            STORE_FAILED,
+            GET_FAILED,
+            DELETE_FAILED,
+            DELETE_SUCCEEDED,
+            END_OF_QUERY,
+            SESSION_CLOSED)) {
+      BYTES.put(message, message.toByteArray());
+    }
+  }
+
+  /** Answers as REST responses, writing the cached bytes without building a Message. */
+  public static final CasRepositoryOperations.Answers<Response.ResponseBuilder> RESPONSES =
+      new CasRepositoryOperations.Answers<Response.ResponseBuilder>() {
+        @Override
+        public Response.ResponseBuilder of(Message message) {
+          return ok(message);
+        }
+
+        @Override
+        public Response.ResponseBuilder of(Message template, String casId) {
+          return ok(template, casId);
+        }
+      };
+
+  private CachedResponses() {}
+
+  /**
+   * Returns an answer that is a template plus the Cas ID it is about. The REST endpoints write
+   * such answers with {@link #ok(Message, String)} instead, which does not build the Message.
+   *
+   * @param template one of the cached answers.
+   * @param casId the Cas ID.
+   * @return the answer.
+   */
+  public static Message withCasId(Message template, String casId) {
+    return template.toBuilder().setCas(Cas.newBuilder().setCasId(casId)).build();
+  }
+
+  /**
+   * Serializes an answer, reusing the cached bytes of the cached answers.
+   *
+   * @param message the answer.
+   * @return the serialized answer. The returned array must not be modified.
+   */
+  public static byte[] toByteArray(Message message) {
+    byte[] bytes = BYTES.get(message);
+    return (bytes == null) ? message.toByteArray() : bytes;
+  }
+
+  /**
+   * Serializes the answer that is a template plus the Cas ID it is about, as the bytes of the
+   * template followed by a Cas with the Cas ID. It parses to {@link #withCasId(Message, String)}.
+   *
+   * @param template one of the cached answers.
+   * @param casId the Cas ID.
+   * @return the serialized answer.
+   */
+  public static byte[] toByteArray(Message template, String casId) {
+    byte[] prefix = BYTES.get(template);
+
+    if (prefix == null) {
+      return withCasId(template, casId).toByteArray();
+    }
+
+    int casSize =
+        casId.isEmpty() ? 0 : CodedOutputStream.computeStringSize(CAS_ID_FIELD_NUMBER, casId);
+    int suffixSize =
+        CodedOutputStream.computeUInt32SizeNoTag(CAS_FIELD_TAG)
+            + CodedOutputStream.computeUInt32SizeNoTag(casSize)
+            + casSize;
+    byte[] bytes = Arrays.copyOf(prefix, prefix.length + suffixSize);
+    CodedOutputStream output = CodedOutputStream.newInstance(bytes, prefix.length, suffixSize);
+
+    try {
+      output.writeUInt32NoTag(CAS_FIELD_TAG);
+      output.writeUInt32NoTag(casSize);
+
+      if (casSize > 0) {
+        output.writeString(CAS_ID_FIELD_NUMBER, casId);
+      }
+
+      output.checkNoSpaceLeft();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    return bytes;
+  }
+
+  /**
+   * Builds the REST response of an answer. The cached answers are written as bytes; any other
+   * answer is written by the Message body writer.
+   *
+   * @param message the answer.
+   * @return the response builder, to which headers can still be added.
+   */
+  public static Response.ResponseBuilder ok(Message message) {
+    byte[] bytes = BYTES.get(message);
+
+    if (bytes == null) {
+      return Response.status(StatusCodes.OK).entity(message);
+    }
+
+    return ok(bytes);
+  }
+
+  /**
+   * Builds the REST response of the answer that is a template plus the Cas ID it is about. It is
+   * written as bytes; see {@link #toByteArray(Message, String)}.
+   *
+   * @param template one of the cached answers.
+   * @param casId the Cas ID.
+   * @return the response builder, to which headers can still be added.
+   */
+  public static Response.ResponseBuilder ok(Message template, String casId) {
+    return ok(toByteArray(template, casId));
+  }
+
+  private static Response.ResponseBuilder ok(byte[] bytes) {
+    return Response.status(StatusCodes.OK).type(MediaTypes.APPLICATION_XPROTOBUF).entity(bytes);
+  }
+
+  private static Message invalid(String text) {
+    return Message.newBuilder()
+        .setStatusCode(MessageCodes.INVALID_MESSAGE)
+        .setExceptionType(MessageExceptions.ILLEGAL_ARGUMENT)
+        .setMessage(text)
+        .build();
+  }
+
+  private static Message failed(String text) {
+    return Message.newBuilder()
+        .setStatusCode(MessageCodes.INTERNAL_SERVER_ERROR)
+        .setExceptionType(MessageExceptions.GENERAL_EXCEPTION)
+        .setMessage(text)
+        .build();
+  }
+
+  private static int fieldNumber(Descriptor descriptor, String jsonName) {
+    for (FieldDescriptor field : descriptor.getFields()) {
+      if (field.getJsonName().equals(jsonName)) {
+        return field.getNumber();
+      }
+    }
+
+    throw new IllegalStateException(jsonName);
+  }
+}
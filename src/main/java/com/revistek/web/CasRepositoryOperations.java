@@ -0,0 +1,552 @@
+package com.revistek.web;
+
+import com.revistek.crs.protos.Cas;
+import com.revistek.crs.protos.Message;
+import com.revistek.crs.protos.constants.MessageCodes;
+import com.revistek.crs.protos.constants.MessageExceptions;
+import com.revistek.crs.protos.constants.ProtobufMessages;
+import com.revistek.exceptions.MalformedDataException;
+import com.revistek.exceptions.PrefetchFailedException;
+import com.revistek.util.AdmissionController;
+import com.revistek.util.ErrorLog;
+import com.revistek.util.MetadataStoreDao;
+import com.revistek.util.ReadAheadSessions;
+import com.revistek.util.RepositoryDao;
+import com.revistek.util.ServiceMetrics;
+import com.revistek.util.constants.ErrorMessages;
+import com.revistek.util.constants.MetricNames;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The operations behind the CRS endpoints, shared by the REST and gRPC front-ends. Every operation
+ * answers with a {@link com.revistek.crs.protos.Message Message}; failures are reported in its
+ * status code rather than thrown. The operations whose answers may only add a Cas ID to a cached
+ * answer can also answer in the form of the front-end (see {@link Answers}).
+ *
+ * @author Chuong Ngo
+ */
+public final class CasRepositoryOperations {
+  /**
+   * The request header (REST) or metadata key (gRPC) of a store that may be stored against an
+   * earlier checkpoint of the same document. Its value is the Cas ID of that checkpoint. Without
+   * it, the Cas is stored in full, whatever its Cas ID.
+   */
+  public static final String DELTA_BASE_HEADER = "X-CRS-Delta-Base";
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(CasRepositoryOperations.class);
+
+  private static final DistributionSummary STORE_PAYLOAD_SIZE =
+      ServiceMetrics.payloadSize(MetricNames.ENDPOINT_STORE);
+  private static final DistributionSummary GET_PAYLOAD_SIZE =
+      ServiceMetrics.payloadSize(MetricNames.ENDPOINT_GET);
+  private static final Counter STORE_VALIDATION_ERRORS =
+      ServiceMetrics.errorCounter(MetricNames.ENDPOINT_STORE, MetricNames.STAGE_VALIDATION);
+  private static final Counter STORE_REPOSITORY_ERRORS =
+      ServiceMetrics.errorCounter(MetricNames.ENDPOINT_STORE, MetricNames.STAGE_REPOSITORY);
+  private static final Counter STORE_METADATA_STORE_ERRORS =
+      ServiceMetrics.errorCounter(MetricNames.ENDPOINT_STORE, MetricNames.STAGE_METADATA_STORE);
+  private static final Counter DELETE_VALIDATION_ERRORS =
+      ServiceMetrics.errorCounter(MetricNames.ENDPOINT_DELETE, MetricNames.STAGE_VALIDATION);
+  private static final Counter DELETE_REPOSITORY_ERRORS =
+      ServiceMetrics.errorCounter(MetricNames.ENDPOINT_DELETE, MetricNames.STAGE_REPOSITORY);
+  private static final Counter GET_VALIDATION_ERRORS =
+      ServiceMetrics.errorCounter(MetricNames.ENDPOINT_GET, MetricNames.STAGE_VALIDATION);
+  private static final Counter GET_REPOSITORY_ERRORS =
+      ServiceMetrics.errorCounter(MetricNames.ENDPOINT_GET, MetricNames.STAGE_REPOSITORY);
+  private static final Counter SESSION_VALIDATION_ERRORS =
+      ServiceMetrics.errorCounter(MetricNames.ENDPOINT_SESSION_NEXT, MetricNames.STAGE_VALIDATION);
+  private static final Counter SESSION_REPOSITORY_ERRORS =
+      ServiceMetrics.errorCounter(MetricNames.ENDPOINT_SESSION_NEXT, MetricNames.STAGE_REPOSITORY);
+  private static final ErrorLog STORE_VALIDATION_LOG =
+      errorLog(MetricNames.ENDPOINT_STORE, MetricNames.STAGE_VALIDATION);
+  private static final ErrorLog STORE_REPOSITORY_LOG =
+      errorLog(MetricNames.ENDPOINT_STORE, MetricNames.STAGE_REPOSITORY);
+  private static final ErrorLog STORE_METADATA_STORE_LOG =
+      errorLog(MetricNames.ENDPOINT_STORE, MetricNames.STAGE_METADATA_STORE);
+  private static final ErrorLog DELETE_VALIDATION_LOG =
+      errorLog(MetricNames.ENDPOINT_DELETE, MetricNames.STAGE_VALIDATION);
+  private static final ErrorLog DELETE_REPOSITORY_LOG =
+      errorLog(MetricNames.ENDPOINT_DELETE, MetricNames.STAGE_REPOSITORY);
+  private static final ErrorLog GET_VALIDATION_LOG =
+      errorLog(MetricNames.ENDPOINT_GET, MetricNames.STAGE_VALIDATION);
+  private static final ErrorLog GET_REPOSITORY_LOG =
+      errorLog(MetricNames.ENDPOINT_GET, MetricNames.STAGE_REPOSITORY);
+  private static final ErrorLog SESSION_VALIDATION_LOG =
+      errorLog(MetricNames.ENDPOINT_SESSION_NEXT, MetricNames.STAGE_VALIDATION);
+  private static final ErrorLog SESSION_REPOSITORY_LOG =
+      errorLog(MetricNames.ENDPOINT_SESSION_NEXT, MetricNames.STAGE_REPOSITORY);
+
+  private static final Answers<Message> MESSAGES =
+      new Answers<Message>() {
+        @Override
+        public Message of(Message message) {
+          return message;
+        }
+
+        @Override
+        public Message of(Message template, String casId) {
+          return CachedResponses.withCasId(template, casId);
+        }
+      };
+
+  /**
+   * Builds answers in the form a front-end sends them. The gRPC front-end sends Messages; the REST
+   * front-end writes the cached answers as bytes, and the answers that only add a Cas ID to a
+   * cached answer without building their Message (see {@link CachedResponses#RESPONSES}).
+   *
+   * @param <T> the form of the answers.
+   */
+  public interface Answers<T> {
+    /**
+     * Returns an answer.
+     *
+     * @param message the answer.
+     * @return the answer in the form of the front-end.
+     */
+    T of(Message message);
+
+    /**
+     * Returns the answer that is a template plus the Cas ID it is about.
+     *
+     * @param template one of the cached answers of {@link CachedResponses}.
+     * @param casId the Cas ID.
+     * @return the answer in the form of the front-end.
+     */
+    T of(Message template, String casId);
+  }
+
+  private CasRepositoryOperations() {}
+
+  /**
+   * Stores a Cas, as {@link #store(RepositoryDao, MetadataStoreDao, Message, String)} does, if the
+   * admission controller lets it through. Otherwise, the store is not attempted and the answer has
+   * the status code {@link AdmissionController#STATUS_TOO_MANY_REQUESTS} and says when to retry.
+   * Only the stores that fail in the databases back the controller off; a store rejected for its
+   * own content (e.g., a Cas that fails its checksum check) says nothing about the load.
+   *
+   * @param admission the admission controller, or null to admit every store.
+   * @param repoDao the repository.
+   * @param metaDao the metadata store.
+   * @param message the message that holds the Cas and the metadata store query key.
+   * @param baseCasId the Cas ID of the checkpoint to store the Cas against, or null or empty to
+   *     store it in full.
+   * @return the outcome, with the Cas ID of the stored Cas.
+   */
+  public static Message store(
+      AdmissionController admission,
+      RepositoryDao repoDao,
+      MetadataStoreDao metaDao,
+      Message message,
+      String baseCasId) {
+    if ((admission == null) || (message == null)) {
+      return store(repoDao, metaDao, message, baseCasId);
+    }
+
+    AdmissionController.Permit permit = admission.tryAcquire(message.getSerializedSize());
+
+    if (permit == null) {
+      int retryAfterSecs = admission.getRetryAfterSecs();
+
+      if (LOGGER.isTraceEnabled()) {
+        LOGGER.trace("Turned away a store. Retry after {} seconds.", retryAfterSecs);
+      }
+
+      return Message.newBuilder()
+          .setStatusCode(AdmissionController.STATUS_TOO_MANY_REQUESTS)
+          .setExceptionType(AdmissionController.OVERLOADED_EXCEPTION)
+          .setMessage(ErrorMessages.getOverloadedMessage(retryAfterSecs))
+          .build();
+    }
+
+    Message response = null;
+
+    try {
+      response = store(repoDao, metaDao, message, baseCasId);
+      return response;
+    } finally {
+      if ((response == null) || (response.getStatusCode() == MessageCodes.INTERNAL_SERVER_ERROR)) {
+        permit.onDropped();
+      } else if (response.getStatusCode() == MessageCodes.OK) {
+        permit.onSuccess();
+      } else {
+        // The store was rejected for its content (MessageCodes.INVALID_MESSAGE).
+        permit.onIgnore();
+      }
+    }
+  }
+
+  /**
+   * Stores a Cas to the repository and adds an entry for it to the metadata store. If the store
+   * names an earlier checkpoint of the same document (see {@link #DELTA_BASE_HEADER}), the
+   * repository may store only the changes against it. The Cas ID of the Cas itself is ignored.
+   *
+   * @param repoDao the repository.
+   * @param metaDao the metadata store.
+   * @param message the message that holds the Cas and the metadata store query key.
+   * @param baseCasId the Cas ID of the checkpoint to store the Cas against, or null or empty to
+   *     store it in full.
+   * @return the outcome, with the Cas ID of the stored Cas.
+   */
+  public static Message store(
+      RepositoryDao repoDao, MetadataStoreDao metaDao, Message message, String baseCasId) {
+    if (message == null) {
+      STORE_VALIDATION_ERRORS.increment();
+      STORE_VALIDATION_LOG.error("The protobuf message failed to properly parse.", null);
+
+      return CachedResponses.INVALID_MESSAGE;
+    }
+
+    if (!message.hasCas()) {
+      STORE_VALIDATION_ERRORS.increment();
+      STORE_VALIDATION_LOG.error(
+          "A Cas protobuf object with a valid Cas ID is needed to store a Cas to the repository.",
+          null);
+
+      return CachedResponses.INVALID_MESSAGE;
+    }
+
+    final Cas cas = message.getCas();
+    String docId = cas.getDocumentId();
+    String queryId = message.getMetadataQueryKey();
+
+    if (StringUtils.isAnyEmpty(docId, queryId)) {
+      STORE_VALIDATION_ERRORS.increment();
+      STORE_VALIDATION_LOG.error(
+          "Valid document and query IDs are needed to store a Cas to the repository.", null);
+
+      return CachedResponses.INVALID_MESSAGE;
+    }
+
+    String casId = "";
+    STORE_PAYLOAD_SIZE.record(cas.getCasData().size());
+
+    try {
+      casId =
+          StringUtils.isEmpty(baseCasId)
+              ? repoDao.store(cas)
+              : repoDao.storeDelta(cas, baseCasId);
+    } catch (MalformedDataException e) {
+      STORE_VALIDATION_ERRORS.increment();
+      STORE_VALIDATION_LOG.error(
+          "The Cas to store is malformed or failed its checksum check.", "documentId", docId, null);
+
+      return invalidMessage(e.getMessage());
+    } catch (Exception e) {
+      STORE_REPOSITORY_ERRORS.increment();
+      STORE_REPOSITORY_LOG.error(
+          "There was an error writing the Cas to the repository.", "documentId", docId, e);
+
+      return CachedResponses.withCasId(CachedResponses.STORE_FAILED, casId);
+    }
+
+    try {
+      metaDao.addCasId(queryId, casId);
+    } catch (Exception e) {
+      STORE_METADATA_STORE_ERRORS.increment();
+      STORE_METADATA_STORE_LOG.error(
+          "There was an error writing the Cas ID to the metadata store.",
+          "casId",
+          casId,
+          "queryKey",
+          queryId,
+          e);
+
+      try {
+        repoDao.deleteCasId(casId);
+      } catch (Exception e1) {
+        // Ignore this exception and move on.
+      }
+
+      return CachedResponses.withCasId(CachedResponses.STORE_FAILED, casId);
+    }
+
+    LOGGER.trace(
+        "Successfully wrote the Cas {} to the repository and metadata store: {}.", casId, queryId);
+    final Cas returnCas = Cas.newBuilder().setCasId(casId).setDocumentId(docId).build();
+    final Message responseMessage =
+        Message.newBuilder()
+            .setStatusCode(MessageCodes.OK)
+            .setMessage(ProtobufMessages.CAS_STORE_SUCCESS)
+            .setCas(returnCas)
+            .build();
+    return responseMessage;
+  }
+
+  /**
+   * Retrieves a Cas from the repository.
+   *
+   * @param dao the repository.
+   * @param message the message that holds the Cas ID.
+   * @return the outcome, with the Cas.
+   */
+  public static Message get(RepositoryDao dao, Message message) {
+    if (message == null) {
+      GET_VALIDATION_ERRORS.increment();
+      GET_VALIDATION_LOG.error("The protobuf message failed to properly parse.", null);
+
+      return CachedResponses.INVALID_MESSAGE;
+    }
+
+    if (!message.hasCas()) {
+      GET_VALIDATION_ERRORS.increment();
+      GET_VALIDATION_LOG.error(
+          "A Cas protobuf object with a valid Cas ID is needed to retrieve a Cas from the repository.",
+          null);
+      return CachedResponses.INVALID_MESSAGE;
+    }
+
+    String casId = message.getCas().getCasId();
+    Cas retrievedCas;
+
+    try {
+      retrievedCas = dao.getCasId(casId);
+    } catch (Exception e) {
+      GET_REPOSITORY_ERRORS.increment();
+      GET_REPOSITORY_LOG.error(
+          "There was an error retrieving the Cas from the repository.", "casId", casId, e);
+
+      return CachedResponses.GET_FAILED;
+    }
+
+    GET_PAYLOAD_SIZE.record(retrievedCas.getCasData().size());
+    LOGGER.trace("Successfully retrieved the Cas {} from the repository.", casId);
+    final Message responseMessage =
+        Message.newBuilder()
+            .setStatusCode(MessageCodes.OK)
+            .setMessage(ProtobufMessages.CAS_GET_SUCCESS)
+            .setCas(retrievedCas)
+            .build();
+    return responseMessage;
+  }
+
+  /**
+   * Deletes a Cas from the repository and its entries from the metadata store, answering with a
+   * Message. See {@link #delete(RepositoryDao, MetadataStoreDao, Message, Answers)}.
+   *
+   * @param repoDao the repository.
+   * @param metaDao the metadata store.
+   * @param message the message that holds the Cas ID.
+   * @return the outcome.
+   */
+  public static Message delete(RepositoryDao repoDao, MetadataStoreDao metaDao, Message message) {
+    return delete(repoDao, metaDao, message, MESSAGES);
+  }
+
+  /**
+   * Deletes a Cas from the repository and its entries from the metadata store.
+   *
+   * @param <T> the form of the answer.
+   * @param repoDao the repository.
+   * @param metaDao the metadata store.
+   * @param message the message that holds the Cas ID.
+   * @param answers builds the answer.
+   * @return the outcome.
+   */
+  public static <T> T delete(
+      RepositoryDao repoDao, MetadataStoreDao metaDao, Message message, Answers<T> answers) {
+    if (message == null) {
+      DELETE_VALIDATION_ERRORS.increment();
+      DELETE_VALIDATION_LOG.error("The protobuf message failed to properly parse.", null);
+
+      return answers.of(CachedResponses.INVALID_MESSAGE);
+    }
+
+    if (!message.hasCas()) {
+      DELETE_VALIDATION_ERRORS.increment();
+      DELETE_VALIDATION_LOG.error(
+          "A Cas protobuf object with a valid Cas ID is needed to delete a Cas from the repository.",
+          null);
+
+      return answers.of(CachedResponses.INVALID_MESSAGE);
+    }
+
+    String casId = message.getCas().getCasId();
+
+    try {
+      repoDao.deleteCasId(casId);
+      metaDao.deleteAllCasId(casId);
+    } catch (Exception e) {
+      DELETE_REPOSITORY_ERRORS.increment();
+      DELETE_REPOSITORY_LOG.error(
+          "There was an error deleting the Cas from the repository.", "casId", casId, e);
+
+      return answers.of(CachedResponses.DELETE_FAILED, casId);
+    }
+
+    LOGGER.trace("Successfully deleted the Cas {} from the repository.", casId);
+    return answers.of(CachedResponses.DELETE_SUCCEEDED, casId);
+  }
+
+  /**
+   * Opens a read-ahead session on a metadata query. The session ID is returned in the message
+   * field of the answer.
+   *
+   * @param sessions the read-ahead sessions, or null if they are turned off.
+   * @param message the message that holds the metadata store query key and, optionally, a Cas
+   *     with the Cas ID to start after.
+   * @return the outcome, with the session ID.
+   */
+  public static Message openSession(ReadAheadSessions sessions, Message message) {
+    if ((message == null) || StringUtils.isEmpty(message.getMetadataQueryKey())) {
+      SESSION_VALIDATION_ERRORS.increment();
+      SESSION_VALIDATION_LOG.error(
+          "A valid query key is needed to open a read-ahead session.", null);
+
+      return CachedResponses.INVALID_MESSAGE;
+    }
+
+    if (sessions == null) {
+      SESSION_VALIDATION_ERRORS.increment();
+
+      return CachedResponses.READ_AHEAD_DISABLED;
+    }
+
+    String queryKey = message.getMetadataQueryKey();
+    String afterCasId = message.hasCas() ? message.getCas().getCasId() : null;
+    String sessionId;
+
+    try {
+      sessionId = sessions.open(queryKey, StringUtils.defaultIfEmpty(afterCasId, null));
+    } catch (IllegalArgumentException | UnsupportedOperationException e) {
+      SESSION_VALIDATION_ERRORS.increment();
+      SESSION_VALIDATION_LOG.error(
+          "Could not open a read-ahead session.", "queryKey", queryKey, null);
+
+      return invalidMessage(e.getMessage());
+    } catch (Exception e) {
+      SESSION_REPOSITORY_ERRORS.increment();
+      SESSION_REPOSITORY_LOG.error(
+          "There was an error opening a read-ahead session.", "queryKey", queryKey, e);
+
+      return CachedResponses.GET_FAILED;
+    }
+
+    if (sessionId == null) {
+      int retryAfterSecs = sessions.getRetryAfterSecs();
+
+      return Message.newBuilder()
+          .setStatusCode(AdmissionController.STATUS_TOO_MANY_REQUESTS)
+          .setExceptionType(AdmissionController.OVERLOADED_EXCEPTION)
+          .setMessage(ErrorMessages.getTooManyReadAheadSessionsMessage(retryAfterSecs))
+          .build();
+    }
+
+    return Message.newBuilder()
+        .setStatusCode(MessageCodes.OK)
+        .setMessage(sessionId)
+        .setMetadataQueryKey(queryKey)
+        .build();
+  }
+
+  /**
+   * Returns the next Cas of a read-ahead session as a Message. See {@link
+   * #nextInSession(ReadAheadSessions, Message, Answers)}.
+   *
+   * @param sessions the read-ahead sessions, or null if they are turned off.
+   * @param message the message that holds the session ID in its message field.
+   * @return the outcome, with the Cas.
+   */
+  public static Message nextInSession(ReadAheadSessions sessions, Message message) {
+    return nextInSession(sessions, message, MESSAGES);
+  }
+
+  /**
+   * Returns the next Cas of a read-ahead session. The answer has no Cas once the query has no more
+   * Cases; asking again later returns the Cases added to the query since.
+   *
+   * @param <T> the form of the answer.
+   * @param sessions the read-ahead sessions, or null if they are turned off.
+   * @param message the message that holds the session ID in its message field.
+   * @param answers builds the answer.
+   * @return the outcome, with the Cas.
+   */
+  public static <T> T nextInSession(
+      ReadAheadSessions sessions, Message message, Answers<T> answers) {
+    if ((message == null) || StringUtils.isEmpty(message.getMessage())) {
+      SESSION_VALIDATION_ERRORS.increment();
+      SESSION_VALIDATION_LOG.error(
+          "A session ID is needed to read from a read-ahead session.", null);
+
+      return answers.of(CachedResponses.INVALID_MESSAGE);
+    }
+
+    if (sessions == null) {
+      SESSION_VALIDATION_ERRORS.increment();
+
+      return answers.of(CachedResponses.READ_AHEAD_DISABLED);
+    }
+
+    Cas cas;
+
+    try {
+      cas = sessions.next(message.getMessage());
+    } catch (IllegalArgumentException e) {
+      SESSION_VALIDATION_ERRORS.increment();
+
+      return answers.of(invalidMessage(e.getMessage()));
+    } catch (PrefetchFailedException e) {
+      SESSION_REPOSITORY_ERRORS.increment();
+      SESSION_REPOSITORY_LOG.error(
+          "There was an error reading ahead the Cas.", "casId", e.getCasId(), e.getCause());
+
+      return answers.of(CachedResponses.GET_FAILED, e.getCasId());
+    } catch (Exception e) {
+      SESSION_REPOSITORY_ERRORS.increment();
+      SESSION_REPOSITORY_LOG.error(
+          "There was an error listing the Cases of a read-ahead session.", e);
+
+      return answers.of(CachedResponses.GET_FAILED);
+    }
+
+    if (cas == null) {
+      return answers.of(CachedResponses.END_OF_QUERY);
+    }
+
+    GET_PAYLOAD_SIZE.record(cas.getCasData().size());
+
+    return answers.of(
+        Message.newBuilder()
+            .setStatusCode(MessageCodes.OK)
+            .setMessage(ProtobufMessages.CAS_GET_SUCCESS)
+            .setCas(cas)
+            .build());
+  }
+
+  /**
+   * Closes a read-ahead session. Closing a session that is already closed is not an error.
+   *
+   * @param sessions the read-ahead sessions, or null if they are turned off.
+   * @param message the message that holds the session ID in its message field.
+   * @return the outcome.
+   */
+  public static Message closeSession(ReadAheadSessions sessions, Message message) {
+    if ((message == null) || StringUtils.isEmpty(message.getMessage())) {
+      SESSION_VALIDATION_ERRORS.increment();
+      SESSION_VALIDATION_LOG.error("A session ID is needed to close a read-ahead session.", null);
+
+      return CachedResponses.INVALID_MESSAGE;
+    }
+
+    if (sessions != null) {
+      sessions.close(message.getMessage());
+    }
+
+    return CachedResponses.SESSION_CLOSED;
+  }
+
+  private static ErrorLog errorLog(String endpoint, String stage) {
+    return ErrorLog.getErrorLog(CasRepositoryOperations.class, endpoint + "." + stage);
+  }
+
+  private static Message invalidMessage(String text) {
+    return Message.newBuilder()
+        .setStatusCode(MessageCodes.INVALID_MESSAGE)
+        .setExceptionType(MessageExceptions.ILLEGAL_ARGUMENT)
+        .setMessage(text)
+        .build();
+  }
+}
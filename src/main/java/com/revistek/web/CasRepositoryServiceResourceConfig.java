@@ -1,6 +1,7 @@
 package com.revistek.web;
 
 import jakarta.ws.rs.ApplicationPath;
+import org.glassfish.jersey.message.GZipEncoder;
 import org.glassfish.jersey.server.ResourceConfig;
 
 /**
@@ -12,5 +13,21 @@ import org.glassfish.jersey.server.ResourceConfig;
 public class CasRepositoryServiceResourceConfig extends ResourceConfig {
   public CasRepositoryServiceResourceConfig() {
     packages("com.revistek.web");
+    registerContentEncoding(this);
+  }
+
+  /**
+   * Registers the compression of requests and responses, and the limit on the size of decoded
+   * requests.
+   *
+   * @param config the configuration of the web app.
+   * @return the configuration.
+   */
+  public static ResourceConfig registerContentEncoding(ResourceConfig config) {
+    return config
+        .register(ContentEncodingFilter.class)
+        .register(GZipEncoder.class)
+        .register(ZstdEncoder.class)
+        .register(DecodedSizeLimit.class);
   }
 }
@@ -4,23 +4,51 @@ import com.google.common.io.CharSource;
 import com.google.common.io.Resources;
 import com.revistek.crs.constants.Cache;
 import com.revistek.crs.constants.ConfigurationValues;
+import com.revistek.util.AdmissionController;
 import com.revistek.util.CacheDao;
+import com.revistek.util.ChecksumAlgorithm;
+import com.revistek.util.DeltaRepositoryDao;
+import com.revistek.util.EmbeddedMetadataStoreDao;
+import com.revistek.util.ErrorLog;
+import com.revistek.util.FileSegmentRepositoryDao;
 import com.revistek.util.IdGenerator;
+import com.revistek.util.InMemoryCacheDao;
+import com.revistek.util.InMemoryMetadataStoreDao;
+import com.revistek.util.InMemoryRepositoryDao;
 import com.revistek.util.MetadataStoreDao;
+import com.revistek.util.MongoClientFactory;
 import com.revistek.util.MongoDbMetadataStoreDao;
 import com.revistek.util.MongoDbRepositoryDao;
+import com.revistek.util.OrphanReconciler;
+import com.revistek.util.ReadAheadSessions;
 import com.revistek.util.RedisCacheDao;
+import com.revistek.util.RedisClientFactory;
 import com.revistek.util.RepositoryDao;
+import com.revistek.util.RepositoryScrubber;
+import com.revistek.util.ScalableBloomFilter;
+import com.revistek.util.ShardedRepositoryDao;
+import com.revistek.util.WriteAheadLog;
+import com.revistek.util.constants.ConfigurationKeys;
 import com.revistek.util.constants.ErrorMessages;
+import com.revistek.util.constants.MetricNames;
+import com.revistek.web.grpc.CasRepositoryGrpcService;
+import io.grpc.Server;
+import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
 import jakarta.servlet.ServletContext;
 import jakarta.servlet.ServletContextEvent;
 import jakarta.servlet.ServletContextListener;
 import jakarta.servlet.annotation.WebListener;
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.net.URI;
 import java.net.URL;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,6 +56,11 @@ import org.slf4j.LoggerFactory;
 /**
  * Creates and registers the singletons needed for the operation of the CRS endpoints.
  *
+ * <p>The repository URL, database and collection and the metadata store URL and queries are
+ * reloaded while the service runs (see {@link ServiceConfigurationWatcher}). Every other setting
+ * (e.g., checksums, chunking, the scrubber, the write-ahead log, deltas, admission control, the
+ * reconciler, read-ahead and gRPC) is read once at startup, and changing it needs a restart.
+ *
  * @author Chuong Ngo
  */
 @WebListener
@@ -35,15 +68,39 @@ public class CasRepositoryServiceServletContextListener implements ServletContex
   private static final Logger LOGGER =
       LoggerFactory.getLogger(CasRepositoryServiceServletContextListener.class);
 
+  private ServiceConfigurationWatcher configurationWatcher;
+  private IdGenerator idGenerator;
+  private ScalableBloomFilter casIdFilter;
+  private int casIdFilterRefreshInSecs;
+  private ChecksumAlgorithm preferredChecksumAlgorithm;
+  private boolean verifyOnRead;
+  private int repositoryTtlInSecs;
+  private long memoryRepositoryMaxBytes;
+  private int chunkAverageBytes;
+  private int chunkFetchParallelism;
+  private long readMaxTimeMillis;
+  private long deleteMaxTimeMillis;
+  private boolean hedgedReads;
+  private long hedgeMinDelayMillis;
+  private RepositoryScrubber.Builder scrubberBuilder;
+  private volatile RepositoryScrubber repositoryScrubber;
+  private OrphanReconciler orphanReconciler;
+  private ReadAheadSessions readAheadSessions;
+  private WriteAheadLog writeAheadLog;
+  private DeltaRepositoryDao deltaRepositoryDao;
+  private MongoClientFactory mongoClientFactory;
+  private Server grpcServer;
+
   @Override
   public void contextInitialized(ServletContextEvent sce) {
     LOGGER.info("The ServletContextListener is starting.");
+    ErrorLog.start();
 
     // Load properties.
     Properties prop = new Properties();
     try {
       URL propUrl = Resources.getResource(ConfigurationValues.FILENAME);
-      LOGGER.trace("Using properties file: " + propUrl);
+      LOGGER.trace("Using properties file: {}", propUrl);
 
       CharSource source = Resources.asCharSource(propUrl, ConfigurationValues.FILE_ENCODING);
       BufferedReader reader = source.openBufferedStream();
@@ -57,64 +114,944 @@ public class CasRepositoryServiceServletContextListener implements ServletContex
       throw new RuntimeException(ErrorMessages.INVALID_CONFIGURATION_FILE_CACHEURL);
     }
 
-    CacheDao cacheDao = new RedisCacheDao(cacheUrl);
+    // The repository and metadata store DAOs share the MongoDB clients of the same URL.
+    mongoClientFactory = createMongoClientFactory(prop);
+
+    CacheDao cacheDao =
+        StringUtils.startsWith(cacheUrl, InMemoryCacheDao.URL_SCHEME + ":")
+            ? createInMemoryCacheDao(prop)
+            : new RedisCacheDao(cacheUrl, createRedisClientFactory(prop));
     cacheDao.initialize();
 
-    IdGenerator idGenerator = IdGenerator.newBuilder().cacheDao(cacheDao).build();
+    ServletContext context = sce.getServletContext();
+    configurationWatcher =
+        new ServiceConfigurationWatcher(
+            cacheDao, (previous, next) -> applyConfiguration(context, previous, next));
+
+    // Fail fast if the cache is unreachable instead of hanging the deployment.
+    ServiceConfiguration configuration =
+        configurationWatcher.loadInitial(
+            getLong(
+                prop,
+                ConfigurationKeys.PROPERTY_CACHE_TIMEOUT_MILLIS,
+                ConfigurationKeys.DEFAULT_CACHE_TIMEOUT_MILLIS));
+
+    loadRepositorySettings(cacheDao);
+    scrubberBuilder = createScrubberBuilder(cacheDao);
+
+    MetadataStoreDao metadataDao;
     RepositoryDao repositoryDao;
 
-    MongoDbMetadataStoreDao metadataDao =
-        new MongoDbMetadataStoreDao(cacheDao.get(Cache.KEY_METDATA_STORE_URL));
-    Map<String, String> queries = cacheDao.getMap(Cache.KEY_METDATA_STORE_QUERIES);
-    LOGGER.trace("Loading the metadata store queries.");
+    try {
+      metadataDao = createMetadataStoreDao(configuration);
+      repositoryDao = createRepositoryDao(configuration);
+      repositoryScrubber = startScrubber(repositoryDao);
+    } catch (IllegalArgumentException e) {
+      throw new RuntimeException(e);
+    }
+
+    registerDaos(context, prop, cacheDao, metadataDao, repositoryDao);
+    context.setAttribute(CacheDao.class.getName(), cacheDao);
+    context.setAttribute(ServiceConfigurationWatcher.class.getName(), configurationWatcher);
+    context.setAttribute(
+        ContentEncodingFilter.MIN_BYTES_ATTRIBUTE,
+        getInt(
+            cacheDao,
+            ConfigurationKeys.KEY_COMPRESSION_MIN_BYTES,
+            ContentEncodingFilter.DEFAULT_MIN_BYTES));
+    context.setAttribute(
+        DecodedSizeLimit.MAX_BYTES_ATTRIBUTE,
+        getLong(
+            cacheDao,
+            ConfigurationKeys.KEY_GRPC_MAX_MESSAGE_BYTES,
+            DecodedSizeLimit.DEFAULT_MAX_BYTES));
+
+    AdmissionController admissionController = createAdmissionController(cacheDao);
+    if (admissionController != null) {
+      context.setAttribute(AdmissionController.class.getName(), admissionController);
+    }
 
-    for (Map.Entry<String, String> query : queries.entrySet()) {
-      String values = query.getValue();
-      LOGGER.trace("Loading query, key: " + query.getKey() + " value: " + values);
+    orphanReconciler = startOrphanReconciler(context, cacheDao);
+    readAheadSessions = startReadAheadSessions(context, cacheDao);
 
-      // For a MongoDB Metadata Store, the values should be a comma-delimited string of database,
-      // collection.
-      String[] splitValues = values.split(",", 2);
+    if (readAheadSessions != null) {
+      context.setAttribute(ReadAheadSessions.class.getName(), readAheadSessions);
+    }
+
+    int grpcPort = getInt(cacheDao, ConfigurationKeys.KEY_GRPC_PORT, 0);
+    if (grpcPort > 0) {
+      grpcServer = createGrpcServer(context, cacheDao, grpcPort);
+    }
+
+    configurationWatcher.start(
+        (int)
+            getLong(
+                prop,
+                ConfigurationKeys.PROPERTY_CONFIGURATION_POLL_SECS,
+                ConfigurationKeys.DEFAULT_CONFIGURATION_POLL_SECS));
+    LOGGER.info("The ServletContextListener has finished loading.");
+  }
+
+  /**
+   * Reads the settings that the repository DAOs are built with. They are read once at startup; a
+   * repository created on a later reconfiguration is built with the same values.
+   *
+   * @param cacheDao the cache to read the settings from.
+   */
+  private void loadRepositorySettings(CacheDao cacheDao) {
+    // The same filter holds the Cas IDs generated and the Cas IDs stored by this instance.
+    if (Boolean.parseBoolean(cacheDao.get(ConfigurationKeys.KEY_CASID_FILTER_ENABLED))) {
+      casIdFilter = new ScalableBloomFilter();
+    }
+
+    casIdFilterRefreshInSecs =
+        getInt(
+            cacheDao,
+            ConfigurationKeys.KEY_CASID_FILTER_REFRESH_SECS,
+            ConfigurationKeys.DEFAULT_CASID_FILTER_REFRESH_SECS);
+    idGenerator = IdGenerator.newBuilder().cacheDao(cacheDao).idFilter(casIdFilter).build();
+
+    String algorithmName = cacheDao.get(ConfigurationKeys.KEY_PREFERRED_CHECKSUM_ALGORITHM);
+    try {
+      preferredChecksumAlgorithm =
+          StringUtils.isEmpty(algorithmName) ? null : ChecksumAlgorithm.fromName(algorithmName);
+    } catch (IllegalArgumentException e) {
+      LOGGER.warn("Unknown checksum algorithm: {}. Using the default.", algorithmName);
+    }
+
+    verifyOnRead = Boolean.parseBoolean(cacheDao.get(ConfigurationKeys.KEY_VERIFY_ON_READ));
+    repositoryTtlInSecs = getInt(cacheDao, ConfigurationKeys.KEY_REPOSITORY_TTL_SECS, 0);
+    memoryRepositoryMaxBytes =
+        getLong(
+            cacheDao,
+            ConfigurationKeys.KEY_MEMORY_REPOSITORY_MAX_BYTES,
+            InMemoryRepositoryDao.DEFAULT_MAX_BYTES);
+    chunkAverageBytes = getInt(cacheDao, ConfigurationKeys.KEY_CHUNK_AVERAGE_BYTES, 0);
+    chunkFetchParallelism =
+        getInt(
+            cacheDao,
+            ConfigurationKeys.KEY_CHUNK_FETCH_PARALLELISM,
+            MongoDbRepositoryDao.DEFAULT_CHUNK_FETCH_PARALLELISM);
+    readMaxTimeMillis = getLong(cacheDao, ConfigurationKeys.KEY_MONGODB_READ_MAX_TIME_MILLIS, 0L);
+    deleteMaxTimeMillis =
+        getLong(cacheDao, ConfigurationKeys.KEY_MONGODB_DELETE_MAX_TIME_MILLIS, 0L);
+    hedgedReads = Boolean.parseBoolean(cacheDao.get(ConfigurationKeys.KEY_HEDGED_READS_ENABLED));
+    hedgeMinDelayMillis =
+        getLong(
+            cacheDao,
+            ConfigurationKeys.KEY_HEDGE_MIN_DELAY_MILLIS,
+            MongoDbRepositoryDao.DEFAULT_HEDGE_MIN_DELAY_MILLIS);
+
+    if ((chunkAverageBytes > 0) && (repositoryTtlInSecs > 0)) {
+      LOGGER.warn("Chunking is not supported with a repository TTL. Storing Cases whole.");
+      chunkAverageBytes = 0;
+    }
+  }
+
+  /**
+   * Configures the scrubber that each MongoDB repository gets.
+   *
+   * @param cacheDao the cache to read the settings from.
+   * @return the configured builder, or null if scrubbing is turned off.
+   */
+  private static RepositoryScrubber.Builder createScrubberBuilder(CacheDao cacheDao) {
+    if (!Boolean.parseBoolean(cacheDao.get(ConfigurationKeys.KEY_SCRUBBER_ENABLED))) {
+      return null;
+    }
+
+    return RepositoryScrubber.newBuilder()
+        .bytesPerSec(
+            getInt(
+                cacheDao,
+                ConfigurationKeys.KEY_SCRUBBER_BYTES_PER_SEC,
+                (int) RepositoryScrubber.DEFAULT_BYTES_PER_SEC))
+        .documentsPerSec(
+            getInt(
+                cacheDao,
+                ConfigurationKeys.KEY_SCRUBBER_DOCUMENTS_PER_SEC,
+                RepositoryScrubber.DEFAULT_DOCUMENTS_PER_SEC))
+        .parallelism(
+            getInt(
+                cacheDao,
+                ConfigurationKeys.KEY_SCRUBBER_PARALLELISM,
+                RepositoryScrubber.DEFAULT_PARALLELISM))
+        .intervalInSecs(
+            getInt(
+                cacheDao,
+                ConfigurationKeys.KEY_SCRUBBER_INTERVAL_SECS,
+                RepositoryScrubber.DEFAULT_INTERVAL_IN_SECS));
+  }
+
+  /**
+   * Registers the repository and metadata store that the endpoints use. They are put behind a
+   * write-ahead log if one is set up in the properties file, else the repository is put behind
+   * deltas if they are turned on.
+   *
+   * @param context the servlet context to register them in.
+   * @param prop the loaded properties.
+   * @param cacheDao the cache to read the settings from.
+   * @param metadataDao the metadata store.
+   * @param repositoryDao the repository.
+   */
+  private void registerDaos(
+      ServletContext context,
+      Properties prop,
+      CacheDao cacheDao,
+      MetadataStoreDao metadataDao,
+      RepositoryDao repositoryDao) {
+    // The write-ahead log is local to this instance, so it is set up in the properties file.
+    String walDirectory = prop.getProperty(ConfigurationKeys.PROPERTY_WAL_DIRECTORY);
+
+    if (StringUtils.isNotEmpty(walDirectory)) {
+      writeAheadLog =
+          WriteAheadLog.newBuilder()
+              .directory(Paths.get(walDirectory))
+              .idGenerator(idGenerator)
+              .preferredChecksumAlgorithm(preferredChecksumAlgorithm)
+              .repositoryDao(repositoryDao)
+              .metadataStoreDao(metadataDao)
+              .maxPendingBytes(
+                  getLong(
+                      prop,
+                      ConfigurationKeys.PROPERTY_WAL_MAX_PENDING_BYTES,
+                      WriteAheadLog.DEFAULT_MAX_PENDING_BYTES))
+              .build();
 
       try {
-        metadataDao.registerQuery(query.getKey(), splitValues[0], splitValues[1]);
-      } catch (IllegalArgumentException e) {
+        writeAheadLog.start();
+      } catch (IOException e) {
         throw new RuntimeException(e);
       }
+
+      context.setAttribute(MetadataStoreDao.class.getName(), writeAheadLog.getMetadataStoreDao());
+      context.setAttribute(RepositoryDao.class.getName(), writeAheadLog.getRepositoryDao());
+    } else if (isDeltaEnabled(cacheDao, repositoryDao)) {
+      deltaRepositoryDao =
+          DeltaRepositoryDao.newBuilder()
+              .repositoryDao(repositoryDao)
+              .preferredChecksumAlgorithm(preferredChecksumAlgorithm)
+              .maxChainLength(
+                  getInt(
+                      cacheDao,
+                      ConfigurationKeys.KEY_DELTA_MAX_CHAIN_LENGTH,
+                      DeltaRepositoryDao.DEFAULT_MAX_CHAIN_LENGTH))
+              .build();
+
+      context.setAttribute(MetadataStoreDao.class.getName(), metadataDao);
+      context.setAttribute(RepositoryDao.class.getName(), deltaRepositoryDao);
+    } else {
+      context.setAttribute(MetadataStoreDao.class.getName(), metadataDao);
+      context.setAttribute(RepositoryDao.class.getName(), repositoryDao);
+    }
+  }
+
+  /**
+   * Creates the admission controller of the store endpoints.
+   *
+   * @param cacheDao the cache to read the settings from.
+   * @return the admission controller, or null if admission control is turned off.
+   */
+  private static AdmissionController createAdmissionController(CacheDao cacheDao) {
+    if (!Boolean.parseBoolean(cacheDao.get(ConfigurationKeys.KEY_ADMISSION_ENABLED))) {
+      return null;
+    }
+
+    return AdmissionController.newBuilder()
+        .name(MetricNames.ENDPOINT_STORE)
+        .maxInFlightBytes(
+            getLong(
+                cacheDao,
+                ConfigurationKeys.KEY_ADMISSION_MAX_IN_FLIGHT_BYTES,
+                AdmissionController.DEFAULT_MAX_IN_FLIGHT_BYTES))
+        .maxLimit(
+            getInt(
+                cacheDao,
+                ConfigurationKeys.KEY_ADMISSION_MAX_LIMIT,
+                AdmissionController.DEFAULT_MAX_LIMIT))
+        .build();
+  }
+
+  /**
+   * Starts deleting the Cases that no metadata store entry points to.
+   *
+   * @param context the servlet context that holds the repository and metadata store.
+   * @param cacheDao the cache to read the settings from.
+   * @return the started reconciler, or null if reconciling is turned off.
+   */
+  private OrphanReconciler startOrphanReconciler(ServletContext context, CacheDao cacheDao) {
+    if (!Boolean.parseBoolean(cacheDao.get(ConfigurationKeys.KEY_RECONCILER_ENABLED))) {
+      return null;
     }
 
+    OrphanReconciler reconciler =
+        OrphanReconciler.newBuilder()
+            .repositoryDao(() -> getRepositoryDao(context))
+            .metadataStoreDao(() -> getMetadataStoreDao(context))
+            .deletingRepositoryDao(
+                () -> (RepositoryDao) context.getAttribute(RepositoryDao.class.getName()))
+            .writeAheadLog(() -> writeAheadLog)
+            .intervalInSecs(
+                getInt(
+                    cacheDao,
+                    ConfigurationKeys.KEY_RECONCILER_INTERVAL_SECS,
+                    OrphanReconciler.DEFAULT_INTERVAL_IN_SECS))
+            .graceInSecs(
+                getInt(
+                    cacheDao,
+                    ConfigurationKeys.KEY_RECONCILER_GRACE_SECS,
+                    OrphanReconciler.DEFAULT_GRACE_IN_SECS))
+            .build();
+    reconciler.start();
+    return reconciler;
+  }
+
+  /**
+   * Starts the read-ahead sessions. Cases are read through the same view as the get endpoint; Cas
+   * IDs are listed from the metadata store itself, since a write-ahead log cannot list them.
+   *
+   * @param context the servlet context that holds the repository and metadata store.
+   * @param cacheDao the cache to read the settings from.
+   * @return the started sessions, or null if read-ahead is turned off.
+   */
+  private ReadAheadSessions startReadAheadSessions(ServletContext context, CacheDao cacheDao) {
+    if (!Boolean.parseBoolean(cacheDao.get(ConfigurationKeys.KEY_READ_AHEAD_ENABLED))) {
+      return null;
+    }
+
+    ReadAheadSessions sessions =
+        ReadAheadSessions.newBuilder()
+            .repositoryDao(
+                () -> (RepositoryDao) context.getAttribute(RepositoryDao.class.getName()))
+            .metadataStoreDao(() -> getMetadataStoreDao(context))
+            .readAhead(
+                getInt(
+                    cacheDao,
+                    ConfigurationKeys.KEY_READ_AHEAD_COUNT,
+                    ReadAheadSessions.DEFAULT_READ_AHEAD))
+            .maxSessionBytes(
+                getLong(
+                    cacheDao,
+                    ConfigurationKeys.KEY_READ_AHEAD_MAX_SESSION_BYTES,
+                    ReadAheadSessions.DEFAULT_MAX_SESSION_BYTES))
+            .maxSessions(
+                getInt(
+                    cacheDao,
+                    ConfigurationKeys.KEY_READ_AHEAD_MAX_SESSIONS,
+                    ReadAheadSessions.DEFAULT_MAX_SESSIONS))
+            .idleTimeoutInSecs(
+                getInt(
+                    cacheDao,
+                    ConfigurationKeys.KEY_READ_AHEAD_IDLE_SECS,
+                    ReadAheadSessions.DEFAULT_IDLE_TIMEOUT_IN_SECS))
+            .parallelism(
+                getInt(
+                    cacheDao,
+                    ConfigurationKeys.KEY_READ_AHEAD_PARALLELISM,
+                    ReadAheadSessions.DEFAULT_PARALLELISM))
+            .build();
+    sessions.start();
+    return sessions;
+  }
+
+  /**
+   * Starts the gRPC front-end. It answers with the same repository and metadata store as the REST
+   * endpoints, read from the servlet context on every call so that it follows reconfigurations.
+   *
+   * @param context the servlet context that holds the repository and metadata store.
+   * @param cacheDao the cache to read the settings from.
+   * @param port the port to listen on.
+   * @return the started server.
+   */
+  private static Server createGrpcServer(ServletContext context, CacheDao cacheDao, int port) {
+    CasRepositoryGrpcService service =
+        new CasRepositoryGrpcService(
+            () -> (RepositoryDao) context.getAttribute(RepositoryDao.class.getName()),
+            () -> (MetadataStoreDao) context.getAttribute(MetadataStoreDao.class.getName()),
+            () -> (AdmissionController) context.getAttribute(AdmissionController.class.getName()));
+
     try {
+      Server server =
+          NettyServerBuilder.forPort(port)
+              .addService(service)
+              .maxInboundMessageSize(
+                  getInt(
+                      cacheDao,
+                      ConfigurationKeys.KEY_GRPC_MAX_MESSAGE_BYTES,
+                      CasRepositoryGrpcService.DEFAULT_MAX_MESSAGE_BYTES))
+              .build()
+              .start();
+      LOGGER.info("The gRPC server is listening on port {}.", port);
+      return server;
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Creates a cache in the memory of the service. There is no Redis to read the repository and
+   * metadata store settings from, so they are seeded from the properties file. They default to
+   * in-memory stores, which makes the service run without any external database.
+   *
+   * @param prop the loaded properties.
+   * @return the seeded cache.
+   */
+  private static CacheDao createInMemoryCacheDao(Properties prop) {
+    InMemoryCacheDao cacheDao =
+        new InMemoryCacheDao(
+            getLong(
+                prop,
+                ConfigurationKeys.PROPERTY_MEMORY_CACHE_MAX_BYTES,
+                InMemoryCacheDao.DEFAULT_MAX_BYTES));
+    String memoryUrl = InMemoryRepositoryDao.URL_SCHEME + ":";
+
+    cacheDao.set(
+        Cache.KEY_REPOSITORY_URL,
+        prop.getProperty(ConfigurationKeys.PROPERTY_REPOSITORY_URL, memoryUrl),
+        0);
+    cacheDao.set(
+        Cache.KEY_MONGODB_REPOSITORY_DATABASE,
+        prop.getProperty(
+            ConfigurationKeys.PROPERTY_REPOSITORY_DATABASE,
+            ConfigurationKeys.DEFAULT_REPOSITORY_DATABASE),
+        0);
+    cacheDao.set(
+        Cache.KEY_MONGODB_REPOSITORY_COLLECTION,
+        prop.getProperty(
+            ConfigurationKeys.PROPERTY_REPOSITORY_COLLECTION,
+            ConfigurationKeys.DEFAULT_REPOSITORY_COLLECTION),
+        0);
+    cacheDao.set(
+        Cache.KEY_METDATA_STORE_URL,
+        prop.getProperty(ConfigurationKeys.PROPERTY_METADATA_STORE_URL, memoryUrl),
+        0);
+
+    // The queries are written as key=database,collection pairs separated by semicolons.
+    Map<String, String> queries = new HashMap<String, String>();
+    String queryList = prop.getProperty(ConfigurationKeys.PROPERTY_METADATA_QUERIES, "");
+
+    for (String query : StringUtils.split(queryList, ';')) {
+      String[] keyValue = query.split("=", 2);
+
+      if (keyValue.length == 2) {
+        queries.put(keyValue[0].trim(), keyValue[1].trim());
+      }
+    }
+
+    cacheDao.setMap(Cache.KEY_METDATA_STORE_QUERIES, queries);
+    return cacheDao;
+  }
+
+  private static MongoClientFactory createMongoClientFactory(Properties prop) {
+    return MongoClientFactory.newBuilder()
+        .maxPoolSize(
+            getInt(
+                prop,
+                ConfigurationKeys.PROPERTY_MONGODB_POOL_MAX_SIZE,
+                MongoClientFactory.DEFAULT_MAX_POOL_SIZE))
+        .minPoolSize(
+            getInt(
+                prop,
+                ConfigurationKeys.PROPERTY_MONGODB_POOL_MIN_SIZE,
+                MongoClientFactory.DEFAULT_MIN_POOL_SIZE))
+        .maxWaitMillis(
+            getLong(
+                prop,
+                ConfigurationKeys.PROPERTY_MONGODB_POOL_MAX_WAIT_MILLIS,
+                MongoClientFactory.DEFAULT_MAX_WAIT_MILLIS))
+        .maxIdleMillis(
+            getLong(
+                prop,
+                ConfigurationKeys.PROPERTY_MONGODB_POOL_MAX_IDLE_MILLIS,
+                MongoClientFactory.DEFAULT_MAX_IDLE_MILLIS))
+        .connectTimeoutMillis(
+            getInt(
+                prop,
+                ConfigurationKeys.PROPERTY_MONGODB_CONNECT_TIMEOUT_MILLIS,
+                MongoClientFactory.DEFAULT_CONNECT_TIMEOUT_MILLIS))
+        .socketTimeoutMillis(
+            getInt(
+                prop,
+                ConfigurationKeys.PROPERTY_MONGODB_SOCKET_TIMEOUT_MILLIS,
+                MongoClientFactory.DEFAULT_SOCKET_TIMEOUT_MILLIS))
+        .build();
+  }
+
+  private static RedisClientFactory createRedisClientFactory(Properties prop) {
+    int maxTotal =
+        getInt(
+            prop,
+            ConfigurationKeys.PROPERTY_REDIS_POOL_MAX_TOTAL,
+            RedisClientFactory.DEFAULT_MAX_TOTAL);
+
+    return RedisClientFactory.newBuilder()
+        .maxTotal(maxTotal)
+        .maxIdle(getInt(prop, ConfigurationKeys.PROPERTY_REDIS_POOL_MAX_IDLE, maxTotal))
+        .maxWaitMillis(
+            getLong(
+                prop,
+                ConfigurationKeys.PROPERTY_REDIS_POOL_MAX_WAIT_MILLIS,
+                RedisClientFactory.DEFAULT_MAX_WAIT_MILLIS))
+        .connectTimeoutMillis(
+            getInt(
+                prop,
+                ConfigurationKeys.PROPERTY_REDIS_CONNECT_TIMEOUT_MILLIS,
+                RedisClientFactory.DEFAULT_CONNECT_TIMEOUT_MILLIS))
+        .socketTimeoutMillis(
+            getInt(
+                prop,
+                ConfigurationKeys.PROPERTY_REDIS_SOCKET_TIMEOUT_MILLIS,
+                RedisClientFactory.DEFAULT_SOCKET_TIMEOUT_MILLIS))
+        .build();
+  }
+
+  private MetadataStoreDao createMetadataStoreDao(ServiceConfiguration configuration) {
+    String url = configuration.getMetadataStoreUrl();
+
+    if (StringUtils.startsWith(url, InMemoryMetadataStoreDao.URL_SCHEME + ":")) {
+      InMemoryMetadataStoreDao metadataDao = new InMemoryMetadataStoreDao();
+      LOGGER.trace("Loading the metadata store queries.");
+
+      metadataDao.replaceQueries(configuration.getMetadataQueries());
+      return metadataDao;
+    }
+
+    if (StringUtils.startsWith(url, EmbeddedMetadataStoreDao.URL_SCHEME + ":")) {
+      EmbeddedMetadataStoreDao metadataDao =
+          new EmbeddedMetadataStoreDao(Paths.get(URI.create(url)));
+      LOGGER.trace("Loading the metadata store queries.");
+
+      metadataDao.replaceQueries(configuration.getMetadataQueries());
+      return metadataDao;
+    }
+
+    MongoDbMetadataStoreDao metadataDao = new MongoDbMetadataStoreDao(url, mongoClientFactory);
+    LOGGER.trace("Loading the metadata store queries.");
+
+    metadataDao.replaceQueries(
+        configuration.getMetadataQueries(), configuration.getMetadataQuerySettings());
+    return metadataDao;
+  }
+
+  private RepositoryDao createRepositoryDao(ServiceConfiguration configuration) {
+    RepositoryDao repositoryDao;
+
+    if (StringUtils.startsWith(
+        configuration.getRepositoryUrl(), InMemoryRepositoryDao.URL_SCHEME + ":")) {
       repositoryDao =
-          MongoDbRepositoryDao.newBuilder()
-              .url(cacheDao.get(Cache.KEY_REPOSITORY_URL))
+          InMemoryRepositoryDao.newBuilder()
               .idGenerator(idGenerator)
-              .database(cacheDao.get(Cache.KEY_MONGODB_REPOSITORY_DATABASE))
-              .collection(cacheDao.get(Cache.KEY_MONGODB_REPOSITORY_COLLECTION))
+              .preferredChecksumAlgorithm(preferredChecksumAlgorithm)
+              .maxBytes(memoryRepositoryMaxBytes)
               .build();
-    } catch (IllegalArgumentException e) {
-      throw new RuntimeException(e);
+    } else if (isFileRepositoryUrl(configuration.getRepositoryUrl())
+        && configuration.getRepositoryShards().isEmpty()) {
+      repositoryDao =
+          FileSegmentRepositoryDao.newBuilder()
+              .directory(getFileRepositoryDirectory(configuration))
+              .idGenerator(idGenerator)
+              .preferredChecksumAlgorithm(preferredChecksumAlgorithm)
+              .verifyOnRead(verifyOnRead)
+              .build();
+    } else if (configuration.getRepositoryShards().isEmpty()) {
+      repositoryDao =
+          createMongoDbRepositoryDao(
+              configuration, configuration.getRepositoryUrl(), chunkAverageBytes);
+    } else {
+      ShardedRepositoryDao.Builder builder =
+          ShardedRepositoryDao.newBuilder().idGenerator(idGenerator);
+
+      // Rebalancing moves entries between shards without their chunks.
+      if (chunkAverageBytes > 0) {
+        LOGGER.warn("Chunking is not supported in sharded repositories. Storing Cases whole.");
+      }
+
+      for (Map.Entry<String, String> shard : configuration.getRepositoryShards().entrySet()) {
+        builder.shard(
+            shard.getKey(), createMongoDbRepositoryDao(configuration, shard.getValue(), 0));
+      }
+
+      repositoryDao = builder.build();
     }
 
-    ServletContext context = sce.getServletContext();
+    repositoryDao.initialize();
+    return repositoryDao;
+  }
 
-    context.setAttribute(MetadataStoreDao.class.getName(), (MetadataStoreDao) metadataDao);
-    context.setAttribute(RepositoryDao.class.getName(), repositoryDao);
-    context.setAttribute(CacheDao.class.getName(), cacheDao);
-    LOGGER.info("The ServletContextListener has finished loading.");
+  /**
+   * Checks if Cases may be stored as deltas against earlier Cases. A delta must be able to read its
+   * base for as long as the delta is stored, so the repository must list the deltas of a base and
+   * must not evict or expire a base on its own.
+   *
+   * @param cacheDao the cache holding the settings.
+   * @param repositoryDao the repository to store the deltas in.
+   * @return true if deltas are turned on and the repository can hold them, else false.
+   */
+  private boolean isDeltaEnabled(CacheDao cacheDao, RepositoryDao repositoryDao) {
+    if (!Boolean.parseBoolean(cacheDao.get(ConfigurationKeys.KEY_DELTA_ENABLED))) {
+      return false;
+    }
+
+    if (writeAheadLog != null) {
+      LOGGER.warn("Deltas are not supported with a write-ahead log. Storing full copies.");
+      return false;
+    }
+
+    if (!(repositoryDao instanceof MongoDbRepositoryDao)
+        && !(repositoryDao instanceof ShardedRepositoryDao)) {
+      LOGGER.warn("Deltas are only supported in MongoDB repositories. Storing full copies.");
+      return false;
+    }
+
+    if (repositoryTtlInSecs > 0) {
+      LOGGER.warn("Deltas are not supported with a repository TTL. Storing full copies.");
+      return false;
+    }
+
+    return true;
+  }
+
+  private static boolean isFileRepositoryUrl(String url) {
+    return StringUtils.startsWith(url, FileSegmentRepositoryDao.URL_SCHEME + ":");
+  }
+
+  /**
+   * Resolves the directory of a local-disk repository. The database and collection are
+   * subdirectories of the directory in the URL (e.g., file:///var/lib/crs).
+   *
+   * @param configuration the settings of the repository.
+   * @return the directory holding the segment files.
+   */
+  private static Path getFileRepositoryDirectory(ServiceConfiguration configuration) {
+    return Paths.get(URI.create(configuration.getRepositoryUrl()))
+        .resolve(configuration.getRepositoryDatabase())
+        .resolve(configuration.getRepositoryCollection());
+  }
+
+  private MongoDbRepositoryDao createMongoDbRepositoryDao(
+      ServiceConfiguration configuration, String url, int chunkAverageBytes) {
+    return MongoDbRepositoryDao.newBuilder()
+        .url(url)
+        .clientFactory(mongoClientFactory)
+        .idGenerator(idGenerator)
+        .database(configuration.getRepositoryDatabase())
+        .collection(configuration.getRepositoryCollection())
+        .casIdFilter(casIdFilter, casIdFilterRefreshInSecs)
+        .preferredChecksumAlgorithm(preferredChecksumAlgorithm)
+        .verifyOnRead(verifyOnRead)
+        .timeToLiveInSecs(repositoryTtlInSecs)
+        .collectionSettings(configuration.getRepositorySettings())
+        .chunkAverageBytes(chunkAverageBytes)
+        .chunkFetchParallelism(chunkFetchParallelism)
+        .readMaxTimeMillis(readMaxTimeMillis)
+        .deleteMaxTimeMillis(deleteMaxTimeMillis)
+        .hedgedReads(hedgedReads, hedgeMinDelayMillis)
+        .build();
+  }
+
+  /**
+   * Starts scrubbing a repository if scrubbing is turned on.
+   *
+   * @param repositoryDao the repository to scrub.
+   * @return the started scrubber, or null if scrubbing is turned off.
+   */
+  private RepositoryScrubber startScrubber(RepositoryDao repositoryDao) {
+    if ((scrubberBuilder == null) || !(repositoryDao instanceof MongoDbRepositoryDao)) {
+      return null;
+    }
+
+    RepositoryScrubber scrubber =
+        scrubberBuilder.repositoryDao((MongoDbRepositoryDao) repositoryDao).build();
+    scrubber.start();
+    return scrubber;
+  }
+
+  private static void stopScrubber(RepositoryScrubber scrubber) {
+    if (scrubber != null) {
+      scrubber.stop();
+    }
+  }
+
+  /**
+   * Applies changed settings. Changed queries and repository collections are switched in place.
+   * Changed server URLs get new DAOs, and the old DAOs are cleaned up once the requests using them
+   * have had time to finish.
+   *
+   * @param context the context holding the singletons.
+   * @param previous the settings currently in use.
+   * @param next the changed settings.
+   */
+  private void applyConfiguration(
+      ServletContext context, ServiceConfiguration previous, ServiceConfiguration next) {
+    RepositoryDao repositoryDao = getRepositoryDao(context);
+
+    // Fail the whole change so that it is applied again on a later poll.
+    if ((repositoryDao instanceof ShardedRepositoryDao)
+        && ((ShardedRepositoryDao) repositoryDao).isRebalancing()
+        && !next.hasSameRepositoryUrl(previous)) {
+      throw new IllegalStateException(ErrorMessages.REBALANCE_IN_PROGRESS);
+    }
+
+    MetadataStoreDao metadataDao = getMetadataStoreDao(context);
+
+    if (!next.hasSameMetadataStoreUrl(previous)) {
+      MetadataStoreDao newMetadataDao = createMetadataStoreDao(next);
+      setMetadataStoreDao(context, newMetadataDao);
+      configurationWatcher.retire(metadataDao::cleanup);
+    } else if (metadataDao instanceof MongoDbMetadataStoreDao) {
+      ((MongoDbMetadataStoreDao) metadataDao)
+          .replaceQueries(next.getMetadataQueries(), next.getMetadataQuerySettings());
+    } else if (metadataDao instanceof EmbeddedMetadataStoreDao) {
+      ((EmbeddedMetadataStoreDao) metadataDao).replaceQueries(next.getMetadataQueries());
+    } else if (metadataDao instanceof InMemoryMetadataStoreDao) {
+      ((InMemoryMetadataStoreDao) metadataDao).replaceQueries(next.getMetadataQueries());
+    }
+
+    if ((repositoryDao instanceof ShardedRepositoryDao)
+        && next.onlyAddsRepositoryShards(previous)) {
+      // The Cases that the new shards take over are moved to them in the background.
+      Map<String, MongoDbRepositoryDao> newShards =
+          new LinkedHashMap<String, MongoDbRepositoryDao>();
+
+      for (Map.Entry<String, String> shard : next.getRepositoryShards().entrySet()) {
+        if (!previous.getRepositoryShards().containsKey(shard.getKey())) {
+          newShards.put(shard.getKey(), createMongoDbRepositoryDao(next, shard.getValue(), 0));
+        }
+      }
+
+      ShardedRepositoryDao shardedDao = (ShardedRepositoryDao) repositoryDao;
+      shardedDao.addShards(newShards);
+      shardedDao.retarget(
+          next.getRepositoryDatabase(),
+          next.getRepositoryCollection(),
+          next.getRepositorySettings());
+    } else if (!next.hasSameRepositoryUrl(previous)
+        || ((repositoryDao instanceof FileSegmentRepositoryDao)
+            && !((FileSegmentRepositoryDao) repositoryDao)
+                .getDirectory()
+                .equals(getFileRepositoryDirectory(next)))) {
+      // A local-disk repository cannot be retargeted, so a new directory gets a new DAO.
+      RepositoryDao newRepositoryDao = createRepositoryDao(next);
+      RepositoryScrubber oldScrubber = repositoryScrubber;
+      repositoryScrubber = startScrubber(newRepositoryDao);
+      setRepositoryDao(context, newRepositoryDao);
+      configurationWatcher.retire(
+          () -> {
+            stopScrubber(oldScrubber);
+            repositoryDao.cleanup();
+          });
+    } else if (repositoryDao instanceof MongoDbRepositoryDao) {
+      ((MongoDbRepositoryDao) repositoryDao)
+          .retarget(
+              next.getRepositoryDatabase(),
+              next.getRepositoryCollection(),
+              next.getRepositorySettings());
+    } else if (repositoryDao instanceof ShardedRepositoryDao) {
+      ((ShardedRepositoryDao) repositoryDao)
+          .retarget(
+              next.getRepositoryDatabase(),
+              next.getRepositoryCollection(),
+              next.getRepositorySettings());
+    }
+  }
+
+  /**
+   * Returns the repository in use. With a write-ahead log or deltas, this is the repository behind
+   * them.
+   *
+   * @param context the context holding the singletons.
+   * @return the repository.
+   */
+  private RepositoryDao getRepositoryDao(ServletContext context) {
+    if (writeAheadLog != null) {
+      return writeAheadLog.getTargetRepositoryDao();
+    }
+
+    if (deltaRepositoryDao != null) {
+      return deltaRepositoryDao.getTargetRepositoryDao();
+    }
+
+    return (RepositoryDao) context.getAttribute(RepositoryDao.class.getName());
+  }
+
+  private void setRepositoryDao(ServletContext context, RepositoryDao repositoryDao) {
+    if (writeAheadLog != null) {
+      writeAheadLog.setTargetRepositoryDao(repositoryDao);
+    } else if (deltaRepositoryDao != null) {
+      deltaRepositoryDao.setTargetRepositoryDao(repositoryDao);
+    } else {
+      context.setAttribute(RepositoryDao.class.getName(), repositoryDao);
+    }
+  }
+
+  /**
+   * Returns the metadata store in use. With a write-ahead log, this is the metadata store behind
+   * it.
+   *
+   * @param context the context holding the singletons.
+   * @return the metadata store.
+   */
+  private MetadataStoreDao getMetadataStoreDao(ServletContext context) {
+    if (writeAheadLog != null) {
+      return writeAheadLog.getTargetMetadataStoreDao();
+    }
+
+    return (MetadataStoreDao) context.getAttribute(MetadataStoreDao.class.getName());
+  }
+
+  private void setMetadataStoreDao(ServletContext context, MetadataStoreDao metadataDao) {
+    if (writeAheadLog != null) {
+      writeAheadLog.setTargetMetadataStoreDao(metadataDao);
+    } else {
+      context.setAttribute(MetadataStoreDao.class.getName(), metadataDao);
+    }
+  }
+
+  /**
+   * Reads an optional long setting from the properties file.
+   *
+   * @param prop the loaded properties.
+   * @param key the key of the setting.
+   * @param defaultValue the value to use if the setting is missing or invalid.
+   * @return the value of the setting.
+   */
+  private static long getLong(Properties prop, String key, long defaultValue) {
+    String value = prop.getProperty(key);
+
+    if (StringUtils.isEmpty(value)) {
+      return defaultValue;
+    }
+
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      LOGGER.warn("Invalid value for the property {}: {}. Using the default.", key, value);
+
+      return defaultValue;
+    }
+  }
+
+  /**
+   * Reads an optional integer setting from the properties file.
+   *
+   * @param prop the loaded properties.
+   * @param key the key of the setting.
+   * @param defaultValue the value to use if the setting is missing or invalid.
+   * @return the value of the setting.
+   */
+  private static int getInt(Properties prop, String key, int defaultValue) {
+    String value = prop.getProperty(key);
+
+    if (StringUtils.isEmpty(value)) {
+      return defaultValue;
+    }
+
+    try {
+      return Integer.parseInt(value.trim());
+    } catch (NumberFormatException e) {
+      LOGGER.warn("Invalid value for the property {}: {}. Using the default.", key, value);
+
+      return defaultValue;
+    }
+  }
+
+  /**
+   * Reads an optional long setting from the cache.
+   *
+   * @param cacheDao the cache holding the setting.
+   * @param key the key of the setting.
+   * @param defaultValue the value to use if the setting is missing or invalid.
+   * @return the value of the setting.
+   */
+  private static long getLong(CacheDao cacheDao, String key, long defaultValue) {
+    String value = cacheDao.get(key);
+
+    if (StringUtils.isEmpty(value)) {
+      return defaultValue;
+    }
+
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      LOGGER.warn("Invalid value for the setting {}: {}. Using the default.", key, value);
+
+      return defaultValue;
+    }
+  }
+
+  /**
+   * Reads an optional integer setting from the cache.
+   *
+   * @param cacheDao the cache holding the setting.
+   * @param key the key of the setting.
+   * @param defaultValue the value to use if the setting is missing or invalid.
+   * @return the value of the setting.
+   */
+  private static int getInt(CacheDao cacheDao, String key, int defaultValue) {
+    String value = cacheDao.get(key);
+
+    if (StringUtils.isEmpty(value)) {
+      return defaultValue;
+    }
+
+    try {
+      return Integer.parseInt(value.trim());
+    } catch (NumberFormatException e) {
+      LOGGER.warn("Invalid value for the setting {}: {}. Using the default.", key, value);
+
+      return defaultValue;
+    }
   }
 
   @Override
   public void contextDestroyed(ServletContextEvent sce) {
     ServletContext context = sce.getServletContext();
 
-    MetadataStoreDao metaDao =
-        (MetadataStoreDao) context.getAttribute(MetadataStoreDao.class.getName());
-    RepositoryDao repoDao = (RepositoryDao) context.getAttribute(RepositoryDao.class.getName());
     CacheDao cacheDao = (CacheDao) context.getAttribute(CacheDao.class.getName());
+    ServiceConfigurationWatcher watcher =
+        (ServiceConfigurationWatcher)
+            context.getAttribute(ServiceConfigurationWatcher.class.getName());
+
+    watcher.stop();
+
+    // Stopped first so that no new calls reach the stores while they are cleaned up.
+    if (grpcServer != null) {
+      grpcServer.shutdown();
+
+      try {
+        if (!grpcServer.awaitTermination(10, TimeUnit.SECONDS)) {
+          grpcServer.shutdownNow();
+        }
+      } catch (InterruptedException e) {
+        grpcServer.shutdownNow();
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    stopScrubber(repositoryScrubber);
+
+    if (readAheadSessions != null) {
+      readAheadSessions.stop();
+    }
+
+    if (orphanReconciler != null) {
+      orphanReconciler.stop();
+    }
+
+    // Stopped first so that it can flush what it holds to the stores.
+    if (writeAheadLog != null) {
+      writeAheadLog.stop();
+    }
+
+    MetadataStoreDao metaDao = getMetadataStoreDao(context);
+    RepositoryDao repoDao = getRepositoryDao(context);
 
     metaDao.cleanup();
     repoDao.cleanup();
     cacheDao.cleanup();
+    mongoClientFactory.close();
+
+    // Stopped last so that the errors of the shutdown are written.
+    ErrorLog.stop();
 
     LOGGER.trace("The ServletContextListener has finished cleaning up.");
   }
@@ -0,0 +1,18 @@
+package com.revistek.web;
+
+import jakarta.ws.rs.NameBinding;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks the endpoints whose responses are compressed when the client accepts it. See {@link
+ * ContentEncodingFilter}.
+ *
+ * @author Chuong Ngo
+ */
+@NameBinding
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+public @interface ContentEncoded {}
@@ -0,0 +1,170 @@
+package com.revistek.web;
+
+import com.google.protobuf.MessageLite;
+import com.revistek.util.ServiceMetrics;
+import com.revistek.util.constants.MetricNames;
+import io.micrometer.core.instrument.Counter;
+import jakarta.servlet.ServletContext;
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.container.ContainerRequestFilter;
+import jakarta.ws.rs.container.ContainerResponseContext;
+import jakarta.ws.rs.container.ContainerResponseFilter;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.Response;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Negotiates the compression of the endpoints marked {@link ContentEncoded}.
+ *
+ * <p>Responses are compressed with the encoding that the client's {@code Accept-Encoding} prefers
+ * (zstd, then gzip, when the client has no preference) unless they are smaller than a minimum
+ * size, below which compression costs more time than it saves. The filter only chooses the
+ * encoding; the {@link ZstdEncoder} and Jersey's {@code GZipEncoder} encode the entity as it is
+ * written. They also decode the request bodies, so a client can compress the Cases it stores, up
+ * to the size that {@link DecodedSizeLimit} allows. Requests in any other encoding are rejected
+ * with a 415 instead of failing to parse.
+ *
+ * @author Chuong Ngo
+ */
+@ContentEncoded
+public class ContentEncodingFilter implements ContainerRequestFilter, ContainerResponseFilter {
+  public static final String GZIP = "gzip";
+  public static final String IDENTITY = "identity";
+  public static final int DEFAULT_MIN_BYTES = 1024;
+
+  /** The servlet context attribute that holds the minimum response size to compress. */
+  public static final String MIN_BYTES_ATTRIBUTE =
+      ContentEncodingFilter.class.getName() + ".minBytes";
+
+  /** The supported encodings, in order of preference. */
+  private static final List<String> ENCODINGS = Arrays.asList(ZstdEncoder.ENCODING, GZIP);
+
+  private static final Map<String, Counter> ENCODED_RESPONSES = new HashMap<String, Counter>();
+
+  static {
+    for (String encoding : ENCODINGS) {
+      ENCODED_RESPONSES.put(
+          encoding,
+          ServiceMetrics.counter(
+              MetricNames.ENCODED_RESPONSES, MetricNames.TAG_ENCODING, encoding));
+    }
+  }
+
+  @Context private ServletContext context;
+
+  @Override
+  public void filter(ContainerRequestContext requestContext) {
+    String encoding = requestContext.getHeaderString(HttpHeaders.CONTENT_ENCODING);
+
+    if (!StringUtils.isBlank(encoding) && !isDecodable(encoding)) {
+      requestContext.abortWith(Response.status(Response.Status.UNSUPPORTED_MEDIA_TYPE).build());
+    }
+  }
+
+  @Override
+  public void filter(
+      ContainerRequestContext requestContext, ContainerResponseContext responseContext) {
+    if (!responseContext.hasEntity()
+        || responseContext.getHeaders().containsKey(HttpHeaders.CONTENT_ENCODING)) {
+      return;
+    }
+
+    responseContext.getHeaders().add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+
+    if (getSize(responseContext.getEntity()) < getMinBytes()) {
+      return;
+    }
+
+    String encoding = negotiate(requestContext.getHeaderString(HttpHeaders.ACCEPT_ENCODING));
+
+    if (encoding != null) {
+      responseContext.getHeaders().putSingle(HttpHeaders.CONTENT_ENCODING, encoding);
+      ENCODED_RESPONSES.get(encoding).increment();
+    }
+  }
+
+  /**
+   * Chooses the encoding of a response.
+   *
+   * @param acceptEncoding the {@code Accept-Encoding} header of the request.
+   * @return the supported encoding with the highest quality value, or null to leave the response
+   *     uncompressed.
+   */
+  static String negotiate(String acceptEncoding) {
+    if (StringUtils.isBlank(acceptEncoding)) {
+      return null;
+    }
+
+    Map<String, Double> qualities = new HashMap<String, Double>();
+
+    for (String element : acceptEncoding.split(",")) {
+      String[] parts = element.split(";");
+      String coding = normalize(parts[0]);
+      double quality = 1.0;
+
+      for (int i = 1; i < parts.length; i++) {
+        String parameter = parts[i].trim();
+
+        if (StringUtils.startsWithIgnoreCase(parameter, "q=")) {
+          try {
+            quality = Double.parseDouble(parameter.substring(2).trim());
+          } catch (NumberFormatException e) {
+            quality = 0.0;
+          }
+        }
+      }
+
+      if (!coding.isEmpty()) {
+        qualities.merge(coding, quality, Math::max);
+      }
+    }
+
+    String chosen = null;
+    double chosenQuality = 0.0;
+
+    for (String encoding : ENCODINGS) {
+      double quality = qualities.getOrDefault(encoding, qualities.getOrDefault("*", 0.0));
+
+      if (quality > chosenQuality) {
+        chosen = encoding;
+        chosenQuality = quality;
+      }
+    }
+
+    return chosen;
+  }
+
+  private static boolean isDecodable(String contentEncoding) {
+    String coding = normalize(contentEncoding);
+    return coding.equals(IDENTITY) || ENCODINGS.contains(coding);
+  }
+
+  private static String normalize(String coding) {
+    String normalized = coding.trim().toLowerCase(Locale.ROOT);
+    return normalized.equals("x-gzip") ? GZIP : normalized;
+  }
+
+  private static long getSize(Object entity) {
+    if (entity instanceof MessageLite) {
+      return ((MessageLite) entity).getSerializedSize();
+    } else if (entity instanceof String) {
+      return ((String) entity).length();
+    } else if (entity instanceof byte[]) {
+      return ((byte[]) entity).length;
+    }
+
+    // The size of other entities is unknown until they are written, so assume they are large.
+    return Long.MAX_VALUE;
+  }
+
+  private int getMinBytes() {
+    Object minBytes = (context == null) ? null : context.getAttribute(MIN_BYTES_ATTRIBUTE);
+    return (minBytes instanceof Integer) ? (Integer) minBytes : DEFAULT_MIN_BYTES;
+  }
+}
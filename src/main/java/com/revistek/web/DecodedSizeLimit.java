@@ -0,0 +1,118 @@
+package com.revistek.web;
+
+import com.revistek.web.grpc.CasRepositoryGrpcService;
+import jakarta.annotation.Priority;
+import jakarta.servlet.ServletContext;
+import jakarta.ws.rs.Priorities;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.ext.ReaderInterceptor;
+import jakarta.ws.rs.ext.ReaderInterceptorContext;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Limits the size of the request bodies that the {@link ZstdEncoder} and Jersey's {@code
+ * GZipEncoder} decode. A few kilobytes of compressed zeros decode to gigabytes, so without a limit
+ * a single request could exhaust the memory of the service. The decoded body may be as large as
+ * the largest message the gRPC front-end accepts; a larger one is rejected with a 413.
+ *
+ * <p>It runs after the decoders, so it counts the decoded bytes, and it leaves uncompressed bodies
+ * to the container.
+ *
+ * @author Chuong Ngo
+ */
+@Priority(Priorities.ENTITY_CODER + 1)
+public class DecodedSizeLimit implements ReaderInterceptor {
+  public static final long DEFAULT_MAX_BYTES = CasRepositoryGrpcService.DEFAULT_MAX_MESSAGE_BYTES;
+
+  /** The servlet context attribute that holds the maximum size of a decoded request body. */
+  public static final String MAX_BYTES_ATTRIBUTE = DecodedSizeLimit.class.getName() + ".maxBytes";
+
+  @Context private ServletContext context;
+
+  @Override
+  public Object aroundReadFrom(ReaderInterceptorContext interceptorContext) throws IOException {
+    String encoding = interceptorContext.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING);
+
+    if (!StringUtils.isBlank(encoding)
+        && !encoding.trim().equalsIgnoreCase(ContentEncodingFilter.IDENTITY)) {
+      interceptorContext.setInputStream(limit(interceptorContext.getInputStream(), getMaxBytes()));
+    }
+
+    return interceptorContext.proceed();
+  }
+
+  /**
+   * Wraps a decoded stream so that reading more than a maximum number of bytes from it fails.
+   *
+   * @param decodedStream the decoded stream.
+   * @param maxBytes the maximum number of bytes to read.
+   * @return the limited stream. Reading past the limit throws a {@link WebApplicationException}
+   *     with a 413.
+   */
+  static InputStream limit(InputStream decodedStream, long maxBytes) {
+    return new LimitedInputStream(decodedStream, maxBytes);
+  }
+
+  private long getMaxBytes() {
+    Object maxBytes = (context == null) ? null : context.getAttribute(MAX_BYTES_ATTRIBUTE);
+    return (maxBytes instanceof Number) ? ((Number) maxBytes).longValue() : DEFAULT_MAX_BYTES;
+  }
+
+  private static class LimitedInputStream extends FilterInputStream {
+    private long remaining;
+
+    LimitedInputStream(InputStream in, long maxBytes) {
+      super(in);
+      remaining = maxBytes;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = in.read();
+
+      if (b >= 0) {
+        count(1);
+      }
+
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      // Read one byte past the limit, so that a body of exactly the maximum size is accepted.
+      int read = in.read(b, off, (int) Math.min(len, remaining + 1));
+
+      if (read > 0) {
+        count(read);
+      }
+
+      return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = in.skip(Math.min(n, remaining + 1));
+      count(skipped);
+      return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+
+    private void count(long bytes) {
+      remaining -= bytes;
+
+      if (remaining < 0) {
+        throw new WebApplicationException(Response.Status.REQUEST_ENTITY_TOO_LARGE);
+      }
+    }
+  }
+}
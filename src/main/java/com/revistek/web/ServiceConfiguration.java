@@ -0,0 +1,210 @@
+package com.revistek.web;
+
+import com.revistek.crs.constants.Cache;
+import com.revistek.util.CacheBatch;
+import com.revistek.util.CacheDao;
+import com.revistek.util.MongoDbCollectionSettings;
+import com.revistek.util.constants.ConfigurationKeys;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+
+/**
+ * An immutable, versioned snapshot of the service settings held in the cache. A new snapshot is
+ * created whenever the settings change and is swapped in as a whole, so a request always sees one
+ * consistent set of settings.
+ *
+ * @author Chuong Ngo
+ */
+public final class ServiceConfiguration {
+  private final long version;
+  private final String repositoryUrl;
+  private final String repositoryDatabase;
+  private final String repositoryCollection;
+  private final String metadataStoreUrl;
+  private final Map<String, Pair<String, String>> metadataQueries;
+  private final Map<String, String> repositoryShards;
+  private final MongoDbCollectionSettings repositorySettings;
+  private final Map<String, MongoDbCollectionSettings> metadataQuerySettings;
+
+  private ServiceConfiguration(
+      long version,
+      String repositoryUrl,
+      String repositoryDatabase,
+      String repositoryCollection,
+      String metadataStoreUrl,
+      Map<String, Pair<String, String>> metadataQueries,
+      Map<String, String> repositoryShards,
+      MongoDbCollectionSettings repositorySettings,
+      Map<String, MongoDbCollectionSettings> metadataQuerySettings) {
+    this.version = version;
+    this.repositoryUrl = repositoryUrl;
+    this.repositoryDatabase = repositoryDatabase;
+    this.repositoryCollection = repositoryCollection;
+    this.metadataStoreUrl = metadataStoreUrl;
+    this.metadataQueries = metadataQueries;
+    this.repositoryShards = repositoryShards;
+    this.repositorySettings = repositorySettings;
+    this.metadataQuerySettings = metadataQuerySettings;
+  }
+
+  /**
+   * Reads the settings from the cache in a single batch.
+   *
+   * @param cacheDao the cache holding the settings.
+   * @param version the version to give the snapshot.
+   * @return The snapshot of the settings.
+   * @throws Exception there was a problem communicating with the cache.
+   */
+  public static ServiceConfiguration load(CacheDao cacheDao, long version) throws Exception {
+    Supplier<String> repositoryUrl;
+    Supplier<String> repositoryDatabase;
+    Supplier<String> repositoryCollection;
+    Supplier<String> metadataStoreUrl;
+    Supplier<Map<String, String>> queries;
+    Supplier<Map<String, String>> shards;
+    Supplier<String> repositorySettings;
+
+    try (CacheBatch batch = cacheDao.newBatch()) {
+      repositoryUrl = batch.get(Cache.KEY_REPOSITORY_URL);
+      repositoryDatabase = batch.get(Cache.KEY_MONGODB_REPOSITORY_DATABASE);
+      repositoryCollection = batch.get(Cache.KEY_MONGODB_REPOSITORY_COLLECTION);
+      metadataStoreUrl = batch.get(Cache.KEY_METDATA_STORE_URL);
+      queries = batch.getMap(Cache.KEY_METDATA_STORE_QUERIES);
+      shards = batch.getMap(ConfigurationKeys.KEY_REPOSITORY_SHARDS);
+      repositorySettings = batch.get(ConfigurationKeys.KEY_REPOSITORY_COLLECTION_SETTINGS);
+      batch.execute();
+    }
+
+    // For a MongoDB Metadata Store, the values should be a comma-delimited string of database,
+    // collection, optionally followed by the collection settings (e.g., db,col,w=1).
+    Map<String, Pair<String, String>> metadataQueries = new HashMap<String, Pair<String, String>>();
+    Map<String, MongoDbCollectionSettings> metadataQuerySettings =
+        new HashMap<String, MongoDbCollectionSettings>();
+    for (Map.Entry<String, String> query : queries.get().entrySet()) {
+      String[] splitValues = query.getValue().split(",", 3);
+
+      if (splitValues.length < 2) {
+        throw new IllegalArgumentException(
+            "Invalid metadata store query " + query.getKey() + ": " + query.getValue());
+      }
+
+      metadataQueries.put(query.getKey(), ImmutablePair.of(splitValues[0], splitValues[1]));
+      metadataQuerySettings.put(
+          query.getKey(),
+          MongoDbCollectionSettings.parse((splitValues.length > 2) ? splitValues[2] : null));
+    }
+
+    return new ServiceConfiguration(
+        version,
+        repositoryUrl.get(),
+        repositoryDatabase.get(),
+        repositoryCollection.get(),
+        metadataStoreUrl.get(),
+        Collections.unmodifiableMap(metadataQueries),
+        Collections.unmodifiableMap(new TreeMap<String, String>(shards.get())),
+        MongoDbCollectionSettings.parse(repositorySettings.get()),
+        Collections.unmodifiableMap(metadataQuerySettings));
+  }
+
+  /**
+   * Checks if another snapshot holds the same settings, ignoring the version.
+   *
+   * @param other the snapshot to compare to.
+   * @return true if the settings are the same, else false.
+   */
+  public boolean hasSameSettings(ServiceConfiguration other) {
+    return (other != null)
+        && hasSameRepositoryUrl(other)
+        && Objects.equals(repositoryDatabase, other.repositoryDatabase)
+        && Objects.equals(repositoryCollection, other.repositoryCollection)
+        && Objects.equals(metadataStoreUrl, other.metadataStoreUrl)
+        && metadataQueries.equals(other.metadataQueries)
+        && repositorySettings.equals(other.repositorySettings)
+        && metadataQuerySettings.equals(other.metadataQuerySettings);
+  }
+
+  public boolean hasSameRepositoryUrl(ServiceConfiguration other) {
+    return Objects.equals(repositoryUrl, other.repositoryUrl)
+        && repositoryShards.equals(other.repositoryShards);
+  }
+
+  /**
+   * Checks if the repository shards of this snapshot are those of another snapshot plus some new
+   * shards, which can be added without replacing the repository.
+   *
+   * @param other the earlier snapshot.
+   * @return true if only shards were added, else false.
+   */
+  public boolean onlyAddsRepositoryShards(ServiceConfiguration other) {
+    if (other.repositoryShards.isEmpty()
+        || (repositoryShards.size() <= other.repositoryShards.size())) {
+      return false;
+    }
+
+    for (Map.Entry<String, String> shard : other.repositoryShards.entrySet()) {
+      if (!shard.getValue().equals(repositoryShards.get(shard.getKey()))) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  public boolean hasSameMetadataStoreUrl(ServiceConfiguration other) {
+    return Objects.equals(metadataStoreUrl, other.metadataStoreUrl);
+  }
+
+  public long getVersion() {
+    return version;
+  }
+
+  public String getRepositoryUrl() {
+    return repositoryUrl;
+  }
+
+  public String getRepositoryDatabase() {
+    return repositoryDatabase;
+  }
+
+  public String getRepositoryCollection() {
+    return repositoryCollection;
+  }
+
+  public String getMetadataStoreUrl() {
+    return metadataStoreUrl;
+  }
+
+  public Map<String, Pair<String, String>> getMetadataQueries() {
+    return metadataQueries;
+  }
+
+  /**
+   * Returns the URLs of the repository shards, keyed by shard name. When there are none, the
+   * repository is the single repository at the repository URL.
+   *
+   * @return the repository shards.
+   */
+  public Map<String, String> getRepositoryShards() {
+    return repositoryShards;
+  }
+
+  public MongoDbCollectionSettings getRepositorySettings() {
+    return repositorySettings;
+  }
+
+  /**
+   * Returns the collection settings of the metadata store queries, keyed by query key. Queries
+   * without settings have the default settings.
+   *
+   * @return the settings of the metadata store queries.
+   */
+  public Map<String, MongoDbCollectionSettings> getMetadataQuerySettings() {
+    return metadataQuerySettings;
+  }
+}
@@ -0,0 +1,164 @@
+package com.revistek.web;
+
+import com.revistek.util.CacheDao;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Polls the cache for changes to the service settings. When the settings change, a new {@link
+ * com.revistek.web.ServiceConfiguration ServiceConfiguration} is created, handed to the change
+ * handler, and then swapped in. Requests already in flight keep using the objects they started
+ * with, and the objects that were replaced are cleaned up after a grace period.
+ *
+ * @author Chuong Ngo
+ */
+public class ServiceConfigurationWatcher {
+  public static final int DEFAULT_RETIREMENT_DELAY_IN_SECS = 60;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ServiceConfigurationWatcher.class);
+
+  private final CacheDao cacheDao;
+  private final BiConsumer<ServiceConfiguration, ServiceConfiguration> changeHandler;
+  private final AtomicReference<ServiceConfiguration> current =
+      new AtomicReference<ServiceConfiguration>();
+  private final ScheduledExecutorService scheduler;
+  private final Set<Runnable> pendingCleanups = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Creates a new watcher.
+   *
+   * @param cacheDao the cache holding the settings.
+   * @param changeHandler called with the old and new settings before the new settings are swapped
+   *     in.
+   */
+  public ServiceConfigurationWatcher(
+      CacheDao cacheDao, BiConsumer<ServiceConfiguration, ServiceConfiguration> changeHandler) {
+    this.cacheDao = cacheDao;
+    this.changeHandler = changeHandler;
+    this.scheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "configuration-watcher");
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  /**
+   * Loads the first snapshot of the settings. The load is bounded by a timeout so that an
+   * unreachable cache fails the startup instead of hanging it.
+   *
+   * @param timeoutInMillis how long to wait for the cache.
+   * @return The first snapshot of the settings.
+   * @throws RuntimeException the cache did not answer in time or the settings are invalid.
+   */
+  public ServiceConfiguration loadInitial(long timeoutInMillis) {
+    Future<ServiceConfiguration> future =
+        scheduler.submit(() -> ServiceConfiguration.load(cacheDao, 1L));
+
+    try {
+      ServiceConfiguration configuration = future.get(timeoutInMillis, TimeUnit.MILLISECONDS);
+      current.set(configuration);
+      return configuration;
+    } catch (TimeoutException e) {
+      future.cancel(true);
+      scheduler.shutdownNow();
+
+      throw new RuntimeException(
+          "Timed out after " + timeoutInMillis + " ms loading the settings from the cache.", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      scheduler.shutdownNow();
+
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      scheduler.shutdownNow();
+
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  /**
+   * Starts polling the cache for changes.
+   *
+   * @param pollIntervalInSecs how often to poll, in seconds. Polling is disabled if not positive.
+   */
+  public void start(int pollIntervalInSecs) {
+    if (pollIntervalInSecs <= 0) {
+      LOGGER.info("Polling for configuration changes is disabled.");
+
+      return;
+    }
+
+    scheduler.scheduleWithFixedDelay(
+        this::poll, pollIntervalInSecs, pollIntervalInSecs, TimeUnit.SECONDS);
+  }
+
+  /** Checks the cache once for changed settings and applies them. */
+  void poll() {
+    ServiceConfiguration previous = current.get();
+
+    try {
+      ServiceConfiguration next = ServiceConfiguration.load(cacheDao, previous.getVersion() + 1);
+
+      if (next.hasSameSettings(previous)) {
+        return;
+      }
+
+      LOGGER.info("The configuration changed. Applying version {}.", next.getVersion());
+
+      changeHandler.accept(previous, next);
+      current.set(next);
+    } catch (Exception e) {
+      // Keep serving with the current settings and try again on the next poll.
+      LOGGER.warn("Failed to apply the configuration from the cache.", e);
+    }
+  }
+
+  /**
+   * Runs the cleanup of a replaced object after the grace period, once requests that were using
+   * it have finished.
+   *
+   * @param cleanup the cleanup to run.
+   */
+  public void retire(Runnable cleanup) {
+    pendingCleanups.add(cleanup);
+    scheduler.schedule(
+        () -> runCleanup(cleanup), DEFAULT_RETIREMENT_DELAY_IN_SECS, TimeUnit.SECONDS);
+  }
+
+  private void runCleanup(Runnable cleanup) {
+    if (!pendingCleanups.remove(cleanup)) {
+      return;
+    }
+
+    try {
+      cleanup.run();
+    } catch (RuntimeException e) {
+      LOGGER.warn("Failed to clean up a replaced object.", e);
+    }
+  }
+
+  public ServiceConfiguration getCurrent() {
+    return current.get();
+  }
+
+  /** Stops polling and cleans up any replaced objects still waiting for their grace period. */
+  public void stop() {
+    scheduler.shutdownNow();
+
+    for (Runnable cleanup : pendingCleanups.toArray(new Runnable[0])) {
+      runCleanup(cleanup);
+    }
+  }
+}
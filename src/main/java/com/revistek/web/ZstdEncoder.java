@@ -0,0 +1,39 @@
+package com.revistek.web;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+import jakarta.annotation.Priority;
+import jakarta.ws.rs.Priorities;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import org.glassfish.jersey.spi.ContentEncoder;
+
+/**
+ * Encodes and decodes entities with Zstandard ({@code Content-Encoding: zstd}). Zstandard
+ * compresses serialized Cases about as well as gzip at several times the speed, in both
+ * directions.
+ *
+ * @author Chuong Ngo
+ */
+@Priority(Priorities.ENTITY_CODER)
+public class ZstdEncoder extends ContentEncoder {
+  public static final String ENCODING = "zstd";
+  public static final int LEVEL = 3;
+
+  public ZstdEncoder() {
+    super(ENCODING);
+  }
+
+  @Override
+  public InputStream decode(String contentEncoding, InputStream encodedStream)
+      throws IOException {
+    return new ZstdInputStream(encodedStream);
+  }
+
+  @Override
+  public OutputStream encode(String contentEncoding, OutputStream entityStream)
+      throws IOException {
+    return new ZstdOutputStream(entityStream, LEVEL);
+  }
+}
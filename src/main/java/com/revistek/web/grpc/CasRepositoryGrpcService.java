@@ -0,0 +1,288 @@
+package com.revistek.web.grpc;
+
+import com.revistek.crs.protos.Message;
+import com.revistek.util.AdmissionController;
+import com.revistek.util.MetadataStoreDao;
+import com.revistek.util.RepositoryDao;
+import com.revistek.util.ServiceMetrics;
+import com.revistek.util.constants.MetricNames;
+import com.revistek.web.CasRepositoryOperations;
+import io.grpc.BindableService;
+import io.grpc.Context;
+import io.grpc.Contexts;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.ServerInterceptors;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.ServiceDescriptor;
+import io.grpc.protobuf.ProtoUtils;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.ServerCalls;
+import io.grpc.stub.StreamObserver;
+import io.micrometer.core.instrument.Timer;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * The gRPC front-end of the CRS. It exposes the same store, get, and delete operations as the REST
+ * endpoints, on the same repository and metadata store, and speaks the same {@link
+ * com.revistek.crs.protos.Message Message}. The service is described by hand rather than generated
+ * from a {@code .proto} file, since the messages come precompiled from the common package.
+ *
+ * <p>Each operation has a unary method and a bidirectional streaming method. A stream answers every
+ * message it receives, in order, with the outcome of the operation (e.g., a stream of Cases in and
+ * a stream of Cas IDs out). Streams are flow controlled: the next message is only requested once
+ * the answer to the previous one can be sent, so a slow reader holds back its writer instead of
+ * buffering Cases in the service.
+ *
+ * <p>The deadlines of the callers are honored. A call or stream message whose deadline has passed,
+ * or whose caller went away, is not run. Stores go through the same admission control as the REST
+ * store, and a turned away store is answered with the status code {@link
+ * AdmissionController#STATUS_TOO_MANY_REQUESTS} like any other outcome, so a stream carries on.
+ *
+ * <p>A unary store may name an earlier checkpoint of the same document to be stored against in the
+ * {@link #DELTA_BASE_KEY} metadata of the call. The metadata of a stream is sent once for all of
+ * its messages, so the Cases of a store stream are always stored in full.
+ *
+ * @author Chuong Ngo
+ */
+public class CasRepositoryGrpcService implements BindableService {
+  public static final String SERVICE_NAME = "com.revistek.crs.CasRepositoryService";
+  public static final int DEFAULT_MAX_MESSAGE_BYTES = 64 * 1024 * 1024;
+
+  public static final MethodDescriptor<Message, Message> STORE_METHOD =
+      newMethod("Store", MethodDescriptor.MethodType.UNARY);
+  public static final MethodDescriptor<Message, Message> GET_METHOD =
+      newMethod("Get", MethodDescriptor.MethodType.UNARY);
+  public static final MethodDescriptor<Message, Message> DELETE_METHOD =
+      newMethod("Delete", MethodDescriptor.MethodType.UNARY);
+  public static final MethodDescriptor<Message, Message> STORE_STREAM_METHOD =
+      newMethod("StoreStream", MethodDescriptor.MethodType.BIDI_STREAMING);
+  public static final MethodDescriptor<Message, Message> GET_STREAM_METHOD =
+      newMethod("GetStream", MethodDescriptor.MethodType.BIDI_STREAMING);
+  public static final MethodDescriptor<Message, Message> DELETE_STREAM_METHOD =
+      newMethod("DeleteStream", MethodDescriptor.MethodType.BIDI_STREAMING);
+
+  /** The call metadata that holds the Cas ID of the checkpoint a unary store is stored against. */
+  public static final Metadata.Key<String> DELTA_BASE_KEY =
+      Metadata.Key.of(CasRepositoryOperations.DELTA_BASE_HEADER, Metadata.ASCII_STRING_MARSHALLER);
+
+  public static final ServiceDescriptor SERVICE =
+      ServiceDescriptor.newBuilder(SERVICE_NAME)
+          .addMethod(STORE_METHOD)
+          .addMethod(GET_METHOD)
+          .addMethod(DELETE_METHOD)
+          .addMethod(STORE_STREAM_METHOD)
+          .addMethod(GET_STREAM_METHOD)
+          .addMethod(DELETE_STREAM_METHOD)
+          .build();
+
+  private static final Timer STORE_TIMER =
+      ServiceMetrics.endpointTimer(MetricNames.ENDPOINT_GRPC_STORE);
+  private static final Timer GET_TIMER =
+      ServiceMetrics.endpointTimer(MetricNames.ENDPOINT_GRPC_GET);
+  private static final Timer DELETE_TIMER =
+      ServiceMetrics.endpointTimer(MetricNames.ENDPOINT_GRPC_DELETE);
+
+  private static final Context.Key<String> DELTA_BASE = Context.key("deltaBase");
+
+  private final Supplier<RepositoryDao> repositoryDao;
+  private final Supplier<MetadataStoreDao> metadataStoreDao;
+  private final Supplier<AdmissionController> admissionController;
+
+  /**
+   * Creates the service. Every store is admitted.
+   *
+   * @param repositoryDao supplies the current repository.
+   * @param metadataStoreDao supplies the current metadata store.
+   */
+  public CasRepositoryGrpcService(
+      Supplier<RepositoryDao> repositoryDao, Supplier<MetadataStoreDao> metadataStoreDao) {
+    this(repositoryDao, metadataStoreDao, () -> null);
+  }
+
+  /**
+   * Creates the service.
+   *
+   * @param repositoryDao supplies the current repository.
+   * @param metadataStoreDao supplies the current metadata store.
+   * @param admissionController supplies the admission controller of the stores, or null.
+   */
+  public CasRepositoryGrpcService(
+      Supplier<RepositoryDao> repositoryDao,
+      Supplier<MetadataStoreDao> metadataStoreDao,
+      Supplier<AdmissionController> admissionController) {
+    this.repositoryDao = repositoryDao;
+    this.metadataStoreDao = metadataStoreDao;
+    this.admissionController = admissionController;
+  }
+
+  @Override
+  public ServerServiceDefinition bindService() {
+    ServerServiceDefinition definition =
+        ServerServiceDefinition.builder(SERVICE)
+            .addMethod(
+                STORE_METHOD,
+                ServerCalls.asyncUnaryCall(unary(request -> store(request, DELTA_BASE.get()))))
+            .addMethod(GET_METHOD, ServerCalls.asyncUnaryCall(unary(this::get)))
+            .addMethod(DELETE_METHOD, ServerCalls.asyncUnaryCall(unary(this::delete)))
+            .addMethod(
+                STORE_STREAM_METHOD,
+                ServerCalls.asyncBidiStreamingCall(stream(request -> store(request, null))))
+            .addMethod(GET_STREAM_METHOD, ServerCalls.asyncBidiStreamingCall(stream(this::get)))
+            .addMethod(
+                DELETE_STREAM_METHOD, ServerCalls.asyncBidiStreamingCall(stream(this::delete)))
+            .build();
+    return ServerInterceptors.intercept(definition, new DeltaBaseInterceptor());
+  }
+
+  private Message store(Message request, String baseCasId) {
+    long start = System.nanoTime();
+
+    try {
+      return CasRepositoryOperations.store(
+          admissionController.get(),
+          repositoryDao.get(),
+          metadataStoreDao.get(),
+          request,
+          baseCasId);
+    } finally {
+      STORE_TIMER.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  private Message get(Message request) {
+    long start = System.nanoTime();
+
+    try {
+      return CasRepositoryOperations.get(repositoryDao.get(), request);
+    } finally {
+      GET_TIMER.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  private Message delete(Message request) {
+    long start = System.nanoTime();
+
+    try {
+      return CasRepositoryOperations.delete(repositoryDao.get(), metadataStoreDao.get(), request);
+    } finally {
+      DELETE_TIMER.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  private static ServerCalls.UnaryMethod<Message, Message> unary(
+      Function<Message, Message> operation) {
+    return (request, responses) -> {
+      Context context = Context.current();
+
+      if (context.isCancelled()) {
+        responses.onError(Contexts.statusFromCancelled(context).asRuntimeException());
+        return;
+      }
+
+      responses.onNext(operation.apply(request));
+      responses.onCompleted();
+    };
+  }
+
+  private static ServerCalls.BidiStreamingMethod<Message, Message> stream(
+      Function<Message, Message> operation) {
+    return responses -> new OrderedStream(responses, operation);
+  }
+
+  private static MethodDescriptor<Message, Message> newMethod(
+      String name, MethodDescriptor.MethodType type) {
+    return MethodDescriptor.<Message, Message>newBuilder()
+        .setType(type)
+        .setFullMethodName(MethodDescriptor.generateFullMethodName(SERVICE_NAME, name))
+        .setRequestMarshaller(ProtoUtils.marshaller(Message.getDefaultInstance()))
+        .setResponseMarshaller(ProtoUtils.marshaller(Message.getDefaultInstance()))
+        .build();
+  }
+
+  /** Makes the {@link #DELTA_BASE_KEY} metadata of a call available to its handler. */
+  private static final class DeltaBaseInterceptor implements ServerInterceptor {
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(
+        ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+      String baseCasId = headers.get(DELTA_BASE_KEY);
+
+      if (baseCasId == null) {
+        return next.startCall(call, headers);
+      }
+
+      Context context = Context.current().withValue(DELTA_BASE, baseCasId);
+      return Contexts.interceptCall(context, call, headers, next);
+    }
+  }
+
+  /**
+   * Answers the messages of a stream one at a time, in order. Only one message is requested from
+   * the caller at a time, and only while the transport can take the answer, so HTTP/2 flow control
+   * pushes back on a caller that writes faster than it reads. The callbacks of a call are never run
+   * concurrently, so the state needs no synchronization.
+   */
+  private static final class OrderedStream implements StreamObserver<Message> {
+    private final ServerCallStreamObserver<Message> responses;
+    private final Function<Message, Message> operation;
+    private boolean wasReady;
+    private boolean done;
+
+    private OrderedStream(StreamObserver<Message> responses, Function<Message, Message> operation) {
+      this.responses = (ServerCallStreamObserver<Message>) responses;
+      this.operation = operation;
+      this.responses.disableAutoRequest();
+      this.responses.setOnReadyHandler(this::onReady);
+    }
+
+    private void onReady() {
+      if (!done && responses.isReady() && !wasReady) {
+        wasReady = true;
+        responses.request(1);
+      }
+    }
+
+    @Override
+    public void onNext(Message request) {
+      if (done) {
+        return;
+      }
+
+      Context context = Context.current();
+
+      if (context.isCancelled()) {
+        done = true;
+        responses.onError(Contexts.statusFromCancelled(context).asRuntimeException());
+        return;
+      }
+
+      responses.onNext(operation.apply(request));
+
+      if (responses.isReady()) {
+        responses.request(1);
+      } else {
+        // Wait for the caller to read before taking more.
+        wasReady = false;
+      }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      // The caller cancelled the stream or its deadline passed. There is nobody to answer.
+      done = true;
+    }
+
+    @Override
+    public void onCompleted() {
+      if (!done) {
+        done = true;
+        responses.onCompleted();
+      }
+    }
+  }
+}
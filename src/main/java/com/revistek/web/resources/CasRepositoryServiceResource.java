@@ -1,23 +1,26 @@
 package com.revistek.web.resources;
 
-import com.revistek.crs.protos.Cas;
 import com.revistek.crs.protos.Message;
-import com.revistek.crs.protos.constants.MessageCodes;
-import com.revistek.crs.protos.constants.MessageExceptions;
-import com.revistek.crs.protos.constants.ProtobufMessages;
 import com.revistek.net.constants.MediaTypes;
-import com.revistek.net.constants.StatusCodes;
+import com.revistek.util.AdmissionController;
 import com.revistek.util.MetadataStoreDao;
+import com.revistek.util.ReadAheadSessions;
 import com.revistek.util.RepositoryDao;
+import com.revistek.util.ServiceMetrics;
+import com.revistek.util.constants.MetricNames;
+import com.revistek.web.CachedResponses;
+import com.revistek.web.CasRepositoryOperations;
+import com.revistek.web.ContentEncoded;
+import io.micrometer.core.instrument.Timer;
 import jakarta.servlet.ServletContext;
+import jakarta.ws.rs.HeaderParam;
 import jakarta.ws.rs.POST;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.Response;
-import org.apache.commons.lang3.StringUtils;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The REST endpoints for the Cas Repository Service.
@@ -26,14 +29,30 @@ import org.slf4j.LoggerFactory;
  */
 @Path("/rest")
 public class CasRepositoryServiceResource {
-  private static final Logger LOGGER = LoggerFactory.getLogger(CasRepositoryServiceResource.class);
+  private static final Timer STORE_TIMER = ServiceMetrics.endpointTimer(MetricNames.ENDPOINT_STORE);
+  private static final Timer GET_TIMER = ServiceMetrics.endpointTimer(MetricNames.ENDPOINT_GET);
+  private static final Timer DELETE_TIMER =
+      ServiceMetrics.endpointTimer(MetricNames.ENDPOINT_DELETE);
+  private static final Timer SESSION_OPEN_TIMER =
+      ServiceMetrics.endpointTimer(MetricNames.ENDPOINT_SESSION_OPEN);
+  private static final Timer SESSION_NEXT_TIMER =
+      ServiceMetrics.endpointTimer(MetricNames.ENDPOINT_SESSION_NEXT);
+  private static final Timer SESSION_CLOSE_TIMER =
+      ServiceMetrics.endpointTimer(MetricNames.ENDPOINT_SESSION_CLOSE);
 
   /**
    * Endpoint to store a UIMA Cas/JCas to the repository and add an entry for it to the metadata
-   * store.
+   * store. If the request has a {@link CasRepositoryOperations#DELTA_BASE_HEADER} header, its value
+   * is the Cas ID of an earlier checkpoint of the same document, and the repository may store only
+   * the changes against it. The Cas ID of the Cas itself is ignored.
+   *
+   * <p>When the service is saturated, the store is turned away at once with the status code {@link
+   * AdmissionController#STATUS_TOO_MANY_REQUESTS} in the Message and a {@code Retry-After} header.
    *
    * @param cxt - The {@link jakarta.servlet.ServletContext ServletContext} that holds the singleton
    *     objects need to interact with the repository and metadata store.
+   * @param baseCasId - The Cas ID of the checkpoint to store the Cas against, or null to store it
+   *     in full.
    * @param message - The {@link com.revistek.crs.protos.Message Message} object that holds the Cas
    *     and other needed information.
    * @return A {@link com.revistek.crs.protos.Message Message} object with information about the
@@ -42,115 +61,29 @@ public class CasRepositoryServiceResource {
   @POST
   @Path("/store")
   @Produces(MediaTypes.APPLICATION_XPROTOBUF)
-  public Response store(@Context ServletContext cxt, Message message) {
-    if (message == null) {
-      LOGGER.error("The protobuf message failed to properly parse.");
-
-      final Message responseMessage =
-          Message.newBuilder()
-              .setStatusCode(MessageCodes.INVALID_MESSAGE)
-              .setExceptionType(MessageExceptions.ILLEGAL_ARGUMENT)
-              .setMessage(ProtobufMessages.INVALID_MESSAGE)
-              .build();
-      return Response.status(StatusCodes.OK).entity(responseMessage).build();
-    }
-
-    MetadataStoreDao metaDao =
-        (MetadataStoreDao) cxt.getAttribute(MetadataStoreDao.class.getName());
-    RepositoryDao repoDao = (RepositoryDao) cxt.getAttribute(RepositoryDao.class.getName());
-
-    if (!message.hasCas()) {
-      LOGGER.error(
-          "A Cas protobuf object with a valid Cas ID is needed to store a Cas to the repository.");
-
-      final Message responseMessage =
-          Message.newBuilder()
-              .setStatusCode(MessageCodes.INVALID_MESSAGE)
-              .setExceptionType(MessageExceptions.ILLEGAL_ARGUMENT)
-              .setMessage(ProtobufMessages.INVALID_MESSAGE)
-              .build();
-      return Response.status(StatusCodes.OK).entity(responseMessage).build();
-    }
-
-    final Cas cas = message.getCas();
-    String docId = cas.getDocumentId();
-    String queryId = message.getMetadataQueryKey();
-
-    if (StringUtils.isAnyEmpty(docId, queryId)) {
-      LOGGER.error("Valid document and query IDs are needed to store a Cas to the repository.");
-
-      final Message responseMessage =
-          Message.newBuilder()
-              .setStatusCode(MessageCodes.INVALID_MESSAGE)
-              .setExceptionType(MessageExceptions.ILLEGAL_ARGUMENT)
-              .setMessage(ProtobufMessages.INVALID_MESSAGE)
-              .build();
-      return Response.status(StatusCodes.OK).entity(responseMessage).build();
-    }
-
-    String casId = "";
-
-    try {
-      casId = repoDao.store(cas);
-    } catch (Exception e) {
-      LOGGER.error("There was an error writing the Cas " + casId + " to the repository.");
-      e.printStackTrace();
-
-      final Cas returnCas = Cas.newBuilder().setCasId(casId).build();
-      final Message responseMessage =
-          Message.newBuilder()
-              .setStatusCode(MessageCodes.INTERNAL_SERVER_ERROR)
-              .setExceptionType(MessageExceptions.GENERAL_EXCEPTION)
-              .setMessage(ProtobufMessages.CAS_STORE_FAILED)
-              .setCas(returnCas)
-              .build();
-
-      return Response.status(StatusCodes.OK).entity(responseMessage).build();
-    }
+  @ContentEncoded
+  public Response store(
+      @Context ServletContext cxt,
+      @HeaderParam(CasRepositoryOperations.DELTA_BASE_HEADER) String baseCasId,
+      Message message) {
+    long start = System.nanoTime();
 
     try {
-      metaDao.addCasId(queryId, casId);
-    } catch (Exception e) {
-      LOGGER.error(
-          "There was an error writing the Cas ID "
-              + casId
-              + " to the metadata store: "
-              + queryId
-              + ".");
-      e.printStackTrace();
-
-      final Cas returnCas = Cas.newBuilder().setCasId(casId).build();
-      final Message responseMessage =
-          Message.newBuilder()
-              .setStatusCode(MessageCodes.INTERNAL_SERVER_ERROR)
-              .setExceptionType(MessageExceptions.GENERAL_EXCEPTION)
-              .setMessage(ProtobufMessages.CAS_STORE_FAILED)
-              .setCas(returnCas)
-              .build();
-
-      try {
-        repoDao.deleteCasId(casId);
-      } catch (Exception e1) {
-        // Ignore this exception and move on.
+      AdmissionController admission = getAdmissionController(cxt);
+      Message response =
+          CasRepositoryOperations.store(
+              admission, getRepositoryDao(cxt), getMetadataStoreDao(cxt), message, baseCasId);
+
+      if (response.getStatusCode() == AdmissionController.STATUS_TOO_MANY_REQUESTS) {
+        return CachedResponses.ok(response)
+            .header(HttpHeaders.RETRY_AFTER, admission.getRetryAfterSecs())
+            .build();
       }
 
-      return Response.status(StatusCodes.OK).entity(responseMessage).build();
+      return CachedResponses.ok(response).build();
+    } finally {
+      STORE_TIMER.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
     }
-
-    LOGGER.trace(
-        "Successfully wrote the Cas "
-            + casId
-            + " to the repository and metadata store: "
-            + queryId
-            + ".");
-    final Cas returnCas = Cas.newBuilder().setCasId(casId).setDocumentId(docId).build();
-    final Message responseMessage =
-        Message.newBuilder()
-            .setStatusCode(MessageCodes.OK)
-            .setMessage(ProtobufMessages.CAS_STORE_SUCCESS)
-            .setCas(returnCas)
-            .build();
-    return Response.status(StatusCodes.OK).entity(responseMessage).build();
   }
 
   /**
@@ -167,64 +100,15 @@ public class CasRepositoryServiceResource {
   @Path("/delete")
   @Produces()
   public Response deleteCasId(@Context ServletContext cxt, Message message) {
-    if (message == null) {
-      LOGGER.error("The protobuf message failed to properly parse.");
-
-      final Message responseMessage =
-          Message.newBuilder()
-              .setStatusCode(MessageCodes.INVALID_MESSAGE)
-              .setExceptionType(MessageExceptions.ILLEGAL_ARGUMENT)
-              .setMessage(ProtobufMessages.INVALID_MESSAGE)
-              .build();
-      return Response.status(StatusCodes.OK).entity(responseMessage).build();
-    }
-
-    RepositoryDao repoDao = (RepositoryDao) cxt.getAttribute(RepositoryDao.class.getName());
-    MetadataStoreDao metaDao =
-        (MetadataStoreDao) cxt.getAttribute(MetadataStoreDao.class.getName());
-
-    if (!message.hasCas()) {
-      LOGGER.error(
-          "A Cas protobuf object with a valid Cas ID is needed to delete a Cas from the repository.");
-
-      final Message responseMessage =
-          Message.newBuilder()
-              .setStatusCode(MessageCodes.INVALID_MESSAGE)
-              .setExceptionType(MessageExceptions.ILLEGAL_ARGUMENT)
-              .setMessage(ProtobufMessages.INVALID_MESSAGE)
-              .build();
-      return Response.status(StatusCodes.OK).entity(responseMessage).build();
-    }
-
-    String casId = message.getCas().getCasId();
+    long start = System.nanoTime();
 
     try {
-      repoDao.deleteCasId(casId);
-      metaDao.deleteAllCasId(casId);
-    } catch (Exception e) {
-      LOGGER.error("There was an error deleting the Cas " + casId + " from the repository.");
-      e.printStackTrace();
-
-      final Cas returnCas = Cas.newBuilder().setCasId(casId).build();
-      final Message responseMessage =
-          Message.newBuilder()
-              .setStatusCode(MessageCodes.INTERNAL_SERVER_ERROR)
-              .setExceptionType(MessageExceptions.GENERAL_EXCEPTION)
-              .setMessage(ProtobufMessages.CAS_DELETE_FAILED)
-              .setCas(returnCas)
-              .build();
-      return Response.status(StatusCodes.OK).entity(responseMessage).build();
+      return CasRepositoryOperations.delete(
+              getRepositoryDao(cxt), getMetadataStoreDao(cxt), message, CachedResponses.RESPONSES)
+          .build();
+    } finally {
+      DELETE_TIMER.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
     }
-
-    LOGGER.trace("Successfully deleted the Cas " + casId + " from the repository.");
-    final Cas returnCas = Cas.newBuilder().setCasId(casId).build();
-    final Message responseMessage =
-        Message.newBuilder()
-            .setStatusCode(MessageCodes.OK)
-            .setMessage(ProtobufMessages.CAS_DELETE_SUCCESS)
-            .setCas(returnCas)
-            .build();
-    return Response.status(StatusCodes.OK).entity(responseMessage).build();
   }
 
   /**
@@ -240,58 +124,106 @@ public class CasRepositoryServiceResource {
   @POST
   @Path("/get")
   @Produces(MediaTypes.APPLICATION_XPROTOBUF)
+  @ContentEncoded
   public Response getCasId(@Context ServletContext cxt, Message message) {
-    if (message == null) {
-      LOGGER.error("The protobuf message failed to properly parse.");
+    long start = System.nanoTime();
 
-      final Message responseMessage =
-          Message.newBuilder()
-              .setStatusCode(MessageCodes.INVALID_MESSAGE)
-              .setExceptionType(MessageExceptions.ILLEGAL_ARGUMENT)
-              .setMessage(ProtobufMessages.INVALID_MESSAGE)
-              .build();
-      return Response.status(StatusCodes.OK).entity(responseMessage).build();
+    try {
+      Message response = CasRepositoryOperations.get(getRepositoryDao(cxt), message);
+      return CachedResponses.ok(response).build();
+    } finally {
+      GET_TIMER.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
     }
+  }
 
-    RepositoryDao dao = (RepositoryDao) cxt.getAttribute(RepositoryDao.class.getName());
+  /**
+   * Endpoint to open a read-ahead session on a metadata store query. The service reads the next
+   * Cases of the query ahead of the reader, so that {@code /rest/session/next} answers from memory.
+   *
+   * @param cxt - The {@link jakarta.servlet.ServletContext ServletContext} that holds the
+   *     read-ahead sessions.
+   * @param message - The {@link com.revistek.crs.protos.Message Message} object that holds the
+   *     query key and, optionally, a Cas with the Cas ID to start after.
+   * @return A {@link com.revistek.crs.protos.Message Message} object with the session ID in its
+   *     message field.
+   */
+  @POST
+  @Path("/session/open")
+  @Produces(MediaTypes.APPLICATION_XPROTOBUF)
+  public Response openSession(@Context ServletContext cxt, Message message) {
+    long start = System.nanoTime();
 
-    if (!message.hasCas()) {
-      LOGGER.error(
-          "A Cas protobuf object with a valid Cas ID is needed to retrieve a Cas from the repository.");
-      final Message responseMessage =
-          Message.newBuilder()
-              .setStatusCode(MessageCodes.INVALID_MESSAGE)
-              .setExceptionType(MessageExceptions.ILLEGAL_ARGUMENT)
-              .setMessage(ProtobufMessages.INVALID_MESSAGE)
-              .build();
-      return Response.status(StatusCodes.OK).entity(responseMessage).build();
+    try {
+      Message response = CasRepositoryOperations.openSession(getReadAheadSessions(cxt), message);
+      return CachedResponses.ok(response).build();
+    } finally {
+      SESSION_OPEN_TIMER.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
     }
+  }
 
-    String casId = message.getCas().getCasId();
-    Cas retrievedCas;
+  /**
+   * Endpoint to retrieve the next UIMA Cas/JCas of a read-ahead session. Once the query has no more
+   * Cases, the answer has no Cas.
+   *
+   * @param cxt - The {@link jakarta.servlet.ServletContext ServletContext} that holds the
+   *     read-ahead sessions.
+   * @param message - The {@link com.revistek.crs.protos.Message Message} object that holds the
+   *     session ID in its message field.
+   * @return A {@link com.revistek.crs.protos.Message Message} object with the next Cas.
+   */
+  @POST
+  @Path("/session/next")
+  @Produces(MediaTypes.APPLICATION_XPROTOBUF)
+  @ContentEncoded
+  public Response nextInSession(@Context ServletContext cxt, Message message) {
+    long start = System.nanoTime();
 
     try {
-      retrievedCas = dao.getCasId(casId);
-    } catch (Exception e) {
-      LOGGER.error("There was an error retrieving the Cas " + casId + " from the repository.");
-      e.printStackTrace();
+      return CasRepositoryOperations.nextInSession(
+              getReadAheadSessions(cxt), message, CachedResponses.RESPONSES)
+          .build();
+    } finally {
+      SESSION_NEXT_TIMER.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /**
+   * Endpoint to close a read-ahead session. Sessions that are not closed are closed once idle.
+   *
+   * @param cxt - The {@link jakarta.servlet.ServletContext ServletContext} that holds the
+   *     read-ahead sessions.
+   * @param message - The {@link com.revistek.crs.protos.Message Message} object that holds the
+   *     session ID in its message field.
+   * @return A {@link com.revistek.crs.protos.Message Message} object with information about the
+   *     transaction.
+   */
+  @POST
+  @Path("/session/close")
+  @Produces(MediaTypes.APPLICATION_XPROTOBUF)
+  public Response closeSession(@Context ServletContext cxt, Message message) {
+    long start = System.nanoTime();
 
-      final Message responseMessage =
-          Message.newBuilder()
-              .setStatusCode(MessageCodes.INTERNAL_SERVER_ERROR)
-              .setExceptionType(MessageExceptions.GENERAL_EXCEPTION)
-              .setMessage(ProtobufMessages.CAS_GET_FAILED)
-              .build();
-      return Response.status(StatusCodes.OK).entity(responseMessage).build();
+    try {
+      Message response = CasRepositoryOperations.closeSession(getReadAheadSessions(cxt), message);
+      return CachedResponses.ok(response).build();
+    } finally {
+      SESSION_CLOSE_TIMER.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
     }
+  }
 
-    LOGGER.trace("Successfully retrieved the Cas " + casId + " from the repository.");
-    final Message responseMessage =
-        Message.newBuilder()
-            .setStatusCode(MessageCodes.OK)
-            .setMessage(ProtobufMessages.CAS_GET_SUCCESS)
-            .setCas(retrievedCas)
-            .build();
-    return Response.status(StatusCodes.OK).entity(responseMessage).build();
+  private static ReadAheadSessions getReadAheadSessions(ServletContext cxt) {
+    return (ReadAheadSessions) cxt.getAttribute(ReadAheadSessions.class.getName());
+  }
+
+  private static AdmissionController getAdmissionController(ServletContext cxt) {
+    return (AdmissionController) cxt.getAttribute(AdmissionController.class.getName());
+  }
+
+  private static RepositoryDao getRepositoryDao(ServletContext cxt) {
+    return (RepositoryDao) cxt.getAttribute(RepositoryDao.class.getName());
+  }
+
+  private static MetadataStoreDao getMetadataStoreDao(ServletContext cxt) {
+    return (MetadataStoreDao) cxt.getAttribute(MetadataStoreDao.class.getName());
   }
 }
@@ -0,0 +1,29 @@
+package com.revistek.web.resources;
+
+import com.revistek.util.ServiceMetrics;
+import com.revistek.web.ContentEncoded;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.Response;
+
+/**
+ * The endpoint that exposes the service metrics to Prometheus.
+ *
+ * @author Chuong Ngo
+ */
+@Path("/metrics")
+public class MetricsResource {
+  /**
+   * Endpoint to scrape the metrics of the service.
+   *
+   * @return The current value of every metric in the Prometheus text format.
+   */
+  @GET
+  @Produces(PrometheusMeterRegistry.CONTENT_TYPE_004)
+  @ContentEncoded
+  public Response scrape() {
+    return Response.ok(ServiceMetrics.scrape()).build();
+  }
+}
@@ -0,0 +1,261 @@
+package com.revistek.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.google.protobuf.ByteString;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.revistek.crs.protos.Cas;
+import com.revistek.util.constants.MongoDbDocument;
+import de.svenkubiak.embeddedmongodb.EmbeddedMongoDB;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+/**
+ * Measures the deduplication ratio and the store and get throughput of chunked repositories on an
+ * embedded MongoDB server. The Cases are shaped like the checkpoints of a pipeline: every stage of
+ * every document stores a Cas with the same type system and sofa text and one more annotation
+ * layer, serialized both as XMI and in a binary form (type system, string heap, then the feature
+ * structure heap). It is not picked up by the default Surefire includes; run it explicitly with
+ * {@code mvn test -Dtest=MongoDbChunkingBenchmark}.
+ */
+public class MongoDbChunkingBenchmark {
+  public static final int PORT = 12353;
+  public static final String URL = "mongodb://localhost:" + String.valueOf(PORT);
+  public static final String DATABASE = "benchdatabase";
+  public static final int[] CHUNK_AVERAGE_BYTES = {0, 4096, 8192, 16384};
+  public static final int DOCUMENTS = 40;
+  public static final int STAGES = 6;
+  public static final int TYPES = 300;
+  public static final int SOFA_WORDS = 8000;
+
+  private static final String[] WORDS = {
+    "the", "patient", "was", "given", "mg", "of", "daily", "for", "pain", "and", "reported", "no",
+    "adverse", "effects", "after", "weeks", "treatment", "with", "history", "diabetes"
+  };
+
+  private static EmbeddedMongoDB mongoDbServer;
+
+  @BeforeAll
+  public static void setupMongoDb() {
+    mongoDbServer = EmbeddedMongoDB.create().withPort(PORT).start();
+  }
+
+  @AfterAll
+  public static void teardownMongoDb() {
+    MongoClient client = MongoClients.create(URL);
+    client.getDatabase(DATABASE).drop();
+    client.close();
+
+    mongoDbServer.stop();
+  }
+
+  @Test
+  public void benchmarkXmi() throws Exception {
+    benchmark("xmi", generateCases(false));
+  }
+
+  @Test
+  public void benchmarkBinary() throws Exception {
+    benchmark("binary", generateCases(true));
+  }
+
+  private static void benchmark(String form, List<Cas> cases) throws Exception {
+    AtomicLong nextId = new AtomicLong();
+    IdGenerator mockIdGenerator = Mockito.mock(IdGenerator.class);
+    Mockito.when(mockIdGenerator.refreshAndGetUniqueId())
+        .thenAnswer(invocation -> "1642000000000_" + nextId.incrementAndGet());
+    long logicalBytes = 0L;
+
+    for (Cas cas : cases) {
+      logicalBytes += cas.getCasData().size();
+    }
+
+    for (int averageBytes : CHUNK_AVERAGE_BYTES) {
+      MongoDbRepositoryDao dao =
+          MongoDbRepositoryDao.newBuilder()
+              .url(URL)
+              .idGenerator(mockIdGenerator)
+              .database(DATABASE)
+              .collection(form + averageBytes)
+              .chunkAverageBytes(averageBytes)
+              .build();
+      dao.initialize();
+
+      List<String> casIds = new ArrayList<String>(cases.size());
+      long start = System.nanoTime();
+
+      for (Cas cas : cases) {
+        casIds.add(dao.store(cas));
+      }
+
+      long stored = System.nanoTime();
+
+      for (int i = 0; i < cases.size(); i++) {
+        assertEquals(cases.get(i).getCasData(), dao.getCasId(casIds.get(i)).getCasData());
+      }
+
+      long read = System.nanoTime();
+      long storedBytes = (averageBytes == 0) ? logicalBytes : chunkBytes(dao);
+
+      System.out.printf(
+          "%s chunks %d: dedup ratio %.2f (%d of %d bytes); store %.1f MB/s; get %.1f MB/s%n",
+          form,
+          averageBytes,
+          logicalBytes / (double) storedBytes,
+          storedBytes,
+          logicalBytes,
+          megabytesPerSec(logicalBytes, stored - start),
+          megabytesPerSec(logicalBytes, read - stored));
+
+      dao.cleanup();
+    }
+  }
+
+  private static long chunkBytes(MongoDbRepositoryDao dao) throws Exception {
+    long bytes = 0L;
+
+    for (Document chunk : dao.getChunkCollection().find()) {
+      bytes += chunk.get(MongoDbDocument.CHUNK_DATA_FIELD_KEY, Binary.class).length();
+    }
+
+    // Cases smaller than the average chunk size are stored whole.
+    for (Document doc :
+        dao.getMongoCollection().find(new Document(MongoDbDocument.CHUNKS_FIELD_KEY, null))) {
+      bytes += MongoDbRepositoryDao.documentToCas(doc).getCasData().size();
+    }
+
+    return bytes;
+  }
+
+  private static double megabytesPerSec(long bytes, long nanos) {
+    return (bytes / (1024.0 * 1024.0)) / (nanos / 1e9);
+  }
+
+  /**
+   * Generates the Cases of every stage of every document.
+   *
+   * @param binary true for the binary form, false for XMI.
+   * @return the Cases.
+   */
+  private static List<Cas> generateCases(boolean binary) throws IOException {
+    Random random = new Random(42);
+    String typeSystem = generateTypeSystem();
+    List<Cas> cases = new ArrayList<Cas>(DOCUMENTS * STAGES);
+
+    for (int document = 0; document < DOCUMENTS; document++) {
+      StringBuilder sofa = new StringBuilder();
+      List<int[]> tokens = new ArrayList<int[]>();
+
+      for (int i = 0; i < SOFA_WORDS; i++) {
+        String word = WORDS[random.nextInt(WORDS.length)];
+        tokens.add(new int[] {sofa.length(), sofa.length() + word.length()});
+        sofa.append(word).append(' ');
+      }
+
+      for (int stage = 1; stage <= STAGES; stage++) {
+        ByteString data =
+            binary
+                ? toBinary(typeSystem, sofa.toString(), tokens, stage)
+                : toXmi(typeSystem, sofa.toString(), tokens, stage);
+
+        cases.add(
+            Cas.newBuilder()
+                .setDocumentId("document" + document)
+                .setCrc32Checksum(ChecksumAlgorithm.CRC32.compute(data))
+                .setCasData(data)
+                .build());
+      }
+    }
+
+    return cases;
+  }
+
+  private static String generateTypeSystem() {
+    StringBuilder types = new StringBuilder();
+
+    for (int type = 0; type < TYPES; type++) {
+      types
+          .append("<typeDescription><name>org.apache.ctakes.typesystem.type.Type")
+          .append(type)
+          .append("</name><supertypeName>uima.tcas.Annotation</supertypeName>")
+          .append("<features><featureDescription><name>confidence</name>")
+          .append("<rangeTypeName>uima.cas.Double</rangeTypeName></featureDescription>")
+          .append("</features></typeDescription>");
+    }
+
+    return types.toString();
+  }
+
+  /** Each stage adds a layer of annotations over a random tenth of the tokens. */
+  private static ByteString toXmi(String typeSystem, String sofa, List<int[]> tokens, int stages) {
+    StringBuilder xmi = new StringBuilder();
+    xmi.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?><xmi:XMI xmlns:xmi=")
+        .append("\"http://www.omg.org/XMI\" xmi:version=\"2.0\">")
+        .append(typeSystem)
+        .append("<cas:Sofa xmi:id=\"1\" sofaNum=\"1\" sofaID=\"_InitialView\" sofaString=\"")
+        .append(sofa)
+        .append("\"/>");
+    int id = 2;
+
+    for (int stage = 1; stage <= stages; stage++) {
+      Random layer = new Random(stage * 31L + sofa.length());
+
+      for (int[] token : tokens) {
+        if (layer.nextInt(10) == 0) {
+          xmi.append("<type:Type")
+              .append(stage)
+              .append(" xmi:id=\"")
+              .append(id++)
+              .append("\" sofa=\"1\" begin=\"")
+              .append(token[0])
+              .append("\" end=\"")
+              .append(token[1])
+              .append("\" confidence=\"0.")
+              .append(layer.nextInt(1000))
+              .append("\"/>");
+        }
+      }
+    }
+
+    xmi.append("</xmi:XMI>");
+    return ByteString.copyFrom(xmi.toString(), StandardCharsets.UTF_8);
+  }
+
+  private static ByteString toBinary(
+      String typeSystem, String sofa, List<int[]> tokens, int stages) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream output = new DataOutputStream(bytes);
+    output.writeInt(0x55494d41);
+    output.write(typeSystem.getBytes(StandardCharsets.UTF_8));
+    output.write(sofa.getBytes(StandardCharsets.UTF_8));
+
+    for (int stage = 1; stage <= stages; stage++) {
+      Random layer = new Random(stage * 31L + sofa.length());
+
+      for (int[] token : tokens) {
+        if (layer.nextInt(10) == 0) {
+          output.writeInt(stage);
+          output.writeInt(token[0]);
+          output.writeInt(token[1]);
+          output.writeDouble(layer.nextInt(1000) / 1000.0);
+        }
+      }
+    }
+
+    output.flush();
+    return ByteString.copyFrom(bytes.toByteArray());
+  }
+}
@@ -0,0 +1,116 @@
+package com.revistek.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.google.protobuf.ByteString;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.revistek.crs.protos.Cas;
+import de.svenkubiak.embeddedmongodb.EmbeddedMongoDB;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+/**
+ * Compares the store and get latencies of the repository under each durability tier and read
+ * preference on an embedded MongoDB server. A single server acknowledges "majority" by itself, so
+ * the gap between "journaled" and "majority" is larger on a replica set. It is not picked up by
+ * the default Surefire includes; run it explicitly with {@code mvn test
+ * -Dtest=MongoDbWriteConcernBenchmark}.
+ */
+public class MongoDbWriteConcernBenchmark {
+  public static final int PORT = 12351;
+  public static final String URL = "mongodb://localhost:" + String.valueOf(PORT);
+  public static final String DATABASE = "benchdatabase";
+  public static final String[] TIERS = {
+    "durability=fast",
+    "durability=journaled",
+    "durability=majority",
+    "durability=fast,readPreference=secondaryPreferred"
+  };
+  public static final int CAS_BYTES = 16 * 1024;
+  public static final int WARMUP_OPERATIONS = 200;
+  public static final int MEASURED_OPERATIONS = 2000;
+
+  private static EmbeddedMongoDB mongoDbServer;
+
+  @BeforeAll
+  public static void setupMongoDb() {
+    mongoDbServer = EmbeddedMongoDB.create().withPort(PORT).start();
+  }
+
+  @AfterAll
+  public static void teardownMongoDb() {
+    MongoClient client = MongoClients.create(URL);
+    client.getDatabase(DATABASE).drop();
+    client.close();
+
+    mongoDbServer.stop();
+  }
+
+  @Test
+  public void benchmarkTiers() throws Exception {
+    AtomicLong nextId = new AtomicLong();
+    IdGenerator mockIdGenerator = Mockito.mock(IdGenerator.class);
+    Mockito.when(mockIdGenerator.refreshAndGetUniqueId())
+        .thenAnswer(invocation -> "1642000000000_" + nextId.incrementAndGet());
+
+    ByteString data = ByteString.copyFrom(new byte[CAS_BYTES]);
+    Cas cas =
+        Cas.newBuilder()
+            .setDocumentId("docId")
+            .setCrc32Checksum(ChecksumAlgorithm.CRC32.compute(data))
+            .setCasData(data)
+            .build();
+
+    for (int tier = 0; tier < TIERS.length; tier++) {
+      MongoDbRepositoryDao dao =
+          MongoDbRepositoryDao.newBuilder()
+              .url(URL)
+              .idGenerator(mockIdGenerator)
+              .database(DATABASE)
+              .collection("tier" + tier)
+              .collectionSettings(MongoDbCollectionSettings.parse(TIERS[tier]))
+              .build();
+      dao.initialize();
+
+      long[] storeNanos = new long[MEASURED_OPERATIONS];
+      long[] getNanos = new long[MEASURED_OPERATIONS];
+
+      for (int i = 0; i < WARMUP_OPERATIONS + MEASURED_OPERATIONS; i++) {
+        long start = System.nanoTime();
+        String casId = dao.store(cas);
+        long stored = System.nanoTime();
+        assertEquals(casId, dao.getCasId(casId).getCasId());
+        long read = System.nanoTime();
+
+        if (i >= WARMUP_OPERATIONS) {
+          storeNanos[i - WARMUP_OPERATIONS] = stored - start;
+          getNanos[i - WARMUP_OPERATIONS] = read - stored;
+        }
+      }
+
+      System.out.printf(
+          "%s store p50: %.3f ms, p99: %.3f ms; get p50: %.3f ms, p99: %.3f ms%n",
+          TIERS[tier],
+          percentileMillis(storeNanos, 0.50),
+          percentileMillis(storeNanos, 0.99),
+          percentileMillis(getNanos, 0.50),
+          percentileMillis(getNanos, 0.99));
+
+      dao.cleanup();
+    }
+  }
+
+  private static double percentileMillis(long[] nanos, double percentile) {
+    long[] sorted = nanos.clone();
+    Arrays.sort(sorted);
+
+    int index = (int) Math.ceil(percentile * sorted.length) - 1;
+    return TimeUnit.NANOSECONDS.toMicros(sorted[Math.max(0, index)]) / 1000.0;
+  }
+}
@@ -0,0 +1,99 @@
+package com.revistek.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import redis.embedded.RedisServer;
+
+/**
+ * Compares N single cache commands against one pipelined batch of N commands on an embedded REDIS
+ * server. It is not picked up by the default Surefire includes; run it explicitly with {@code mvn
+ * test -Dtest=RedisCacheDaoPipelineBenchmark}.
+ */
+public class RedisCacheDaoPipelineBenchmark {
+  public static final int PORT = 12347;
+  public static final String URL = "redis://localhost:" + String.valueOf(PORT);
+  public static final int[] BATCH_SIZES = {1, 10, 100, 1000};
+  public static final int WARMUP_ROUNDS = 5;
+  public static final int MEASURED_ROUNDS = 20;
+
+  private static RedisServer redisServer;
+
+  @BeforeAll
+  public static void setupRedis() {
+    redisServer = new RedisServer(PORT);
+    redisServer.start();
+  }
+
+  @AfterAll
+  public static void teardownRedis() {
+    redisServer.stop();
+  }
+
+  @Test
+  public void benchmarkSingleVsPipelined() throws Exception {
+    RedisCacheDao dao = new RedisCacheDao(URL);
+
+    for (int size : BATCH_SIZES) {
+      List<String> keys = new ArrayList<String>(size);
+      Map<String, String> keyValues = new HashMap<String, String>();
+
+      for (int i = 0; i < size; i++) {
+        keys.add("bench" + i);
+        keyValues.put("bench" + i, "value" + i);
+      }
+
+      long singleNanos = 0L;
+      long pipelinedNanos = 0L;
+
+      for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+        long start = System.nanoTime();
+        for (Map.Entry<String, String> entry : keyValues.entrySet()) {
+          dao.set(entry.getKey(), entry.getValue(), 100);
+        }
+        for (String key : keys) {
+          dao.exists(key);
+        }
+        long single = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        List<Supplier<Boolean>> flags = new ArrayList<Supplier<Boolean>>(size);
+
+        try (CacheBatch batch = dao.newBatch()) {
+          for (Map.Entry<String, String> entry : keyValues.entrySet()) {
+            batch.set(entry.getKey(), entry.getValue(), 100);
+          }
+          for (String key : keys) {
+            flags.add(batch.exists(key));
+          }
+          batch.execute();
+        }
+        long pipelined = System.nanoTime() - start;
+
+        assertEquals(size, flags.size());
+
+        if (round >= WARMUP_ROUNDS) {
+          singleNanos += single;
+          pipelinedNanos += pipelined;
+        }
+      }
+
+      System.out.printf(
+          "N=%d single: %.3f ms, pipelined: %.3f ms, speedup: %.1fx%n",
+          size,
+          TimeUnit.NANOSECONDS.toMicros(singleNanos / MEASURED_ROUNDS) / 1000.0,
+          TimeUnit.NANOSECONDS.toMicros(pipelinedNanos / MEASURED_ROUNDS) / 1000.0,
+          (double) singleNanos / pipelinedNanos);
+    }
+
+    dao.cleanup();
+  }
+}
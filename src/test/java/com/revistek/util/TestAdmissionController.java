@@ -0,0 +1,109 @@
+package com.revistek.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class TestAdmissionController {
+  @Test
+  public void testConcurrencyLimit() {
+    AdmissionController controller =
+        AdmissionController.newBuilder().name("testConcurrency").initialLimit(3).build();
+    List<AdmissionController.Permit> permits = new ArrayList<AdmissionController.Permit>();
+
+    for (int i = 0; i < 3; i++) {
+      permits.add(controller.tryAcquire(10));
+    }
+
+    assertNull(controller.tryAcquire(10));
+    assertEquals(3, controller.getInFlight());
+    assertEquals(30, controller.getInFlightBytes());
+
+    permits.get(0).onIgnore();
+    // A permit is released only once.
+    permits.get(0).onSuccess();
+    assertEquals(2, controller.getInFlight());
+    assertNotNull(controller.tryAcquire(10));
+  }
+
+  @Test
+  public void testBytesLimit() {
+    AdmissionController controller =
+        AdmissionController.newBuilder().name("testBytes").maxInFlightBytes(100).build();
+
+    // A payload bigger than the limit is admitted when nothing else is in flight.
+    AdmissionController.Permit permit = controller.tryAcquire(150);
+    assertNotNull(permit);
+    assertNull(controller.tryAcquire(1));
+
+    permit.onIgnore();
+    assertNotNull(controller.tryAcquire(60));
+    assertNotNull(controller.tryAcquire(40));
+    assertNull(controller.tryAcquire(1));
+  }
+
+  @Test
+  public void testLimitAdapts() {
+    AdmissionController controller =
+        AdmissionController.newBuilder().name("testAdapts").initialLimit(20).maxLimit(40).build();
+    long rtt = TimeUnit.MILLISECONDS.toNanos(10);
+
+    // A steady latency under full use lets the limit grow up to the maximum.
+    for (int i = 0; i < 200; i++) {
+      controller.onSample(rtt, controller.getLimit(), false);
+    }
+
+    assertEquals(40, controller.getLimit());
+
+    // A latency far above the long-term latency shrinks it.
+    for (int i = 0; i < 20; i++) {
+      controller.onSample(10 * rtt, controller.getLimit(), false);
+    }
+
+    assertTrue(controller.getLimit() < 30);
+
+    // Failures back off down to the minimum.
+    for (int i = 0; i < 100; i++) {
+      controller.onSample(rtt, controller.getLimit(), true);
+    }
+
+    assertEquals(AdmissionController.DEFAULT_MIN_LIMIT, controller.getLimit());
+  }
+
+  @Test
+  public void testLimitIgnoresIdleSamples() {
+    AdmissionController controller =
+        AdmissionController.newBuilder().name("testIdle").initialLimit(20).build();
+
+    for (int i = 0; i < 100; i++) {
+      controller.onSample(TimeUnit.MILLISECONDS.toNanos(10), 1, false);
+    }
+
+    assertEquals(20, controller.getLimit());
+    assertEquals(1, controller.getRetryAfterSecs());
+  }
+
+  @Test
+  public void testInvalidSettings() {
+    assertThrows(
+        IllegalArgumentException.class, () -> AdmissionController.newBuilder().build());
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> AdmissionController.newBuilder().name("testInvalid").maxInFlightBytes(0).build());
+    assertThrows(
+        IllegalArgumentException.class,
+        () ->
+            AdmissionController.newBuilder()
+                .name("testInvalid")
+                .initialLimit(50)
+                .maxLimit(10)
+                .build());
+  }
+}
@@ -0,0 +1,102 @@
+package com.revistek.util;
+
+import static org.junit.Assert.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+public class TestCasDelta {
+  private final Random random = new Random(42);
+
+  @Test
+  public void testIdentical() throws Exception {
+    byte[] base = randomBytes(10000);
+    byte[] delta = encode(base, base);
+
+    assertTrue(delta.length < 16);
+    assertArrayEquals(base, apply(base, delta, base.length));
+  }
+
+  @Test
+  public void testAppendedAndInserted() throws Exception {
+    byte[] base = randomBytes(20000);
+    byte[] target = new byte[base.length + 1500];
+
+    // Insert 500 bytes in the middle and append 1000 at the end, like an added annotation layer.
+    System.arraycopy(base, 0, target, 0, 8000);
+    System.arraycopy(randomBytes(500), 0, target, 8000, 500);
+    System.arraycopy(base, 8000, target, 8500, base.length - 8000);
+    System.arraycopy(randomBytes(1000), 0, target, base.length + 500, 1000);
+
+    byte[] delta = encode(base, target);
+
+    assertTrue(delta.length < 1600);
+    assertArrayEquals(target, apply(base, delta, target.length));
+  }
+
+  @Test
+  public void testUnrelated() throws Exception {
+    byte[] base = randomBytes(5000);
+    byte[] target = randomBytes(3000);
+
+    assertArrayEquals(target, apply(base, encode(base, target), target.length));
+    assertArrayEquals(target, apply(new byte[0], encode(new byte[0], target), target.length));
+    assertArrayEquals(new byte[0], apply(base, encode(base, new byte[0]), 0));
+  }
+
+  @Test
+  public void testRandomEdits() throws Exception {
+    for (int i = 0; i < 200; i++) {
+      byte[] base = randomBytes(random.nextInt(4000));
+      byte[] target = base;
+
+      for (int edit = random.nextInt(5); edit > 0; edit--) {
+        int at = (target.length == 0) ? 0 : random.nextInt(target.length);
+        byte[] inserted = randomBytes(random.nextInt(100));
+        byte[] edited = new byte[target.length + inserted.length];
+        System.arraycopy(target, 0, edited, 0, at);
+        System.arraycopy(inserted, 0, edited, at, inserted.length);
+        System.arraycopy(target, at, edited, at + inserted.length, target.length - at);
+        target = edited;
+      }
+
+      assertArrayEquals(target, apply(base, encode(base, target), target.length));
+    }
+  }
+
+  @Test
+  public void testCorrupted() throws Exception {
+    byte[] base = randomBytes(5000);
+    byte[] target = Arrays.copyOf(base, 6000);
+    byte[] delta = encode(base, target);
+
+    assertThrows(IOException.class, () -> apply(base, delta, target.length + 1));
+    assertThrows(IOException.class, () -> apply(Arrays.copyOf(base, 100), delta, target.length));
+    assertThrows(IOException.class, () -> apply(base, new byte[] {9}, target.length));
+  }
+
+  private byte[] randomBytes(int length) {
+    byte[] bytes = new byte[length];
+    random.nextBytes(bytes);
+    return bytes;
+  }
+
+  private static byte[] encode(byte[] base, byte[] target) throws IOException {
+    ByteString.Output output = ByteString.newOutput();
+    CodedOutputStream coded = CodedOutputStream.newInstance(output);
+    CasDelta.encode(base, target, coded);
+    coded.flush();
+    return output.toByteString().toByteArray();
+  }
+
+  private static byte[] apply(byte[] base, byte[] delta, int length) throws IOException {
+    return CasDelta.apply(base, CodedInputStream.newInstance(delta), length);
+  }
+}
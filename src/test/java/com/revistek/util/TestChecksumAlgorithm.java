@@ -0,0 +1,65 @@
+package com.revistek.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.google.protobuf.ByteString;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+import org.junit.jupiter.api.Test;
+
+public class TestChecksumAlgorithm {
+  @Test
+  public void testCompute() {
+    byte[] bytes = "test".getBytes(StandardCharsets.UTF_8);
+    ByteString data = ByteString.copyFrom(bytes);
+
+    Checksum crc32 = new CRC32();
+    crc32.update(bytes, 0, bytes.length);
+    assertEquals(crc32.getValue(), ChecksumAlgorithm.CRC32.compute(data));
+
+    Checksum crc32c = new CRC32C();
+    crc32c.update(bytes, 0, bytes.length);
+    assertEquals(crc32c.getValue(), ChecksumAlgorithm.CRC32C.compute(data));
+  }
+
+  @Test
+  public void testComputeRope() {
+    byte[] bytes = new byte[100000];
+    new Random(19L).nextBytes(bytes);
+
+    // A concatenated ByteString is backed by several buffers.
+    ByteString data =
+        ByteString.copyFrom(bytes, 0, 40000).concat(ByteString.copyFrom(bytes, 40000, 60000));
+
+    Checksum crc32c = new CRC32C();
+    crc32c.update(bytes, 0, bytes.length);
+    assertEquals(crc32c.getValue(), ChecksumAlgorithm.CRC32C.compute(data));
+  }
+
+  @Test
+  public void testMatch() {
+    ByteString data = ByteString.copyFrom("test", StandardCharsets.UTF_8);
+    long crc32 = ChecksumAlgorithm.CRC32.compute(data);
+    long crc32c = ChecksumAlgorithm.CRC32C.compute(data);
+
+    assertEquals(
+        ChecksumAlgorithm.CRC32, ChecksumAlgorithm.match(data, crc32, ChecksumAlgorithm.CRC32));
+    assertEquals(
+        ChecksumAlgorithm.CRC32, ChecksumAlgorithm.match(data, crc32, ChecksumAlgorithm.CRC32C));
+    assertEquals(
+        ChecksumAlgorithm.CRC32C, ChecksumAlgorithm.match(data, crc32c, ChecksumAlgorithm.CRC32));
+    assertNull(ChecksumAlgorithm.match(data, 9L, ChecksumAlgorithm.CRC32C));
+  }
+
+  @Test
+  public void testFromName() {
+    assertEquals(ChecksumAlgorithm.CRC32, ChecksumAlgorithm.fromName(null));
+    assertEquals(ChecksumAlgorithm.CRC32C, ChecksumAlgorithm.fromName("CRC32C"));
+    assertThrows(IllegalArgumentException.class, () -> ChecksumAlgorithm.fromName("MD5"));
+  }
+}
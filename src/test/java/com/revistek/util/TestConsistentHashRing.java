@@ -0,0 +1,71 @@
+package com.revistek.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+public class TestConsistentHashRing {
+  private static final int KEYS = 30000;
+
+  @Test
+  public void testCreateInvalid() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> new ConsistentHashRing(Collections.<String>emptyList(), 10));
+    assertThrows(
+        IllegalArgumentException.class, () -> new ConsistentHashRing(Arrays.asList("s0"), 0));
+  }
+
+  @Test
+  public void testBalanced() {
+    ConsistentHashRing ring = new ConsistentHashRing(Arrays.asList("s0", "s1", "s2"), 128);
+    Map<String, Integer> counts = new HashMap<String, Integer>();
+
+    for (int i = 0; i < KEYS; i++) {
+      counts.merge(ring.locate("1642000000000_" + i), 1, Integer::sum);
+    }
+
+    assertEquals(3, counts.size());
+    for (int count : counts.values()) {
+      assertTrue(Math.abs(count - (KEYS / 3)) < (KEYS / 3) * 0.25, "Unbalanced: " + counts);
+    }
+  }
+
+  @Test
+  public void testDeterministic() {
+    ConsistentHashRing first = new ConsistentHashRing(Arrays.asList("s0", "s1", "s2"), 64);
+    ConsistentHashRing second = new ConsistentHashRing(Arrays.asList("s2", "s0", "s1"), 64);
+
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(first.locate("key" + i), second.locate("key" + i));
+    }
+  }
+
+  @Test
+  public void testWithNodeOnlyMovesToNewNode() {
+    ConsistentHashRing ring = new ConsistentHashRing(Arrays.asList("s0", "s1", "s2"), 128);
+    ConsistentHashRing grown = ring.withNode("s3");
+    assertEquals(4, grown.getNodes().size());
+
+    int moved = 0;
+    for (int i = 0; i < KEYS; i++) {
+      String key = "1642000000000_" + i;
+      String before = ring.locate(key);
+      String after = grown.locate(key);
+
+      if (!before.equals(after)) {
+        assertEquals("s3", after);
+        moved++;
+      }
+    }
+
+    // About a quarter of the keys move to the new node.
+    assertTrue(Math.abs(moved - (KEYS / 4)) < (KEYS / 4) * 0.25, "Moved: " + moved);
+  }
+}
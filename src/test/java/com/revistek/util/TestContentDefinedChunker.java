@@ -0,0 +1,82 @@
+package com.revistek.util;
+
+import static org.junit.Assert.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+public class TestContentDefinedChunker {
+  private final Random random = new Random(42);
+
+  @Test
+  public void testCreateInvalid() {
+    assertThrows(IllegalArgumentException.class, () -> new ContentDefinedChunker(63));
+  }
+
+  @Test
+  public void testSizes() {
+    ContentDefinedChunker chunker = new ContentDefinedChunker(5000);
+    assertEquals(4096, chunker.getAverageSize());
+
+    byte[] data = randomBytes(1024 * 1024);
+    List<Integer> boundaries = chunker.split(data);
+    int start = 0;
+
+    for (int i = 0; i < boundaries.size(); i++) {
+      int size = boundaries.get(i) - start;
+
+      assertTrue(size <= chunker.getMaxSize());
+      if (i < (boundaries.size() - 1)) {
+        assertTrue(size >= chunker.getMinSize());
+      }
+
+      start = boundaries.get(i);
+    }
+
+    assertEquals(data.length, start);
+    int averageSize = data.length / boundaries.size();
+    assertTrue((averageSize > 2048) && (averageSize < 8192));
+  }
+
+  @Test
+  public void testSmallAndEmpty() {
+    ContentDefinedChunker chunker = new ContentDefinedChunker(4096);
+
+    assertEquals(List.of(100), chunker.split(randomBytes(100)));
+    assertTrue(chunker.split(new byte[0]).isEmpty());
+    // Data without any boundary is cut at the maximum size.
+    assertEquals(chunker.getMaxSize(), (int) chunker.split(new byte[100000]).get(0));
+  }
+
+  @Test
+  public void testInsertionOnlyChangesNearbyChunks() {
+    ContentDefinedChunker chunker = new ContentDefinedChunker(4096);
+    byte[] data = randomBytes(512 * 1024);
+    byte[] shifted = new byte[data.length + 100];
+    System.arraycopy(randomBytes(100), 0, shifted, 0, 100);
+    System.arraycopy(data, 0, shifted, 100, data.length);
+
+    List<Integer> boundaries = chunker.split(data);
+    Set<Integer> original = new HashSet<Integer>(boundaries);
+    int shared = 0;
+
+    for (int boundary : chunker.split(shifted)) {
+      if (original.contains(boundary - 100)) {
+        shared++;
+      }
+    }
+
+    assertTrue(shared >= (boundaries.size() - 2));
+  }
+
+  private byte[] randomBytes(int length) {
+    byte[] bytes = new byte[length];
+    random.nextBytes(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,147 @@
+package com.revistek.util;
+
+import static org.junit.Assert.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.protobuf.ByteString;
+import com.revistek.crs.protos.Cas;
+import com.revistek.exceptions.MalformedDataException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+public class TestDeltaRepositoryDao {
+  private final IdGenerator mockIdGenerator = Mockito.mock(IdGenerator.class);
+  private final AtomicInteger nextId = new AtomicInteger();
+  private final Random random = new Random(42);
+  private InMemoryRepositoryDao repositoryDao;
+  private DeltaRepositoryDao dao;
+
+  @BeforeEach
+  public void setup() {
+    Mockito.when(mockIdGenerator.refreshAndGetUniqueId())
+        .thenAnswer(invocation -> "1642000000000_" + nextId.incrementAndGet());
+    repositoryDao = InMemoryRepositoryDao.newBuilder().idGenerator(mockIdGenerator).build();
+    dao = DeltaRepositoryDao.newBuilder().repositoryDao(repositoryDao).maxChainLength(2).build();
+  }
+
+  @Test
+  public void testCreateInvalid() {
+    assertThrows(IllegalArgumentException.class, () -> DeltaRepositoryDao.newBuilder().build());
+    assertThrows(
+        IllegalArgumentException.class,
+        () ->
+            DeltaRepositoryDao.newBuilder()
+                .repositoryDao(repositoryDao)
+                .maxChainLength(0)
+                .build());
+    assertThrows(
+        IllegalArgumentException.class,
+        () ->
+            DeltaRepositoryDao.newBuilder()
+                .repositoryDao(repositoryDao)
+                .maxDeltaRatio(1.5)
+                .build());
+  }
+
+  @Test
+  public void testStoreDeltaAndGet() throws Exception {
+    ByteString data = randomBytes(20000);
+    String baseCasId = dao.store(newCas("docId", data));
+    ByteString next = data.concat(randomBytes(500));
+    Cas cas = newCas("docId", next);
+    String casId = dao.storeDelta(cas, baseCasId);
+
+    Cas stored = repositoryDao.getCasId(casId);
+    assertEquals(DeltaRepositoryDao.DELTA_DOCUMENT_PREFIX + baseCasId, stored.getDocumentId());
+    assertTrue(stored.getCasData().size() < 1000);
+
+    Cas read = dao.getCasId(casId);
+    assertEquals(casId, read.getCasId());
+    assertEquals("docId", read.getDocumentId());
+    assertEquals(cas.getCrc32Checksum(), read.getCrc32Checksum());
+    assertEquals(next, read.getCasData());
+    assertEquals(data, dao.getCasId(baseCasId).getCasData());
+  }
+
+  @Test
+  public void testStoreFull() throws Exception {
+    ByteString data = randomBytes(20000);
+    String baseCasId = dao.store(newCas("docId", data));
+
+    // Another document, an unrelated Cas, and a missing base are stored in full.
+    String otherDocument = dao.storeDelta(newCas("otherDocId", data), baseCasId);
+    String unrelated = dao.storeDelta(newCas("docId", randomBytes(20000)), baseCasId);
+    String missingBase = dao.storeDelta(newCas("docId", data), "missing");
+
+    assertEquals("otherDocId", repositoryDao.getCasId(otherDocument).getDocumentId());
+    assertEquals("docId", repositoryDao.getCasId(unrelated).getDocumentId());
+    assertEquals("docId", repositoryDao.getCasId(missingBase).getDocumentId());
+
+    Cas corrupted = newCas("docId", data).toBuilder().setCrc32Checksum(9L).build();
+    assertThrows(MalformedDataException.class, () -> dao.storeDelta(corrupted, baseCasId));
+  }
+
+  @Test
+  public void testMaxChainLength() throws Exception {
+    ByteString data = randomBytes(20000);
+    String casId = dao.store(newCas("docId", data));
+
+    for (int i = 0; i < 3; i++) {
+      data = data.concat(randomBytes(100));
+      casId = dao.storeDelta(newCas("docId", data), casId);
+    }
+
+    // The third checkpoint is past the chain length of 2, so it starts a new chain.
+    assertEquals("docId", repositoryDao.getCasId(casId).getDocumentId());
+    assertEquals(data, dao.getCasId(casId).getCasData());
+  }
+
+  @Test
+  public void testDeleteBase() throws Exception {
+    ByteString data = randomBytes(20000);
+    String baseCasId = dao.store(newCas("docId", data));
+    ByteString next = data.concat(randomBytes(500));
+    String casId = dao.storeDelta(newCas("docId", next), baseCasId);
+
+    dao.deleteCasId(baseCasId);
+    assertFalse(dao.existsCasId(baseCasId));
+    assertTrue(repositoryDao.existsCasId(baseCasId + DeltaRepositoryDao.RETIRED_SUFFIX));
+    assertEquals(next, dao.getCasId(casId).getCasData());
+
+    // The retired base is deleted along with the last delta stored against it.
+    dao.deleteCasId(casId);
+    assertFalse(dao.existsCasId(casId));
+    assertFalse(repositoryDao.existsCasId(baseCasId + DeltaRepositoryDao.RETIRED_SUFFIX));
+    assertEquals(0, repositoryDao.getCount());
+  }
+
+  @Test
+  public void testCorruptedDelta() throws Exception {
+    ByteString data = randomBytes(20000);
+    String baseCasId = dao.store(newCas("docId", data));
+    String casId = dao.storeDelta(newCas("docId", data.concat(randomBytes(500))), baseCasId);
+
+    // Replacing the base breaks the delta, which must not be returned as the original Cas.
+    repositoryDao.store(newCas("docId", randomBytes(20000)), baseCasId);
+    assertThrows(MalformedDataException.class, () -> dao.getCasId(casId));
+  }
+
+  private ByteString randomBytes(int length) {
+    byte[] bytes = new byte[length];
+    random.nextBytes(bytes);
+    return ByteString.copyFrom(bytes);
+  }
+
+  private static Cas newCas(String docId, ByteString data) {
+    return Cas.newBuilder()
+        .setDocumentId(docId)
+        .setCrc32Checksum(ChecksumAlgorithm.CRC32.compute(data))
+        .setCasData(data)
+        .build();
+  }
+}
@@ -0,0 +1,146 @@
+package com.revistek.util;
+
+import static org.junit.Assert.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.revistek.exceptions.IllegalMetadataStoreStateException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class TestEmbeddedMetadataStoreDao {
+  @TempDir public Path directory;
+
+  private EmbeddedMetadataStoreDao dao;
+
+  @BeforeEach
+  public void setup() {
+    dao = open();
+  }
+
+  @AfterEach
+  public void teardown() {
+    dao.cleanup();
+  }
+
+  @Test
+  public void testAddDelete() throws Exception {
+    dao.addCasId("query1", "casId1");
+    dao.addCasId("query2", "casId1");
+    assertEquals(Arrays.asList("casId1"), dao.getCasIds("query1", null, 10));
+
+    assertThrows(IllegalMetadataStoreStateException.class, () -> dao.addCasId("query1", "casId1"));
+    assertThrows(IllegalArgumentException.class, () -> dao.addCasId("unknown", "casId2"));
+    assertThrows(IllegalArgumentException.class, () -> dao.addCasId("query1", ""));
+
+    dao.deleteCasId("query1", "casId1");
+    assertEquals(Collections.emptyList(), dao.getCasIds("query1", null, 10));
+    assertEquals(Arrays.asList("casId1"), dao.getCasIds("query2", null, 10));
+
+    // Deleting a missing Cas ID does nothing, like deleting it from MongoDB.
+    dao.deleteCasId("query1", "casId1");
+
+    dao.deleteAllCasId("casId1");
+    assertEquals(Collections.emptyList(), dao.getCasIds("query2", null, 10));
+  }
+
+  @Test
+  public void testSharedTable() throws Exception {
+    dao.registerQuery("query3", "database", "collection1");
+    dao.addCasId("query3", "casId1");
+
+    assertEquals(Arrays.asList("casId1"), dao.getCasIds("query1", null, 10));
+    assertThrows(IllegalMetadataStoreStateException.class, () -> dao.addCasId("query1", "casId1"));
+  }
+
+  @Test
+  public void testOrderedPages() throws Exception {
+    for (String casId : Arrays.asList("1642000000003_a", "1642000000001_a", "1642000000002_a")) {
+      dao.addCasId("query1", casId);
+    }
+
+    assertEquals(
+        Arrays.asList("1642000000001_a", "1642000000002_a"), dao.getCasIds("query1", null, 2));
+    assertEquals(
+        Arrays.asList("1642000000003_a"), dao.getCasIds("query1", "1642000000002_a", 2));
+    assertThrows(IllegalArgumentException.class, () -> dao.getCasIds("unknown", null, 2));
+  }
+
+  @Test
+  public void testReplay() throws Exception {
+    dao.addCasId("query1", "casId1");
+    dao.addCasId("query1", "casId2");
+    dao.addCasId("query2", "casId3");
+    dao.deleteCasId("query1", "casId1");
+    dao.cleanup();
+
+    dao = open();
+    assertEquals(Arrays.asList("casId2"), dao.getCasIds("query1", null, 10));
+    assertEquals(Arrays.asList("casId3"), dao.getCasIds("query2", null, 10));
+  }
+
+  @Test
+  public void testReplayTornTail() throws Exception {
+    dao.addCasId("query1", "casId1");
+    dao.cleanup();
+
+    long size = Files.size(dao.getLogPath());
+    Files.write(dao.getLogPath(), new byte[] {0, 0, 0, 40, 1}, StandardOpenOption.APPEND);
+
+    dao = open();
+    assertEquals(size, Files.size(dao.getLogPath()));
+    assertEquals(Arrays.asList("casId1"), dao.getCasIds("query1", null, 10));
+
+    dao.addCasId("query1", "casId2");
+    dao.cleanup();
+
+    dao = open();
+    assertEquals(Arrays.asList("casId1", "casId2"), dao.getCasIds("query1", null, 10));
+  }
+
+  @Test
+  public void testCompact() throws Exception {
+    for (int i = 0; i < 100; i++) {
+      dao.addCasId("query1", String.format("casId%03d", i));
+    }
+
+    for (int i = 0; i < 90; i++) {
+      dao.deleteCasId("query1", String.format("casId%03d", i));
+    }
+
+    long size = Files.size(dao.getLogPath());
+    dao.compact();
+    assertTrue(Files.size(dao.getLogPath()) < (size / 10));
+
+    dao.addCasId("query1", "casId999");
+    dao.cleanup();
+
+    dao = open();
+    List<String> casIds = dao.getCasIds("query1", null, 100);
+    assertEquals(11, casIds.size());
+    assertEquals("casId090", casIds.get(0));
+    assertEquals("casId999", casIds.get(10));
+  }
+
+  private EmbeddedMetadataStoreDao open() {
+    Map<String, Pair<String, String>> queries = new HashMap<String, Pair<String, String>>();
+    queries.put("query1", ImmutablePair.of("database", "collection1"));
+    queries.put("query2", ImmutablePair.of("database", "collection2"));
+
+    EmbeddedMetadataStoreDao opened = new EmbeddedMetadataStoreDao(directory);
+    opened.replaceQueries(queries);
+    return opened;
+  }
+}
@@ -0,0 +1,114 @@
+package com.revistek.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.slf4j.Logger;
+import org.slf4j.helpers.NOPLogger;
+
+public class TestErrorLog {
+  private static final int ITERATIONS = 100000;
+
+  @Test
+  public void testRateLimit() throws Exception {
+    Logger logger = Mockito.mock(Logger.class);
+    Mockito.when(logger.isErrorEnabled()).thenReturn(true);
+    ErrorLog errorLog = new ErrorLog(logger, "test.rateLimit", 3);
+    Exception cause = new IllegalStateException();
+
+    for (int i = 0; i < 10; i++) {
+      errorLog.error("The Cas could not be read.", "casId", "casId" + i, cause);
+    }
+
+    // The errors over the limit are counted and reported with the next logged error.
+    Thread.sleep(1100L);
+    errorLog.error("The Cas could not be read.", "casId", "casId10", cause);
+
+    ArgumentCaptor<String> lines = ArgumentCaptor.forClass(String.class);
+    Mockito.verify(logger, Mockito.timeout(1000L).times(4))
+        .error(lines.capture(), Mockito.same(cause));
+    List<String> logged = lines.getAllValues();
+
+    assertEquals(
+        "event=test.rateLimit message=\"The Cas could not be read.\" casId=casId0"
+            + " exception=java.lang.IllegalStateException",
+        logged.get(0));
+    assertTrue(logged.get(3).contains(" casId=casId10 suppressed=7 "));
+  }
+
+  @Test
+  public void testStartStop() {
+    Logger logger = Mockito.mock(Logger.class);
+    Mockito.when(logger.isErrorEnabled()).thenReturn(true);
+    ErrorLog errorLog = new ErrorLog(logger, "test.startStop", 3);
+
+    ErrorLog.start();
+    errorLog.error("The Cas could not be read.", null);
+    ErrorLog.stop();
+
+    // The error is written by the time the writer has stopped, and the writer is gone.
+    Mockito.verify(logger).error(Mockito.anyString(), Mockito.nullable(Throwable.class));
+    assertTrue(
+        Thread.getAllStackTraces().keySet().stream()
+            .noneMatch(thread -> thread.getName().equals("error-log")));
+
+    errorLog.error("The Cas could not be read.", null);
+    Mockito.verify(logger, Mockito.times(2))
+        .error(Mockito.anyString(), Mockito.nullable(Throwable.class));
+  }
+
+  @Test
+  public void testDisabled() {
+    Logger logger = Mockito.mock(Logger.class);
+    ErrorLog errorLog = new ErrorLog(logger, "test.disabled", 3);
+
+    errorLog.error("The Cas could not be read.", null);
+
+    Mockito.verify(logger, Mockito.after(200L).never())
+        .error(Mockito.anyString(), Mockito.nullable(Throwable.class));
+  }
+
+  @Test
+  public void testDisabledLoggingAllocatesNothing() {
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+    Logger logger = NOPLogger.NOP_LOGGER;
+    ErrorLog errorLog = new ErrorLog(logger, "test.allocation", 3);
+    Exception cause = new IllegalStateException();
+
+    for (int i = 0; i < ITERATIONS; i++) {
+      logHotPath(logger, errorLog, "casId", i, cause);
+    }
+
+    threads.getThreadAllocatedBytes(threadId);
+    long before = threads.getThreadAllocatedBytes(threadId);
+
+    for (int i = 0; i < ITERATIONS; i++) {
+      logHotPath(logger, errorLog, "casId", i, cause);
+    }
+
+    long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+    // Allow for the measurement itself, but not for a single allocation per call.
+    assertTrue(allocated < ITERATIONS, "Allocated " + allocated + " bytes.");
+  }
+
+  /** The shapes of the log statements on the request paths. */
+  private static void logHotPath(
+      Logger logger, ErrorLog errorLog, String casId, int count, Exception cause) {
+    logger.trace("Getting the Cas: {}.", casId);
+    logger.trace("Storing the Cas: {} for document: {}.", casId, casId);
+
+    if (logger.isTraceEnabled()) {
+      logger.trace("Stored {} chunks. {} were not stored before.", count, count);
+    }
+
+    errorLog.error("There was an error retrieving the Cas.", "casId", casId, cause);
+  }
+}
@@ -0,0 +1,250 @@
+package com.revistek.util;
+
+import static org.junit.Assert.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.protobuf.ByteString;
+import com.revistek.crs.protos.Cas;
+import com.revistek.exceptions.MalformedDataException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+
+public class TestFileSegmentRepositoryDao {
+  @TempDir public Path directory;
+
+  private final IdGenerator mockIdGenerator = Mockito.mock(IdGenerator.class);
+  private final AtomicInteger nextId = new AtomicInteger();
+  private FileSegmentRepositoryDao dao;
+
+  @BeforeEach
+  public void setup() {
+    Mockito.when(mockIdGenerator.refreshAndGetUniqueId())
+        .thenAnswer(invocation -> "1642000000000_" + nextId.incrementAndGet());
+
+    dao = open(FileSegmentRepositoryDao.DEFAULT_MAX_SEGMENT_BYTES);
+  }
+
+  @AfterEach
+  public void teardown() {
+    dao.cleanup();
+  }
+
+  @Test
+  public void testCreateInvalid() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> FileSegmentRepositoryDao.newBuilder().idGenerator(mockIdGenerator).build());
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> FileSegmentRepositoryDao.newBuilder().directory(directory).build());
+    assertThrows(
+        IllegalArgumentException.class,
+        () ->
+            FileSegmentRepositoryDao.newBuilder()
+                .directory(directory)
+                .idGenerator(mockIdGenerator)
+                .maxSegmentBytes(4L * 1024L * 1024L * 1024L)
+                .build());
+    assertThrows(
+        IllegalArgumentException.class,
+        () ->
+            FileSegmentRepositoryDao.newBuilder()
+                .directory(directory)
+                .idGenerator(mockIdGenerator)
+                .compactionThreshold(0)
+                .build());
+  }
+
+  @Test
+  public void testStoreGetDelete() throws Exception {
+    Cas cas = newCas("docId", "some Cas data");
+    String casId = dao.store(cas);
+
+    assertTrue(dao.existsCasId(casId));
+    Cas retrieved = dao.getCasId(casId);
+    assertEquals(casId, retrieved.getCasId());
+    assertEquals("docId", retrieved.getDocumentId());
+    assertEquals(cas.getCrc32Checksum(), retrieved.getCrc32Checksum());
+    assertEquals(cas.getCasData(), retrieved.getCasData());
+
+    dao.deleteCasId(casId);
+    assertFalse(dao.existsCasId(casId));
+    assertThrows(IllegalArgumentException.class, () -> dao.getCasId(casId));
+
+    // Deleting again does nothing, like deleting a missing Cas from MongoDB.
+    dao.deleteCasId(casId);
+  }
+
+  @Test
+  public void testStoreInvalid() throws Exception {
+    Cas corrupted = newCas("docId", "some Cas data").toBuilder().setCrc32Checksum(9L).build();
+    assertThrows(MalformedDataException.class, () -> dao.store(corrupted));
+
+    Cas noDocId = newCas("docId", "some Cas data").toBuilder().clearDocumentId().build();
+    assertThrows(MalformedDataException.class, () -> dao.store(noDocId));
+
+    assertThrows(IllegalArgumentException.class, () -> dao.existsCasId(""));
+  }
+
+  @Test
+  public void testGetCasIds() throws Exception {
+    String first = dao.store(newCas("docId", "first"));
+    String second = dao.store(newCas("docId", "second"));
+    dao.store(newCas("otherDocId", "other"));
+    dao.deleteCasId(first);
+
+    assertEquals(Arrays.asList(second), dao.getCasIds("docId"));
+    assertTrue(dao.getCasIds("unknown").isEmpty());
+  }
+
+  @Test
+  public void testReadActiveSegmentTail() throws Exception {
+    // A small tail of the active segment is read without mapping it, a large one is mapped.
+    String small = dao.store(newCas("docId", "small"));
+    assertEquals("small", dao.getCasId(small).getCasData().toStringUtf8());
+
+    byte[] bytes = new byte[9 * 1024 * 1024];
+    bytes[bytes.length - 1] = 7;
+    ByteString large = ByteString.copyFrom(bytes);
+    String largeCasId =
+        dao.store(
+            Cas.newBuilder()
+                .setDocumentId("docId")
+                .setCrc32Checksum(ChecksumAlgorithm.CRC32.compute(large))
+                .setCasData(large)
+                .build());
+
+    assertEquals(large, dao.getCasId(largeCasId).getCasData());
+    assertEquals("small", dao.getCasId(small).getCasData().toStringUtf8());
+    String after = dao.store(newCas("docId", "after"));
+    assertEquals("after", dao.getCasId(after).getCasData().toStringUtf8());
+  }
+
+  @Test
+  public void testRecover() throws Exception {
+    List<String> casIds = storeCases(20);
+    dao.deleteCasId(casIds.get(3));
+    dao.cleanup();
+
+    dao = open(FileSegmentRepositoryDao.DEFAULT_MAX_SEGMENT_BYTES);
+
+    for (int i = 0; i < casIds.size(); i++) {
+      assertEquals(i != 3, dao.existsCasId(casIds.get(i)));
+    }
+
+    assertEquals(data(7), dao.getCasId(casIds.get(7)).getCasData());
+  }
+
+  @Test
+  public void testRecoverTornTail() throws Exception {
+    List<String> casIds = storeCases(5);
+    dao.cleanup();
+
+    // A crash in the middle of an append leaves part of a record behind.
+    Path segment = segmentFiles().get(0);
+    long size = Files.size(segment);
+    Files.write(segment, new byte[] {0x43, 0x41, 0x53}, StandardOpenOption.APPEND);
+
+    dao = open(FileSegmentRepositoryDao.DEFAULT_MAX_SEGMENT_BYTES);
+    assertEquals(size, Files.size(segment));
+
+    for (String casId : casIds) {
+      assertTrue(dao.existsCasId(casId));
+    }
+
+    String casId = dao.store(newCas("docId", "after the crash"));
+    assertEquals("after the crash", dao.getCasId(casId).getCasData().toStringUtf8());
+  }
+
+  @Test
+  public void testRollAndCompact() throws Exception {
+    dao.cleanup();
+    dao = open(300);
+
+    List<String> casIds = storeCases(30);
+    int segmentCount = dao.getSegmentCount();
+    assertTrue(segmentCount > 2);
+
+    // Deleting all but every fifth Cas leaves the sealed segments mostly dead.
+    for (int i = 0; i < casIds.size(); i++) {
+      if ((i % 5) != 0) {
+        dao.deleteCasId(casIds.get(i));
+      }
+    }
+
+    assertTrue(dao.compact() > 0);
+
+    for (int i = 0; i < casIds.size(); i++) {
+      assertEquals((i % 5) == 0, dao.existsCasId(casIds.get(i)));
+
+      if ((i % 5) == 0) {
+        assertEquals(data(i), dao.getCasId(casIds.get(i)).getCasData());
+      }
+    }
+
+    // The deleted Cases stay deleted after the compacted segments are gone.
+    dao.cleanup();
+    dao = open(300);
+
+    for (int i = 0; i < casIds.size(); i++) {
+      assertEquals((i % 5) == 0, dao.existsCasId(casIds.get(i)));
+    }
+  }
+
+  private FileSegmentRepositoryDao open(long maxSegmentBytes) {
+    FileSegmentRepositoryDao opened =
+        FileSegmentRepositoryDao.newBuilder()
+            .directory(directory)
+            .idGenerator(mockIdGenerator)
+            .maxSegmentBytes(maxSegmentBytes)
+            .compactionIntervalInSecs(0)
+            .build();
+    opened.initialize();
+    return opened;
+  }
+
+  private List<String> storeCases(int count) throws Exception {
+    List<String> casIds = new ArrayList<String>(count);
+
+    for (int i = 0; i < count; i++) {
+      casIds.add(dao.store(newCas("docId" + i, data(i).toStringUtf8())));
+    }
+
+    return casIds;
+  }
+
+  private List<Path> segmentFiles() throws Exception {
+    try (Stream<Path> stream = Files.list(directory)) {
+      return stream.sorted().collect(Collectors.toList());
+    }
+  }
+
+  private static ByteString data(int i) {
+    return ByteString.copyFrom("the data of Cas number " + i, StandardCharsets.UTF_8);
+  }
+
+  private static Cas newCas(String docId, String data) {
+    ByteString casData = ByteString.copyFrom(data, StandardCharsets.UTF_8);
+
+    return Cas.newBuilder()
+        .setDocumentId(docId)
+        .setCrc32Checksum(ChecksumAlgorithm.CRC32.compute(casData))
+        .setCasData(casData)
+        .build();
+  }
+}
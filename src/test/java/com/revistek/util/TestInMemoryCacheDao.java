@@ -0,0 +1,65 @@
+package com.revistek.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+public class TestInMemoryCacheDao {
+  private final AtomicLong now = new AtomicLong(1000000L);
+
+  @Test
+  public void testSetGet() {
+    InMemoryCacheDao dao = new InMemoryCacheDao(1024L * 1024L, now::get);
+    dao.set("key", "value", 0);
+
+    assertEquals("value", dao.get("key"));
+    assertTrue(dao.exists("key"));
+    assertNull(dao.get("missing"));
+    assertFalse(dao.exists("missing"));
+
+    dao.delete("key");
+    assertFalse(dao.exists("key"));
+  }
+
+  @Test
+  public void testGetMap() {
+    InMemoryCacheDao dao = new InMemoryCacheDao();
+    assertTrue(dao.getMap("map").isEmpty());
+
+    dao.setMap("map", Collections.singletonMap("query1", "database,collection"));
+    assertEquals("database,collection", dao.getMap("map").get("query1"));
+  }
+
+  @Test
+  public void testExpiry() {
+    InMemoryCacheDao dao = new InMemoryCacheDao(1024L * 1024L, now::get);
+    dao.set("short", "value", 10);
+    dao.set("forever", "value", 0);
+
+    now.addAndGet(9999L);
+    assertTrue(dao.exists("short"));
+
+    now.addAndGet(1L);
+    assertFalse(dao.exists("short"));
+    assertNull(dao.get("short"));
+    assertTrue(dao.exists("forever"));
+  }
+
+  @Test
+  public void testEviction() {
+    InMemoryCacheDao dao = new InMemoryCacheDao(16L * 1000L, now::get);
+
+    for (int i = 0; i < 1000; i++) {
+      dao.set(String.format("key%04d", i), "a value of forty bytes long, roughly...", 0);
+    }
+
+    assertTrue(dao.getBytes() <= (16L * 1000L));
+    assertTrue(dao.exists("key0999"));
+    assertFalse(dao.exists("key0000"));
+  }
+}
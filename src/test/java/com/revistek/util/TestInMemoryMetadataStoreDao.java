@@ -0,0 +1,34 @@
+package com.revistek.util;
+
+import static org.junit.Assert.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.revistek.exceptions.IllegalMetadataStoreStateException;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+public class TestInMemoryMetadataStoreDao {
+  @Test
+  public void testAddDelete() throws Exception {
+    InMemoryMetadataStoreDao dao = new InMemoryMetadataStoreDao();
+    dao.registerQuery("query1", "database", "collection1");
+    dao.registerQuery("query2", "database", "collection2");
+    dao.registerQuery("query3", "database", "collection1");
+
+    dao.addCasId("query1", "casId1");
+    dao.addCasId("query2", "casId1");
+    assertEquals(Arrays.asList("casId1"), dao.getCasIds("query1"));
+
+    // Queries with the same database and collection share a table.
+    assertEquals(Arrays.asList("casId1"), dao.getCasIds("query3"));
+    assertThrows(IllegalMetadataStoreStateException.class, () -> dao.addCasId("query3", "casId1"));
+    assertThrows(IllegalArgumentException.class, () -> dao.addCasId("unknown", "casId1"));
+    assertThrows(
+        IllegalArgumentException.class, () -> dao.registerQuery("query4", "", "collection"));
+
+    dao.deleteAllCasId("casId1");
+    assertTrue(dao.getCasIds("query1").isEmpty());
+    assertTrue(dao.getCasIds("query2").isEmpty());
+  }
+}
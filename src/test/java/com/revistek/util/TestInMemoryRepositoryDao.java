@@ -0,0 +1,83 @@
+package com.revistek.util;
+
+import static org.junit.Assert.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.protobuf.ByteString;
+import com.revistek.crs.protos.Cas;
+import com.revistek.exceptions.MalformedDataException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+public class TestInMemoryRepositoryDao {
+  private final IdGenerator mockIdGenerator = Mockito.mock(IdGenerator.class);
+  private final AtomicInteger nextId = new AtomicInteger();
+
+  @BeforeEach
+  public void setup() {
+    Mockito.when(mockIdGenerator.refreshAndGetUniqueId())
+        .thenAnswer(invocation -> "1642000000000_" + nextId.incrementAndGet());
+  }
+
+  @Test
+  public void testCreateInvalid() {
+    assertThrows(IllegalArgumentException.class, () -> InMemoryRepositoryDao.newBuilder().build());
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> InMemoryRepositoryDao.newBuilder().idGenerator(mockIdGenerator).maxBytes(0).build());
+  }
+
+  @Test
+  public void testStoreGetDelete() throws Exception {
+    InMemoryRepositoryDao dao =
+        InMemoryRepositoryDao.newBuilder().idGenerator(mockIdGenerator).build();
+    Cas cas = newCas(1000);
+    String casId = dao.store(cas);
+
+    assertTrue(dao.existsCasId(casId));
+    assertEquals(casId, dao.getCasId(casId).getCasId());
+    assertEquals(cas.getCasData(), dao.getCasId(casId).getCasData());
+
+    dao.deleteCasId(casId);
+    assertFalse(dao.existsCasId(casId));
+    assertThrows(IllegalArgumentException.class, () -> dao.getCasId(casId));
+
+    Cas corrupted = cas.toBuilder().setCrc32Checksum(9L).build();
+    assertThrows(MalformedDataException.class, () -> dao.store(corrupted));
+  }
+
+  @Test
+  public void testEviction() throws Exception {
+    InMemoryRepositoryDao dao =
+        InMemoryRepositoryDao.newBuilder()
+            .idGenerator(mockIdGenerator)
+            .maxBytes(64L * 1024L)
+            .build();
+    List<String> casIds = new ArrayList<String>();
+
+    for (int i = 0; i < 200; i++) {
+      casIds.add(dao.store(newCas(1000)));
+    }
+
+    assertTrue(dao.getBytes() <= (64L * 1024L));
+    assertTrue(dao.getCount() < 200);
+    assertTrue(dao.existsCasId(casIds.get(199)));
+    assertFalse(dao.existsCasId(casIds.get(0)));
+  }
+
+  private static Cas newCas(int size) {
+    ByteString data = ByteString.copyFrom(new byte[size]);
+
+    return Cas.newBuilder()
+        .setDocumentId("docId")
+        .setCrc32Checksum(ChecksumAlgorithm.CRC32.compute(data))
+        .setCasData(data)
+        .build();
+  }
+}
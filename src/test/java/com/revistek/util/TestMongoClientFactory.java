@@ -0,0 +1,126 @@
+package com.revistek.util;
+
+import static org.junit.Assert.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedStatic;
+import org.mockito.Mockito;
+
+public class TestMongoClientFactory {
+  @Test
+  public void testCreateInvalid() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> MongoClientFactory.newBuilder().maxPoolSize(0).build());
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> MongoClientFactory.newBuilder().maxPoolSize(5).minPoolSize(6).build());
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> MongoClientFactory.newBuilder().maxWaitMillis(-1L).build());
+  }
+
+  @Test
+  public void testSettings() {
+    MongoClientFactory factory =
+        MongoClientFactory.newBuilder()
+            .maxPoolSize(20)
+            .minPoolSize(2)
+            .maxWaitMillis(500L)
+            .maxIdleMillis(60000L)
+            .connectTimeoutMillis(1000)
+            .socketTimeoutMillis(3000)
+            .build();
+    MongoClientSettings settings = factory.settingsFor("mongodb://localhost:12346");
+
+    assertEquals(20, settings.getConnectionPoolSettings().getMaxSize());
+    assertEquals(2, settings.getConnectionPoolSettings().getMinSize());
+    assertEquals(
+        500L, settings.getConnectionPoolSettings().getMaxWaitTime(TimeUnit.MILLISECONDS));
+    assertEquals(
+        60000L,
+        settings.getConnectionPoolSettings().getMaxConnectionIdleTime(TimeUnit.MILLISECONDS));
+    assertEquals(1000, settings.getSocketSettings().getConnectTimeout(TimeUnit.MILLISECONDS));
+    assertEquals(3000, settings.getSocketSettings().getReadTimeout(TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testSettingsUrlWins() {
+    MongoClientFactory factory = MongoClientFactory.newBuilder().maxPoolSize(20).build();
+    MongoClientSettings settings =
+        factory.settingsFor("mongodb://localhost:12346/?maxPoolSize=7&connectTimeoutMS=250");
+
+    assertEquals(7, settings.getConnectionPoolSettings().getMaxSize());
+    assertEquals(250, settings.getSocketSettings().getConnectTimeout(TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testShared() {
+    MongoClientFactory factory = MongoClientFactory.newBuilder().build();
+    MongoClient mockClient1 = Mockito.mock(MongoClient.class);
+    MongoClient mockClient2 = Mockito.mock(MongoClient.class);
+
+    try (MockedStatic<MongoClients> mockMongoClients = Mockito.mockStatic(MongoClients.class)) {
+      mockMongoClients
+          .when(() -> MongoClients.create(any(MongoClientSettings.class)))
+          .thenReturn(mockClient1, mockClient2);
+
+      MongoClient client1 = factory.acquire("mongodb://localhost:12346");
+      MongoClient client2 = factory.acquire("mongodb://localhost:12346");
+      MongoClient client3 = factory.acquire("mongodb://localhost:12347");
+
+      assertSame(mockClient1, client1);
+      assertSame(mockClient1, client2);
+      assertSame(mockClient2, client3);
+      assertEquals(2, factory.getClientCount());
+
+      factory.release(client1);
+      Mockito.verify(mockClient1, Mockito.never()).close();
+
+      factory.release(client2);
+      Mockito.verify(mockClient1).close();
+      assertEquals(1, factory.getClientCount());
+
+      factory.close();
+      Mockito.verify(mockClient2).close();
+      assertEquals(0, factory.getClientCount());
+    }
+  }
+
+  @Test
+  public void testDaosShareClient() {
+    MongoClientFactory factory = MongoClientFactory.newBuilder().build();
+    MongoClient mockClient = Mockito.mock(MongoClient.class);
+
+    try (MockedStatic<MongoClients> mockMongoClients = Mockito.mockStatic(MongoClients.class)) {
+      mockMongoClients
+          .when(() -> MongoClients.create(any(MongoClientSettings.class)))
+          .thenReturn(mockClient);
+
+      MongoDbRepositoryDao repositoryDao =
+          MongoDbRepositoryDao.newBuilder()
+              .url("url")
+              .clientFactory(factory)
+              .idGenerator(Mockito.mock(IdGenerator.class))
+              .database("database")
+              .collection("collection")
+              .build();
+      MongoDbMetadataStoreDao metadataDao = new MongoDbMetadataStoreDao("url", factory);
+
+      assertSame(repositoryDao.getClient(), metadataDao.getClient());
+
+      repositoryDao.cleanup();
+      Mockito.verify(mockClient, Mockito.never()).close();
+
+      metadataDao.cleanup();
+      Mockito.verify(mockClient).close();
+    }
+  }
+}
@@ -0,0 +1,77 @@
+package com.revistek.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.mongodb.ReadConcern;
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class TestMongoDbCollectionSettings {
+  @Test
+  public void testParseDefault() {
+    assertSame(MongoDbCollectionSettings.DEFAULT, MongoDbCollectionSettings.parse(null));
+    assertSame(MongoDbCollectionSettings.DEFAULT, MongoDbCollectionSettings.parse(" "));
+    assertNull(MongoDbCollectionSettings.DEFAULT.getWriteConcern());
+    assertNull(MongoDbCollectionSettings.DEFAULT.getReadPreference());
+    assertNull(MongoDbCollectionSettings.DEFAULT.getReadConcern());
+  }
+
+  @Test
+  public void testParse() {
+    MongoDbCollectionSettings settings =
+        MongoDbCollectionSettings.parse(
+            "w=majority, j=true,wtimeoutMS=500,readPreference=secondaryPreferred,readConcern=local");
+
+    assertEquals(
+        WriteConcern.MAJORITY.withJournal(true).withWTimeout(500, TimeUnit.MILLISECONDS),
+        settings.getWriteConcern());
+    assertEquals(ReadPreference.secondaryPreferred(), settings.getReadPreference());
+    assertEquals(ReadConcern.LOCAL, settings.getReadConcern());
+    assertEquals(new WriteConcern(2), MongoDbCollectionSettings.parse("w=2").getWriteConcern());
+  }
+
+  @Test
+  public void testParseDurability() {
+    assertEquals(
+        WriteConcern.W1.withJournal(false),
+        MongoDbCollectionSettings.parse("durability=fast").getWriteConcern());
+    assertEquals(
+        WriteConcern.W1.withJournal(true),
+        MongoDbCollectionSettings.parse("durability=journaled").getWriteConcern());
+    assertEquals(
+        WriteConcern.MAJORITY.withJournal(true),
+        MongoDbCollectionSettings.parse("durability=majority").getWriteConcern());
+
+    // The other write options override the tier.
+    assertEquals(
+        new WriteConcern(2).withJournal(true),
+        MongoDbCollectionSettings.parse("durability=journaled,w=2").getWriteConcern());
+    assertEquals(
+        WriteConcern.MAJORITY.withJournal(false),
+        MongoDbCollectionSettings.parse("durability=majority,j=false").getWriteConcern());
+  }
+
+  @Test
+  public void testParseInvalid() {
+    assertThrows(IllegalArgumentException.class, () -> MongoDbCollectionSettings.parse("w"));
+    assertThrows(IllegalArgumentException.class, () -> MongoDbCollectionSettings.parse("x=1"));
+    assertThrows(IllegalArgumentException.class, () -> MongoDbCollectionSettings.parse("j=yes"));
+    assertThrows(
+        IllegalArgumentException.class, () -> MongoDbCollectionSettings.parse("durability=max"));
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> MongoDbCollectionSettings.parse("readPreference=somewhere"));
+  }
+
+  @Test
+  public void testEquals() {
+    assertEquals(
+        MongoDbCollectionSettings.parse("w=1,readPreference=secondary"),
+        MongoDbCollectionSettings.parse("readPreference=secondary,w=1"));
+  }
+}
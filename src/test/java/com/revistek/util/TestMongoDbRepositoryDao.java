@@ -12,15 +12,21 @@ import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.CountOptions;
 import com.mongodb.client.model.Filters;
 import com.revistek.crs.protos.Cas;
 import com.revistek.exceptions.IllegalRepositoryStateException;
 import com.revistek.exceptions.MalformedDataException;
 import com.revistek.util.constants.ErrorMessages;
+import com.revistek.util.constants.MetricNames;
 import com.revistek.util.constants.MongoDbDocument;
 import de.svenkubiak.embeddedmongodb.EmbeddedMongoDB;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
 import java.util.zip.CRC32;
 import java.util.zip.Checksum;
 import org.bson.Document;
@@ -37,6 +43,7 @@ public class TestMongoDbRepositoryDao {
   public static String URL = "mongodb://localhost:" + PORT;
   public static String DATABASE = "testdatabase";
   public static String COLLECTION = "testcollection";
+  public static String CHUNKED_COLLECTION = "chunkedcollection";
 
   private static EmbeddedMongoDB mongoDbServer;
 
@@ -276,6 +283,141 @@ public class TestMongoDbRepositoryDao {
     collection.deleteMany(filter);
   }
 
+  @Test
+  public void testStoreCrc32c() throws Exception {
+    MongoClient client = MongoClients.create(URL);
+    MongoCollection<Document> collection = client.getDatabase(DATABASE).getCollection(COLLECTION);
+    Mockito.when(mockIdGenerator.refreshAndGetUniqueId()).thenReturn("casId");
+
+    ByteString data = ByteString.copyFrom("test", StandardCharsets.UTF_8);
+    long checksum = ChecksumAlgorithm.CRC32C.compute(data);
+    Cas cas =
+        Cas.newBuilder().setDocumentId("docId").setCrc32Checksum(checksum).setCasData(data).build();
+    mockDao.store(cas);
+
+    Bson filter = Filters.eq(MongoDbDocument.CASID_FIELD_KEY, "casId");
+    Document doc = collection.find(filter).first();
+    assertEquals("CRC32C", doc.getString(MongoDbDocument.CHECKSUM_ALGORITHM_FIELD_KEY));
+
+    Cas storedCas = mockDao.getCasId("casId");
+    assertEquals(checksum, storedCas.getCrc32Checksum());
+    assertEquals(data, storedCas.getCasData());
+
+    collection.deleteMany(filter);
+    client.close();
+  }
+
+  @Test
+  public void testGetCasIdChecksumFailed() throws Exception {
+    MongoClient client = MongoClients.create(URL);
+    MongoCollection<Document> collection = client.getDatabase(DATABASE).getCollection(COLLECTION);
+    Mockito.when(mockIdGenerator.refreshAndGetUniqueId()).thenReturn("casId");
+
+    ByteString data = ByteString.copyFrom("test", StandardCharsets.UTF_8);
+    Cas cas =
+        Cas.newBuilder()
+            .setDocumentId("docId")
+            .setCrc32Checksum(ChecksumAlgorithm.CRC32.compute(data))
+            .setCasData(data)
+            .build();
+    mockDao.store(cas);
+
+    // Corrupt the stored data behind the DAO's back.
+    Bson filter = Filters.eq(MongoDbDocument.CASID_FIELD_KEY, "casId");
+    collection.updateOne(
+        filter,
+        new Document(
+            "$set",
+            new Document(
+                MongoDbDocument.CASDATA_FIELD_KEY,
+                ByteString.copyFrom("tesT", StandardCharsets.UTF_8))));
+
+    MalformedDataException exception =
+        assertThrows(MalformedDataException.class, () -> mockDao.getCasId("casId"));
+    assertEquals(ErrorMessages.getChecksumFailedMessage("docId"), exception.getMessage());
+
+    collection.deleteMany(filter);
+    client.close();
+  }
+
+  @Test
+  public void testGetCasIdVerifyOnRead() throws Exception {
+    MongoDbRepositoryDao verifyingDao =
+        MongoDbRepositoryDao.newBuilder()
+            .url(URL)
+            .idGenerator(mockIdGenerator)
+            .database(DATABASE)
+            .collection(COLLECTION)
+            .verifyOnRead(true)
+            .build();
+    assertTrue(verifyingDao.isVerifyOnRead());
+
+    MongoClient client = MongoClients.create(URL);
+    ByteString data = ByteString.copyFrom("test", StandardCharsets.UTF_8);
+    MongoCollection<Document> collection = client.getDatabase(DATABASE).getCollection(COLLECTION);
+
+    // An entry stored before the checksum algorithm was recorded, with a wrong checksum.
+    Document doc = new Document();
+    doc.append("_id", 1)
+        .append(MongoDbDocument.CASID_FIELD_KEY, "casId")
+        .append(MongoDbDocument.DOCUMENTID_FIELD_KEY, "documentId")
+        .append(MongoDbDocument.CRC32CHECKSUM_FIELD_KEY, 9L)
+        .append(MongoDbDocument.CASDATA_FIELD_KEY, data);
+    collection.insertOne(doc);
+
+    assertEquals(data, mockDao.getCasId("casId").getCasData());
+    MalformedDataException exception =
+        assertThrows(MalformedDataException.class, () -> verifyingDao.getCasId("casId"));
+    assertEquals(ErrorMessages.getChecksumFailedMessage("documentId"), exception.getMessage());
+
+    collection.deleteMany(Filters.eq(MongoDbDocument.CASID_FIELD_KEY, "casId"));
+    client.close();
+    verifyingDao.cleanup();
+  }
+
+  @Test
+  public void testStoreTimeToLive() throws Exception {
+    MongoDbRepositoryDao expiringDao =
+        MongoDbRepositoryDao.newBuilder()
+            .url(URL)
+            .idGenerator(mockIdGenerator)
+            .database(DATABASE)
+            .collection(COLLECTION)
+            .timeToLiveInSecs(60)
+            .build();
+    expiringDao.initialize();
+
+    MongoClient client = MongoClients.create(URL);
+    MongoCollection<Document> collection = client.getDatabase(DATABASE).getCollection(COLLECTION);
+    Mockito.when(mockIdGenerator.refreshAndGetUniqueId()).thenReturn("casId");
+
+    ByteString data = ByteString.copyFrom("test", StandardCharsets.UTF_8);
+    Cas cas =
+        Cas.newBuilder()
+            .setDocumentId("docId")
+            .setCrc32Checksum(ChecksumAlgorithm.CRC32.compute(data))
+            .setCasData(data)
+            .build();
+    expiringDao.store(cas);
+
+    Bson filter = Filters.eq(MongoDbDocument.CASID_FIELD_KEY, "casId");
+    Document doc = collection.find(filter).first();
+    Date createdAt = doc.getDate(MongoDbDocument.CREATED_AT_FIELD_KEY);
+    Date expiresAt = doc.getDate(MongoDbDocument.EXPIRES_AT_FIELD_KEY);
+    assertEquals(60000L, expiresAt.getTime() - createdAt.getTime());
+
+    boolean hasTtlIndex = false;
+    for (Document index : collection.listIndexes()) {
+      hasTtlIndex |= index.containsKey("expireAfterSeconds");
+    }
+    assertTrue(hasTtlIndex);
+
+    collection.deleteMany(filter);
+    collection.dropIndexes();
+    client.close();
+    expiringDao.cleanup();
+  }
+
   @Test
   public void testDeleteNullCient() throws Exception {
     try (MockedStatic<MongoClients> mockMongoClients = Mockito.mockStatic(MongoClients.class)) {
@@ -522,4 +664,262 @@ public class TestMongoDbRepositoryDao {
     Exception exception = assertThrows(Exception.class, () -> mockDao.existsCasId(""));
     assertEquals(ErrorMessages.INVALID_CAS_ID, exception.getMessage());
   }
+
+  @Test
+  public void testCreateInvalidChunking() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () ->
+            MongoDbRepositoryDao.newBuilder()
+                .url(URL)
+                .idGenerator(mockIdGenerator)
+                .database(DATABASE)
+                .collection(CHUNKED_COLLECTION)
+                .chunkAverageBytes(10)
+                .build());
+    assertThrows(
+        IllegalArgumentException.class,
+        () ->
+            MongoDbRepositoryDao.newBuilder()
+                .url(URL)
+                .idGenerator(mockIdGenerator)
+                .database(DATABASE)
+                .collection(CHUNKED_COLLECTION)
+                .chunkAverageBytes(1024)
+                .timeToLiveInSecs(60L)
+                .build());
+  }
+
+  @Test
+  public void testStoreChunked() throws Exception {
+    Mockito.when(mockIdGenerator.refreshAndGetUniqueId()).thenReturn("casId1", "casId2");
+    MongoDbRepositoryDao dao = newChunkedDao();
+    MongoCollection<Document> collection = dao.getMongoCollection();
+    MongoCollection<Document> chunkCollection = dao.getChunkCollection();
+
+    // The second Cas is the first with an annotation layer inserted in the middle.
+    Random random = new Random(42);
+    byte[] bytes = new byte[200 * 1024];
+    byte[] inserted = new byte[2048];
+    random.nextBytes(bytes);
+    random.nextBytes(inserted);
+    ByteString data1 = ByteString.copyFrom(bytes);
+    ByteString data2 =
+        data1
+            .substring(0, 100000)
+            .concat(ByteString.copyFrom(inserted))
+            .concat(data1.substring(100000));
+
+    String casId1 = dao.store(newCas(data1));
+    String casId2 = dao.store(newCas(data2));
+
+    Document doc = collection.find(Filters.eq(MongoDbDocument.CASID_FIELD_KEY, casId1)).first();
+    assertNull(doc.get(MongoDbDocument.CASDATA_FIELD_KEY));
+    List<String> chunkIds1 = doc.getList(MongoDbDocument.CHUNKS_FIELD_KEY, String.class);
+    List<String> chunkIds2 =
+        collection
+            .find(Filters.eq(MongoDbDocument.CASID_FIELD_KEY, casId2))
+            .first()
+            .getList(MongoDbDocument.CHUNKS_FIELD_KEY, String.class);
+
+    // Only the chunks around the insertion are stored twice.
+    long distinct = chunkCollection.countDocuments();
+    assertTrue(distinct < (chunkIds1.size() + 5));
+    assertTrue(distinct < (chunkIds1.size() + chunkIds2.size()));
+
+    assertEquals(data1, dao.getCasId(casId1).getCasData());
+    assertEquals(data2, dao.getCasId(casId2).getCasData());
+
+    dao.deleteCasId(casId1);
+    assertEquals(data2, dao.getCasId(casId2).getCasData());
+    assertEquals(new HashSet<String>(chunkIds2).size(), chunkCollection.countDocuments());
+
+    dao.deleteCasId(casId2);
+    assertEquals(0L, collection.countDocuments());
+    assertEquals(0L, chunkCollection.countDocuments());
+    dao.cleanup();
+  }
+
+  @Test
+  public void testGetChunkedMissingChunk() throws Exception {
+    Mockito.when(mockIdGenerator.refreshAndGetUniqueId()).thenReturn("casId");
+    MongoDbRepositoryDao dao = newChunkedDao();
+    byte[] bytes = new byte[16 * 1024];
+    new Random(42).nextBytes(bytes);
+
+    String casId = dao.store(newCas(ByteString.copyFrom(bytes)));
+    dao.getChunkCollection().deleteOne(new Document());
+    assertThrows(IllegalRepositoryStateException.class, () -> dao.getCasId(casId));
+
+    // Small Cases are stored whole.
+    dao.deleteMany(Filters.eq(MongoDbDocument.CASID_FIELD_KEY, casId));
+    Mockito.when(mockIdGenerator.refreshAndGetUniqueId()).thenReturn("smallCasId");
+    ByteString small = ByteString.copyFrom("test", StandardCharsets.UTF_8);
+    String smallCasId = dao.store(newCas(small));
+    assertEquals(small, dao.getCasId(smallCasId).getCasData());
+
+    dao.deleteCasId(smallCasId);
+    dao.getChunkCollection().deleteMany(new Document());
+    assertEquals(0L, dao.getMongoCollection().countDocuments());
+    dao.cleanup();
+  }
+
+  @Test
+  public void testGetHedged() throws Exception {
+    Mockito.when(mockIdGenerator.refreshAndGetUniqueId()).thenReturn("hedgedCasId");
+    MongoDbRepositoryDao dao =
+        MongoDbRepositoryDao.newBuilder()
+            .url(URL)
+            .idGenerator(mockIdGenerator)
+            .database(DATABASE)
+            .collection(COLLECTION)
+            .readMaxTimeMillis(10000L)
+            .deleteMaxTimeMillis(10000L)
+            .hedgedReads(true, 0L)
+            .build();
+    assertTrue(dao.isHedgedReads());
+    assertEquals(10000L, dao.getReadMaxTimeMillis());
+
+    // Without a minimum delay, reads are hedged as soon as they take longer than the p95.
+    double sent = ServiceMetrics.getRegistry().get(MetricNames.HEDGE_SENT).counter().count();
+    ByteString data = ByteString.copyFrom("test", StandardCharsets.UTF_8);
+    String casId = dao.store(newCas(data));
+
+    for (int i = 0; i < 50; i++) {
+      assertEquals(data, dao.getCasId(casId).getCasData());
+    }
+
+    assertTrue(ServiceMetrics.getRegistry().get(MetricNames.HEDGE_SENT).counter().count() > sent);
+    assertThrows(IllegalArgumentException.class, () -> dao.getCasId("missingCasId"));
+
+    dao.deleteCasId(casId);
+    dao.cleanup();
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testGetHedgedStalledRead() throws Exception {
+    Mockito.when(mockIdGenerator.refreshAndGetUniqueId()).thenReturn("stalledCasId");
+    MongoDbRepositoryDao dao =
+        MongoDbRepositoryDao.newBuilder()
+            .url(URL)
+            .idGenerator(mockIdGenerator)
+            .database(DATABASE)
+            .collection(COLLECTION)
+            .hedgedReads(true, 50L)
+            .build();
+    ByteString data = ByteString.copyFrom("test", StandardCharsets.UTF_8);
+    String casId = dao.store(newCas(data));
+
+    // The first read stalls on its member; the hedge reads from the real collection.
+    long stallMillis = 5000L;
+    MongoCollection<Document> stalled = Mockito.mock(MongoCollection.class);
+    Mockito.when(stalled.countDocuments(Mockito.any(Bson.class), Mockito.any(CountOptions.class)))
+        .thenAnswer(
+            invocation -> {
+              Thread.sleep(stallMillis);
+              return 1L;
+            });
+    MongoDbRepositoryDao spy = Mockito.spy(dao);
+    Mockito.doReturn(dao.getHedgeCollection()).when(spy).getHedgeCollection();
+    Mockito.doReturn(stalled).when(spy).getMongoCollection();
+
+    double won = ServiceMetrics.getRegistry().get(MetricNames.HEDGE_WON).counter().count();
+    long start = System.nanoTime();
+    assertEquals(data, spy.getCasId(casId).getCasData());
+    long elapsedMillis = (System.nanoTime() - start) / 1000000L;
+
+    assertTrue(elapsedMillis < (stallMillis / 5), "The read took " + elapsedMillis + " ms.");
+    assertTrue(ServiceMetrics.getRegistry().get(MetricNames.HEDGE_WON).counter().count() > won);
+
+    dao.deleteCasId(casId);
+    dao.cleanup();
+  }
+
+  @Test
+  public void testCreateInvalidTimeouts() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () ->
+            MongoDbRepositoryDao.newBuilder()
+                .url(URL)
+                .idGenerator(mockIdGenerator)
+                .database(DATABASE)
+                .collection(COLLECTION)
+                .readMaxTimeMillis(-1L)
+                .build());
+    assertThrows(
+        IllegalArgumentException.class,
+        () ->
+            MongoDbRepositoryDao.newBuilder()
+                .url(URL)
+                .idGenerator(mockIdGenerator)
+                .database(DATABASE)
+                .collection(COLLECTION)
+                .hedgedReads(true, -1L)
+                .build());
+  }
+
+  @Test
+  public void testDeltaDeleteBaseNotInCasIdFilter() throws Exception {
+    Mockito.when(mockIdGenerator.refreshAndGetUniqueId()).thenReturn("baseCasId", "deltaCasId");
+    MongoDbRepositoryDao writer = newFilteredDao();
+    // Another instance, whose Cas ID filter has not seen the Cases stored by the writer.
+    MongoDbRepositoryDao deleter = newFilteredDao();
+    DeltaRepositoryDao writerDeltas = DeltaRepositoryDao.newBuilder().repositoryDao(writer).build();
+    DeltaRepositoryDao deleterDeltas =
+        DeltaRepositoryDao.newBuilder().repositoryDao(deleter).build();
+    byte[] bytes = new byte[20000];
+    new Random(42).nextBytes(bytes);
+    ByteString data = ByteString.copyFrom(bytes);
+    ByteString next = data.concat(ByteString.copyFrom("next", StandardCharsets.UTF_8));
+
+    String baseCasId = writerDeltas.store(newCas(data));
+    String casId = writerDeltas.storeDelta(newCas(next), baseCasId);
+    String deltaDocumentId = writer.getCasId(casId).getDocumentId();
+    assertTrue(deltaDocumentId.startsWith(DeltaRepositoryDao.DELTA_DOCUMENT_PREFIX));
+    assertFalse(deleter.mightContainCasId(baseCasId));
+    assertTrue(deleter.existsCasId(baseCasId));
+
+    // The base is retired rather than deleted outright, so its delta can still be read.
+    deleterDeltas.deleteCasId(baseCasId);
+    assertFalse(deleter.existsCasId(baseCasId));
+    assertTrue(deleter.existsCasId(baseCasId + DeltaRepositoryDao.RETIRED_SUFFIX));
+    assertEquals(next, deleterDeltas.getCasId(casId).getCasData());
+
+    deleterDeltas.deleteCasId(casId);
+    assertFalse(deleter.existsCasId(casId));
+    assertFalse(deleter.existsCasId(baseCasId + DeltaRepositoryDao.RETIRED_SUFFIX));
+    writer.cleanup();
+    deleter.cleanup();
+  }
+
+  private MongoDbRepositoryDao newFilteredDao() {
+    return MongoDbRepositoryDao.newBuilder()
+        .url(URL)
+        .idGenerator(mockIdGenerator)
+        .database(DATABASE)
+        .collection(COLLECTION)
+        .casIdFilter(new ScalableBloomFilter(), 0)
+        .build();
+  }
+
+  private MongoDbRepositoryDao newChunkedDao() {
+    return MongoDbRepositoryDao.newBuilder()
+        .url(URL)
+        .idGenerator(mockIdGenerator)
+        .database(DATABASE)
+        .collection(CHUNKED_COLLECTION)
+        .chunkAverageBytes(1024)
+        .chunkFetchParallelism(4)
+        .build();
+  }
+
+  private static Cas newCas(ByteString data) {
+    return Cas.newBuilder()
+        .setDocumentId("documentId")
+        .setCrc32Checksum(ChecksumAlgorithm.CRC32.compute(data))
+        .setCasData(data)
+        .build();
+  }
 }
@@ -0,0 +1,215 @@
+package com.revistek.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.revistek.util.constants.MongoDbDocument;
+import de.svenkubiak.embeddedmongodb.EmbeddedMongoDB;
+import java.util.Date;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+public class TestOrphanReconciler {
+  public static int PORT = 12345;
+  public static String URL = "mongodb://localhost:" + PORT;
+  public static String DATABASE = "testdatabase";
+  public static String COLLECTION = "testcollection";
+  public static String METADATA_COLLECTION1 = "testmetadata1";
+  public static String METADATA_COLLECTION2 = "testmetadata2";
+
+  private static EmbeddedMongoDB mongoDbServer;
+
+  private MongoDbRepositoryDao repositoryDao;
+  private MongoDbMetadataStoreDao metadataStoreDao;
+  private MongoClient client;
+
+  @BeforeAll
+  public static void setupMongoDb() {
+    mongoDbServer = EmbeddedMongoDB.create().withPort(PORT).start();
+  }
+
+  @AfterAll
+  public static void teardownMongoDb() {
+    mongoDbServer.stop();
+  }
+
+  @BeforeEach
+  public void setup() {
+    repositoryDao =
+        MongoDbRepositoryDao.newBuilder()
+            .url(URL)
+            .idGenerator(Mockito.mock(IdGenerator.class))
+            .database(DATABASE)
+            .collection(COLLECTION)
+            .build();
+    metadataStoreDao = new MongoDbMetadataStoreDao(URL);
+    metadataStoreDao.registerQuery("query1", DATABASE, METADATA_COLLECTION1);
+    metadataStoreDao.registerQuery("query2", DATABASE, METADATA_COLLECTION2);
+    metadataStoreDao.registerQuery("query3", DATABASE, METADATA_COLLECTION2);
+
+    client = MongoClients.create(URL);
+  }
+
+  @AfterEach
+  public void teardown() {
+    client.getDatabase(DATABASE).drop();
+    client.close();
+    metadataStoreDao.cleanup();
+    repositoryDao.cleanup();
+  }
+
+  @Test
+  public void testCreateInvalid() {
+    assertThrows(IllegalArgumentException.class, () -> OrphanReconciler.newBuilder().build());
+    assertThrows(
+        IllegalArgumentException.class,
+        () ->
+            OrphanReconciler.newBuilder()
+                .repositoryDao(() -> repositoryDao)
+                .metadataStoreDao(() -> metadataStoreDao)
+                .batchSize(0)
+                .build());
+  }
+
+  @Test
+  public void testReconcile() {
+    MongoCollection<Document> repository = client.getDatabase(DATABASE).getCollection(COLLECTION);
+    MongoCollection<Document> metadata1 =
+        client.getDatabase(DATABASE).getCollection(METADATA_COLLECTION1);
+    MongoCollection<Document> metadata2 =
+        client.getDatabase(DATABASE).getCollection(METADATA_COLLECTION2);
+    Date old = new Date(System.currentTimeMillis() - 3600000L);
+    Date recent = new Date();
+
+    // Referred to by a metadata store entry.
+    repository.insertOne(entry("casA", old));
+    metadata1.insertOne(entry("casA", old));
+    // Orphaned in the repository.
+    repository.insertOne(entry("casB", old));
+    // Orphaned, but may still be being stored.
+    repository.insertOne(entry("casC", recent));
+    // Orphaned in the metadata store.
+    metadata2.insertOne(entry("casD", old));
+    // Referred to by both metadata store collections.
+    repository.insertOne(entry("casE", old));
+    metadata1.insertOne(entry("casE", old));
+    metadata2.insertOne(entry("casE", old));
+    // Orphaned, and stored before the creation time was recorded.
+    repository.insertOne(new Document(MongoDbDocument.CASID_FIELD_KEY, "casF"));
+
+    OrphanReconciler reconciler =
+        OrphanReconciler.newBuilder()
+            .repositoryDao(() -> repositoryDao)
+            .metadataStoreDao(() -> metadataStoreDao)
+            .graceInSecs(60)
+            .batchSize(1)
+            .build();
+    assertEquals(3L, reconciler.reconcile());
+
+    assertEquals(3L, repository.countDocuments());
+    assertEquals(0L, repository.countDocuments(casIdIs("casB")));
+    assertEquals(0L, repository.countDocuments(casIdIs("casF")));
+    assertEquals(2L, metadata1.countDocuments());
+    assertEquals(1L, metadata2.countDocuments());
+    assertEquals(0L, metadata2.countDocuments(casIdIs("casD")));
+
+    assertEquals(0L, reconciler.reconcile());
+  }
+
+  @Test
+  public void testReconcileThroughDeletingDao() throws Exception {
+    MongoCollection<Document> repository = client.getDatabase(DATABASE).getCollection(COLLECTION);
+    MongoCollection<Document> metadata1 =
+        client.getDatabase(DATABASE).getCollection(METADATA_COLLECTION1);
+    Date old = new Date(System.currentTimeMillis() - 3600000L);
+
+    repository.insertOne(entry("casA", old));
+    metadata1.insertOne(entry("casA", old));
+    repository.insertOne(entry("casB", old));
+    repository.insertOne(entry("casC", new Date()));
+
+    RepositoryDao mockDeletingDao = Mockito.mock(RepositoryDao.class);
+    Mockito.doThrow(new IllegalStateException("down")).when(mockDeletingDao).deleteCasId("casD");
+    repository.insertOne(entry("casD", old));
+
+    OrphanReconciler reconciler =
+        OrphanReconciler.newBuilder()
+            .repositoryDao(() -> repositoryDao)
+            .metadataStoreDao(() -> metadataStoreDao)
+            .deletingRepositoryDao(() -> mockDeletingDao)
+            .graceInSecs(60)
+            .build();
+    assertEquals(1L, reconciler.reconcile());
+
+    // The orphans are left to the repository DAO in front, which failed to delete one.
+    Mockito.verify(mockDeletingDao).deleteCasId("casB");
+    Mockito.verify(mockDeletingDao).deleteCasId("casD");
+    Mockito.verifyNoMoreInteractions(mockDeletingDao);
+    assertEquals(4L, repository.countDocuments());
+  }
+
+  @Test
+  public void testReconcileWaitsForWriteAheadLog() {
+    MongoCollection<Document> repository = client.getDatabase(DATABASE).getCollection(COLLECTION);
+    MongoCollection<Document> metadata1 =
+        client.getDatabase(DATABASE).getCollection(METADATA_COLLECTION1);
+    Date old = new Date(System.currentTimeMillis() - 3600000L);
+    repository.insertOne(entry("casA", old));
+    metadata1.insertOne(entry("casB", old));
+
+    WriteAheadLog mockLog = Mockito.mock(WriteAheadLog.class);
+    Mockito.when(mockLog.awaitFlushed(Mockito.anyLong())).thenReturn(false, true);
+    OrphanReconciler reconciler =
+        OrphanReconciler.newBuilder()
+            .repositoryDao(() -> repositoryDao)
+            .metadataStoreDao(() -> metadataStoreDao)
+            .writeAheadLog(() -> mockLog)
+            .graceInSecs(60)
+            .build();
+
+    // The log may still hold the other halves, so nothing is deleted until it is applied.
+    assertEquals(0L, reconciler.reconcile());
+    assertEquals(1L, repository.countDocuments());
+    assertEquals(1L, metadata1.countDocuments());
+
+    assertEquals(2L, reconciler.reconcile());
+    assertEquals(0L, repository.countDocuments());
+    assertEquals(0L, metadata1.countDocuments());
+  }
+
+  @Test
+  public void testReconcileNoQueries() {
+    MongoCollection<Document> repository = client.getDatabase(DATABASE).getCollection(COLLECTION);
+    repository.insertOne(new Document(MongoDbDocument.CASID_FIELD_KEY, "casA"));
+
+    MongoDbMetadataStoreDao emptyMetadataStoreDao = new MongoDbMetadataStoreDao(URL);
+    OrphanReconciler reconciler =
+        OrphanReconciler.newBuilder()
+            .repositoryDao(() -> repositoryDao)
+            .metadataStoreDao(() -> emptyMetadataStoreDao)
+            .build();
+
+    assertEquals(0L, reconciler.reconcile());
+    assertEquals(1L, repository.countDocuments());
+    emptyMetadataStoreDao.cleanup();
+  }
+
+  private static Bson casIdIs(String casId) {
+    return Filters.eq(MongoDbDocument.CASID_FIELD_KEY, casId);
+  }
+
+  private static Document entry(String casId, Date createdAt) {
+    return new Document(MongoDbDocument.CASID_FIELD_KEY, casId)
+        .append(MongoDbDocument.CREATED_AT_FIELD_KEY, createdAt);
+  }
+}
@@ -0,0 +1,172 @@
+package com.revistek.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.protobuf.ByteString;
+import com.revistek.crs.protos.Cas;
+import com.revistek.exceptions.PrefetchFailedException;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+public class TestReadAheadSessions {
+  private static final String QUERY_KEY = "queue";
+
+  private InMemoryRepositoryDao repositoryDao;
+  private InMemoryMetadataStoreDao metadataStoreDao;
+  private ReadAheadSessions sessions;
+
+  @BeforeEach
+  public void setup() throws Exception {
+    repositoryDao =
+        InMemoryRepositoryDao.newBuilder().idGenerator(Mockito.mock(IdGenerator.class)).build();
+    metadataStoreDao = new InMemoryMetadataStoreDao();
+    metadataStoreDao.registerQuery(QUERY_KEY, "database", "collection");
+
+    for (int i = 0; i < 20; i++) {
+      add(String.format("casId%02d", i));
+    }
+
+    sessions = newSessions(4, 1024L * 1024, 2);
+  }
+
+  @AfterEach
+  public void teardown() {
+    sessions.stop();
+  }
+
+  @Test
+  public void testReadInOrder() throws Exception {
+    String sessionId = sessions.open(QUERY_KEY, null);
+    assertNotNull(sessionId);
+
+    for (int i = 0; i < 20; i++) {
+      assertEquals(String.format("casId%02d", i), sessions.next(sessionId).getCasId());
+    }
+
+    assertNull(sessions.next(sessionId));
+
+    // Cases added to the query after the end are picked up.
+    add("casId20");
+    assertEquals("casId20", sessions.next(sessionId).getCasId());
+
+    assertTrue(sessions.close(sessionId));
+    assertFalse(sessions.close(sessionId));
+    assertEquals(0L, sessions.getBufferedBytes());
+    assertThrows(IllegalArgumentException.class, () -> sessions.next(sessionId));
+  }
+
+  @Test
+  public void testStartAfter() throws Exception {
+    String sessionId = sessions.open(QUERY_KEY, "casId17");
+
+    assertEquals("casId18", sessions.next(sessionId).getCasId());
+    assertEquals("casId19", sessions.next(sessionId).getCasId());
+    assertNull(sessions.next(sessionId));
+  }
+
+  @Test
+  public void testByteBudget() throws Exception {
+    sessions.stop();
+    // Every Cas is over the budget, so reading ahead stops as soon as one has been read.
+    sessions = newSessions(4, 1L, 2);
+    String sessionId = sessions.open(QUERY_KEY, null);
+
+    for (int i = 0; i < 20; i++) {
+      assertEquals(String.format("casId%02d", i), sessions.next(sessionId).getCasId());
+    }
+
+    assertNull(sessions.next(sessionId));
+    assertEquals(0L, sessions.getBufferedBytes());
+  }
+
+  @Test
+  public void testMissingCas() throws Exception {
+    repositoryDao.deleteCasId("casId01");
+    String sessionId = sessions.open(QUERY_KEY, null);
+
+    assertEquals("casId00", sessions.next(sessionId).getCasId());
+    PrefetchFailedException exception =
+        assertThrows(PrefetchFailedException.class, () -> sessions.next(sessionId));
+    assertEquals("casId01", exception.getCasId());
+    assertEquals("casId02", sessions.next(sessionId).getCasId());
+  }
+
+  @Test
+  public void testMaxSessionsAndIdleEviction() throws Exception {
+    assertNotNull(sessions.open(QUERY_KEY, null));
+    assertNotNull(sessions.open(QUERY_KEY, null));
+    assertNull(sessions.open(QUERY_KEY, null));
+    assertEquals(2, sessions.getOpenSessions());
+
+    sessions.stop();
+    sessions =
+        ReadAheadSessions.newBuilder()
+            .repositoryDao(() -> repositoryDao)
+            .metadataStoreDao(() -> metadataStoreDao)
+            .maxSessions(1)
+            .idleTimeoutInSecs(1)
+            .build();
+    sessions.start();
+    String sessionId = sessions.open(QUERY_KEY, null);
+
+    Thread.sleep(1100L);
+    // The idle session is evicted to make room.
+    assertNotNull(sessions.open(QUERY_KEY, null));
+    assertThrows(IllegalArgumentException.class, () -> sessions.next(sessionId));
+    assertEquals(1, sessions.getOpenSessions());
+  }
+
+  @Test
+  public void testInvalidQuery() {
+    assertThrows(IllegalArgumentException.class, () -> sessions.open("missing", null));
+    assertEquals(0, sessions.getOpenSessions());
+  }
+
+  @Test
+  public void testCreateInvalid() {
+    assertThrows(IllegalArgumentException.class, () -> ReadAheadSessions.newBuilder().build());
+    assertThrows(
+        IllegalArgumentException.class,
+        () ->
+            ReadAheadSessions.newBuilder()
+                .repositoryDao(() -> repositoryDao)
+                .metadataStoreDao(() -> metadataStoreDao)
+                .readAhead(0)
+                .build());
+  }
+
+  private ReadAheadSessions newSessions(int readAhead, long maxSessionBytes, int maxSessions) {
+    ReadAheadSessions readAheadSessions =
+        ReadAheadSessions.newBuilder()
+            .repositoryDao(() -> repositoryDao)
+            .metadataStoreDao(() -> metadataStoreDao)
+            .readAhead(readAhead)
+            .maxSessionBytes(maxSessionBytes)
+            .maxSessions(maxSessions)
+            .parallelism(4)
+            .build();
+    readAheadSessions.start();
+
+    return readAheadSessions;
+  }
+
+  private void add(String casId) throws Exception {
+    ByteString data = ByteString.copyFrom(casId, StandardCharsets.UTF_8);
+    repositoryDao.store(
+        Cas.newBuilder()
+            .setDocumentId("documentId")
+            .setCrc32Checksum(ChecksumAlgorithm.CRC32.compute(data))
+            .setCasData(data)
+            .build(),
+        casId);
+    metadataStoreDao.addCasId(QUERY_KEY, casId);
+  }
+}
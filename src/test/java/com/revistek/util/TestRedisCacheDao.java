@@ -7,6 +7,7 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
@@ -86,4 +87,23 @@ public class TestRedisCacheDao {
     assertEquals(testMap, dao.getMap("mapkey"));
     dao.cleanup();
   }
+
+  @Test
+  public void testBatch() throws Exception {
+    RedisCacheDao dao = new RedisCacheDao(URL);
+
+    try (CacheBatch batch = dao.newBatch()) {
+      batch.set("batchkey", "batchval", 100);
+      Supplier<Boolean> exists = batch.exists("batchkey");
+      Supplier<String> value = batch.get("batchkey");
+      Supplier<Boolean> missing = batch.exists("nokey");
+      batch.execute();
+
+      assertTrue(exists.get());
+      assertEquals("batchval", value.get());
+      assertFalse(missing.get());
+    }
+
+    dao.cleanup();
+  }
 }
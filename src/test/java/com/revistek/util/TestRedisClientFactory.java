@@ -0,0 +1,66 @@
+package com.revistek.util;
+
+import static org.junit.Assert.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.Duration;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import redis.clients.jedis.JedisPooled;
+import redis.clients.jedis.util.Pool;
+import redis.embedded.RedisServer;
+
+public class TestRedisClientFactory {
+  public static final int PORT = 12352;
+  public static final String URL = "redis://localhost:" + String.valueOf(PORT);
+  private static RedisServer redisServer;
+
+  @BeforeAll
+  public static void setupRedis() {
+    redisServer = new RedisServer(PORT);
+    redisServer.start();
+  }
+
+  @AfterAll
+  public static void teardownRedis() {
+    redisServer.stop();
+  }
+
+  @Test
+  public void testCreateInvalid() {
+    assertThrows(
+        IllegalArgumentException.class, () -> RedisClientFactory.newBuilder().maxTotal(0).build());
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> RedisClientFactory.newBuilder().maxIdle(2).minIdle(3).build());
+  }
+
+  @Test
+  public void testPool() {
+    RedisClientFactory factory =
+        RedisClientFactory.newBuilder().maxTotal(4).maxIdle(4).maxWaitMillis(500L).build();
+
+    assertEquals(4, factory.getPoolConfig().getMaxTotal());
+    assertEquals(Duration.ofMillis(500L), factory.getPoolConfig().getMaxWaitDuration());
+
+    JedisPooled client = factory.create(URL);
+    client.set("key", "val");
+
+    assertEquals("val", client.get("key"));
+    assertEquals(1.0, factory.aggregate(Pool::getNumIdle, false));
+    assertEquals(0.0, factory.aggregate(Pool::getNumActive, false));
+
+    client.close();
+    assertEquals(0.0, factory.aggregate(Pool::getNumIdle, false));
+  }
+
+  @Test
+  public void testCacheDao() {
+    RedisCacheDao dao = new RedisCacheDao(URL, RedisClientFactory.newBuilder().build());
+
+    dao.set("key", "val", 100);
+    assertEquals("val", dao.get("key"));
+    dao.cleanup();
+  }
+}
@@ -0,0 +1,126 @@
+package com.revistek.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.google.protobuf.ByteString;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.revistek.util.constants.MongoDbDocument;
+import de.svenkubiak.embeddedmongodb.EmbeddedMongoDB;
+import java.nio.charset.StandardCharsets;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+public class TestRepositoryScrubber {
+  public static int PORT = 12345;
+  public static String URL = "mongodb://localhost:" + PORT;
+  public static String DATABASE = "testdatabase";
+  public static String COLLECTION = "testcollection";
+
+  private static EmbeddedMongoDB mongoDbServer;
+
+  private MongoDbRepositoryDao repositoryDao;
+  private MongoClient client;
+  private MongoCollection<Document> collection;
+  private MongoCollection<Document> quarantine;
+
+  @BeforeAll
+  public static void setupMongoDb() {
+    mongoDbServer = EmbeddedMongoDB.create().withPort(PORT).start();
+  }
+
+  @AfterAll
+  public static void teardownMongoDb() {
+    mongoDbServer.stop();
+  }
+
+  @BeforeEach
+  public void setup() {
+    repositoryDao =
+        MongoDbRepositoryDao.newBuilder()
+            .url(URL)
+            .idGenerator(Mockito.mock(IdGenerator.class))
+            .database(DATABASE)
+            .collection(COLLECTION)
+            .build();
+
+    client = MongoClients.create(URL);
+    collection = client.getDatabase(DATABASE).getCollection(COLLECTION);
+    quarantine =
+        client
+            .getDatabase(DATABASE)
+            .getCollection(COLLECTION + MongoDbDocument.QUARANTINE_COLLECTION_SUFFIX);
+  }
+
+  @AfterEach
+  public void teardown() {
+    client.getDatabase(DATABASE).drop();
+    client.close();
+    repositoryDao.cleanup();
+  }
+
+  @Test
+  public void testCreateInvalid() {
+    assertThrows(IllegalArgumentException.class, () -> RepositoryScrubber.newBuilder().build());
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> RepositoryScrubber.newBuilder().repositoryDao(repositoryDao).bytesPerSec(0).build());
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> RepositoryScrubber.newBuilder().repositoryDao(repositoryDao).parallelism(0).build());
+  }
+
+  @Test
+  public void testScrub() {
+    ByteString data = ByteString.copyFrom("test", StandardCharsets.UTF_8);
+
+    for (int i = 0; i < 10; i++) {
+      Document doc = new Document();
+      doc.append(MongoDbDocument.CASID_FIELD_KEY, "casId" + i)
+          .append(MongoDbDocument.DOCUMENTID_FIELD_KEY, "documentId")
+          .append(MongoDbDocument.CASDATA_FIELD_KEY, data);
+
+      if (i == 3) {
+        doc.append(MongoDbDocument.CRC32CHECKSUM_FIELD_KEY, 9L);
+      } else if (i % 2 == 0) {
+        doc.append(MongoDbDocument.CRC32CHECKSUM_FIELD_KEY, ChecksumAlgorithm.CRC32.compute(data));
+      } else {
+        doc.append(MongoDbDocument.CRC32CHECKSUM_FIELD_KEY, ChecksumAlgorithm.CRC32C.compute(data))
+            .append(MongoDbDocument.CHECKSUM_ALGORITHM_FIELD_KEY, "CRC32C");
+      }
+
+      collection.insertOne(doc);
+    }
+
+    // A malformed entry is quarantined too.
+    collection.insertOne(new Document(MongoDbDocument.CASID_FIELD_KEY, "casId10"));
+
+    RepositoryScrubber scrubber =
+        RepositoryScrubber.newBuilder()
+            .repositoryDao(repositoryDao)
+            .parallelism(2)
+            .batchSize(4)
+            .build();
+    assertEquals(2, scrubber.scrub());
+
+    assertEquals(9L, collection.countDocuments());
+    assertEquals(2L, quarantine.countDocuments());
+
+    Document quarantined =
+        quarantine.find(Filters.eq(MongoDbDocument.CASID_FIELD_KEY, "casId3")).first();
+    assertNotNull(quarantined.get(MongoDbDocument.QUARANTINED_AT_FIELD_KEY));
+
+    // A second pass finds nothing left to quarantine.
+    assertEquals(0, scrubber.scrub());
+    scrubber.stop();
+  }
+}
@@ -0,0 +1,72 @@
+package com.revistek.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+
+public class TestScalableBloomFilter {
+  @Test
+  public void testCreateInvalid() {
+    assertThrows(IllegalArgumentException.class, () -> new ScalableBloomFilter(0, 0.01));
+    assertThrows(IllegalArgumentException.class, () -> new ScalableBloomFilter(100, 0.0));
+    assertThrows(IllegalArgumentException.class, () -> new ScalableBloomFilter(100, 1.0));
+  }
+
+  @Test
+  public void testNoFalseNegatives() {
+    ScalableBloomFilter filter = new ScalableBloomFilter(1000, 0.01);
+    List<String> ids = new ArrayList<String>();
+
+    for (int i = 0; i < 20000; i++) {
+      String id = "19_" + UUID.randomUUID() + "_" + i;
+      ids.add(id);
+      filter.add(id);
+    }
+
+    for (String id : ids) {
+      assertTrue(filter.mightContain(id));
+    }
+
+    assertTrue(filter.getStageCount() > 1);
+    assertEquals(20000L, filter.getCount());
+  }
+
+  @Test
+  public void testFalsePositiveRate() {
+    ScalableBloomFilter filter = new ScalableBloomFilter(1000, 0.01);
+
+    for (int i = 0; i < 50000; i++) {
+      filter.add("19_" + UUID.randomUUID() + "_" + i);
+    }
+
+    int falsePositives = 0;
+    int trials = 100000;
+
+    for (int i = 0; i < trials; i++) {
+      if (filter.mightContain("absent_" + UUID.randomUUID())) {
+        falsePositives++;
+      }
+    }
+
+    assertTrue(((double) falsePositives / trials) < filter.getFalsePositiveRate());
+  }
+
+  @Test
+  public void testReplaceWith() {
+    ScalableBloomFilter filter = new ScalableBloomFilter();
+    filter.add("old");
+
+    ScalableBloomFilter rebuilt = filter.newEmptyCopy();
+    rebuilt.add("new");
+    filter.replaceWith(rebuilt);
+
+    assertTrue(filter.mightContain("new"));
+    assertFalse(filter.mightContain("old"));
+  }
+}
@@ -0,0 +1,237 @@
+package com.revistek.util;
+
+import static org.junit.Assert.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.protobuf.ByteString;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.revistek.crs.protos.Cas;
+import com.revistek.util.constants.MongoDbDocument;
+import de.svenkubiak.embeddedmongodb.EmbeddedMongoDB;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+public class TestShardedRepositoryDao {
+  public static final int[] PORTS = {12348, 12349, 12350};
+  public static final String DATABASE = "testdatabase";
+  public static final String COLLECTION = "testcollection";
+
+  private static final List<EmbeddedMongoDB> mongoDbServers = new ArrayList<EmbeddedMongoDB>();
+
+  private final IdGenerator mockIdGenerator = Mockito.mock(IdGenerator.class);
+  private ShardedRepositoryDao dao;
+
+  @BeforeAll
+  public static void setupMongoDb() {
+    for (int port : PORTS) {
+      mongoDbServers.add(EmbeddedMongoDB.create().withPort(port).start());
+    }
+  }
+
+  @AfterAll
+  public static void teardownMongoDb() {
+    for (EmbeddedMongoDB mongoDbServer : mongoDbServers) {
+      mongoDbServer.stop();
+    }
+  }
+
+  @BeforeEach
+  public void setup() {
+    Mockito.when(mockIdGenerator.refreshAndGetUniqueId())
+        .thenAnswer(invocation -> "1642000000000_" + UUID.randomUUID());
+
+    dao =
+        ShardedRepositoryDao.newBuilder()
+            .idGenerator(mockIdGenerator)
+            .shard("s0", newShard(PORTS[0]))
+            .shard("s1", newShard(PORTS[1]))
+            .rebalanceBatchSize(7)
+            .rebalanceLeaseMillis(2000L)
+            .build();
+  }
+
+  @AfterEach
+  public void teardown() {
+    for (int port : PORTS) {
+      MongoClient client = MongoClients.create(url(port));
+      client.getDatabase(DATABASE).drop();
+      client.close();
+    }
+
+    dao.cleanup();
+  }
+
+  @Test
+  public void testCreateInvalid() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> ShardedRepositoryDao.newBuilder().idGenerator(mockIdGenerator).build());
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> ShardedRepositoryDao.newBuilder().shard("s~0", newShard(PORTS[0])));
+    assertThrows(
+        IllegalArgumentException.class,
+        () ->
+            ShardedRepositoryDao.newBuilder()
+                .idGenerator(mockIdGenerator)
+                .shard("s0", newShard(PORTS[0]))
+                .rebalanceBatchBytes(0L)
+                .build());
+  }
+
+  @Test
+  public void testStoreGetDelete() throws Exception {
+    List<String> casIds = storeCases(40);
+    int onShard0 = 0;
+
+    for (String casId : casIds) {
+      String shardName = casId.substring(0, casId.indexOf(ShardedRepositoryDao.SHARD_DELIMITER));
+      assertEquals(1L, countOn(PORTS[shardName.equals("s0") ? 0 : 1], casId));
+      onShard0 += shardName.equals("s0") ? 1 : 0;
+
+      assertTrue(dao.existsCasId(casId));
+      assertEquals(casId, dao.getCasId(casId).getCasId());
+    }
+
+    // Both shards get Cases.
+    assertTrue((onShard0 > 0) && (onShard0 < casIds.size()));
+
+    dao.deleteCasId(casIds.get(0));
+    assertFalse(dao.existsCasId(casIds.get(0)));
+  }
+
+  @Test
+  public void testAddShard() throws Exception {
+    List<String> casIds = storeCases(60);
+
+    long moved = dao.addShard("s2", newShard(PORTS[2])).get(30, TimeUnit.SECONDS);
+    assertFalse(dao.isRebalancing());
+    assertTrue(moved > 0);
+    assertEquals(moved, countOn(PORTS[2], null));
+    assertEquals(casIds.size(), countOn(PORTS[0], null) + countOn(PORTS[1], null) + moved);
+
+    // Cases are found whether they moved or not.
+    for (String casId : casIds) {
+      assertEquals(casId, dao.getCasId(casId).getCasId());
+    }
+
+    // New Cases are placed on all three shards.
+    List<String> newCasIds = storeCases(60);
+    assertTrue(newCasIds.stream().anyMatch(casId -> casId.startsWith("s2")));
+  }
+
+  @Test
+  public void testAddShardOnTwoInstances() throws Exception {
+    List<String> casIds = storeCases(60);
+    ShardedRepositoryDao other =
+        ShardedRepositoryDao.newBuilder()
+            .idGenerator(mockIdGenerator)
+            .shard("s0", newShard(PORTS[0]))
+            .shard("s1", newShard(PORTS[1]))
+            .rebalanceBatchBytes(64L)
+            .rebalanceLeaseMillis(2000L)
+            .build();
+
+    try {
+      other.initialize();
+
+      // Only the instance holding the lease moves Cases; the other waits for it to finish.
+      Future<Long> otherMoved = other.addShard("s2", newShard(PORTS[2]));
+      long moved = dao.addShard("s2", newShard(PORTS[2])).get(30, TimeUnit.SECONDS);
+      moved += otherMoved.get(30, TimeUnit.SECONDS);
+
+      assertFalse(dao.isRebalancing());
+      assertFalse(other.isRebalancing());
+      assertEquals(moved, countOn(PORTS[2], null));
+      assertEquals(casIds.size(), countOn(PORTS[0], null) + countOn(PORTS[1], null) + moved);
+    } finally {
+      other.cleanup();
+    }
+  }
+
+  @Test
+  public void testMoveSkipsDeletedCases() throws Exception {
+    List<String> casIds = storeCases(20);
+    MongoClient sourceClient = MongoClients.create(url(PORTS[0]));
+    MongoClient targetClient = MongoClients.create(url(PORTS[2]));
+
+    try {
+      MongoCollection<RawBsonDocument> source =
+          sourceClient.getDatabase(DATABASE).getCollection(COLLECTION, RawBsonDocument.class);
+      MongoCollection<RawBsonDocument> target =
+          targetClient.getDatabase(DATABASE).getCollection(COLLECTION, RawBsonDocument.class);
+      List<RawBsonDocument> docs = source.find().into(new ArrayList<RawBsonDocument>());
+      String deletedCasId = docs.get(0).getString(MongoDbDocument.CASID_FIELD_KEY).getValue();
+
+      // The Cas is deleted after it was read for the move, but before it was copied.
+      dao.deleteCasId(deletedCasId);
+
+      assertEquals(docs.size() - 1, ShardedRepositoryDao.copy(source, target, docs));
+      assertEquals(0L, countOn(PORTS[2], deletedCasId));
+      assertEquals(0L, countOn(PORTS[0], null));
+      assertEquals(docs.size() - 1, countOn(PORTS[2], null));
+      assertTrue(casIds.contains(deletedCasId));
+    } finally {
+      sourceClient.close();
+      targetClient.close();
+    }
+  }
+
+  private List<String> storeCases(int count) throws Exception {
+    ByteString data = ByteString.copyFrom("test", StandardCharsets.UTF_8);
+    Cas cas =
+        Cas.newBuilder()
+            .setDocumentId("docId")
+            .setCrc32Checksum(ChecksumAlgorithm.CRC32.compute(data))
+            .setCasData(data)
+            .build();
+    List<String> casIds = new ArrayList<String>(count);
+
+    for (int i = 0; i < count; i++) {
+      casIds.add(dao.store(cas));
+    }
+
+    return casIds;
+  }
+
+  private MongoDbRepositoryDao newShard(int port) {
+    return MongoDbRepositoryDao.newBuilder()
+        .url(url(port))
+        .idGenerator(mockIdGenerator)
+        .database(DATABASE)
+        .collection(COLLECTION)
+        .build();
+  }
+
+  private static long countOn(int port, String casId) {
+    MongoClient client = MongoClients.create(url(port));
+    MongoCollection<Document> collection = client.getDatabase(DATABASE).getCollection(COLLECTION);
+    long count =
+        (casId == null)
+            ? collection.countDocuments()
+            : collection.countDocuments(Filters.eq(MongoDbDocument.CASID_FIELD_KEY, casId));
+    client.close();
+    return count;
+  }
+
+  private static String url(int port) {
+    return "mongodb://localhost:" + port;
+  }
+}
@@ -0,0 +1,326 @@
+package com.revistek.util;
+
+import static org.junit.Assert.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.protobuf.ByteString;
+import com.revistek.crs.protos.Cas;
+import com.revistek.exceptions.MalformedDataException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+
+public class TestWriteAheadLog {
+  @TempDir public Path directory;
+
+  private final IdGenerator mockIdGenerator = Mockito.mock(IdGenerator.class);
+  private final AtomicInteger nextId = new AtomicInteger();
+  private FlakyRepositoryDao repository;
+  private InMemoryMetadataStoreDao metadataStore;
+  private WriteAheadLog log;
+
+  @BeforeEach
+  public void setup() throws Exception {
+    Mockito.when(mockIdGenerator.refreshAndGetUniqueId())
+        .thenAnswer(invocation -> String.format("1642000000000_%05d", nextId.incrementAndGet()));
+
+    repository =
+        new FlakyRepositoryDao(
+            InMemoryRepositoryDao.newBuilder().idGenerator(mockIdGenerator).build());
+    metadataStore = new InMemoryMetadataStoreDao();
+    metadataStore.registerQuery("query1", "database", "collection1");
+    log = open(WriteAheadLog.DEFAULT_MAX_PENDING_BYTES);
+  }
+
+  @AfterEach
+  public void teardown() {
+    log.stop();
+  }
+
+  @Test
+  public void testCreateInvalid() {
+    assertThrows(IllegalArgumentException.class, () -> WriteAheadLog.newBuilder().build());
+    assertThrows(
+        IllegalArgumentException.class,
+        () ->
+            WriteAheadLog.newBuilder()
+                .directory(directory)
+                .idGenerator(mockIdGenerator)
+                .repositoryDao(repository)
+                .metadataStoreDao(metadataStore)
+                .flushBatchSize(0)
+                .build());
+  }
+
+  @Test
+  public void testConcurrentStores() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<String>> futures = new ArrayList<Future<String>>();
+
+    try {
+      for (int i = 0; i < 200; i++) {
+        futures.add(
+            executor.submit(
+                () -> {
+                  String casId = log.getRepositoryDao().store(newCas(100));
+                  log.getMetadataStoreDao().addCasId("query1", casId);
+                  return casId;
+                }));
+      }
+
+      List<String> casIds = new ArrayList<String>();
+      for (Future<String> future : futures) {
+        casIds.add(future.get());
+      }
+
+      awaitFlushed();
+
+      for (String casId : casIds) {
+        assertTrue(repository.target.existsCasId(casId));
+      }
+
+      assertEquals(200, metadataStore.getCasIds("query1").size());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testReadYourWrites() throws Exception {
+    repository.down = true;
+
+    String casId = log.getRepositoryDao().store(newCas(100));
+    String deletedCasId = log.getRepositoryDao().store(newCas(100));
+    log.getRepositoryDao().deleteCasId(deletedCasId);
+
+    assertFalse(repository.target.existsCasId(casId));
+    assertTrue(log.getRepositoryDao().existsCasId(casId));
+    assertEquals(casId, log.getRepositoryDao().getCasId(casId).getCasId());
+    assertFalse(log.getRepositoryDao().existsCasId(deletedCasId));
+    assertThrows(
+        IllegalArgumentException.class, () -> log.getRepositoryDao().getCasId(deletedCasId));
+
+    repository.down = false;
+    awaitFlushed();
+
+    assertTrue(repository.target.existsCasId(casId));
+    assertFalse(repository.target.existsCasId(deletedCasId));
+    assertEquals(casId, log.getRepositoryDao().getCasId(casId).getCasId());
+    assertEquals(0L, log.getPendingBytes());
+  }
+
+  @Test
+  public void testStoreInvalid() {
+    Cas corrupted = newCas(100).toBuilder().setCrc32Checksum(9L).build();
+
+    assertThrows(MalformedDataException.class, () -> log.getRepositoryDao().store(corrupted));
+    assertThrows(
+        IllegalArgumentException.class, () -> log.getMetadataStoreDao().addCasId("", "casId1"));
+  }
+
+  @Test
+  public void testStoreUnderCasId() throws Exception {
+    repository.down = true;
+
+    assertEquals("chosenCasId", log.getRepositoryDao().store(newCas(100), "chosenCasId"));
+    assertEquals("chosenCasId", log.getRepositoryDao().getCasId("chosenCasId").getCasId());
+    assertThrows(
+        IllegalArgumentException.class, () -> log.getRepositoryDao().store(newCas(100), ""));
+
+    repository.down = false;
+    awaitFlushed();
+
+    assertTrue(repository.target.existsCasId("chosenCasId"));
+  }
+
+  @Test
+  public void testFull() throws Exception {
+    log.stop();
+    log = open(150);
+    repository.down = true;
+
+    log.getRepositoryDao().store(newCas(100));
+    assertThrows(IllegalStateException.class, () -> log.getRepositoryDao().store(newCas(100)));
+
+    repository.down = false;
+    awaitFlushed();
+    log.getRepositoryDao().store(newCas(100));
+  }
+
+  @Test
+  public void testReplay() throws Exception {
+    repository.down = true;
+
+    String casId = log.getRepositoryDao().store(newCas(100));
+    log.getMetadataStoreDao().addCasId("query1", casId);
+    log.stop();
+
+    assertFalse(repository.target.existsCasId(casId));
+
+    repository.down = false;
+    log = open(WriteAheadLog.DEFAULT_MAX_PENDING_BYTES);
+    assertTrue(log.getRepositoryDao().existsCasId(casId));
+    awaitFlushed();
+
+    assertEquals(newCas(100).getCasData(), repository.target.getCasId(casId).getCasData());
+    assertEquals(Arrays.asList(casId), metadataStore.getCasIds("query1"));
+
+    // The flushed changes are not applied again.
+    log.stop();
+    log = open(WriteAheadLog.DEFAULT_MAX_PENDING_BYTES);
+    assertEquals(0, log.getPendingCount());
+  }
+
+  @Test
+  public void testReplayTornTail() throws Exception {
+    repository.down = true;
+
+    String casId = log.getRepositoryDao().store(newCas(100));
+    log.stop();
+
+    List<Path> segments = segments();
+    Files.write(
+        segments.get(segments.size() - 1),
+        new byte[] {0, 0, 1, 0, 7},
+        StandardOpenOption.APPEND);
+
+    repository.down = false;
+    log = open(WriteAheadLog.DEFAULT_MAX_PENDING_BYTES);
+    awaitFlushed();
+
+    assertTrue(repository.target.existsCasId(casId));
+    assertEquals(Collections.emptyList(), metadataStore.getCasIds("query1"));
+  }
+
+  @Test
+  public void testGetCasIds() throws Exception {
+    String flushed = log.getRepositoryDao().store(newCas(100));
+    String deleted = log.getRepositoryDao().store(newCas(100));
+    awaitFlushed();
+
+    repository.down = true;
+    String unflushed = log.getRepositoryDao().store(newCas(100));
+    log.getRepositoryDao().deleteCasId(deleted);
+
+    Set<String> expected = new HashSet<String>(Arrays.asList(flushed, unflushed));
+    assertEquals(expected, new HashSet<String>(log.getRepositoryDao().getCasIds("docId")));
+
+    repository.down = false;
+    awaitFlushed();
+    assertEquals(expected, new HashSet<String>(repository.target.getCasIds("docId")));
+  }
+
+  private WriteAheadLog open(long maxPendingBytes) throws Exception {
+    WriteAheadLog opened =
+        WriteAheadLog.newBuilder()
+            .directory(directory)
+            .idGenerator(mockIdGenerator)
+            .repositoryDao(repository)
+            .metadataStoreDao(metadataStore)
+            .maxPendingBytes(maxPendingBytes)
+            .retryDelayMillis(10L)
+            .build();
+    opened.start();
+    return opened;
+  }
+
+  private void awaitFlushed() throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000L;
+
+    while ((log.getPendingCount() > 0) && (System.currentTimeMillis() < deadline)) {
+      Thread.sleep(10L);
+    }
+
+    assertEquals(0, log.getPendingCount());
+  }
+
+  private List<Path> segments() throws Exception {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files
+          .filter(path -> path.getFileName().toString().startsWith("wal-"))
+          .sorted()
+          .collect(Collectors.toList());
+    }
+  }
+
+  private static Cas newCas(int size) {
+    ByteString data = ByteString.copyFrom(new byte[size]);
+
+    return Cas.newBuilder()
+        .setDocumentId("docId")
+        .setCrc32Checksum(ChecksumAlgorithm.CRC32.compute(data))
+        .setCasData(data)
+        .build();
+  }
+
+  /** A repository that can be made unreachable. */
+  private static class FlakyRepositoryDao implements RepositoryDao {
+    private final InMemoryRepositoryDao target;
+    private volatile boolean down;
+
+    private FlakyRepositoryDao(InMemoryRepositoryDao target) {
+      this.target = target;
+    }
+
+    @Override
+    public Cas getCasId(String casId) throws Exception {
+      check();
+      return target.getCasId(casId);
+    }
+
+    @Override
+    public String store(Cas cas) throws Exception {
+      check();
+      return target.store(cas);
+    }
+
+    @Override
+    public String store(Cas cas, String casId) throws Exception {
+      check();
+      return target.store(cas, casId);
+    }
+
+    @Override
+    public void deleteCasId(String casId) throws Exception {
+      check();
+      target.deleteCasId(casId);
+    }
+
+    @Override
+    public boolean existsCasId(String casId) throws Exception {
+      check();
+      return target.existsCasId(casId);
+    }
+
+    @Override
+    public List<String> getCasIds(String documentId) throws Exception {
+      // Listing still works while it is down, so that the view of the log can be checked.
+      return target.getCasIds(documentId);
+    }
+
+    private void check() {
+      if (down) {
+        throw new IllegalStateException("The repository is down.");
+      }
+    }
+  }
+}
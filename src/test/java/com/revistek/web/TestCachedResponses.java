@@ -0,0 +1,88 @@
+package com.revistek.web;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.protobuf.ByteString;
+import com.revistek.crs.protos.Cas;
+import com.revistek.crs.protos.Message;
+import com.revistek.crs.protos.constants.MessageCodes;
+import com.revistek.crs.protos.constants.ProtobufMessages;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.jupiter.api.Test;
+
+public class TestCachedResponses {
+  private static final List<Message> TEMPLATES =
+      Arrays.asList(
+          CachedResponses.STORE_FAILED,
+          CachedResponses.GET_FAILED,
+          CachedResponses.DELETE_FAILED,
+          CachedResponses.DELETE_SUCCEEDED);
+
+  @Test
+  public void testCachedBytes() {
+    for (Message message :
+        Arrays.asList(
+            CachedResponses.INVALID_MESSAGE,
+            CachedResponses.READ_AHEAD_DISABLED,
+            CachedResponses.GET_FAILED,
+            CachedResponses.END_OF_QUERY,
+            CachedResponses.SESSION_CLOSED)) {
+      byte[] bytes = CachedResponses.toByteArray(message);
+
+      assertArrayEquals(message.toByteArray(), bytes);
+      assertSame(bytes, CachedResponses.toByteArray(message));
+    }
+  }
+
+  @Test
+  public void testWithCasId() throws Exception {
+    // An empty Cas ID, and one long enough to need a two-byte length.
+    for (String casId : Arrays.asList("1642000000000_1", "", StringUtils.repeat('x', 200))) {
+      for (Message template : TEMPLATES) {
+        Message message = CachedResponses.withCasId(template, casId);
+        byte[] bytes = CachedResponses.toByteArray(template, casId);
+
+        assertEquals(message.getSerializedSize(), bytes.length);
+        assertEquals(message, Message.parseFrom(bytes));
+        assertArrayEquals(
+            bytes, (byte[]) CachedResponses.ok(template, casId).build().getEntity());
+      }
+    }
+  }
+
+  @Test
+  public void testOtherMessages() throws Exception {
+    Message withQueryKey =
+        CachedResponses.withCasId(CachedResponses.DELETE_FAILED, "casId")
+            .toBuilder()
+            .setMetadataQueryKey("query")
+            .build();
+    Message withDocumentId =
+        CachedResponses.GET_FAILED.toBuilder()
+            .setCas(Cas.newBuilder().setCasId("casId").setDocumentId("docId"))
+            .build();
+    Message got =
+        Message.newBuilder()
+            .setStatusCode(MessageCodes.OK)
+            .setMessage(ProtobufMessages.CAS_GET_SUCCESS)
+            .setCas(Cas.newBuilder().setCasId("casId").setCasData(ByteString.copyFromUtf8("data")))
+            .build();
+
+    for (Message message : Arrays.asList(withQueryKey, withDocumentId, got)) {
+      assertEquals(message, Message.parseFrom(CachedResponses.toByteArray(message)));
+    }
+
+    assertTrue(
+        CachedResponses.ok(CachedResponses.INVALID_MESSAGE).build().getEntity() instanceof byte[]);
+    assertEquals(
+        withQueryKey,
+        Message.parseFrom(
+            CachedResponses.toByteArray(withQueryKey.toBuilder().clearCas().build(), "casId")));
+    assertSame(got, CachedResponses.ok(got).build().getEntity());
+  }
+}
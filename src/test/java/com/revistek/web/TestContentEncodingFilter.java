@@ -0,0 +1,34 @@
+package com.revistek.web;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.Test;
+
+public class TestContentEncodingFilter {
+  @Test
+  public void testNegotiateNoPreference() {
+    assertNull(ContentEncodingFilter.negotiate(null));
+    assertNull(ContentEncodingFilter.negotiate(""));
+    assertEquals(ZstdEncoder.ENCODING, ContentEncodingFilter.negotiate("gzip, zstd"));
+    assertEquals(ZstdEncoder.ENCODING, ContentEncodingFilter.negotiate("*"));
+  }
+
+  @Test
+  public void testNegotiateQuality() {
+    assertEquals(
+        ContentEncodingFilter.GZIP, ContentEncodingFilter.negotiate("zstd;q=0.5, gzip;q=0.8"));
+    assertEquals(ContentEncodingFilter.GZIP, ContentEncodingFilter.negotiate("zstd;q=0, *"));
+    assertEquals(ContentEncodingFilter.GZIP, ContentEncodingFilter.negotiate("X-GZIP"));
+    assertEquals(ZstdEncoder.ENCODING, ContentEncodingFilter.negotiate("gzip;q=0.2, *;q=0.4"));
+  }
+
+  @Test
+  public void testNegotiateUnsupported() {
+    assertNull(ContentEncodingFilter.negotiate("identity"));
+    assertNull(ContentEncodingFilter.negotiate("br, deflate"));
+    assertNull(ContentEncodingFilter.negotiate("gzip;q=0, zstd;q=0"));
+    assertNull(ContentEncodingFilter.negotiate("*;q=0"));
+    assertNull(ContentEncodingFilter.negotiate("gzip;q=abc"));
+  }
+}
@@ -0,0 +1,98 @@
+package com.revistek.web;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.github.luben.zstd.ZstdOutputStream;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.MultivaluedHashMap;
+import jakarta.ws.rs.core.MultivaluedMap;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.ext.ReaderInterceptorContext;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import org.junit.jupiter.api.Test;
+
+public class TestDecodedSizeLimit {
+  private static final int MAX_BYTES = 64 * 1024;
+
+  @Test
+  public void testUnderLimit() throws Exception {
+    byte[] data = new byte[MAX_BYTES];
+
+    try (InputStream in = DecodedSizeLimit.limit(decode(encode(data)), MAX_BYTES)) {
+      assertArrayEquals(data, in.readAllBytes());
+    }
+  }
+
+  @Test
+  public void testDecompressionBomb() throws Exception {
+    // A megabyte of zeros compresses to a few dozen bytes.
+    byte[] encoded = encode(new byte[1024 * 1024]);
+    assertTrue(encoded.length < MAX_BYTES);
+
+    try (InputStream in = DecodedSizeLimit.limit(decode(encoded), MAX_BYTES)) {
+      WebApplicationException e =
+          assertThrows(WebApplicationException.class, () -> in.readAllBytes());
+      assertEquals(
+          Response.Status.REQUEST_ENTITY_TOO_LARGE.getStatusCode(), e.getResponse().getStatus());
+    }
+  }
+
+  @Test
+  public void testInterceptor() throws Exception {
+    DecodedSizeLimit limit = new DecodedSizeLimit();
+    InputStream body = new ByteArrayInputStream(new byte[0]);
+
+    ReaderInterceptorContext identity = newContext("identity", body);
+    limit.aroundReadFrom(identity);
+    verify(identity, never()).setInputStream(any());
+
+    ReaderInterceptorContext plain = newContext(null, body);
+    limit.aroundReadFrom(plain);
+    verify(plain, never()).setInputStream(any());
+
+    ReaderInterceptorContext zstd = newContext(ZstdEncoder.ENCODING, body);
+    assertSame(body, limit.aroundReadFrom(zstd));
+    verify(zstd).setInputStream(any());
+  }
+
+  private static ReaderInterceptorContext newContext(String encoding, InputStream body)
+      throws Exception {
+    MultivaluedMap<String, String> headers = new MultivaluedHashMap<String, String>();
+
+    if (encoding != null) {
+      headers.putSingle(HttpHeaders.CONTENT_ENCODING, encoding);
+    }
+
+    ReaderInterceptorContext context = mock(ReaderInterceptorContext.class);
+    when(context.getHeaders()).thenReturn(headers);
+    when(context.getInputStream()).thenReturn(body);
+    when(context.proceed()).thenReturn(body);
+    return context;
+  }
+
+  private static InputStream decode(byte[] encoded) throws Exception {
+    return new ZstdEncoder().decode(ZstdEncoder.ENCODING, new ByteArrayInputStream(encoded));
+  }
+
+  private static byte[] encode(byte[] data) throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    try (ZstdOutputStream out = new ZstdOutputStream(bytes, ZstdEncoder.LEVEL)) {
+      out.write(data);
+    }
+
+    return bytes.toByteArray();
+  }
+}
@@ -0,0 +1,118 @@
+package com.revistek.web;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
+import com.revistek.crs.constants.Cache;
+import com.revistek.util.CacheDao;
+import com.revistek.util.MongoDbCollectionSettings;
+import com.revistek.util.constants.ConfigurationKeys;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+public class TestServiceConfiguration {
+  private CacheDao mockCacheDao;
+  private Map<String, String> queries;
+
+  @BeforeEach
+  public void setup() {
+    mockCacheDao = Mockito.mock(CacheDao.class);
+    Mockito.when(mockCacheDao.newBatch()).thenCallRealMethod();
+    Mockito.when(mockCacheDao.get(Cache.KEY_REPOSITORY_URL)).thenReturn("mongodb://repo");
+    Mockito.when(mockCacheDao.get(Cache.KEY_MONGODB_REPOSITORY_DATABASE)).thenReturn("repodb");
+    Mockito.when(mockCacheDao.get(Cache.KEY_MONGODB_REPOSITORY_COLLECTION)).thenReturn("repocol");
+    Mockito.when(mockCacheDao.get(Cache.KEY_METDATA_STORE_URL)).thenReturn("mongodb://meta");
+
+    queries = new HashMap<String, String>();
+    queries.put("query", "metadb,metacol");
+    Mockito.when(mockCacheDao.getMap(Cache.KEY_METDATA_STORE_QUERIES)).thenReturn(queries);
+  }
+
+  @Test
+  public void testLoad() throws Exception {
+    ServiceConfiguration configuration = ServiceConfiguration.load(mockCacheDao, 3L);
+    assertEquals(3L, configuration.getVersion());
+    assertEquals("mongodb://repo", configuration.getRepositoryUrl());
+    assertEquals("repodb", configuration.getRepositoryDatabase());
+    assertEquals("repocol", configuration.getRepositoryCollection());
+    assertEquals("mongodb://meta", configuration.getMetadataStoreUrl());
+    assertEquals("metadb", configuration.getMetadataQueries().get("query").getLeft());
+    assertEquals("metacol", configuration.getMetadataQueries().get("query").getRight());
+  }
+
+  @Test
+  public void testLoadInvalidQuery() {
+    queries.put("badquery", "metadb");
+    assertThrows(
+        IllegalArgumentException.class, () -> ServiceConfiguration.load(mockCacheDao, 1L));
+  }
+
+  @Test
+  public void testLoadCollectionSettings() throws Exception {
+    queries.put("final", "metadb,finalcol,durability=majority");
+    Mockito.when(mockCacheDao.get(ConfigurationKeys.KEY_REPOSITORY_COLLECTION_SETTINGS))
+        .thenReturn("readPreference=secondaryPreferred");
+
+    ServiceConfiguration configuration = ServiceConfiguration.load(mockCacheDao, 1L);
+    assertEquals("finalcol", configuration.getMetadataQueries().get("final").getRight());
+    assertEquals(
+        WriteConcern.MAJORITY.withJournal(true),
+        configuration.getMetadataQuerySettings().get("final").getWriteConcern());
+    assertEquals(
+        MongoDbCollectionSettings.DEFAULT, configuration.getMetadataQuerySettings().get("query"));
+    assertEquals(
+        ReadPreference.secondaryPreferred(),
+        configuration.getRepositorySettings().getReadPreference());
+
+    queries.put("final", "metadb,finalcol,durability=fast");
+    ServiceConfiguration changed = ServiceConfiguration.load(mockCacheDao, 2L);
+    assertFalse(configuration.hasSameSettings(changed));
+
+    queries.put("final", "metadb,finalcol,durability=unknown");
+    assertThrows(
+        IllegalArgumentException.class, () -> ServiceConfiguration.load(mockCacheDao, 3L));
+  }
+
+  @Test
+  public void testHasSameSettings() throws Exception {
+    ServiceConfiguration first = ServiceConfiguration.load(mockCacheDao, 1L);
+    ServiceConfiguration second = ServiceConfiguration.load(mockCacheDao, 2L);
+    assertTrue(first.hasSameSettings(second));
+
+    queries.put("newquery", "metadb,newcol");
+    ServiceConfiguration third = ServiceConfiguration.load(mockCacheDao, 3L);
+    assertFalse(first.hasSameSettings(third));
+    assertTrue(first.hasSameRepositoryUrl(third));
+    assertTrue(first.hasSameMetadataStoreUrl(third));
+  }
+
+  @Test
+  public void testRepositoryShards() throws Exception {
+    ServiceConfiguration unsharded = ServiceConfiguration.load(mockCacheDao, 1L);
+    assertTrue(unsharded.getRepositoryShards().isEmpty());
+
+    Map<String, String> shards = new HashMap<String, String>();
+    shards.put("s0", "mongodb://shard0");
+    Mockito.when(mockCacheDao.getMap(ConfigurationKeys.KEY_REPOSITORY_SHARDS)).thenReturn(shards);
+    ServiceConfiguration oneShard = ServiceConfiguration.load(mockCacheDao, 2L);
+    assertEquals("mongodb://shard0", oneShard.getRepositoryShards().get("s0"));
+    assertFalse(oneShard.hasSameRepositoryUrl(unsharded));
+    assertFalse(oneShard.onlyAddsRepositoryShards(unsharded));
+
+    shards.put("s1", "mongodb://shard1");
+    ServiceConfiguration twoShards = ServiceConfiguration.load(mockCacheDao, 3L);
+    assertTrue(twoShards.onlyAddsRepositoryShards(oneShard));
+    assertFalse(oneShard.onlyAddsRepositoryShards(twoShards));
+
+    shards.put("s0", "mongodb://moved");
+    ServiceConfiguration movedShard = ServiceConfiguration.load(mockCacheDao, 4L);
+    assertFalse(movedShard.onlyAddsRepositoryShards(oneShard));
+  }
+}
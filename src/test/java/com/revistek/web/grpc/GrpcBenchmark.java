@@ -0,0 +1,449 @@
+package com.revistek.web.grpc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.google.protobuf.ByteString;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.revistek.crs.constants.Cache;
+import com.revistek.crs.constants.MetadataStoreQueries;
+import com.revistek.crs.protos.Cas;
+import com.revistek.crs.protos.Message;
+import com.revistek.crs.protos.constants.MessageCodes;
+import com.revistek.crs.protos.net.jersey.ProtobufMessageBodyHandler;
+import com.revistek.net.constants.MediaTypes;
+import com.revistek.util.constants.ConfigurationKeys;
+import com.revistek.web.CasRepositoryServiceServletContextListener;
+import com.revistek.web.resources.CasRepositoryServiceResource;
+import de.svenkubiak.embeddedmongodb.EmbeddedMongoDB;
+import io.grpc.CallOptions;
+import io.grpc.ManagedChannel;
+import io.grpc.MethodDescriptor;
+import io.grpc.netty.shaded.io.grpc.netty.NettyChannelBuilder;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientCalls;
+import io.grpc.stub.ClientResponseObserver;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import org.HdrHistogram.Histogram;
+import org.glassfish.grizzly.http.server.HttpServer;
+import org.glassfish.grizzly.http.server.NetworkListener;
+import org.glassfish.grizzly.servlet.ServletRegistration;
+import org.glassfish.grizzly.servlet.WebappContext;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.servlet.ServletContainer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import redis.clients.jedis.JedisPooled;
+import redis.embedded.RedisServer;
+
+/**
+ * Compares the REST endpoints with the unary and streaming gRPC methods on the same repository and
+ * metadata store (embedded MongoDB and REDIS servers). The servlet listener starts the gRPC server
+ * next to the Jersey app on Grizzly, so both front-ends share the DAO singletons.
+ *
+ * <p>Every front-end stores the same Cases and reads them back from a number of concurrent clients:
+ * REST over HTTP/1.1 with one connection per client, unary gRPC calls multiplexed over one channel,
+ * and one gRPC stream per client. It reports the throughput and latency percentiles of each.
+ *
+ * <p>It is not picked up by the default Surefire includes. Run it explicitly, e.g. {@code mvn test
+ * -Dtest=GrpcBenchmark -Dbench.concurrency=32}. The settings are:
+ *
+ * <ul>
+ *   <li>{@code bench.concurrency} - the number of clients.
+ *   <li>{@code bench.cases} - the number of Cases stored and read back.
+ *   <li>{@code bench.payloadBytes} - the size of the Cases.
+ * </ul>
+ */
+public class GrpcBenchmark {
+  public static final int REDIS_PORT = 12345;
+  public static final String REDIS_URL = "redis://localhost:" + String.valueOf(REDIS_PORT);
+  public static final int MONGODB_PORT = 12346;
+  public static final String MONGODB_URL = "mongodb://localhost:" + String.valueOf(MONGODB_PORT);
+  public static final int HTTP_PORT = 12356;
+  public static final int GRPC_PORT = 12357;
+  public static final String REPO_DATABASE = "grpcrepo";
+  public static final String REPO_COLLECTION = "grpccollection";
+  public static final String METADATA_DATABASE = "grpcmetadata";
+
+  private static final int CONCURRENCY = Integer.getInteger("bench.concurrency", 16);
+  private static final int CASES = Integer.getInteger("bench.cases", 2000);
+  private static final int PAYLOAD_BYTES = Integer.getInteger("bench.payloadBytes", 64 * 1024);
+
+  private static RedisServer redisServer;
+  private static EmbeddedMongoDB mongoDbServer;
+  private static WebappContext webapp;
+  private static HttpServer httpServer;
+  private static ManagedChannel channel;
+  private static List<Cas> cases;
+
+  @BeforeAll
+  public static void setupServers() throws Exception {
+    mongoDbServer = EmbeddedMongoDB.create().withPort(MONGODB_PORT).start();
+    redisServer = new RedisServer(REDIS_PORT);
+    redisServer.start();
+
+    Map<String, String> queries = new HashMap<String, String>();
+    queries.put(
+        MetadataStoreQueries.QUERY_KEY_PREPROCESSOR,
+        METADATA_DATABASE + "," + MetadataStoreQueries.QUERY_KEY_PREPROCESSOR);
+
+    JedisPooled client = new JedisPooled(REDIS_URL);
+    client.set(Cache.KEY_REPOSITORY_URL, MONGODB_URL);
+    client.set(Cache.KEY_MONGODB_REPOSITORY_DATABASE, REPO_DATABASE);
+    client.set(Cache.KEY_MONGODB_REPOSITORY_COLLECTION, REPO_COLLECTION);
+    client.set(Cache.KEY_METDATA_STORE_URL, MONGODB_URL);
+    client.hset(Cache.KEY_METDATA_STORE_QUERIES, queries);
+    client.set(ConfigurationKeys.KEY_GRPC_PORT, String.valueOf(GRPC_PORT));
+    client.close();
+
+    ResourceConfig config = new ResourceConfig(CasRepositoryServiceResource.class);
+    config.register(ProtobufMessageBodyHandler.class);
+
+    webapp = new WebappContext("crs", "");
+    webapp.addListener(CasRepositoryServiceServletContextListener.class);
+    ServletRegistration servlet = webapp.addServlet("jersey", new ServletContainer(config));
+    servlet.addMapping("/*");
+
+    httpServer = new HttpServer();
+    httpServer.addListener(new NetworkListener("http", "localhost", HTTP_PORT));
+    webapp.deploy(httpServer);
+    httpServer.start();
+
+    channel =
+        NettyChannelBuilder.forAddress("localhost", GRPC_PORT)
+            .usePlaintext()
+            .maxInboundMessageSize(CasRepositoryGrpcService.DEFAULT_MAX_MESSAGE_BYTES)
+            .build();
+    cases = generateCases();
+  }
+
+  @AfterAll
+  public static void teardownServers() throws Exception {
+    channel.shutdownNow();
+    webapp.undeploy();
+    httpServer.shutdownNow();
+
+    JedisPooled client = new JedisPooled(REDIS_URL);
+    client.del(ConfigurationKeys.KEY_GRPC_PORT);
+    client.close();
+
+    MongoClient mongoClient = MongoClients.create(MONGODB_URL);
+    mongoClient.getDatabase(REPO_DATABASE).drop();
+    mongoClient.getDatabase(METADATA_DATABASE).drop();
+    mongoClient.close();
+
+    mongoDbServer.stop();
+    redisServer.stop();
+  }
+
+  @Test
+  public void benchmark() throws Exception {
+    System.out.printf("%d Cases of %d bytes, %d clients.%n", CASES, PAYLOAD_BYTES, CONCURRENCY);
+
+    // Warm up every front-end before measuring.
+    for (int round = 0; round < 2; round++) {
+      for (FrontEnd frontEnd : new FrontEnd[] {new Rest(), new Unary(), new Streaming()}) {
+        run(frontEnd, round > 0);
+      }
+    }
+  }
+
+  private static void run(FrontEnd frontEnd, boolean report) throws Exception {
+    Histogram storeLatencies = new Histogram(3);
+    Histogram getLatencies = new Histogram(3);
+    long start = System.nanoTime();
+    List<Message> stored = frontEnd.run(storeMessages(), Operation.STORE, storeLatencies);
+    long storeEnd = System.nanoTime();
+    List<Message> retrieved = frontEnd.run(casIdMessages(stored), Operation.GET, getLatencies);
+    long getEnd = System.nanoTime();
+
+    for (int i = 0; i < cases.size(); i++) {
+      assertEquals(MessageCodes.OK, retrieved.get(i).getStatusCode());
+      assertEquals(cases.get(i).getCrc32Checksum(), retrieved.get(i).getCas().getCrc32Checksum());
+    }
+
+    // Deleted outside of the measurements, over REST, to keep the repository the same size.
+    new Rest().run(casIdMessages(stored), Operation.DELETE, new Histogram(3));
+
+    if (report) {
+      System.out.printf(
+          "%-10s store %7.1f req/s p50=%.2f p99=%.2f ms | get %7.1f req/s p50=%.2f p99=%.2f ms%n",
+          frontEnd.getClass().getSimpleName(),
+          cases.size() / ((storeEnd - start) / 1e9),
+          storeLatencies.getValueAtPercentile(50.0) / 1e6,
+          storeLatencies.getValueAtPercentile(99.0) / 1e6,
+          cases.size() / ((getEnd - storeEnd) / 1e9),
+          getLatencies.getValueAtPercentile(50.0) / 1e6,
+          getLatencies.getValueAtPercentile(99.0) / 1e6);
+    }
+  }
+
+  private static List<Message> storeMessages() {
+    List<Message> messages = new ArrayList<Message>(cases.size());
+
+    for (Cas cas : cases) {
+      messages.add(
+          Message.newBuilder()
+              .setCas(cas)
+              .setMetadataQueryKey(MetadataStoreQueries.QUERY_KEY_PREPROCESSOR)
+              .build());
+    }
+
+    return messages;
+  }
+
+  private static List<Message> casIdMessages(List<Message> stored) {
+    List<Message> messages = new ArrayList<Message>(stored.size());
+
+    for (Message response : stored) {
+      assertEquals(MessageCodes.OK, response.getStatusCode());
+      messages.add(
+          Message.newBuilder()
+              .setCas(Cas.newBuilder().setCasId(response.getCas().getCasId()))
+              .build());
+    }
+
+    return messages;
+  }
+
+  private static List<Cas> generateCases() {
+    Random random = new Random(7L);
+    List<Cas> generated = new ArrayList<Cas>(CASES);
+
+    for (int i = 0; i < CASES; i++) {
+      byte[] payload = new byte[PAYLOAD_BYTES];
+      random.nextBytes(payload);
+      CRC32 crc32 = new CRC32();
+      crc32.update(payload, 0, payload.length);
+
+      generated.add(
+          Cas.newBuilder()
+              .setDocumentId("document" + i)
+              .setCrc32Checksum(crc32.getValue())
+              .setCasData(ByteString.copyFrom(payload))
+              .build());
+    }
+
+    return generated;
+  }
+
+  private enum Operation {
+    STORE(
+        "/rest/store",
+        CasRepositoryGrpcService.STORE_METHOD,
+        CasRepositoryGrpcService.STORE_STREAM_METHOD),
+    GET(
+        "/rest/get",
+        CasRepositoryGrpcService.GET_METHOD,
+        CasRepositoryGrpcService.GET_STREAM_METHOD),
+    DELETE(
+        "/rest/delete",
+        CasRepositoryGrpcService.DELETE_METHOD,
+        CasRepositoryGrpcService.DELETE_STREAM_METHOD);
+
+    private final String path;
+    private final MethodDescriptor<Message, Message> unaryMethod;
+    private final MethodDescriptor<Message, Message> streamMethod;
+
+    Operation(
+        String path,
+        MethodDescriptor<Message, Message> unaryMethod,
+        MethodDescriptor<Message, Message> streamMethod) {
+      this.path = path;
+      this.unaryMethod = unaryMethod;
+      this.streamMethod = streamMethod;
+    }
+  }
+
+  /** A way to send requests to the CRS. */
+  private interface FrontEnd {
+    /**
+     * Sends the requests from the clients, in parallel.
+     *
+     * @param requests the requests.
+     * @param operation the operation to run.
+     * @param latencies where to record the latency of every request.
+     * @return the responses, in the order of the requests.
+     */
+    List<Message> run(List<Message> requests, Operation operation, Histogram latencies)
+        throws Exception;
+  }
+
+  /** Splits the requests between the clients, each sending its share one at a time. */
+  private abstract static class BlockingFrontEnd implements FrontEnd {
+    @Override
+    public List<Message> run(List<Message> requests, Operation operation, Histogram latencies)
+        throws Exception {
+      ExecutorService clients = Executors.newFixedThreadPool(CONCURRENCY);
+      List<Future<Message>> futures = new ArrayList<Future<Message>>(requests.size());
+
+      for (Message request : requests) {
+        futures.add(
+            clients.submit(
+                () -> {
+                  long start = System.nanoTime();
+                  Message response = send(request, operation);
+                  synchronized (latencies) {
+                    latencies.recordValue(System.nanoTime() - start);
+                  }
+                  return response;
+                }));
+      }
+
+      List<Message> responses = new ArrayList<Message>(requests.size());
+
+      for (Future<Message> future : futures) {
+        responses.add(future.get());
+      }
+
+      clients.shutdown();
+      return responses;
+    }
+
+    abstract Message send(Message request, Operation operation) throws Exception;
+  }
+
+  private static final class Rest extends BlockingFrontEnd {
+    private final HttpClient client =
+        HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+    @Override
+    Message send(Message request, Operation operation) throws Exception {
+      HttpResponse<byte[]> response =
+          client.send(
+              HttpRequest.newBuilder(URI.create("http://localhost:" + HTTP_PORT + operation.path))
+                  .header("Content-Type", MediaTypes.APPLICATION_XPROTOBUF)
+                  .POST(HttpRequest.BodyPublishers.ofByteArray(request.toByteArray()))
+                  .build(),
+              HttpResponse.BodyHandlers.ofByteArray());
+      return Message.parseFrom(response.body());
+    }
+  }
+
+  private static final class Unary extends BlockingFrontEnd {
+    @Override
+    Message send(Message request, Operation operation) {
+      return ClientCalls.blockingUnaryCall(
+          channel,
+          operation.unaryMethod,
+          CallOptions.DEFAULT.withDeadlineAfter(30, TimeUnit.SECONDS),
+          request);
+    }
+  }
+
+  /**
+   * Each client sends its share of the requests over its own stream, as fast as the flow control
+   * of the stream lets it.
+   */
+  private static final class Streaming implements FrontEnd {
+    @Override
+    public List<Message> run(List<Message> requests, Operation operation, Histogram latencies)
+        throws Exception {
+      Message[] responses = new Message[requests.size()];
+      long[] sent = new long[requests.size()];
+      List<CompletableFuture<Void>> streams = new ArrayList<CompletableFuture<Void>>();
+
+      for (int client = 0; client < CONCURRENCY; client++) {
+        CompletableFuture<Void> done = new CompletableFuture<Void>();
+        ClientCalls.asyncBidiStreamingCall(
+            channel.newCall(
+                operation.streamMethod,
+                CallOptions.DEFAULT.withDeadlineAfter(5, TimeUnit.MINUTES)),
+            new StreamClient(requests, client, sent, responses, latencies, done));
+        streams.add(done);
+      }
+
+      for (CompletableFuture<Void> stream : streams) {
+        stream.get();
+      }
+
+      List<Message> ordered = new ArrayList<Message>(responses.length);
+
+      for (Message response : responses) {
+        ordered.add(response);
+      }
+
+      return ordered;
+    }
+  }
+
+  /**
+   * Sends every {@code CONCURRENCY}th request, starting from one, while the stream is ready. The
+   * callbacks of a call are never run concurrently.
+   */
+  private static final class StreamClient implements ClientResponseObserver<Message, Message> {
+    private final List<Message> requests;
+    private final long[] sent;
+    private final Message[] responses;
+    private final Histogram latencies;
+    private final CompletableFuture<Void> done;
+    private int nextRequest;
+    private int nextResponse;
+
+    private StreamClient(
+        List<Message> requests,
+        int first,
+        long[] sent,
+        Message[] responses,
+        Histogram latencies,
+        CompletableFuture<Void> done) {
+      this.requests = requests;
+      this.sent = sent;
+      this.responses = responses;
+      this.latencies = latencies;
+      this.done = done;
+      this.nextRequest = first;
+      this.nextResponse = first;
+    }
+
+    @Override
+    public void beforeStart(ClientCallStreamObserver<Message> requestStream) {
+      requestStream.setOnReadyHandler(
+          () -> {
+            while (requestStream.isReady() && (nextRequest < requests.size())) {
+              sent[nextRequest] = System.nanoTime();
+              requestStream.onNext(requests.get(nextRequest));
+              nextRequest += CONCURRENCY;
+
+              if (nextRequest >= requests.size()) {
+                requestStream.onCompleted();
+              }
+            }
+          });
+    }
+
+    @Override
+    public void onNext(Message response) {
+      synchronized (latencies) {
+        latencies.recordValue(System.nanoTime() - sent[nextResponse]);
+      }
+      responses[nextResponse] = response;
+      nextResponse += CONCURRENCY;
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      done.completeExceptionally(t);
+    }
+
+    @Override
+    public void onCompleted() {
+      done.complete(null);
+    }
+  }
+}
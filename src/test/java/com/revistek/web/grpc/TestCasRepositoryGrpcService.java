@@ -0,0 +1,189 @@
+package com.revistek.web.grpc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.protobuf.ByteString;
+import com.revistek.crs.constants.MetadataStoreQueries;
+import com.revistek.crs.protos.Cas;
+import com.revistek.crs.protos.Message;
+import com.revistek.crs.protos.constants.MessageCodes;
+import com.revistek.util.MetadataStoreDao;
+import com.revistek.util.RepositoryDao;
+import io.grpc.CallOptions;
+import io.grpc.ClientInterceptors;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ClientCalls;
+import io.grpc.stub.MetadataUtils;
+import io.grpc.stub.StreamObserver;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+public class TestCasRepositoryGrpcService {
+  private RepositoryDao mockRepositoryDao;
+  private MetadataStoreDao mockMetadataStoreDao;
+  private Server server;
+  private ManagedChannel channel;
+
+  @BeforeEach
+  public void setup() throws Exception {
+    mockRepositoryDao = Mockito.mock(RepositoryDao.class);
+    mockMetadataStoreDao = Mockito.mock(MetadataStoreDao.class);
+
+    String name = InProcessServerBuilder.generateName();
+    server =
+        InProcessServerBuilder.forName(name)
+            .addService(
+                new CasRepositoryGrpcService(() -> mockRepositoryDao, () -> mockMetadataStoreDao))
+            .build()
+            .start();
+    channel = InProcessChannelBuilder.forName(name).build();
+  }
+
+  @AfterEach
+  public void teardown() {
+    channel.shutdownNow();
+    server.shutdownNow();
+  }
+
+  @Test
+  public void testStoreAndGet() throws Exception {
+    Cas cas = newCas("test");
+    Mockito.when(mockRepositoryDao.store(cas)).thenReturn("casId");
+    Mockito.when(mockRepositoryDao.getCasId("casId")).thenReturn(cas);
+
+    Message response =
+        ClientCalls.blockingUnaryCall(
+            channel,
+            CasRepositoryGrpcService.STORE_METHOD,
+            CallOptions.DEFAULT.withDeadlineAfter(10, TimeUnit.SECONDS),
+            newStoreMessage(cas));
+    assertEquals(MessageCodes.OK, response.getStatusCode());
+    assertEquals("casId", response.getCas().getCasId());
+    Mockito.verify(mockMetadataStoreDao)
+        .addCasId(MetadataStoreQueries.QUERY_KEY_PREPROCESSOR, "casId");
+
+    response =
+        ClientCalls.blockingUnaryCall(
+            channel,
+            CasRepositoryGrpcService.GET_METHOD,
+            CallOptions.DEFAULT,
+            Message.newBuilder().setCas(Cas.newBuilder().setCasId("casId")).build());
+    assertEquals(MessageCodes.OK, response.getStatusCode());
+    assertEquals(cas.getCasData(), response.getCas().getCasData());
+  }
+
+  @Test
+  public void testStoreInvalid() {
+    Message response =
+        ClientCalls.blockingUnaryCall(
+            channel,
+            CasRepositoryGrpcService.STORE_METHOD,
+            CallOptions.DEFAULT,
+            Message.newBuilder().setMessage("HI").build());
+    assertEquals(MessageCodes.INVALID_MESSAGE, response.getStatusCode());
+    Mockito.verifyNoInteractions(mockRepositoryDao, mockMetadataStoreDao);
+  }
+
+  @Test
+  public void testStoreDelta() throws Exception {
+    // A Cas that was read, changed, and stored again keeps its old Cas ID, but is stored in full.
+    Cas cas = newCas("test").toBuilder().setCasId("readCasId").build();
+    Mockito.when(mockRepositoryDao.store(cas)).thenReturn("fullCasId");
+    Mockito.when(mockRepositoryDao.storeDelta(cas, "baseCasId")).thenReturn("deltaCasId");
+
+    Message response =
+        ClientCalls.blockingUnaryCall(
+            channel,
+            CasRepositoryGrpcService.STORE_METHOD,
+            CallOptions.DEFAULT,
+            newStoreMessage(cas));
+    assertEquals("fullCasId", response.getCas().getCasId());
+
+    Metadata headers = new Metadata();
+    headers.put(CasRepositoryGrpcService.DELTA_BASE_KEY, "baseCasId");
+    response =
+        ClientCalls.blockingUnaryCall(
+            ClientInterceptors.intercept(
+                channel, MetadataUtils.newAttachHeadersInterceptor(headers)),
+            CasRepositoryGrpcService.STORE_METHOD,
+            CallOptions.DEFAULT,
+            newStoreMessage(cas));
+    assertEquals("deltaCasId", response.getCas().getCasId());
+    Mockito.verify(mockRepositoryDao, Mockito.never()).storeDelta(cas, "readCasId");
+  }
+
+  @Test
+  public void testStoreStream() throws Exception {
+    int count = 50;
+
+    for (int i = 0; i < count; i++) {
+      Mockito.when(mockRepositoryDao.store(newCas("cas" + i))).thenReturn("casId" + i);
+    }
+
+    List<Message> responses = new CopyOnWriteArrayList<Message>();
+    CountDownLatch completed = new CountDownLatch(1);
+    StreamObserver<Message> requests =
+        ClientCalls.asyncBidiStreamingCall(
+            channel.newCall(CasRepositoryGrpcService.STORE_STREAM_METHOD, CallOptions.DEFAULT),
+            new StreamObserver<Message>() {
+              @Override
+              public void onNext(Message response) {
+                responses.add(response);
+              }
+
+              @Override
+              public void onError(Throwable t) {
+                completed.countDown();
+              }
+
+              @Override
+              public void onCompleted() {
+                completed.countDown();
+              }
+            });
+
+    for (int i = 0; i < count; i++) {
+      requests.onNext(newStoreMessage(newCas("cas" + i)));
+    }
+
+    // An invalid message is answered without ending the stream.
+    requests.onNext(Message.newBuilder().setMessage("HI").build());
+    requests.onCompleted();
+
+    assertTrue(completed.await(10, TimeUnit.SECONDS));
+    assertEquals(count + 1, responses.size());
+
+    for (int i = 0; i < count; i++) {
+      assertEquals(MessageCodes.OK, responses.get(i).getStatusCode());
+      assertEquals("casId" + i, responses.get(i).getCas().getCasId());
+    }
+
+    assertEquals(MessageCodes.INVALID_MESSAGE, responses.get(count).getStatusCode());
+  }
+
+  private static Cas newCas(String data) {
+    return Cas.newBuilder()
+        .setDocumentId("docId")
+        .setCasData(ByteString.copyFrom(data, StandardCharsets.UTF_8))
+        .build();
+  }
+
+  private static Message newStoreMessage(Cas cas) {
+    return Message.newBuilder()
+        .setCas(cas)
+        .setMetadataQueryKey(MetadataStoreQueries.QUERY_KEY_PREPROCESSOR)
+        .build();
+  }
+}
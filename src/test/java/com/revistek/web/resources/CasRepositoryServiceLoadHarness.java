@@ -0,0 +1,321 @@
+package com.revistek.web.resources;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.google.protobuf.ByteString;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.revistek.crs.constants.Cache;
+import com.revistek.crs.constants.MetadataStoreQueries;
+import com.revistek.crs.protos.Cas;
+import com.revistek.crs.protos.Message;
+import com.revistek.crs.protos.constants.MessageCodes;
+import com.revistek.crs.protos.net.jersey.ProtobufMessageBodyHandler;
+import com.revistek.net.constants.MediaTypes;
+import de.svenkubiak.embeddedmongodb.EmbeddedMongoDB;
+import jakarta.ws.rs.client.Entity;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import redis.clients.jedis.JedisPooled;
+import redis.embedded.RedisServer;
+
+/**
+ * An open-model load generator for the CRS endpoints, running against embedded MongoDB and REDIS
+ * servers and the Jersey app on Grizzly. Requests are started on a precomputed schedule (Poisson
+ * arrivals) whether or not earlier requests have finished, and each latency is measured from the
+ * time the request was scheduled to start, which corrects for coordinated omission.
+ *
+ * <p>It is not picked up by the default Surefire includes. Run it explicitly, e.g. {@code mvn test
+ * -Dtest=CasRepositoryServiceLoadHarness -Dload.rate=500 -Dload.durationSecs=60}. The settings
+ * are:
+ *
+ * <ul>
+ *   <li>{@code load.rate} - the arrival rate, in requests per second.
+ *   <li>{@code load.durationSecs} - how long to measure, after {@code load.warmupSecs}.
+ *   <li>{@code load.payloadMedianBytes} and {@code load.payloadSigma} - the log-normal payload
+ *       size distribution of stored Cases.
+ *   <li>{@code load.storeRatio}, {@code load.getRatio} - the request mix. The rest are deletes.
+ *       The default 40/40/20 mirrors a pipeline that stores a Cas, reads it back once or twice,
+ *       and deletes it.
+ * </ul>
+ */
+public class CasRepositoryServiceLoadHarness extends RestTest {
+  public static final int REDIS_PORT = 12345;
+  public static final String REDIS_URL = "redis://localhost:" + String.valueOf(REDIS_PORT);
+  public static final int MONGODB_PORT = 12346;
+  public static final String MONGODB_URL = "mongodb://localhost:" + String.valueOf(MONGODB_PORT);
+  public static final String REPO_DATABASE = "loadrepo";
+  public static final String REPO_COLLECTION = "loadcollection";
+  public static final String METADATA_DATABASE = "loadmetadata";
+
+  private static final int RATE = Integer.getInteger("load.rate", 200);
+  private static final int WARMUP_SECS = Integer.getInteger("load.warmupSecs", 10);
+  private static final int DURATION_SECS = Integer.getInteger("load.durationSecs", 30);
+  private static final int PAYLOAD_MEDIAN_BYTES =
+      Integer.getInteger("load.payloadMedianBytes", 64 * 1024);
+  private static final double PAYLOAD_SIGMA =
+      Double.parseDouble(System.getProperty("load.payloadSigma", "1.0"));
+  private static final int MAX_PAYLOAD_BYTES = 16 * 1024 * 1024;
+  private static final double STORE_RATIO =
+      Double.parseDouble(System.getProperty("load.storeRatio", "0.4"));
+  private static final double GET_RATIO =
+      Double.parseDouble(System.getProperty("load.getRatio", "0.4"));
+
+  private static RedisServer redisServer;
+  private static EmbeddedMongoDB mongoDbServer;
+
+  private final ConcurrentLinkedDeque<String> storedCasIds = new ConcurrentLinkedDeque<String>();
+  private final Map<String, Recorder> recorders = new HashMap<String, Recorder>();
+  private final AtomicLong errors = new AtomicLong();
+
+  @BeforeAll
+  public static void setupServers() {
+    mongoDbServer = EmbeddedMongoDB.create().withPort(MONGODB_PORT).start();
+    redisServer = new RedisServer(REDIS_PORT);
+    redisServer.start();
+
+    Map<String, String> queries = new HashMap<String, String>();
+    queries.put(
+        MetadataStoreQueries.QUERY_KEY_PREPROCESSOR,
+        METADATA_DATABASE + "," + MetadataStoreQueries.QUERY_KEY_PREPROCESSOR);
+
+    JedisPooled client = new JedisPooled(REDIS_URL);
+    client.set(Cache.KEY_REPOSITORY_URL, MONGODB_URL);
+    client.set(Cache.KEY_MONGODB_REPOSITORY_DATABASE, REPO_DATABASE);
+    client.set(Cache.KEY_MONGODB_REPOSITORY_COLLECTION, REPO_COLLECTION);
+    client.set(Cache.KEY_METDATA_STORE_URL, MONGODB_URL);
+    client.hset(Cache.KEY_METDATA_STORE_QUERIES, queries);
+    client.close();
+  }
+
+  @AfterAll
+  public static void teardownServers() {
+    MongoClient client = MongoClients.create(MONGODB_URL);
+    client.getDatabase(REPO_DATABASE).drop();
+    client.getDatabase(METADATA_DATABASE).drop();
+    client.close();
+
+    mongoDbServer.stop();
+    redisServer.stop();
+  }
+
+  @Override
+  protected ResourceConfig configure() {
+    ResourceConfig config = new ResourceConfig(CasRepositoryServiceResource.class);
+    config.register(ProtobufMessageBodyHandler.class);
+
+    return config;
+  }
+
+  @Override
+  protected void configureClient(ClientConfig config) {
+    config.register(ProtobufMessageBodyHandler.class);
+  }
+
+  @Test
+  public void runLoad() throws Exception {
+    recorders.put("store", new Recorder(3));
+    recorders.put("get", new Recorder(3));
+    recorders.put("delete", new Recorder(3));
+
+    System.out.printf(
+        "Warming up for %d s at %d req/s (median payload %d bytes).%n",
+        WARMUP_SECS, RATE, PAYLOAD_MEDIAN_BYTES);
+    drive(WARMUP_SECS);
+    for (Recorder recorder : recorders.values()) {
+      recorder.reset();
+    }
+    errors.set(0L);
+
+    ServerStats before = ServerStats.capture();
+    long completed = drive(DURATION_SECS);
+    ServerStats after = ServerStats.capture();
+
+    System.out.printf(
+        "Completed %d requests in %d s: %.1f req/s, %d errors.%n",
+        completed, DURATION_SECS, (double) completed / DURATION_SECS, errors.get());
+    for (Map.Entry<String, Recorder> entry : recorders.entrySet()) {
+      Histogram histogram = entry.getValue().getIntervalHistogram();
+      System.out.printf(
+          "%-6s n=%d p50=%.2f ms p90=%.2f ms p99=%.2f ms p99.9=%.2f ms max=%.2f ms%n",
+          entry.getKey(),
+          histogram.getTotalCount(),
+          histogram.getValueAtPercentile(50.0) / 1e6,
+          histogram.getValueAtPercentile(90.0) / 1e6,
+          histogram.getValueAtPercentile(99.0) / 1e6,
+          histogram.getValueAtPercentile(99.9) / 1e6,
+          histogram.getMaxValue() / 1e6);
+    }
+    System.out.printf(
+        "Server: %.1f MB allocated by Grizzly threads (%.1f KB/request); JVM: %d GCs, %d ms.%n",
+        (after.allocatedBytes - before.allocatedBytes) / 1e6,
+        (after.allocatedBytes - before.allocatedBytes) / 1e3 / Math.max(1L, completed),
+        after.gcCount - before.gcCount,
+        after.gcTimeMillis - before.gcTimeMillis);
+
+    assertEquals(0L, errors.get());
+  }
+
+  /**
+   * Issues requests on a Poisson schedule for a period of time.
+   *
+   * @param durationSecs how long to issue requests for.
+   * @return the number of requests that completed.
+   */
+  private long drive(int durationSecs) throws InterruptedException {
+    ExecutorService workers = Executors.newCachedThreadPool();
+    Random random = new Random(19L);
+    AtomicLong completed = new AtomicLong();
+    double meanIntervalNanos = 1e9 / RATE;
+    long start = System.nanoTime();
+    long end = start + TimeUnit.SECONDS.toNanos(durationSecs);
+    long intendedStart = start;
+
+    while (intendedStart < end) {
+      long now = System.nanoTime();
+      if (intendedStart > now) {
+        LockSupport.parkNanos(intendedStart - now);
+      }
+
+      final long scheduled = intendedStart;
+      final double draw = random.nextDouble();
+      final int payloadSize = nextPayloadSize(random);
+      workers.execute(
+          () -> {
+            String operation = issue(draw, payloadSize);
+            // Measure from the scheduled start, not the actual start, so that requests delayed
+            // by a stalled server count the time they spent waiting.
+            recorders.get(operation).recordValue(System.nanoTime() - scheduled);
+            completed.incrementAndGet();
+          });
+
+      intendedStart += (long) (-Math.log(1.0 - random.nextDouble()) * meanIntervalNanos);
+    }
+
+    workers.shutdown();
+    workers.awaitTermination(1, TimeUnit.MINUTES);
+    return completed.get();
+  }
+
+  private String issue(double draw, int payloadSize) {
+    try {
+      if (draw >= STORE_RATIO) {
+        String casId =
+            (draw < STORE_RATIO + GET_RATIO) ? storedCasIds.peekLast() : storedCasIds.pollFirst();
+
+        if (casId != null) {
+          boolean isGet = draw < STORE_RATIO + GET_RATIO;
+          Message request =
+              Message.newBuilder().setCas(Cas.newBuilder().setCasId(casId).build()).build();
+          Message response =
+              target(isGet ? "/rest/get" : "/rest/delete")
+                  .request()
+                  .post(Entity.entity(request, MediaTypes.APPLICATION_XPROTOBUF), Message.class);
+          isOk(response);
+          return isGet ? "get" : "delete";
+        }
+      }
+
+      byte[] payload = new byte[payloadSize];
+      ThreadLocalPayloads.fill(payload);
+      CRC32 crc32 = new CRC32();
+      crc32.update(payload, 0, payload.length);
+
+      Message request =
+          Message.newBuilder()
+              .setCas(
+                  Cas.newBuilder()
+                      .setDocumentId("docId")
+                      .setCrc32Checksum(crc32.getValue())
+                      .setCasData(ByteString.copyFrom(payload))
+                      .build())
+              .setMetadataQueryKey(MetadataStoreQueries.QUERY_KEY_PREPROCESSOR)
+              .build();
+      Message response =
+          target("/rest/store")
+              .request()
+              .post(Entity.entity(request, MediaTypes.APPLICATION_XPROTOBUF), Message.class);
+
+      if (isOk(response)) {
+        storedCasIds.addLast(response.getCas().getCasId());
+      }
+      return "store";
+    } catch (RuntimeException e) {
+      errors.incrementAndGet();
+      return "store";
+    }
+  }
+
+  private boolean isOk(Message response) {
+    if (response.getStatusCode() != MessageCodes.OK) {
+      errors.incrementAndGet();
+      return false;
+    }
+
+    return true;
+  }
+
+  private static int nextPayloadSize(Random random) {
+    double size = PAYLOAD_MEDIAN_BYTES * Math.exp(PAYLOAD_SIGMA * random.nextGaussian());
+    return (int) Math.max(1.0, Math.min(MAX_PAYLOAD_BYTES, size));
+  }
+
+  /** Fills payloads with cheap, thread-confined pseudo-random bytes. */
+  private static final class ThreadLocalPayloads {
+    private static final ThreadLocal<Random> RANDOM = ThreadLocal.withInitial(Random::new);
+
+    private static void fill(byte[] payload) {
+      RANDOM.get().nextBytes(payload);
+    }
+  }
+
+  /** A snapshot of the allocation and GC counters of the server side of the JVM. */
+  private static final class ServerStats {
+    private long allocatedBytes;
+    private long gcCount;
+    private long gcTimeMillis;
+
+    private static ServerStats capture() {
+      ServerStats stats = new ServerStats();
+      com.sun.management.ThreadMXBean threads =
+          (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+      long[] threadIds = threads.getAllThreadIds();
+      long[] allocated = threads.getThreadAllocatedBytes(threadIds);
+      ThreadInfo[] infos = threads.getThreadInfo(threadIds);
+
+      for (int i = 0; i < threadIds.length; i++) {
+        if ((infos[i] != null)
+            && (allocated[i] > 0L)
+            && infos[i].getThreadName().startsWith("grizzly")) {
+          stats.allocatedBytes += allocated[i];
+        }
+      }
+
+      // GC is shared by the whole JVM, so the counts include the load generator.
+      for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+        stats.gcCount += Math.max(0L, collector.getCollectionCount());
+        stats.gcTimeMillis += Math.max(0L, collector.getCollectionTime());
+      }
+
+      return stats;
+    }
+  }
+}
@@ -0,0 +1,596 @@
+package com.revistek.web.resources;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+import com.google.protobuf.ByteString;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.revistek.crs.constants.Cache;
+import com.revistek.crs.constants.MetadataStoreQueries;
+import com.revistek.crs.protos.Cas;
+import com.revistek.crs.protos.Message;
+import com.revistek.crs.protos.constants.MessageCodes;
+import com.revistek.crs.protos.net.jersey.ProtobufMessageBodyHandler;
+import com.revistek.net.constants.MediaTypes;
+import com.revistek.web.CasRepositoryServiceResourceConfig;
+import com.revistek.web.CasRepositoryServiceServletContextListener;
+import com.revistek.web.ContentEncodingFilter;
+import com.revistek.web.ZstdEncoder;
+import de.svenkubiak.embeddedmongodb.EmbeddedMongoDB;
+import jakarta.ws.rs.core.HttpHeaders;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.HdrHistogram.Histogram;
+import org.glassfish.grizzly.http.server.HttpServer;
+import org.glassfish.grizzly.http.server.NetworkListener;
+import org.glassfish.grizzly.http2.Http2AddOn;
+import org.glassfish.grizzly.http2.Http2Configuration;
+import org.glassfish.grizzly.servlet.ServletRegistration;
+import org.glassfish.grizzly.servlet.WebappContext;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.servlet.ServletContainer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import redis.clients.jedis.JedisPooled;
+import redis.embedded.RedisServer;
+
+/**
+ * Compares HTTP/1.1 with HTTP/2 and uncompressed with gzip and zstd encoded bodies for the CRS
+ * endpoints. The Jersey app runs on Grizzly with the HTTP/2 add-on, so cleartext connections are
+ * upgraded to HTTP/2 ({@code h2c}) when the client asks, behind a loopback proxy that delays every
+ * segment by a fixed one-way latency to simulate a network between the pipelines and the CRS. The
+ * Cases are XMI and binary serializations shaped like the checkpoints of a pipeline.
+ *
+ * <p>Every combination stores the Cases and then reads them back from a number of concurrent
+ * clients. It reports the throughput, latency percentiles, bytes sent through the proxy, and the
+ * number of connections opened: HTTP/1.1 opens one per in-flight request, while HTTP/2 multiplexes
+ * them over one.
+ *
+ * <p>It is not picked up by the default Surefire includes. Run it explicitly, e.g. {@code mvn test
+ * -Dtest=ContentEncodingBenchmark -Dbench.oneWayDelayMillis=10}. The settings are:
+ *
+ * <ul>
+ *   <li>{@code bench.oneWayDelayMillis} - the simulated one-way latency.
+ *   <li>{@code bench.concurrency} - the number of requests in flight.
+ *   <li>{@code bench.documents} - the number of documents, each stored at every stage.
+ *   <li>{@code bench.rounds} - how many times every Cas is read back.
+ * </ul>
+ */
+public class ContentEncodingBenchmark {
+  public static final int REDIS_PORT = 12345;
+  public static final String REDIS_URL = "redis://localhost:" + String.valueOf(REDIS_PORT);
+  public static final int MONGODB_PORT = 12346;
+  public static final String MONGODB_URL = "mongodb://localhost:" + String.valueOf(MONGODB_PORT);
+  public static final int SERVER_PORT = 12354;
+  public static final int PROXY_PORT = 12355;
+  public static final String REPO_DATABASE = "encodingrepo";
+  public static final String REPO_COLLECTION = "encodingcollection";
+  public static final String METADATA_DATABASE = "encodingmetadata";
+  public static final String IDENTITY = ContentEncodingFilter.IDENTITY;
+  public static final String[] ENCODINGS = {
+    IDENTITY, ContentEncodingFilter.GZIP, ZstdEncoder.ENCODING
+  };
+
+  private static final int ONE_WAY_DELAY_MILLIS = Integer.getInteger("bench.oneWayDelayMillis", 5);
+  private static final int CONCURRENCY = Integer.getInteger("bench.concurrency", 16);
+  private static final int DOCUMENTS = Integer.getInteger("bench.documents", 20);
+  private static final int ROUNDS = Integer.getInteger("bench.rounds", 4);
+  private static final int STAGES = 4;
+  private static final int TYPES = 200;
+  private static final int SOFA_WORDS = 6000;
+  private static final String[] WORDS = {
+    "the", "patient", "was", "given", "mg", "of", "daily", "for", "pain", "and", "reported", "no",
+    "adverse", "effects", "after", "weeks", "treatment", "with", "history", "diabetes"
+  };
+
+  private static RedisServer redisServer;
+  private static EmbeddedMongoDB mongoDbServer;
+  private static WebappContext webapp;
+  private static HttpServer httpServer;
+  private static LatencyProxy proxy;
+
+  @BeforeAll
+  public static void setupServers() throws IOException {
+    mongoDbServer = EmbeddedMongoDB.create().withPort(MONGODB_PORT).start();
+    redisServer = new RedisServer(REDIS_PORT);
+    redisServer.start();
+
+    Map<String, String> queries = new HashMap<String, String>();
+    queries.put(
+        MetadataStoreQueries.QUERY_KEY_PREPROCESSOR,
+        METADATA_DATABASE + "," + MetadataStoreQueries.QUERY_KEY_PREPROCESSOR);
+
+    JedisPooled client = new JedisPooled(REDIS_URL);
+    client.set(Cache.KEY_REPOSITORY_URL, MONGODB_URL);
+    client.set(Cache.KEY_MONGODB_REPOSITORY_DATABASE, REPO_DATABASE);
+    client.set(Cache.KEY_MONGODB_REPOSITORY_COLLECTION, REPO_COLLECTION);
+    client.set(Cache.KEY_METDATA_STORE_URL, MONGODB_URL);
+    client.hset(Cache.KEY_METDATA_STORE_QUERIES, queries);
+    client.close();
+
+    ResourceConfig config = new ResourceConfig(CasRepositoryServiceResource.class);
+    config.register(ProtobufMessageBodyHandler.class);
+    CasRepositoryServiceResourceConfig.registerContentEncoding(config);
+
+    // The same deployment as the Jersey tests, plus the HTTP/2 add-on on the listener.
+    webapp = new WebappContext("crs", "");
+    webapp.addListener(CasRepositoryServiceServletContextListener.class);
+    ServletRegistration servlet = webapp.addServlet("jersey", new ServletContainer(config));
+    servlet.addMapping("/*");
+
+    NetworkListener listener = new NetworkListener("h2c", "localhost", SERVER_PORT);
+    listener.registerAddOn(new Http2AddOn(Http2Configuration.builder().build()));
+    httpServer = new HttpServer();
+    httpServer.addListener(listener);
+    webapp.deploy(httpServer);
+    httpServer.start();
+
+    proxy = new LatencyProxy(PROXY_PORT, SERVER_PORT, ONE_WAY_DELAY_MILLIS);
+  }
+
+  @AfterAll
+  public static void teardownServers() throws IOException {
+    proxy.close();
+    webapp.undeploy();
+    httpServer.shutdownNow();
+
+    MongoClient client = MongoClients.create(MONGODB_URL);
+    client.getDatabase(REPO_DATABASE).drop();
+    client.getDatabase(METADATA_DATABASE).drop();
+    client.close();
+
+    mongoDbServer.stop();
+    redisServer.stop();
+  }
+
+  @Test
+  public void benchmarkXmi() throws Exception {
+    benchmark("xmi", generateCases(false));
+  }
+
+  @Test
+  public void benchmarkBinary() throws Exception {
+    benchmark("binary", generateCases(true));
+  }
+
+  private static void benchmark(String form, List<Cas> cases) throws Exception {
+    long logicalBytes = 0L;
+
+    for (Cas cas : cases) {
+      logicalBytes += cas.getCasData().size();
+    }
+
+    System.out.printf(
+        "%s: %d Cases, %.1f MB, %d ms one-way latency, %d in flight.%n",
+        form, cases.size(), logicalBytes / 1e6, ONE_WAY_DELAY_MILLIS, CONCURRENCY);
+
+    for (HttpClient.Version version :
+        new HttpClient.Version[] {HttpClient.Version.HTTP_1_1, HttpClient.Version.HTTP_2}) {
+      for (String encoding : ENCODINGS) {
+        run(form, cases, version, encoding);
+      }
+    }
+  }
+
+  private static void run(
+      String form, List<Cas> cases, HttpClient.Version version, String encoding)
+      throws Exception {
+    ExecutorService workers = Executors.newFixedThreadPool(CONCURRENCY);
+    ExecutorService clientThreads = Executors.newCachedThreadPool();
+    HttpClient client = HttpClient.newBuilder().version(version).executor(clientThreads).build();
+
+    // A request without a body upgrades the connection, so the Cases are sent over HTTP/2.
+    client.send(
+        HttpRequest.newBuilder(URI.create(proxy.getUrl() + "/rest/get"))
+            .method("OPTIONS", HttpRequest.BodyPublishers.noBody())
+            .build(),
+        HttpResponse.BodyHandlers.discarding());
+
+    long connectionsBefore = proxy.connections.get();
+    long bytesBefore = proxy.bytes.get();
+    Histogram storeLatencies = new Histogram(3);
+    List<String> casIds = new ArrayList<String>(cases.size());
+    long start = System.nanoTime();
+
+    for (String casId :
+        drive(workers, cases.size(), i -> store(client, encoding, cases.get(i)), storeLatencies)) {
+      casIds.add(casId);
+    }
+
+    long stored = System.nanoTime();
+    long storeBytes = proxy.bytes.get() - bytesBefore;
+    Histogram getLatencies = new Histogram(3);
+    List<String> casData =
+        drive(
+            workers,
+            casIds.size() * ROUNDS,
+            i -> get(client, encoding, casIds.get(i % casIds.size())),
+            getLatencies);
+    long read = System.nanoTime();
+    long getBytes = proxy.bytes.get() - bytesBefore - storeBytes;
+
+    for (int i = 0; i < casData.size(); i++) {
+      assertEquals(
+          String.valueOf(cases.get(i % cases.size()).getCrc32Checksum()), casData.get(i));
+    }
+
+    System.out.printf(
+        "  %-8s %-8s store %6.1f req/s p50=%.1f p99=%.1f ms %6.1f MB | "
+            + "get %6.1f req/s p50=%.1f p99=%.1f ms %6.1f MB | %d connections%n",
+        version == HttpClient.Version.HTTP_2 ? "HTTP/2" : "HTTP/1.1",
+        encoding,
+        cases.size() / ((stored - start) / 1e9),
+        storeLatencies.getValueAtPercentile(50.0) / 1e6,
+        storeLatencies.getValueAtPercentile(99.0) / 1e6,
+        storeBytes / 1e6,
+        casData.size() / ((read - stored) / 1e9),
+        getLatencies.getValueAtPercentile(50.0) / 1e6,
+        getLatencies.getValueAtPercentile(99.0) / 1e6,
+        getBytes / 1e6,
+        proxy.connections.get() - connectionsBefore);
+
+    workers.shutdown();
+    clientThreads.shutdown();
+  }
+
+  /** Runs requests from the workers, in parallel, and returns their results in order. */
+  private static List<String> drive(
+      ExecutorService workers, int count, Request request, Histogram latencies)
+      throws Exception {
+    List<Future<String>> futures = new ArrayList<Future<String>>(count);
+
+    for (int i = 0; i < count; i++) {
+      final int index = i;
+      futures.add(
+          workers.submit(
+              () -> {
+                long start = System.nanoTime();
+                String result = request.issue(index);
+                synchronized (latencies) {
+                  latencies.recordValue(System.nanoTime() - start);
+                }
+                return result;
+              }));
+    }
+
+    List<String> results = new ArrayList<String>(count);
+
+    for (Future<String> future : futures) {
+      results.add(future.get());
+    }
+
+    return results;
+  }
+
+  private static String store(HttpClient client, String encoding, Cas cas) throws Exception {
+    Message request =
+        Message.newBuilder()
+            .setCas(cas)
+            .setMetadataQueryKey(MetadataStoreQueries.QUERY_KEY_PREPROCESSOR)
+            .build();
+    Message response = send(client, "/rest/store", encoding, request);
+    return response.getCas().getCasId();
+  }
+
+  private static String get(HttpClient client, String encoding, String casId) throws Exception {
+    Message request =
+        Message.newBuilder().setCas(Cas.newBuilder().setCasId(casId).build()).build();
+    Message response = send(client, "/rest/get", encoding, request);
+    return String.valueOf(response.getCas().getCrc32Checksum());
+  }
+
+  private static Message send(HttpClient client, String path, String encoding, Message message)
+      throws Exception {
+    HttpRequest.Builder request =
+        HttpRequest.newBuilder(URI.create(proxy.getUrl() + path))
+            .header(HttpHeaders.CONTENT_TYPE, MediaTypes.APPLICATION_XPROTOBUF);
+
+    if (IDENTITY.equals(encoding)) {
+      request.POST(HttpRequest.BodyPublishers.ofByteArray(message.toByteArray()));
+    } else {
+      request
+          .header(HttpHeaders.CONTENT_ENCODING, encoding)
+          .header(HttpHeaders.ACCEPT_ENCODING, encoding)
+          .POST(HttpRequest.BodyPublishers.ofByteArray(encode(encoding, message.toByteArray())));
+    }
+
+    HttpResponse<byte[]> response =
+        client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+    String contentEncoding =
+        response.headers().firstValue(HttpHeaders.CONTENT_ENCODING).orElse(IDENTITY);
+    Message reply = Message.parseFrom(decode(contentEncoding, response.body()));
+
+    if (reply.getStatusCode() != MessageCodes.OK) {
+      throw new IllegalStateException(path + " failed: " + reply.getMessage());
+    }
+
+    return reply;
+  }
+
+  private static byte[] encode(String encoding, byte[] data) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 4);
+
+    try (OutputStream output =
+        ContentEncodingFilter.GZIP.equals(encoding)
+            ? new GZIPOutputStream(bytes)
+            : new ZstdOutputStream(bytes, ZstdEncoder.LEVEL)) {
+      output.write(data);
+    }
+
+    return bytes.toByteArray();
+  }
+
+  private static byte[] decode(String encoding, byte[] data) throws IOException {
+    if (IDENTITY.equals(encoding)) {
+      return data;
+    }
+
+    try (InputStream input =
+        ContentEncodingFilter.GZIP.equals(encoding)
+            ? new GZIPInputStream(new ByteArrayInputStream(data))
+            : new ZstdInputStream(new ByteArrayInputStream(data))) {
+      return input.readAllBytes();
+    }
+  }
+
+  /**
+   * Generates the Cases of every stage of every document.
+   *
+   * @param binary true for a binary form, false for XMI.
+   * @return the Cases.
+   */
+  private static List<Cas> generateCases(boolean binary) {
+    Random random = new Random(42);
+    StringBuilder typeSystem = new StringBuilder();
+
+    for (int type = 0; type < TYPES; type++) {
+      typeSystem
+          .append("<typeDescription><name>org.apache.ctakes.typesystem.type.Type")
+          .append(type)
+          .append("</name><supertypeName>uima.tcas.Annotation</supertypeName></typeDescription>");
+    }
+
+    List<Cas> cases = new ArrayList<Cas>(DOCUMENTS * STAGES);
+
+    for (int document = 0; document < DOCUMENTS; document++) {
+      StringBuilder sofa = new StringBuilder();
+      List<int[]> tokens = new ArrayList<int[]>();
+
+      for (int i = 0; i < SOFA_WORDS; i++) {
+        String word = WORDS[random.nextInt(WORDS.length)];
+        tokens.add(new int[] {sofa.length(), sofa.length() + word.length()});
+        sofa.append(word).append(' ');
+      }
+
+      for (int stage = 1; stage <= STAGES; stage++) {
+        ByteString data = serialize(binary, typeSystem, sofa, tokens, stage, random);
+        CRC32 crc32 = new CRC32();
+        crc32.update(data.asReadOnlyByteBuffer());
+
+        cases.add(
+            Cas.newBuilder()
+                .setDocumentId("document" + document)
+                .setCrc32Checksum(crc32.getValue())
+                .setCasData(data)
+                .build());
+      }
+    }
+
+    return cases;
+  }
+
+  /** Each stage adds a layer of annotations over a random tenth of the tokens. */
+  private static ByteString serialize(
+      boolean binary,
+      CharSequence typeSystem,
+      CharSequence sofa,
+      List<int[]> tokens,
+      int stages,
+      Random random) {
+    if (binary) {
+      ByteString.Output output = ByteString.newOutput();
+      byte[] header = (typeSystem.toString() + sofa).getBytes(StandardCharsets.UTF_8);
+      output.write(header, 0, header.length);
+
+      for (int stage = 1; stage <= stages; stage++) {
+        for (int[] token : tokens) {
+          if (random.nextInt(10) == 0) {
+            byte[] fs = new byte[12];
+            writeInt(fs, 0, stage);
+            writeInt(fs, 4, token[0]);
+            writeInt(fs, 8, random.nextInt());
+            output.write(fs, 0, fs.length);
+          }
+        }
+      }
+
+      return output.toByteString();
+    }
+
+    StringBuilder xmi = new StringBuilder();
+    xmi.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?><xmi:XMI xmi:version=\"2.0\">")
+        .append(typeSystem)
+        .append("<cas:Sofa xmi:id=\"1\" sofaNum=\"1\" sofaString=\"")
+        .append(sofa)
+        .append("\"/>");
+    int id = 2;
+
+    for (int stage = 1; stage <= stages; stage++) {
+      for (int[] token : tokens) {
+        if (random.nextInt(10) == 0) {
+          xmi.append("<type:Type")
+              .append(stage)
+              .append(" xmi:id=\"")
+              .append(id++)
+              .append("\" sofa=\"1\" begin=\"")
+              .append(token[0])
+              .append("\" end=\"")
+              .append(token[1])
+              .append("\" confidence=\"0.")
+              .append(random.nextInt(1000))
+              .append("\"/>");
+        }
+      }
+    }
+
+    xmi.append("</xmi:XMI>");
+    return ByteString.copyFrom(xmi.toString(), StandardCharsets.UTF_8);
+  }
+
+  private static void writeInt(byte[] bytes, int offset, int value) {
+    bytes[offset] = (byte) (value >>> 24);
+    bytes[offset + 1] = (byte) (value >>> 16);
+    bytes[offset + 2] = (byte) (value >>> 8);
+    bytes[offset + 3] = (byte) value;
+  }
+
+  private interface Request {
+    String issue(int index) throws Exception;
+  }
+
+  /**
+   * A TCP proxy that forwards every segment after a fixed delay, in each direction. Segments are
+   * queued rather than slept on, so the delay adds latency without limiting the bandwidth.
+   */
+  private static final class LatencyProxy implements Closeable {
+    private final ServerSocket serverSocket;
+    private final int targetPort;
+    private final long delayNanos;
+    private final ExecutorService threads = Executors.newCachedThreadPool();
+    private final ConcurrentLinkedQueue<Socket> sockets = new ConcurrentLinkedQueue<Socket>();
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+
+    private LatencyProxy(int port, int targetPort, long delayMillis) throws IOException {
+      this.serverSocket = new ServerSocket(port, 128, InetAddress.getLoopbackAddress());
+      this.targetPort = targetPort;
+      this.delayNanos = TimeUnit.MILLISECONDS.toNanos(delayMillis);
+      threads.execute(this::accept);
+    }
+
+    private String getUrl() {
+      return "http://localhost:" + serverSocket.getLocalPort();
+    }
+
+    private void accept() {
+      while (!serverSocket.isClosed()) {
+        try {
+          Socket client = serverSocket.accept();
+          Socket server = new Socket(InetAddress.getLoopbackAddress(), targetPort);
+          client.setTcpNoDelay(true);
+          server.setTcpNoDelay(true);
+          sockets.add(client);
+          sockets.add(server);
+          connections.incrementAndGet();
+          pipe(client, server);
+          pipe(server, client);
+        } catch (IOException e) {
+          return;
+        }
+      }
+    }
+
+    private void pipe(Socket from, Socket to) {
+      BlockingQueue<Segment> segments = new LinkedBlockingQueue<Segment>();
+
+      threads.execute(
+          () -> {
+            byte[] buffer = new byte[64 * 1024];
+
+            try (InputStream input = from.getInputStream()) {
+              int read;
+
+              while ((read = input.read(buffer)) >= 0) {
+                byte[] data = new byte[read];
+                System.arraycopy(buffer, 0, data, 0, read);
+                segments.add(new Segment(System.nanoTime() + delayNanos, data));
+              }
+            } catch (IOException e) {
+              // The connection was closed.
+            }
+
+            segments.add(new Segment(System.nanoTime() + delayNanos, null));
+          });
+      threads.execute(
+          () -> {
+            try {
+              OutputStream output = to.getOutputStream();
+
+              while (true) {
+                Segment segment = segments.take();
+                long wait = segment.due - System.nanoTime();
+
+                if (wait > 0L) {
+                  LockSupport.parkNanos(wait);
+                }
+
+                if (segment.data == null) {
+                  to.shutdownOutput();
+                  return;
+                }
+
+                output.write(segment.data);
+                output.flush();
+                bytes.addAndGet(segment.data.length);
+              }
+            } catch (IOException | InterruptedException e) {
+              // The connection was closed or the proxy was stopped.
+            }
+          });
+    }
+
+    @Override
+    public void close() throws IOException {
+      serverSocket.close();
+
+      for (Socket socket : sockets) {
+        socket.close();
+      }
+
+      threads.shutdownNow();
+    }
+
+    private static final class Segment {
+      private final long due;
+      private final byte[] data;
+
+      private Segment(long due, byte[] data) {
+        this.due = due;
+        this.data = data;
+      }
+    }
+  }
+}
@@ -2,6 +2,7 @@ package com.revistek.web.resources;
 
 import static org.junit.Assert.assertTrue;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 
 import com.google.protobuf.ByteString;
 import com.mongodb.client.MongoClient;
@@ -19,8 +20,12 @@ import com.revistek.crs.protos.net.jersey.ProtobufMessageBodyHandler;
 import com.revistek.net.constants.MediaTypes;
 import com.revistek.net.constants.StatusCodes;
 import com.revistek.util.constants.MongoDbDocument;
+import com.revistek.web.CasRepositoryServiceResourceConfig;
+import com.revistek.web.ContentEncodingFilter;
+import com.revistek.web.ZstdEncoder;
 import de.svenkubiak.embeddedmongodb.EmbeddedMongoDB;
 import jakarta.ws.rs.client.Entity;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.Response;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
@@ -31,6 +36,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.bson.Document;
 import org.bson.conversions.Bson;
 import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.message.GZipEncoder;
 import org.glassfish.jersey.server.ResourceConfig;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
@@ -130,15 +136,18 @@ public class TestCasRepositoryServiceResource extends RestTest {
 
   @Override
   protected ResourceConfig configure() {
-    ResourceConfig config = new ResourceConfig(CasRepositoryServiceResource.class);
+    ResourceConfig config =
+        new ResourceConfig(CasRepositoryServiceResource.class, MetricsResource.class);
     config.register(ProtobufMessageBodyHandler.class);
 
-    return config;
+    return CasRepositoryServiceResourceConfig.registerContentEncoding(config);
   }
 
   @Override
   protected void configureClient(ClientConfig config) {
     config.register(ProtobufMessageBodyHandler.class);
+    config.register(GZipEncoder.class);
+    config.register(ZstdEncoder.class);
   }
 
   @Test
@@ -232,6 +241,27 @@ public class TestCasRepositoryServiceResource extends RestTest {
     metadataCollection.deleteMany(filter);
   }
 
+  @Test
+  public void testStoreChecksumMismatch() {
+    ByteString data = ByteString.copyFrom("test", StandardCharsets.UTF_8);
+    Cas cas = Cas.newBuilder().setDocumentId("docId").setCrc32Checksum(1L).setCasData(data).build();
+    Message outMessage =
+        Message.newBuilder()
+            .setCas(cas)
+            .setMetadataQueryKey(MetadataStoreQueries.QUERY_KEY_PREPROCESSOR)
+            .build();
+    Response response =
+        target("/rest/store")
+            .request()
+            .post(Entity.entity(outMessage, MediaTypes.APPLICATION_XPROTOBUF));
+    assertEquals(StatusCodes.OK, response.getStatus());
+
+    // A Cas damaged by its sender is rejected as invalid, not as a failure of the repository.
+    Message returnMessage = response.readEntity(Message.class);
+    assertEquals(MessageCodes.INVALID_MESSAGE, returnMessage.getStatusCode());
+    assertEquals(MessageExceptions.ILLEGAL_ARGUMENT, returnMessage.getExceptionType());
+  }
+
   @Test
   public void testDeleteNoCas() {
     Message outMessage = Message.newBuilder().setMessage("HI").build();
@@ -380,4 +410,91 @@ public class TestCasRepositoryServiceResource extends RestTest {
     repoCollection.deleteMany(filter);
     metadataCollection.deleteMany(filter);
   }
+
+  @Test
+  public void testGetCompressed() {
+    MongoClient client = MongoClients.create(MONGODB_URL);
+    MongoCollection<Document> repoCollection =
+        client.getDatabase(REPO_DATABASE).getCollection(REPO_COLLECTION);
+    MongoCollection<Document> metadataCollection =
+        client.getDatabase(METADATA_DATABASE).getCollection(METADATA_COLLECTION_PREPROCESSOR);
+
+    String text = StringUtils.repeat("<type:Token begin=\"0\" end=\"4\"/>", 200);
+    ByteString data = ByteString.copyFrom(text, StandardCharsets.UTF_8);
+    byte[] dataBytes = data.toByteArray();
+    Checksum crc32 = new CRC32();
+    crc32.update(dataBytes, 0, dataBytes.length);
+
+    Cas cas =
+        Cas.newBuilder()
+            .setDocumentId("docId")
+            .setCrc32Checksum(crc32.getValue())
+            .setCasData(data)
+            .build();
+    Message outMessage =
+        Message.newBuilder()
+            .setCas(cas)
+            .setMetadataQueryKey(MetadataStoreQueries.QUERY_KEY_PREPROCESSOR)
+            .build();
+    Response response =
+        target("/rest/store")
+            .request()
+            .header(HttpHeaders.CONTENT_ENCODING, ContentEncodingFilter.GZIP)
+            .post(Entity.entity(outMessage, MediaTypes.APPLICATION_XPROTOBUF));
+    assertEquals(StatusCodes.OK, response.getStatus());
+    assertNull(response.getHeaderString(HttpHeaders.CONTENT_ENCODING));
+
+    Message returnMessage = response.readEntity(Message.class);
+    assertEquals(MessageCodes.OK, returnMessage.getStatusCode());
+
+    Bson filter = Filters.eq(MongoDbDocument.CASID_FIELD_KEY, returnMessage.getCas().getCasId());
+    final Message getMessage =
+        Message.newBuilder()
+            .setCas(Cas.newBuilder().setCasId(returnMessage.getCas().getCasId()).build())
+            .build();
+
+    for (String encoding : new String[] {ZstdEncoder.ENCODING, ContentEncodingFilter.GZIP}) {
+      Response getResponse =
+          target("/rest/get")
+              .request()
+              .header(HttpHeaders.ACCEPT_ENCODING, encoding + ", identity;q=0.5")
+              .post(Entity.entity(getMessage, MediaTypes.APPLICATION_XPROTOBUF));
+      assertEquals(StatusCodes.OK, getResponse.getStatus());
+      assertEquals(encoding, getResponse.getHeaderString(HttpHeaders.CONTENT_ENCODING));
+
+      Message returnGetMessage = getResponse.readEntity(Message.class);
+      assertEquals(MessageCodes.OK, returnGetMessage.getStatusCode());
+      assertEquals(data, returnGetMessage.getCas().getCasData());
+    }
+
+    repoCollection.deleteMany(filter);
+    metadataCollection.deleteMany(filter);
+  }
+
+  @Test
+  public void testStoreUnsupportedEncoding() {
+    Message outMessage = Message.newBuilder().setMessage("HI").build();
+    Response response =
+        target("/rest/store")
+            .request()
+            .header(HttpHeaders.CONTENT_ENCODING, "br")
+            .post(Entity.entity(outMessage, MediaTypes.APPLICATION_XPROTOBUF));
+    assertEquals(Response.Status.UNSUPPORTED_MEDIA_TYPE.getStatusCode(), response.getStatus());
+  }
+
+  @Test
+  public void testMetrics() {
+    Message outMessage = Message.newBuilder().setMessage("HI").build();
+    target("/rest/get")
+        .request()
+        .post(Entity.entity(outMessage, MediaTypes.APPLICATION_XPROTOBUF));
+
+    Response response = target("/metrics").request().get();
+    assertEquals(StatusCodes.OK, response.getStatus());
+
+    String metrics = response.readEntity(String.class);
+    assertTrue(metrics.contains("crs_endpoint_requests_seconds_count{endpoint=\"get\""));
+    assertTrue(
+        metrics.contains("crs_endpoint_errors_total{endpoint=\"get\",stage=\"validation\""));
+  }
 }